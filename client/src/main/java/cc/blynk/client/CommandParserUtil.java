@@ -40,6 +40,7 @@ import static cc.blynk.server.core.protocol.enums.Command.GET_SHARE_TOKEN;
 import static cc.blynk.server.core.protocol.enums.Command.GET_TAGS;
 import static cc.blynk.server.core.protocol.enums.Command.GET_WIDGET;
 import static cc.blynk.server.core.protocol.enums.Command.HARDWARE;
+import static cc.blynk.server.core.protocol.enums.Command.HARDWARE_BATCH;
 import static cc.blynk.server.core.protocol.enums.Command.HARDWARE_LOGIN;
 import static cc.blynk.server.core.protocol.enums.Command.HARDWARE_RESEND_FROM_BLUETOOTH;
 import static cc.blynk.server.core.protocol.enums.Command.HARDWARE_SYNC;
@@ -85,6 +86,8 @@ public final class CommandParserUtil {
         switch (stringCommand.toLowerCase()) {
             case "hardware" :
                 return HARDWARE;
+            case "hardwarebatch" :
+                return HARDWARE_BATCH;
             case "hardwarebt" :
                 return HARDWARE_RESEND_FROM_BLUETOOTH;
             case "ping" :
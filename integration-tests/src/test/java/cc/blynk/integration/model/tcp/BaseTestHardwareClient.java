@@ -3,6 +3,7 @@ package cc.blynk.integration.model.tcp;
 import cc.blynk.client.core.BaseClient;
 import cc.blynk.integration.TestUtil;
 import cc.blynk.integration.model.SimpleClientHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
 import org.mockito.Mockito;
 
 import java.util.Random;
@@ -26,6 +27,11 @@ public abstract class BaseTestHardwareClient extends BaseClient {
         super(host, port, messageIdGenerator);
     }
 
+    public BaseTestHardwareClient(String host, int port, Random messageIdGenerator,
+                                  NioEventLoopGroup nioEventLoopGroup) {
+        super(host, port, messageIdGenerator, nioEventLoopGroup);
+    }
+
     public void never(Object exceptedResult) throws Exception {
         verify(responseMock, Mockito.never()).channelRead(any(), eq(exceptedResult));
     }
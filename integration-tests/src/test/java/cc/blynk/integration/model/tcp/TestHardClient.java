@@ -27,8 +27,7 @@ public class TestHardClient extends BaseTestHardwareClient {
     }
 
     public TestHardClient(String host, int port, NioEventLoopGroup nioEventLoopGroup) {
-        super(host, port, Mockito.mock(Random.class));
-        this.nioEventLoopGroup = nioEventLoopGroup;
+        super(host, port, Mockito.mock(Random.class), nioEventLoopGroup);
     }
 
     @Override
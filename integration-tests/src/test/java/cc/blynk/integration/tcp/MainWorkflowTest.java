@@ -416,6 +416,25 @@ public class MainWorkflowTest extends SingleServerInstancePerTest {
         clientPair.hardwareClient.never(illegalCommand(2));
     }
 
+    @Test
+    public void testHardwareBatchForwardedToAppAsSeparateMessages() throws Exception {
+        clientPair.hardwareClient.send("hardwareBatch vw 1 100 vw 2 200 dw 3 1");
+        verify(clientPair.appClient.responseMock, timeout(500)).channelRead(any(), eq(hardware(1, "1-0 vw 1 100")));
+        verify(clientPair.appClient.responseMock, timeout(500)).channelRead(any(), eq(hardware(1, "1-0 vw 2 200")));
+        verify(clientPair.appClient.responseMock, timeout(500)).channelRead(any(), eq(hardware(1, "1-0 dw 3 1")));
+        clientPair.hardwareClient.never(illegalCommand(1));
+    }
+
+    @Test
+    public void testWrongHardwareBatchRejectedAsWhole() throws Exception {
+        clientPair.hardwareClient.send("hardwareBatch vw 1 100 vw 2");
+        clientPair.hardwareClient.verifyResult(illegalCommand(1));
+        clientPair.hardwareClient.send("hardwareBatch vw 1 100 vr 2 200");
+        clientPair.hardwareClient.verifyResult(illegalCommand(2));
+        clientPair.appClient.neverAfter(300, hardware(1, "1-0 vw 1 100"));
+        clientPair.appClient.never(hardware(2, "1-0 vw 1 100"));
+    }
+
     @Test
     public void testNoEnergyDrainForBusinessApps() throws Exception {
         TestAppClient appClient = new TestAppClient(properties);
@@ -1300,10 +1319,10 @@ public class MainWorkflowTest extends SingleServerInstancePerTest {
     public void testTryReachQuotaLimit() throws Exception {
         String body = "aw 100 100";
 
-        //within 1 second sending more messages than default limit 100.
+        //sending more messages than default burst 100 plus 100 messages per second refill.
         for (int i = 0; i < 200; i++) {
             clientPair.hardwareClient.send("hardware " + body);
-            TestUtil.sleep(5);
+            TestUtil.sleep(1);
         }
 
         ArgumentCaptor<ResponseMessage> objectArgumentCaptor = ArgumentCaptor.forClass(ResponseMessage.class);
@@ -0,0 +1,150 @@
+package cc.blynk.integration.tcp;
+
+import cc.blynk.integration.CounterBase;
+import cc.blynk.integration.TestUtil;
+import cc.blynk.integration.model.tcp.ClientPair;
+import cc.blynk.integration.model.tcp.TestHardClient;
+import cc.blynk.server.Holder;
+import cc.blynk.server.core.dao.UserKey;
+import cc.blynk.server.core.model.DashBoard;
+import cc.blynk.server.core.model.auth.Session;
+import cc.blynk.server.core.model.auth.User;
+import cc.blynk.server.core.model.device.BoardType;
+import cc.blynk.server.core.model.device.Device;
+import cc.blynk.server.core.protocol.model.messages.StringMessage;
+import cc.blynk.server.hardware.handlers.hardware.HardwareHandler;
+import cc.blynk.server.servers.BaseServer;
+import cc.blynk.server.servers.application.MobileAndHttpsServer;
+import cc.blynk.server.servers.hardware.HardwareAndHttpAPIServer;
+import cc.blynk.utils.AppNameUtil;
+import cc.blynk.utils.properties.ServerProperties;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.EventLoop;
+import io.netty.channel.nio.NioEventLoopGroup;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import static cc.blynk.integration.TestUtil.createDefaultHolder;
+import static cc.blynk.integration.TestUtil.ok;
+import static cc.blynk.server.core.protocol.enums.Command.HARDWARE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+/**
+ * One user with 5000 hardware connections. Sockets stay on the event loops they were accepted by,
+ * while logic of all of them is handed off to the single session loop, as profile of the user
+ * is not thread safe.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class SessionHandOffLoadTest extends CounterBase {
+
+    private static final int HARDWARE_CLIENTS = 5000;
+    private static final int WORKER_THREADS = 4;
+
+    private static ServerProperties properties;
+    private static BaseServer appServer;
+    private static BaseServer hardwareServer;
+    private static Holder holder;
+
+    private ClientPair clientPair;
+    private NioEventLoopGroup sharedNioEventLoopGroup;
+
+    @BeforeClass
+    public static void init() throws Exception {
+        properties = new ServerProperties(Collections.emptyMap());
+        properties.setProperty("data.folder", TestUtil.getDataFolder());
+        properties.setProperty("server.worker.threads", "" + WORKER_THREADS);
+        properties.setProperty("app.outbound.queue.limit", "" + HARDWARE_CLIENTS);
+        holder = createDefaultHolder(properties, "no-db.properties");
+        hardwareServer = new HardwareAndHttpAPIServer(holder).start();
+        appServer = new MobileAndHttpsServer(holder).start();
+    }
+
+    @AfterClass
+    public static void shutdown() {
+        appServer.close();
+        hardwareServer.close();
+        holder.close();
+    }
+
+    @Before
+    public void initClients() throws Exception {
+        this.clientPair = TestUtil.initAppAndHardPair("localhost",
+                properties.getHttpsPort(), properties.getHttpPort(),
+                getUserName(), "1", "user_profile_json.txt", properties, 10000);
+        this.sharedNioEventLoopGroup = new NioEventLoopGroup(2);
+    }
+
+    @After
+    public void closeClients() {
+        clientPair.stop();
+        sharedNioEventLoopGroup.shutdownGracefully();
+    }
+
+    @Test
+    public void oneUserWithThousandsOfDevicesIsProcessedBySessionLoop() throws Exception {
+        User user = holder.userDao.getByName(getUserName(), AppNameUtil.BLYNK);
+        DashBoard dash = user.profile.getDashByIdOrThrow(1);
+
+        Device[] devices = new Device[HARDWARE_CLIENTS + 1];
+        devices[0] = dash.devices[0];
+        for (int i = 1; i <= HARDWARE_CLIENTS; i++) {
+            devices[i] = new Device(i, "Device " + i, BoardType.ESP8266);
+        }
+        dash.devices = devices;
+        for (int i = 1; i <= HARDWARE_CLIENTS; i++) {
+            holder.tokenManager.assignToken(user, dash, devices[i], "token" + i);
+        }
+
+        TestHardClient[] hardClients = new TestHardClient[HARDWARE_CLIENTS];
+        for (int i = 0; i < HARDWARE_CLIENTS; i++) {
+            hardClients[i] = new TestHardClient("localhost", properties.getHttpPort(), sharedNioEventLoopGroup);
+            hardClients[i].start();
+            hardClients[i].login("token" + (i + 1));
+        }
+        for (TestHardClient hardClient : hardClients) {
+            verify(hardClient.responseMock, timeout(10000)).channelRead(any(), eq(ok(1)));
+        }
+
+        Session session = holder.sessionDao.get(new UserKey(user));
+        assertEquals(HARDWARE_CLIENTS + 1, session.hardwareChannels.size());
+        for (int i = 1; i <= HARDWARE_CLIENTS; i++) {
+            assertTrue(session.isHardwareConnected(1, i));
+        }
+        Set<EventLoop> socketLoops = new HashSet<>();
+        for (Channel channel : session.hardwareChannels) {
+            socketLoops.add(channel.eventLoop());
+            ChannelHandlerContext logicCtx = channel.pipeline().context(HardwareHandler.class);
+            assertSame(session.initialEventLoop, logicCtx.executor());
+        }
+        assertTrue(socketLoops.size() > 1);
+
+        for (int i = 0; i < HARDWARE_CLIENTS; i++) {
+            hardClients[i].send("hardware vw 1 " + i);
+        }
+        verify(clientPair.appClient.responseMock, timeout(30000).times(HARDWARE_CLIENTS))
+                .channelRead(any(), argThat(msg -> msg instanceof StringMessage
+                        && ((StringMessage) msg).command == HARDWARE));
+    }
+
+}
@@ -16,7 +16,6 @@ import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
-import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * The Blynk Project.
@@ -26,7 +25,7 @@ import java.util.concurrent.ConcurrentHashMap;
 public class ProjectTokenGenerator {
 
     public static void main(String[] args) throws Exception {
-        TokenManager tokenManager = new TokenManager(new ConcurrentHashMap<>(), null, "");
+        TokenManager tokenManager = new TokenManager(null, "");
         String email = "dmitriy@blynk.cc";
         String pass = "b";
         String appName = AppNameUtil.BLYNK;
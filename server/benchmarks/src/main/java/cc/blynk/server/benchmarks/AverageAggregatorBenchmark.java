@@ -0,0 +1,92 @@
+package cc.blynk.server.benchmarks;
+
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.reporting.average.AverageAggregatorProcessor;
+import cc.blynk.server.core.reporting.raw.BaseReportingKey;
+import cc.blynk.utils.AppNameUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Aggregation of the single pin value into minute, hourly and daily series.
+ * Values come for the given number of series with growing timestamps,
+ * so aggregation entries are created and updated as they would be on the live server.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 10, time = 1, timeUnit = TimeUnit.SECONDS)
+public class AverageAggregatorBenchmark {
+
+    @Param({"100", "10000"})
+    public int series;
+
+    private Path dataFolder;
+    private AverageAggregatorProcessor aggregator;
+    private BaseReportingKey[] keys;
+    private long ts;
+    private int keyIndex;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        dataFolder = Files.createTempDirectory("blynk_benchmark");
+        aggregator = new AverageAggregatorProcessor(dataFolder.toString());
+        keys = new BaseReportingKey[series];
+        for (int i = 0; i < series; i++) {
+            keys[i] = new BaseReportingKey(ProfileGenerator.EMAIL, AppNameUtil.BLYNK,
+                    1, i / 16, PinType.VIRTUAL, (short) (i % 16));
+        }
+        ts = System.currentTimeMillis();
+    }
+
+    @Setup(Level.Iteration)
+    public void clear() {
+        //old entries are flushed by reporting worker on the live server
+        aggregator.getMinute().clear();
+        aggregator.getHourly().clear();
+        aggregator.getDaily().clear();
+    }
+
+    @Benchmark
+    public void collect() {
+        int i = keyIndex++;
+        if (keyIndex == series) {
+            keyIndex = 0;
+        }
+        //every series gets a new value once per second
+        aggregator.collect(keys[i], ts + (i * 1000L / series), i);
+        if (keyIndex == 0) {
+            ts += 1000;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        clear();
+        aggregator.close();
+        Files.deleteIfExists(dataFolder);
+    }
+
+}
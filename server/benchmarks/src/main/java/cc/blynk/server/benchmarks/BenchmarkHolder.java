@@ -0,0 +1,66 @@
+package cc.blynk.server.benchmarks;
+
+import cc.blynk.server.Holder;
+import cc.blynk.server.core.model.DashBoard;
+import cc.blynk.server.core.model.auth.User;
+import cc.blynk.server.core.model.device.Device;
+import cc.blynk.utils.FileUtils;
+import cc.blynk.utils.properties.GCMProperties;
+import cc.blynk.utils.properties.MailProperties;
+import cc.blynk.utils.properties.ServerProperties;
+import cc.blynk.utils.properties.SmsProperties;
+import cc.blynk.utils.properties.TwitterProperties;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Server holder with default server.properties and own temporary data folder.
+ * Message quota is disabled, so benchmarks measure processing and not the limiter.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+public final class BenchmarkHolder implements AutoCloseable {
+
+    public final Holder holder;
+    private final Path dataFolder;
+
+    public BenchmarkHolder() throws IOException {
+        this.dataFolder = Files.createTempDirectory("blynk_benchmark");
+        Map<String, String> props = new HashMap<>();
+        props.put("data.folder", dataFolder.toString());
+        props.put("user.message.quota.limit", String.valueOf(Integer.MAX_VALUE));
+        Map<String, String> empty = Collections.emptyMap();
+        this.holder = new Holder(new ServerProperties(props), new MailProperties(empty),
+                new SmsProperties(empty), new GCMProperties(empty), new TwitterProperties(empty), false);
+    }
+
+    /**
+     * Adds user to the server, so its devices are able to log in with own tokens.
+     */
+    public void addUser(User user) {
+        holder.userDao.add(user);
+        for (DashBoard dash : user.profile.dashBoards) {
+            for (Device device : dash.devices) {
+                holder.tokenManager.updateRegularCache(device.token, user, dash, device);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        holder.close();
+        try (Stream<Path> walk = Files.walk(dataFolder)) {
+            walk.sorted(Comparator.reverseOrder()).forEach(FileUtils::deleteQuietly);
+        }
+    }
+
+}
@@ -0,0 +1,181 @@
+package cc.blynk.server.benchmarks;
+
+import cc.blynk.server.Holder;
+import cc.blynk.server.application.handlers.main.MobileHandler;
+import cc.blynk.server.application.handlers.main.auth.MobileStateHolder;
+import cc.blynk.server.application.handlers.main.auth.OsType;
+import cc.blynk.server.application.handlers.main.auth.Version;
+import cc.blynk.server.core.model.DashBoard;
+import cc.blynk.server.core.model.auth.Session;
+import cc.blynk.server.core.model.auth.User;
+import cc.blynk.server.core.model.device.Device;
+import cc.blynk.server.core.dao.UserKey;
+import cc.blynk.server.core.protocol.enums.Command;
+import cc.blynk.server.core.protocol.handlers.FlushConsolidator;
+import cc.blynk.server.core.protocol.handlers.decoders.MessageDecoder;
+import cc.blynk.server.core.protocol.handlers.encoders.AppOutboundQueue;
+import cc.blynk.server.core.protocol.handlers.encoders.MessageEncoder;
+import cc.blynk.server.core.protocol.handlers.encoders.MobileMessageEncoder;
+import cc.blynk.server.core.session.HardwareStateHolder;
+import cc.blynk.server.hardware.handlers.hardware.HardwareHandler;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.ReferenceCountUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * End-to-end path of the hardware virtual write : frame decoding, hardware handler and logic,
+ * reporting aggregation, fan-out to the connected app and encoding of the app message.
+ * Channels are embedded, so network is not involved, while pipelines are the same as in the servers.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 10, time = 1, timeUnit = TimeUnit.SECONDS)
+public class HardwarePipelineBenchmark {
+
+    private static final int FRAMES = 1024;
+
+    @Param({"1", "10"})
+    public int devices;
+
+    @Param({"16"})
+    public int widgetsPerDevice;
+
+    @Param({"false", "true"})
+    public boolean bufHardwareMessages;
+
+    @Param({"true", "false"})
+    public boolean appConnected;
+
+    private BenchmarkHolder benchmarkHolder;
+    private EmbeddedChannel hardChannel;
+    private EmbeddedChannel appChannel;
+    private ByteBuf[] frames;
+    private ByteBuf batchFrame;
+    private int frameIndex;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        benchmarkHolder = new BenchmarkHolder();
+        Holder holder = benchmarkHolder.holder;
+        User user = ProfileGenerator.generate(1, devices, widgetsPerDevice);
+        benchmarkHolder.addUser(user);
+        DashBoard dash = user.profile.dashBoards[0];
+        Device device = dash.devices[0];
+
+        hardChannel = new EmbeddedChannel(
+                new FlushConsolidator(holder.limits.maxConsolidatedFlushes, holder.limits.maxFlushDelayMicros),
+                new MessageDecoder(holder.stats, holder.limits, bufHardwareMessages),
+                new MessageEncoder(holder.stats),
+                new HardwareHandler(holder, new HardwareStateHolder(user, dash, device))
+        );
+        Session session = holder.sessionDao.getOrCreateSessionByUser(new UserKey(user), hardChannel.eventLoop());
+        session.addHardChannel(hardChannel, dash.id, device.id);
+
+        if (appConnected) {
+            appChannel = new EmbeddedChannel(
+                    new MobileMessageEncoder(holder.stats),
+                    new AppOutboundQueue(holder.stats.appOutboundQueue, holder.limits.appOutboundQueueLimit),
+                    new MobileHandler(holder, new MobileStateHolder(user, new Version(OsType.ANDROID, 20900)))
+            );
+            session.addAppChannel(appChannel);
+        }
+
+        frames = new ByteBuf[FRAMES];
+        for (int i = 0; i < FRAMES; i++) {
+            String body = "vw\0" + (i % widgetsPerDevice) + "\0" + i;
+            frames[i] = frame(Command.HARDWARE, i + 1, body);
+        }
+
+        StringBuilder batchBody = new StringBuilder();
+        for (int pin = 0; pin < widgetsPerDevice; pin++) {
+            if (pin > 0) {
+                batchBody.append('\0');
+            }
+            batchBody.append("vw\0").append(pin).append('\0').append(pin * 10);
+        }
+        batchFrame = frame(Command.HARDWARE_BATCH, 1, batchBody.toString());
+    }
+
+    private static ByteBuf frame(short command, int msgId, String body) {
+        byte[] bytes = body.getBytes(UTF_8);
+        return Unpooled.directBuffer(5 + bytes.length)
+                .writeByte(command)
+                .writeShort(msgId)
+                .writeShort(bytes.length)
+                .writeBytes(bytes);
+    }
+
+    @Benchmark
+    public int hardwareVirtualWrite() {
+        ByteBuf frame = frames[frameIndex++ & (FRAMES - 1)];
+        hardChannel.writeInbound(frame.retainedDuplicate());
+        int messages = drain(hardChannel);
+        if (appChannel != null) {
+            messages += drain(appChannel);
+        }
+        return messages;
+    }
+
+    /**
+     * All pins of the device within one batch, should be compared with
+     * widgetsPerDevice * {@link #hardwareVirtualWrite()}.
+     */
+    @Benchmark
+    public int hardwareBatchWrite() {
+        hardChannel.writeInbound(batchFrame.retainedDuplicate());
+        int messages = drain(hardChannel);
+        if (appChannel != null) {
+            messages += drain(appChannel);
+        }
+        return messages;
+    }
+
+    private static int drain(EmbeddedChannel channel) {
+        int messages = 0;
+        Object msg;
+        while ((msg = channel.readOutbound()) != null) {
+            ReferenceCountUtil.release(msg);
+            messages++;
+        }
+        return messages;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        hardChannel.finishAndReleaseAll();
+        if (appChannel != null) {
+            appChannel.finishAndReleaseAll();
+        }
+        for (ByteBuf frame : frames) {
+            frame.release();
+        }
+        batchFrame.release();
+        benchmarkHolder.close();
+    }
+
+}
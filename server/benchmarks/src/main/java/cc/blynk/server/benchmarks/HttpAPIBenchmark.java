@@ -0,0 +1,121 @@
+package cc.blynk.server.benchmarks;
+
+import cc.blynk.server.Holder;
+import cc.blynk.server.api.http.logic.HttpAPILogic;
+import cc.blynk.server.core.dao.UserKey;
+import cc.blynk.server.core.model.DashBoard;
+import cc.blynk.server.core.model.auth.Session;
+import cc.blynk.server.core.model.auth.User;
+import cc.blynk.server.core.model.device.Device;
+import cc.blynk.server.core.protocol.handlers.encoders.MessageEncoder;
+import cc.blynk.server.core.protocol.handlers.encoders.MobileMessageEncoder;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.util.ReferenceCountUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import static io.netty.handler.codec.http.HttpMethod.GET;
+import static io.netty.handler.codec.http.HttpVersion.HTTP_1_1;
+
+/**
+ * Pin update via HTTP API : uri matching and params extraction, pin update in the profile,
+ * reporting aggregation and fan-out to the connected app and hardware.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 10, time = 1, timeUnit = TimeUnit.SECONDS)
+public class HttpAPIBenchmark {
+
+    private static final int URIS = 1024;
+
+    @Param({"16"})
+    public int widgetsPerDevice;
+
+    @Param({"true", "false"})
+    public boolean clientsConnected;
+
+    private BenchmarkHolder benchmarkHolder;
+    private EmbeddedChannel httpChannel;
+    private EmbeddedChannel hardChannel;
+    private EmbeddedChannel appChannel;
+    private String[] uris;
+    private int uriIndex;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        benchmarkHolder = new BenchmarkHolder();
+        Holder holder = benchmarkHolder.holder;
+        User user = ProfileGenerator.generate(1, 1, widgetsPerDevice);
+        benchmarkHolder.addUser(user);
+        DashBoard dash = user.profile.dashBoards[0];
+        Device device = dash.devices[0];
+
+        httpChannel = new EmbeddedChannel(new HttpAPILogic(holder));
+
+        if (clientsConnected) {
+            Session session = holder.sessionDao.getOrCreateSessionByUser(new UserKey(user), httpChannel.eventLoop());
+            hardChannel = new EmbeddedChannel(new MessageEncoder(holder.stats));
+            session.addHardChannel(hardChannel, dash.id, device.id);
+            appChannel = new EmbeddedChannel(new MobileMessageEncoder(holder.stats));
+            session.addAppChannel(appChannel);
+        }
+
+        uris = new String[URIS];
+        for (int i = 0; i < URIS; i++) {
+            uris[i] = "/" + device.token + "/update/V" + (i % widgetsPerDevice) + "?value=" + i;
+        }
+    }
+
+    @Benchmark
+    public int updatePin() {
+        String uri = uris[uriIndex++ & (URIS - 1)];
+        httpChannel.writeInbound(new DefaultFullHttpRequest(HTTP_1_1, GET, uri));
+        int messages = drain(httpChannel);
+        if (hardChannel != null) {
+            messages += drain(hardChannel) + drain(appChannel);
+        }
+        return messages;
+    }
+
+    private static int drain(EmbeddedChannel channel) {
+        int messages = 0;
+        Object msg;
+        while ((msg = channel.readOutbound()) != null) {
+            ReferenceCountUtil.release(msg);
+            messages++;
+        }
+        return messages;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        httpChannel.finishAndReleaseAll();
+        if (hardChannel != null) {
+            hardChannel.finishAndReleaseAll();
+            appChannel.finishAndReleaseAll();
+        }
+        benchmarkHolder.close();
+    }
+
+}
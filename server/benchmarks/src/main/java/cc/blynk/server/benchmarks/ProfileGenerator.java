@@ -0,0 +1,90 @@
+package cc.blynk.server.benchmarks;
+
+import cc.blynk.server.core.model.auth.User;
+import cc.blynk.server.core.model.serialization.JsonParser;
+import cc.blynk.utils.AppNameUtil;
+import cc.blynk.utils.TokenGeneratorUtil;
+
+import java.io.IOException;
+
+/**
+ * Generates user profiles similar to the real ones. Every device has own set of widgets
+ * on virtual pins 0..widgetsPerDevice-1, where every second pin is also logged by the superchart.
+ * Only first dashboard is active.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+public final class ProfileGenerator {
+
+    public static final String EMAIL = "benchmark@blynk.cc";
+
+    private static final String[] WIDGET_TYPES = {"DIGIT4_DISPLAY", "SLIDER", "BUTTON", "LED"};
+
+    private ProfileGenerator() {
+    }
+
+    public static String generateJson(int dashboards, int devicesPerDash, int widgetsPerDevice) {
+        StringBuilder sb = new StringBuilder(dashboards * devicesPerDash * widgetsPerDevice * 256);
+        sb.append("{\"name\":\"").append(EMAIL)
+          .append("\",\"email\":\"").append(EMAIL)
+          .append("\",\"appName\":\"").append(AppNameUtil.BLYNK)
+          .append("\",\"region\":\"local\",\"pass\":\"pass\",\"energy\":100000,\"profile\":{\"dashBoards\":[");
+        long widgetId = 1;
+        for (int dashId = 1; dashId <= dashboards; dashId++) {
+            if (dashId > 1) {
+                sb.append(',');
+            }
+            sb.append("{\"id\":").append(dashId)
+              .append(",\"name\":\"Dashboard ").append(dashId)
+              .append("\",\"isActive\":").append(dashId == 1)
+              .append(",\"createdAt\":1,\"widgets\":[");
+            for (int deviceId = 0; deviceId < devicesPerDash; deviceId++) {
+                for (int pin = 0; pin < widgetsPerDevice; pin++) {
+                    sb.append("{\"type\":\"").append(WIDGET_TYPES[pin % WIDGET_TYPES.length])
+                      .append("\",\"id\":").append(widgetId++)
+                      .append(",\"x\":0,\"y\":0,\"width\":2,\"height\":1,\"deviceId\":").append(deviceId)
+                      .append(",\"pinType\":\"VIRTUAL\",\"pin\":").append(pin)
+                      .append(",\"min\":0,\"max\":1023,\"value\":\"0\"},");
+                }
+                appendSuperchart(sb, widgetId++, deviceId, widgetsPerDevice);
+                if (deviceId < devicesPerDash - 1) {
+                    sb.append(',');
+                }
+            }
+            sb.append("],\"devices\":[");
+            for (int deviceId = 0; deviceId < devicesPerDash; deviceId++) {
+                if (deviceId > 0) {
+                    sb.append(',');
+                }
+                sb.append("{\"id\":").append(deviceId)
+                  .append(",\"name\":\"Device ").append(deviceId)
+                  .append("\",\"boardType\":\"ESP8266\",\"connectionType\":\"WI_FI\",\"token\":\"")
+                  .append(TokenGeneratorUtil.generateNewToken()).append("\"}");
+            }
+            sb.append("]}");
+        }
+        return sb.append("]}}").toString();
+    }
+
+    private static void appendSuperchart(StringBuilder sb, long widgetId, int deviceId, int widgetsPerDevice) {
+        sb.append("{\"type\":\"ENHANCED_GRAPH\",\"id\":").append(widgetId)
+          .append(",\"x\":0,\"y\":0,\"width\":8,\"height\":3,\"period\":\"LIVE\",")
+          .append("\"selectedPeriods\":[\"LIVE\",\"ONE_HOUR\",\"N_DAY\"],\"dataStreams\":[");
+        for (int pin = 0; pin < widgetsPerDevice; pin += 2) {
+            if (pin > 0) {
+                sb.append(',');
+            }
+            sb.append("{\"graphType\":\"LINE\",\"targetId\":").append(deviceId)
+              .append(",\"pin\":{\"pin\":").append(pin)
+              .append(",\"pinType\":\"VIRTUAL\",\"min\":0,\"max\":1023}}");
+        }
+        sb.append("]}");
+    }
+
+    public static User generate(int dashboards, int devicesPerDash, int widgetsPerDevice) throws IOException {
+        return JsonParser.parseUserFromString(generateJson(dashboards, devicesPerDash, widgetsPerDevice));
+    }
+
+}
@@ -0,0 +1,64 @@
+package cc.blynk.server.benchmarks;
+
+import cc.blynk.server.core.model.auth.User;
+import cc.blynk.server.core.model.serialization.JsonParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * User profile serialization, as it is done on every user save
+ * and deserialization, as it is done for every user on server start.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 10, time = 1, timeUnit = TimeUnit.SECONDS)
+public class ProfileJsonBenchmark {
+
+    @Param({"1", "5"})
+    public int dashboards;
+
+    @Param({"1", "10"})
+    public int devicesPerDash;
+
+    @Param({"16"})
+    public int widgetsPerDevice;
+
+    private String json;
+    private User user;
+
+    @Setup
+    public void setup() throws IOException {
+        json = ProfileGenerator.generateJson(dashboards, devicesPerDash, widgetsPerDevice);
+        user = JsonParser.parseUserFromString(json);
+    }
+
+    @Benchmark
+    public User parseUser() throws IOException {
+        return JsonParser.parseUserFromString(json);
+    }
+
+    @Benchmark
+    public String userToJson() {
+        return JsonParser.toJson(user);
+    }
+
+}
@@ -0,0 +1,88 @@
+package cc.blynk.server.benchmarks;
+
+import cc.blynk.server.Holder;
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.reporting.average.AverageAggregatorProcessor;
+import cc.blynk.server.core.reporting.raw.BaseReportingKey;
+import cc.blynk.server.workers.ReportingWorker;
+import cc.blynk.utils.AppNameUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single run of the reporting worker : flush of outdated minute, hourly and daily entries
+ * to the reporting files and aggregation snapshot of what is left.
+ * Aggregator is filled before every run, so every run flushes the same amount of entries.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+@BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 10, time = 1, timeUnit = TimeUnit.SECONDS)
+public class ReportingWorkerBenchmark {
+
+    @Param({"100", "1000"})
+    public int series;
+
+    @Param({"60"})
+    public int minutesPerSeries;
+
+    private BenchmarkHolder benchmarkHolder;
+    private AverageAggregatorProcessor aggregator;
+    private ReportingWorker reportingWorker;
+    private BaseReportingKey[] keys;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        benchmarkHolder = new BenchmarkHolder();
+        Holder holder = benchmarkHolder.holder;
+        aggregator = holder.reportingDiskDao.averageAggregator;
+        reportingWorker = new ReportingWorker(holder.reportingDiskDao, holder.reportingDBManager, holder.stats);
+        keys = new BaseReportingKey[series];
+        for (int i = 0; i < series; i++) {
+            keys[i] = new BaseReportingKey(ProfileGenerator.EMAIL, AppNameUtil.BLYNK,
+                    1, i / 16, PinType.VIRTUAL, (short) (i % 16));
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void fill() {
+        //values are old enough to be flushed for all granularities
+        long start = System.currentTimeMillis() - 2 * AverageAggregatorProcessor.DAY;
+        for (int minute = 0; minute < minutesPerSeries; minute++) {
+            long ts = start + minute * AverageAggregatorProcessor.MINUTE;
+            for (int i = 0; i < series; i++) {
+                aggregator.collect(keys[i], ts, minute);
+            }
+        }
+    }
+
+    @Benchmark
+    public void run() {
+        reportingWorker.run();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        benchmarkHolder.close();
+    }
+
+}
@@ -2,6 +2,8 @@ package cc.blynk.server;
 
 import cc.blynk.server.core.BlockingIOProcessor;
 import cc.blynk.server.core.dao.FileManager;
+import cc.blynk.server.core.dao.LazyProfileLoader;
+import cc.blynk.server.core.dao.ProfileIndexPipeline;
 import cc.blynk.server.core.dao.ReportingDiskDao;
 import cc.blynk.server.core.dao.SessionDao;
 import cc.blynk.server.core.dao.TokenManager;
@@ -11,6 +13,13 @@ import cc.blynk.server.core.dao.ota.OTAManager;
 import cc.blynk.server.core.model.auth.User;
 import cc.blynk.server.core.model.widgets.ui.reporting.ReportScheduler;
 import cc.blynk.server.core.processors.EventorProcessor;
+import cc.blynk.server.core.reporting.raw.RawDataCacheForGraphProcessor;
+import cc.blynk.server.core.reporting.raw.RawDataOverflowPolicy;
+import cc.blynk.server.core.reporting.raw.RawDataProcessor;
+import cc.blynk.server.core.reporting.storage.CachingReportingStorage;
+import cc.blynk.server.core.reporting.storage.ReportingStorage;
+import cc.blynk.server.core.reporting.storage.ReportingStorageType;
+import cc.blynk.server.core.reporting.wal.ReportingWal;
 import cc.blynk.server.core.stats.GlobalStats;
 import cc.blynk.server.db.DBManager;
 import cc.blynk.server.db.ReportingDBManager;
@@ -33,6 +42,7 @@ import io.netty.util.internal.SystemPropertyUtil;
 import org.asynchttpclient.DefaultAsyncHttpClient;
 import org.asynchttpclient.DefaultAsyncHttpClientConfig;
 
+import java.io.IOException;
 import java.util.Collections;
 import java.util.concurrent.ConcurrentMap;
 
@@ -51,6 +61,9 @@ public class Holder {
 
     public final UserDao userDao;
 
+    //profiles that are not read yet, null when all profiles are read before the start
+    public final LazyProfileLoader profileLoader;
+
     public final TokenManager tokenManager;
 
     public final ReportingDiskDao reportingDiskDao;
@@ -105,6 +118,7 @@ public class Holder {
         this.reportingDBManager = new ReportingDBManager(blockingIOProcessor, enableDB);
 
         if (restore) {
+            this.profileLoader = null;
             try {
                 ConcurrentMap<UserKey, User> allUsers = dbManager.userDBDao.getAllUsers(serverProperties.region);
                 this.userDao = new UserDao(allUsers, serverProperties.region, serverProperties.host);
@@ -114,13 +128,21 @@ public class Holder {
                 throw new RuntimeException(e);
             }
         } else {
-            this.userDao = new UserDao(fileManager.deserializeUsers(), serverProperties.region, serverProperties.host);
+            this.profileLoader = fileManager.deserializeUsersLazily();
+            this.userDao = new UserDao(profileLoader.users, serverProperties.region, serverProperties.host,
+                    profileLoader);
         }
 
-        this.tokenManager = new TokenManager(this.userDao.users, dbManager, serverProperties.host);
+        this.tokenManager = new TokenManager(dbManager, serverProperties.host, profileLoader);
         this.stats = new GlobalStats();
+        boolean enableRawDB = serverProperties.isRawDBEnabled() && reportingDBManager.isDBEnabled();
         this.reportingDiskDao = new ReportingDiskDao(serverProperties.getReportingFolder(),
-                serverProperties.isRawDBEnabled() && reportingDBManager.isDBEnabled());
+                enableRawDB,
+                createReportingStorage(serverProperties, stats),
+                createReportingWal(serverProperties),
+                createRawDataProcessor(serverProperties, enableRawDB, stats),
+                new RawDataCacheForGraphProcessor(serverProperties.getIntProperty("reporting.live.graph.idle.minutes",
+                        RawDataCacheForGraphProcessor.DEFAULT_IDLE_MINUTES)));
 
         this.transportTypeHolder = new TransportTypeHolder(serverProperties);
 
@@ -150,13 +172,62 @@ public class Holder {
                 props.getProperty("http.port"),
                 props.getBoolProperty("force.port.80.for.csv")
         );
-        this.reportScheduler = new ReportScheduler(1, downloadUrl, mailWrapper, reportingDiskDao, userDao.users);
+        this.reportScheduler = new ReportScheduler(1, downloadUrl, mailWrapper, reportingDiskDao);
+        indexProfiles(serverProperties);
 
         String contactEmail = serverProperties.getProperty("contact.email", mailProperties.getSMTPUsername());
         this.sslContextHolder = new SslContextHolder(props, contactEmail);
         this.tokensPool = new TokensPool(serverProperties.getReportingFolder());
     }
 
+    private void indexProfiles(ServerProperties serverProperties) {
+        int threads = serverProperties.getIntProperty("startup.index.threads",
+                Runtime.getRuntime().availableProcessors());
+        ProfileIndexPipeline pipeline = new ProfileIndexPipeline(threads)
+                .register("tokens", tokenManager)
+                .register("timers", timerWorker)
+                .register("reports", reportScheduler);
+        if (profileLoader == null) {
+            pipeline.run(userDao.users);
+        } else {
+            profileLoader.start(pipeline, threads);
+        }
+    }
+
+    private static ReportingWal createReportingWal(ServerProperties serverProperties) {
+        if (!serverProperties.getBoolProperty("reporting.wal.enabled")) {
+            return null;
+        }
+        try {
+            return new ReportingWal(serverProperties.getReportingFolder(),
+                    serverProperties.getIntProperty("reporting.wal.commit.interval", 100));
+        } catch (IOException ioe) {
+            throw new RuntimeException("Error opening reporting wal.", ioe);
+        }
+    }
+
+    private static ReportingStorage createReportingStorage(ServerProperties serverProperties, GlobalStats stats) {
+        String storageType = serverProperties.getProperty("reporting.storage.type");
+        ReportingStorage storage = ReportingStorageType.fromString(storageType)
+                .create(serverProperties.getReportingFolder());
+        long cacheSize = serverProperties.getIntProperty("reporting.cache.size.mb", 32) * 1024L * 1024L;
+        if (cacheSize <= 0) {
+            return storage;
+        }
+        return new CachingReportingStorage(storage, cacheSize,
+                serverProperties.getIntProperty("reporting.cache.max.series.entries", 1440),
+                stats.reportingCache);
+    }
+
+    private static RawDataProcessor createRawDataProcessor(ServerProperties serverProperties, boolean enable,
+                                                           GlobalStats stats) {
+        return new RawDataProcessor(enable,
+                serverProperties.getIntProperty("reporting.raw.buffer.capacity", RawDataProcessor.DEFAULT_CAPACITY),
+                RawDataOverflowPolicy.fromString(serverProperties.getProperty("reporting.raw.buffer.overflow.policy")),
+                serverProperties.getReportingFolder(),
+                stats.rawDataBuffer);
+    }
+
     //for tests only
     public Holder(ServerProperties serverProperties, TwitterWrapper twitterWrapper,
                   MailWrapper mailWrapper,
@@ -169,16 +240,23 @@ public class Holder {
         this.fileManager = new FileManager(serverProperties.getDataFolder(), serverProperties.host);
         this.sessionDao = new SessionDao();
         this.userDao = new UserDao(fileManager.deserializeUsers(), serverProperties.region, serverProperties.host);
+        this.profileLoader = null;
         this.blockingIOProcessor = blockingIOProcessor;
 
         boolean enableDB = serverProperties.isDBEnabled();
         this.dbManager = new DBManager(dbFileName, blockingIOProcessor, enableDB);
         this.reportingDBManager = new ReportingDBManager(dbFileName, blockingIOProcessor, enableDB);
 
-        this.tokenManager = new TokenManager(this.userDao.users, dbManager, serverProperties.host);
+        this.tokenManager = new TokenManager(dbManager, serverProperties.host);
         this.stats = new GlobalStats();
+        boolean enableRawDB = serverProperties.isRawDBEnabled() && reportingDBManager.isDBEnabled();
         this.reportingDiskDao = new ReportingDiskDao(serverProperties.getReportingFolder(),
-                serverProperties.isRawDBEnabled() && reportingDBManager.isDBEnabled());
+                enableRawDB,
+                createReportingStorage(serverProperties, stats),
+                createReportingWal(serverProperties),
+                createRawDataProcessor(serverProperties, enableRawDB, stats),
+                new RawDataCacheForGraphProcessor(serverProperties.getIntProperty("reporting.live.graph.idle.minutes",
+                        RawDataCacheForGraphProcessor.DEFAULT_IDLE_MINUTES)));
 
         this.transportTypeHolder = new TransportTypeHolder(serverProperties);
 
@@ -208,7 +286,8 @@ public class Holder {
                 props.getProperty("http.port"),
                 props.getBoolProperty("force.port.80.for.csv")
         );
-        this.reportScheduler = new ReportScheduler(1, downloadUrl, mailWrapper, reportingDiskDao, userDao.users);
+        this.reportScheduler = new ReportScheduler(1, downloadUrl, mailWrapper, reportingDiskDao);
+        indexProfiles(serverProperties);
 
         this.sslContextHolder = new SslContextHolder(props, "test@blynk.cc");
         this.tokensPool = new TokensPool(serverProperties.getReportingFolder());
@@ -224,6 +303,9 @@ public class Holder {
     }
 
     public void close() {
+        if (profileLoader != null) {
+            profileLoader.close();
+        }
         sessionDao.close();
 
         transportTypeHolder.close();
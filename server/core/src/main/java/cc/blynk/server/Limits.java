@@ -26,6 +26,9 @@ public class Limits {
     //hardware side limits
     public final long notificationPeriodLimitSec;
     public final int userQuotaLimit;
+    public final int userQuotaBurst;
+    public final int userAggregatedQuotaLimit;
+    public final boolean userQuotaThrottle;
     public final long webhookPeriodLimitation;
     public final int webhookResponseSizeLimitBytes;
     public final int webhookFailureLimit;
@@ -33,6 +36,13 @@ public class Limits {
     public final int appIdleTimeout;
     public final int storeMinuteRecordDays;
 
+    //messages kept for slow app connection
+    public final int appOutboundQueueLimit;
+
+    //socket flushes consolidation
+    public final int maxConsolidatedFlushes;
+    public final long maxFlushDelayMicros;
+
     public Limits(ServerProperties props) {
         this.webRequestMaxSize = props.getIntProperty("web.request.max.size", 512 * 1024);
 
@@ -45,6 +55,9 @@ public class Limits {
         this.notificationPeriodLimitSec =
                 props.getLongProperty("notifications.frequency.user.quota.limit", 15L) * 1000L;
         this.userQuotaLimit = props.getIntProperty("user.message.quota.limit", 100);
+        this.userQuotaBurst = props.getIntProperty("user.message.quota.burst", userQuotaLimit);
+        this.userAggregatedQuotaLimit = props.getIntProperty("user.message.quota.user.limit", 0);
+        this.userQuotaThrottle = props.getBoolProperty("user.message.quota.throttle");
         this.webhookPeriodLimitation =
                 isUnlimited(props.getLongProperty("webhooks.frequency.user.quota.limit", 1000), -1L);
         this.webhookResponseSizeLimitBytes = props.getIntProperty("webhooks.response.size.limit", 64) * 1024;
@@ -52,9 +65,12 @@ public class Limits {
                 isUnlimited(props.getIntProperty("webhooks.failure.count.limit", 10), Integer.MAX_VALUE);
         this.hardwareIdleTimeout = props.getIntProperty("hard.socket.idle.timeout", 0);
         this.appIdleTimeout = props.getIntProperty("app.socket.idle.timeout", 300);
+        this.appOutboundQueueLimit = props.getIntProperty("app.outbound.queue.limit", 1000);
 
         this.hourlyRegistrationsLimit = props.getIntProperty("hourly.registrations.limit", 1000);
         this.storeMinuteRecordDays = props.getIntProperty("store.minute.record.days", 10);
+        this.maxConsolidatedFlushes = props.getIntProperty("flush.consolidation.max.flushes", 64);
+        this.maxFlushDelayMicros = props.getLongProperty("flush.consolidation.max.delay.micros", 0);
         this.reportsLimit = 25;
     }
 
@@ -3,6 +3,7 @@ package cc.blynk.server.core.dao;
 import cc.blynk.server.core.model.DashBoard;
 import cc.blynk.server.core.model.auth.User;
 import cc.blynk.server.core.model.serialization.JsonParser;
+import cc.blynk.server.core.model.storage.PinValueJournal;
 import cc.blynk.server.core.model.storage.key.DashPinPropertyStorageKey;
 import cc.blynk.server.core.model.storage.key.DashPinStorageKey;
 import cc.blynk.server.core.model.storage.key.PinPropertyStorageKey;
@@ -12,25 +13,37 @@ import cc.blynk.utils.FileUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.PathMatcher;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import static java.nio.file.Files.createDirectories;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
 import static java.util.function.Function.identity;
 
 
@@ -45,6 +58,8 @@ public class FileManager {
 
     private static final Logger log = LogManager.getLogger(FileManager.class);
     private static final String USER_FILE_EXTENSION = ".user";
+    private static final String VALUES_FILE_EXTENSION = ".values";
+    private static final String TMP_FILE_EXTENSION = ".tmp";
 
     /**
      * Folder where all user profiles are stored locally.
@@ -105,6 +120,11 @@ public class FileManager {
         return Paths.get(dataDir.toString(), email + "." + appName + USER_FILE_EXTENSION);
     }
 
+    //journal of the pin values written after the profile was stored, see PinValueJournal
+    public Path generateValuesFileName(String email, String appName) {
+        return Paths.get(dataDir.toString(), email + "." + appName + USER_FILE_EXTENSION + VALUES_FILE_EXTENSION);
+    }
+
     public Path generateBackupFileName(String email, String appName) {
         return Paths.get(backupDataDir.toString(), email + "." + appName + ".user."
                 + new SimpleDateFormat("yyyy-MM-dd").format(new Date()));
@@ -122,15 +142,141 @@ public class FileManager {
             log.debug("Failed to move file. {}", e.getMessage());
             return false;
         }
+        FileUtils.deleteQuietly(generateValuesFileName(email, appName));
         return true;
     }
 
-    public void overrideUserFile(User user) throws IOException {
+    /**
+     * Stores whole user profile. Profile is written to the temp file, synced to disk
+     * and only after that moved over the existing profile, so profile on disk
+     * is never partially written, even when server is killed during the write.
+     *
+     * @return number of written bytes
+     */
+    public int overrideUserFile(User user) throws IOException {
         Path path = generateFileName(user.email, user.appName);
 
-        JsonParser.writeUser(path.toFile(), user);
+        //profile below contains all values, so journal is not needed anymore.
+        //value written during the serialization may be stored twice, it is fine
+        PinValueJournal valueJournal = user.profile.valueJournal;
+        valueJournal.reset();
+        byte[] data;
+        try {
+            data = JsonParser.writeUserAsBytes(user);
+            Path tmpPath = path.resolveSibling(path.getFileName() + TMP_FILE_EXTENSION);
+            try (FileChannel channel = FileChannel.open(tmpPath, CREATE, WRITE, TRUNCATE_EXISTING)) {
+                ByteBuffer buffer = ByteBuffer.wrap(data);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(true);
+            }
+            Files.move(tmpPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            //rename should be on disk before the journal is deleted,
+            //otherwise crash may leave the old profile without the journal
+            forceDirectory(path.getParent());
+        } catch (IOException e) {
+            //values recorded before the reset are not stored anywhere, so next save should be full again
+            valueJournal.storeFailed();
+            throw e;
+        }
+        //old journal is ignored during the start anyway, as it is stamped with the previous profile
+        valueJournal.profileStored(PinValueJournal.stamp(data, 0, data.length));
+        FileUtils.deleteQuietly(generateValuesFileName(user.email, user.appName));
 
         removeOldFile(user.email);
+        return data.length;
+    }
+
+    private static void forceDirectory(Path dir) throws IOException {
+        try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Appends pin values written since last save to the user values journal.
+     * Much cheaper than {@link #overrideUserFile(User)} as only changed values are written.
+     *
+     * @return number of written bytes
+     */
+    public int appendUserValues(User user) throws IOException {
+        PinValueJournal valueJournal = user.profile.valueJournal;
+        long storedBytes = valueJournal.getStoredBytes();
+        byte[] values = valueJournal.drain();
+        if (values == null) {
+            return 0;
+        }
+        Path path = generateValuesFileName(user.email, user.appName);
+        try (FileChannel channel = FileChannel.open(path, CREATE, WRITE)) {
+            long size = channel.size();
+            if (size < storedBytes) {
+                throw new IOException("Values journal " + path + " is shorter than expected.");
+            }
+            //not started journal file is written from scratch, so leftovers of the stale journal are dropped.
+            //incomplete record left after the crash is dropped as well, so new records follow the last valid one
+            if (size > storedBytes) {
+                channel.truncate(storedBytes);
+            }
+            channel.position(storedBytes);
+            ByteBuffer buffer = ByteBuffer.wrap(values);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        } catch (IOException e) {
+            //drained values are lost for the journal, but profile still has them
+            valueJournal.storeFailed();
+            throw e;
+        }
+        valueJournal.markStored(values.length);
+        return values.length;
+    }
+
+    static User parseUser(byte[] data, int offset, int length) throws IOException {
+        User user = JsonParser.parseUserFromBytes(data, offset, length);
+        user.profile.valueJournal.profileStored(PinValueJournal.stamp(data, offset, length));
+        return user;
+    }
+
+    static void applyValues(User user, InputStream is, long size) throws IOException {
+        PinValueJournal valueJournal = user.profile.valueJournal;
+        long validBytes = PinValueJournal.replay(is, user.profile, valueJournal.getProfileStamp());
+        if (validBytes < 0) {
+            //server was stopped during the full save, profile already has all journal values
+            log.info("Values journal of {} is older than profile. Skipping.", user.email);
+            return;
+        }
+        if (validBytes < size) {
+            //broken tail is truncated with the next append
+            log.warn("Values journal of {} has broken tail. Skipping {} bytes.", user.email, size - validBytes);
+        }
+        valueJournal.markStored(validBytes);
+    }
+
+    //profile with the values journal applied
+    User readUser(Path userFile) throws IOException {
+        byte[] data = Files.readAllBytes(userFile);
+        User user = parseUser(data, 0, data.length);
+        makeProfileChanges(user);
+        replayUserValues(userFile, user);
+        return user;
+    }
+
+    private static Path valuesFileOf(Path userFile) {
+        return userFile.resolveSibling(userFile.getFileName() + VALUES_FILE_EXTENSION);
+    }
+
+    private void replayUserValues(Path userFile, User user) {
+        Path valuesFile = valuesFileOf(userFile);
+        if (Files.notExists(valuesFile)) {
+            return;
+        }
+        try (InputStream is = new BufferedInputStream(Files.newInputStream(valuesFile))) {
+            applyValues(user, is, Files.size(valuesFile));
+        } catch (Exception e) {
+            log.error("Error reading values journal '{}'. Error : {}", valuesFile, e.getMessage());
+        }
     }
 
     private void removeOldFile(String email) {
@@ -149,19 +295,36 @@ public class FileManager {
      * @return mapping between username and it's profile.
      */
     public ConcurrentMap<UserKey, User> deserializeUsers() {
+        LazyProfileLoader profileLoader = deserializeUsersLazily();
+        profileLoader.loadAll();
+        return profileLoader.users;
+    }
+
+    /**
+     * Loads user profiles that are not within the profiles snapshot (or changed after it was written).
+     * Profiles within the snapshot are only registered in the returned loader and read later.
+     */
+    public LazyProfileLoader deserializeUsersLazily() {
         log.debug("Starting reading user DB.");
+        long start = System.currentTimeMillis();
 
         PathMatcher pathMatcher = FileSystems.getDefault().getPathMatcher("glob:**" + USER_FILE_EXTENSION);
+        Path snapshotPath = Paths.get(dataDir.toString(), ProfileSnapshot.FILE_NAME);
+        ProfileSnapshot snapshot = ProfileSnapshot.open(snapshotPath);
+        Map<String, ProfileSnapshot.Entry> entries = snapshot == null ? Collections.emptyMap() : snapshot.entries;
+        Queue<ProfileSnapshot.Entry> deferred = new ConcurrentLinkedQueue<>();
         ConcurrentMap<UserKey, User> temp;
         try {
             temp = Files.walk(dataDir, 1).parallel()
                     .filter(path -> Files.isRegularFile(path) && pathMatcher.matches(path))
                     .flatMap(path -> {
+                        ProfileSnapshot.Entry entry = entries.get(path.getFileName().toString());
+                        if (entry != null && ProfileSnapshot.isUpToDate(entry, path, valuesFileOf(path))) {
+                            deferred.add(entry);
+                            return Stream.empty();
+                        }
                         try {
-                            User user = JsonParser.parseUserFromFile(path);
-                            makeProfileChanges(user);
-
-                            return Stream.of(user);
+                            return Stream.of(readUser(path));
                         } catch (IOException ioe) {
                             String errorMessage = ioe.getMessage();
                             log.error("Error parsing file '{}'. Error : {}", path, errorMessage);
@@ -175,12 +338,26 @@ public class FileManager {
                     })
                     .collect(Collectors.toConcurrentMap(UserKey::new, identity()));
         } catch (Exception e) {
+            if (snapshot != null) {
+                snapshot.close();
+            }
             log.error("Error reading user profiles from disk. {}", e.getMessage());
             throw new RuntimeException(e);
         }
 
-        log.debug("Reading user DB finished.");
-        return temp;
+        log.info("Loaded {} profiles in {} ms. {} profiles are deferred to the snapshot.",
+                temp.size(), System.currentTimeMillis() - start, deferred.size());
+        return new LazyProfileLoader(temp, this, snapshot, snapshotPath, new ArrayList<>(deferred));
+    }
+
+    /**
+     * Writes all profiles to the single snapshot file, that speeds up the next server start.
+     * Should be called only after all profiles are stored and no more changes are possible.
+     *
+     * @return number of profiles within the snapshot
+     */
+    public int writeProfilesSnapshot(Collection<User> users) throws IOException {
+        return ProfileSnapshot.write(Paths.get(dataDir.toString(), ProfileSnapshot.FILE_NAME), users, this);
     }
 
     private Stream<User> restoreFromBackup(Path restoreFileNamePath) {
@@ -0,0 +1,240 @@
+package cc.blynk.server.core.dao;
+
+import cc.blynk.server.core.model.auth.User;
+import cc.blynk.utils.FileUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.Closeable;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Profiles from the {@link ProfileSnapshot}, that are not read yet. Reading of all profiles takes minutes
+ * for big installations, so server starts right after the snapshot index is read and profiles are read
+ * in the background. Profile that is needed before that (hardware login by token, app login by email, etc)
+ * is read on demand within the caller thread, see {@link UserDao} and {@link TokenManager}.
+ * Until all profiles are read, iterations over {@link UserDao#users} (stats, admin search) see only
+ * profiles read so far.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+public final class LazyProfileLoader implements Closeable {
+
+    private static final Logger log = LogManager.getLogger(LazyProfileLoader.class);
+
+    public final ConcurrentMap<UserKey, User> users;
+    private final FileManager fileManager;
+    private final ProfileSnapshot snapshot;
+    private final Path snapshotPath;
+    private final List<ProfileSnapshot.Entry> entries;
+
+    //null when all profiles are read
+    private volatile Index index;
+    private volatile ProfileIndexPipeline pipeline;
+    private volatile boolean closed;
+    private volatile Thread loaderThread;
+
+    LazyProfileLoader(ConcurrentMap<UserKey, User> users, FileManager fileManager,
+                      ProfileSnapshot snapshot, Path snapshotPath, List<ProfileSnapshot.Entry> entries) {
+        this.users = users;
+        this.fileManager = fileManager;
+        this.snapshot = snapshot;
+        this.snapshotPath = snapshotPath;
+        this.entries = entries;
+        this.index = new Index(entries);
+    }
+
+    /**
+     * Indexes already read profiles and starts reading the rest of them in the background.
+     * Every read profile is indexed with the given pipeline before it becomes visible in {@link #users}.
+     */
+    public void start(ProfileIndexPipeline pipeline, int parallelism) {
+        this.pipeline = pipeline;
+        pipeline.index(users);
+        if (entries.isEmpty()) {
+            loadAll(parallelism);
+            pipeline.finish();
+            return;
+        }
+        log.info("Reading {} profiles from the snapshot in background.", entries.size());
+        this.loaderThread = new Thread(() -> {
+            long start = System.currentTimeMillis();
+            loadAll(parallelism);
+            if (!closed) {
+                pipeline.finish();
+                log.info("Read {} profiles from the snapshot in {} ms.",
+                        entries.size(), System.currentTimeMillis() - start);
+            }
+        }, "profiles-loader");
+        loaderThread.setDaemon(true);
+        loaderThread.start();
+    }
+
+    /**
+     * Reads all profiles within the caller thread.
+     */
+    void loadAll() {
+        loadAll(Runtime.getRuntime().availableProcessors());
+    }
+
+    private void loadAll(int parallelism) {
+        if (entries.isEmpty()) {
+            finish();
+            return;
+        }
+        ForkJoinPool pool = new ForkJoinPool(Math.max(parallelism, 1));
+        try {
+            //parallel stream started within the pool is executed by this pool
+            pool.submit(() -> entries.parallelStream().forEach(this::load)).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        } catch (ExecutionException e) {
+            log.error("Error reading profiles from the snapshot.", e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+        if (!closed) {
+            finish();
+        }
+    }
+
+    public boolean isLoaded() {
+        return index == null;
+    }
+
+    /**
+     * @return false in case token is not within the not read profiles.
+     */
+    public boolean loadByToken(String token) {
+        Index index = this.index;
+        return index != null && load(index.byToken.get(token));
+    }
+
+    public boolean loadBySharedToken(String token) {
+        Index index = this.index;
+        return index != null && load(index.bySharedToken.get(token));
+    }
+
+    public boolean loadByName(UserKey userKey) {
+        Index index = this.index;
+        return index != null && load(index.byUser.get(userKey));
+    }
+
+    public boolean loadSuperAdmins() {
+        Index index = this.index;
+        if (index == null) {
+            return false;
+        }
+        boolean result = false;
+        for (ProfileSnapshot.Entry entry : index.superAdmins) {
+            result |= load(entry);
+        }
+        return result;
+    }
+
+    private boolean load(ProfileSnapshot.Entry entry) {
+        if (entry == null) {
+            return false;
+        }
+        synchronized (entry) {
+            if (entry.loaded || closed) {
+                return true;
+            }
+            User user = read(entry);
+            if (user != null) {
+                UserKey userKey = new UserKey(user);
+                ProfileIndexPipeline pipeline = this.pipeline;
+                if (pipeline != null) {
+                    pipeline.index(userKey, user);
+                }
+                //profile is visible only after all its tokens, timers, etc. are indexed
+                users.put(userKey, user);
+            }
+            entry.loaded = true;
+        }
+        return true;
+    }
+
+    private User read(ProfileSnapshot.Entry entry) {
+        try {
+            User user = snapshot.read(entry);
+            fileManager.makeProfileChanges(user);
+            return user;
+        } catch (Exception e) {
+            log.error("Error reading {} from profiles snapshot. Error : {}", entry.fileName, e.getMessage());
+        }
+        Path userFile = fileManager.generateFileName(entry.email, entry.appName);
+        try {
+            return fileManager.readUser(userFile);
+        } catch (Exception e) {
+            log.error("Error parsing file '{}'. Error : {}", userFile, e.getMessage());
+            return null;
+        }
+    }
+
+    private void finish() {
+        this.index = null;
+        if (snapshot != null) {
+            snapshot.close();
+            //snapshot becomes stale with the first profile change, so it is used only once
+            FileUtils.deleteQuietly(snapshotPath);
+        }
+    }
+
+    /**
+     * Stops the background reading. Not read profiles are still within the profile files
+     * and the snapshot is kept, as their snapshot entries are still valid.
+     */
+    @Override
+    public void close() {
+        this.closed = true;
+        Thread loaderThread = this.loaderThread;
+        if (loaderThread != null) {
+            try {
+                loaderThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (snapshot != null) {
+            snapshot.close();
+        }
+    }
+
+    private static final class Index {
+
+        private final Map<UserKey, ProfileSnapshot.Entry> byUser;
+        private final Map<String, ProfileSnapshot.Entry> byToken;
+        private final Map<String, ProfileSnapshot.Entry> bySharedToken;
+        private final List<ProfileSnapshot.Entry> superAdmins = new ArrayList<>();
+
+        Index(List<ProfileSnapshot.Entry> entries) {
+            this.byUser = new HashMap<>(entries.size() * 4 / 3 + 1);
+            this.byToken = new HashMap<>(entries.size() * 4 / 3 + 1);
+            this.bySharedToken = new HashMap<>();
+            for (ProfileSnapshot.Entry entry : entries) {
+                byUser.put(new UserKey(entry.email, entry.appName), entry);
+                for (String token : entry.tokens) {
+                    byToken.put(token, entry);
+                }
+                for (String token : entry.sharedTokens) {
+                    bySharedToken.put(token, entry);
+                }
+                if (entry.isSuperAdmin) {
+                    superAdmins.add(entry);
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,118 @@
+package cc.blynk.server.core.dao;
+
+import cc.blynk.server.core.model.DashBoard;
+import cc.blynk.server.core.model.auth.User;
+import cc.blynk.server.core.model.widgets.Widget;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Builds all startup indexes within the single pass over the user profiles,
+ * instead of the separate pass for every index. Profiles are visited in parallel.
+ * Every dashboard is given to all indexers one after another, so it is read
+ * from the memory only once.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+public final class ProfileIndexPipeline {
+
+    private static final Logger log = LogManager.getLogger(ProfileIndexPipeline.class);
+
+    private final List<Stage> stages = new ArrayList<>();
+    private final int parallelism;
+
+    public ProfileIndexPipeline(int parallelism) {
+        this.parallelism = Math.max(parallelism, 1);
+    }
+
+    public ProfileIndexPipeline register(String name, ProfileIndexer indexer) {
+        stages.add(new Stage(name, indexer));
+        return this;
+    }
+
+    public void run(Map<UserKey, User> users) {
+        index(users);
+        finish();
+    }
+
+    /**
+     * Indexes given profiles in parallel. Profiles read later are indexed one by one,
+     * see {@link #index(UserKey, User)}.
+     */
+    public void index(Map<UserKey, User> users) {
+        long start = System.nanoTime();
+        Stage[] stages = this.stages.toArray(new Stage[0]);
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            //parallel stream started within the pool is executed by this pool
+            pool.submit(() -> users.entrySet().parallelStream()
+                    .forEach(entry -> index(stages, entry.getKey(), entry.getValue()))).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Profiles indexing interrupted.", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Error indexing profiles.", e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+        log.info("Indexed {} profiles within {} threads in {} ms.",
+                users.size(), parallelism, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    public void index(UserKey userKey, User user) {
+        index(this.stages.toArray(new Stage[0]), userKey, user);
+    }
+
+    /**
+     * Should be called once, after all profiles are indexed.
+     */
+    public void finish() {
+        StringBuilder timings = new StringBuilder();
+        for (Stage stage : stages) {
+            stage.indexer.indexFinished();
+            timings.append(' ').append(stage.name).append(" : ")
+                    .append(TimeUnit.NANOSECONDS.toMillis(stage.nanos.sum())).append(" ms.");
+        }
+        log.info("Profiles indexing finished. Stages (cpu time){}", timings);
+    }
+
+    private static void index(Stage[] stages, UserKey userKey, User user) {
+        if (user.profile == null) {
+            return;
+        }
+        for (DashBoard dash : user.profile.dashBoards) {
+            for (Stage stage : stages) {
+                long stageStart = System.nanoTime();
+                ProfileIndexer indexer = stage.indexer;
+                indexer.index(userKey, user, dash);
+                for (Widget widget : dash.widgets) {
+                    indexer.index(userKey, user, dash, widget);
+                }
+                stage.nanos.add(System.nanoTime() - stageStart);
+            }
+        }
+    }
+
+    private static final class Stage {
+
+        private final String name;
+        private final ProfileIndexer indexer;
+        private final LongAdder nanos = new LongAdder();
+
+        Stage(String name, ProfileIndexer indexer) {
+            this.name = name;
+            this.indexer = indexer;
+        }
+    }
+
+}
@@ -0,0 +1,29 @@
+package cc.blynk.server.core.dao;
+
+import cc.blynk.server.core.model.DashBoard;
+import cc.blynk.server.core.model.auth.User;
+import cc.blynk.server.core.model.widgets.Widget;
+
+/**
+ * Builds in-memory index (tokens, timers, reports, etc) from the loaded user profiles.
+ * Called from many threads at once, see {@link ProfileIndexPipeline}.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+public interface ProfileIndexer {
+
+    default void index(UserKey userKey, User user, DashBoard dash) {
+    }
+
+    default void index(UserKey userKey, User user, DashBoard dash, Widget widget) {
+    }
+
+    /**
+     * Called once, after all profiles are indexed.
+     */
+    default void indexFinished() {
+    }
+
+}
@@ -0,0 +1,318 @@
+package cc.blynk.server.core.dao;
+
+import cc.blynk.server.core.model.DashBoard;
+import cc.blynk.server.core.model.auth.User;
+import cc.blynk.server.core.model.device.Device;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * All user profiles within one file, so server start doesn't need to open and read
+ * every profile file separately (for big installations this takes minutes on cold disk cache).
+ * Snapshot is written during the graceful shutdown, right after all profiles were stored.
+ * Profile and values files are copied as is, so profiles are not serialized for the second time.
+ * Index contains tokens of every profile, so server may accept connections before profiles are read,
+ * see {@link LazyProfileLoader}.
+ * Profile is taken from the snapshot only when its profile and values files are the same
+ * as during the snapshot write, otherwise profile file is used, so stale snapshot is never harmful.
+ *
+ * Format : header (magic, version), profiles (profile file and values file content), index (email, app name,
+ * profile file name, size and modification time, values file size, profile offset, super admin flag,
+ * device tokens, shared tokens), index offset (long).
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+public final class ProfileSnapshot implements Closeable {
+
+    private static final Logger log = LogManager.getLogger(ProfileSnapshot.class);
+
+    static final String FILE_NAME = "profiles.snapshot";
+
+    private static final int MAGIC = 0x424C5053;
+    private static final int VERSION = 3;
+    private static final int HEADER_SIZE = 8;
+
+    private final FileChannel channel;
+    final Map<String, Entry> entries;
+
+    private ProfileSnapshot(FileChannel channel, Map<String, Entry> entries) {
+        this.channel = channel;
+        this.entries = entries;
+    }
+
+    /**
+     * @return null in case snapshot doesn't exist or is corrupted.
+     */
+    static ProfileSnapshot open(Path path) {
+        if (Files.notExists(path)) {
+            return null;
+        }
+        FileChannel channel = null;
+        try {
+            channel = FileChannel.open(path, READ);
+            long size = channel.size();
+            ByteBuffer header = readFully(channel, 0, HEADER_SIZE);
+            if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw new IOException("Unknown snapshot format.");
+            }
+            long indexOffset = readFully(channel, size - Long.BYTES, Long.BYTES).getLong();
+            if (indexOffset < HEADER_SIZE || indexOffset > size - Long.BYTES) {
+                throw new IOException("Wrong index offset " + indexOffset + ".");
+            }
+            ByteBuffer indexBuffer = readFully(channel, indexOffset, (int) (size - Long.BYTES - indexOffset));
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+                    indexBuffer.array(), indexBuffer.arrayOffset(), indexBuffer.remaining()));
+            int count = in.readInt();
+            Map<String, Entry> entries = new HashMap<>(count * 4 / 3 + 1);
+            for (int i = 0; i < count; i++) {
+                Entry entry = new Entry(in.readUTF(), in.readUTF(), in.readUTF(),
+                        in.readInt(), in.readLong(), in.readInt(), in.readLong(), in.readBoolean(),
+                        readTokens(in), readTokens(in));
+                if (entry.offset < HEADER_SIZE || entry.offset + entry.userFileSize + entry.valuesFileSize
+                        > indexOffset) {
+                    throw new IOException("Wrong profile offset for " + entry.fileName + ".");
+                }
+                entries.put(entry.fileName, entry);
+            }
+            return new ProfileSnapshot(channel, entries);
+        } catch (Exception e) {
+            log.error("Error opening profiles snapshot '{}'. Error : {}", path, e.getMessage());
+            closeQuietly(channel);
+            return null;
+        }
+    }
+
+    /**
+     * @return true in case profile and values files were not changed after the snapshot was written.
+     */
+    static boolean isUpToDate(Entry entry, Path userFile, Path valuesFile) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(userFile, BasicFileAttributes.class);
+            return attributes.size() == entry.userFileSize
+                    && attributes.lastModifiedTime().toMillis() == entry.userFileModified
+                    && sizeOrZero(valuesFile) == entry.valuesFileSize;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    User read(Entry entry) throws IOException {
+        ByteBuffer data = readFully(channel, entry.offset, entry.userFileSize + entry.valuesFileSize);
+        byte[] array = data.array();
+        User user = FileManager.parseUser(array, 0, entry.userFileSize);
+        if (entry.valuesFileSize > 0) {
+            FileManager.applyValues(user,
+                    new ByteArrayInputStream(array, entry.userFileSize, entry.valuesFileSize), entry.valuesFileSize);
+        }
+        return user;
+    }
+
+    /**
+     * Should be called when no more profiles changes are possible and all of them are stored to disk,
+     * otherwise written entries are not matched with profile files and ignored during the next start.
+     *
+     * @return number of profiles within the snapshot
+     */
+    static int write(Path path, Collection<User> users, FileManager fileManager) throws IOException {
+        Path tmpPath = path.resolveSibling(path.getFileName() + ".tmp");
+        int count = 0;
+        try (FileChannel channel = FileChannel.open(tmpPath, CREATE, WRITE, TRUNCATE_EXISTING)) {
+            CountingOutputStream counter = new CountingOutputStream(
+                    new BufferedOutputStream(Channels.newOutputStream(channel), 64 * 1024));
+            DataOutputStream out = new DataOutputStream(counter);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+
+            ByteArrayOutputStream indexBytes = new ByteArrayOutputStream(64 * 1024);
+            DataOutputStream index = new DataOutputStream(indexBytes);
+            List<String> tokens = new ArrayList<>();
+            List<String> sharedTokens = new ArrayList<>();
+            for (User user : users) {
+                Path userFile = fileManager.generateFileName(user.email, user.appName);
+                Path valuesFile = fileManager.generateValuesFileName(user.email, user.appName);
+                BasicFileAttributes attributes;
+                long offset = counter.written;
+                long userFileSize;
+                long valuesFileSize;
+                try {
+                    attributes = Files.readAttributes(userFile, BasicFileAttributes.class);
+                    userFileSize = Files.copy(userFile, out);
+                    valuesFileSize = Files.exists(valuesFile) ? Files.copy(valuesFile, out) : 0;
+                } catch (NoSuchFileException e) {
+                    //profile was not stored, it can't be validated during the start.
+                    //already copied bytes are not within the index, so they are never read
+                    continue;
+                }
+
+                tokens.clear();
+                sharedTokens.clear();
+                for (DashBoard dash : user.profile.dashBoards) {
+                    for (Device device : dash.devices) {
+                        if (device.token != null) {
+                            tokens.add(device.token);
+                        }
+                    }
+                    if (dash.sharedToken != null) {
+                        sharedTokens.add(dash.sharedToken);
+                    }
+                }
+
+                index.writeUTF(user.email);
+                index.writeUTF(user.appName);
+                index.writeUTF(userFile.getFileName().toString());
+                index.writeInt((int) userFileSize);
+                index.writeLong(attributes.lastModifiedTime().toMillis());
+                index.writeInt((int) valuesFileSize);
+                index.writeLong(offset);
+                index.writeBoolean(user.isSuperAdmin);
+                writeTokens(index, tokens);
+                writeTokens(index, sharedTokens);
+                count++;
+            }
+
+            long indexOffset = counter.written;
+            out.writeInt(count);
+            indexBytes.writeTo(out);
+            out.writeLong(indexOffset);
+            out.flush();
+            channel.force(true);
+        }
+        Files.move(tmpPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return count;
+    }
+
+    private static void writeTokens(DataOutputStream out, List<String> tokens) throws IOException {
+        out.writeInt(tokens.size());
+        for (String token : tokens) {
+            out.writeUTF(token);
+        }
+    }
+
+    private static String[] readTokens(DataInputStream in) throws IOException {
+        String[] tokens = new String[in.readInt()];
+        for (int i = 0; i < tokens.length; i++) {
+            tokens[i] = in.readUTF();
+        }
+        return tokens;
+    }
+
+    private static long sizeOrZero(Path path) {
+        try {
+            return Files.size(path);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            //positional read, so profiles may be read from many threads at once
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of snapshot.");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                //ignore
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        closeQuietly(channel);
+    }
+
+    static final class Entry {
+
+        final String email;
+        final String appName;
+        final String fileName;
+        private final int userFileSize;
+        private final long userFileModified;
+        private final int valuesFileSize;
+        private final long offset;
+        final boolean isSuperAdmin;
+        final String[] tokens;
+        final String[] sharedTokens;
+
+        //guarded by entry monitor, see LazyProfileLoader
+        boolean loaded;
+
+        Entry(String email, String appName, String fileName,
+              int userFileSize, long userFileModified, int valuesFileSize, long offset,
+              boolean isSuperAdmin, String[] tokens, String[] sharedTokens) {
+            this.email = email;
+            this.appName = appName;
+            this.fileName = fileName;
+            this.userFileSize = userFileSize;
+            this.userFileModified = userFileModified;
+            this.valuesFileSize = valuesFileSize;
+            this.offset = offset;
+            this.isSuperAdmin = isSuperAdmin;
+            this.tokens = tokens;
+            this.sharedTokens = sharedTokens;
+        }
+    }
+
+    //DataOutputStream counter is int, snapshot may be bigger than 2GB
+    private static final class CountingOutputStream extends FilterOutputStream {
+
+        private long written;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            written++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            written += len;
+        }
+    }
+
+}
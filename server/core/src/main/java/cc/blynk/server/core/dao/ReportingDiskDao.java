@@ -1,20 +1,21 @@
 package cc.blynk.server.core.dao;
 
-import cc.blynk.server.core.dao.functions.GraphFunction;
+import cc.blynk.server.core.dao.functions.GraphDataMerger;
 import cc.blynk.server.core.model.DashBoard;
 import cc.blynk.server.core.model.auth.User;
 import cc.blynk.server.core.model.enums.PinType;
 import cc.blynk.server.core.model.widgets.Widget;
-import cc.blynk.server.core.model.widgets.outputs.graph.AggregationFunctionType;
 import cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType;
 import cc.blynk.server.core.model.widgets.outputs.graph.Superchart;
 import cc.blynk.server.core.protocol.exceptions.NoDataException;
 import cc.blynk.server.core.reporting.GraphPinRequest;
 import cc.blynk.server.core.reporting.average.AverageAggregatorProcessor;
 import cc.blynk.server.core.reporting.raw.BaseReportingKey;
-import cc.blynk.server.core.reporting.raw.GraphValue;
 import cc.blynk.server.core.reporting.raw.RawDataCacheForGraphProcessor;
 import cc.blynk.server.core.reporting.raw.RawDataProcessor;
+import cc.blynk.server.core.reporting.storage.FileReportingStorage;
+import cc.blynk.server.core.reporting.storage.ReportingStorage;
+import cc.blynk.server.core.reporting.wal.ReportingWal;
 import cc.blynk.utils.FileUtils;
 import cc.blynk.utils.NumberUtil;
 import org.apache.logging.log4j.LogManager;
@@ -23,19 +24,16 @@ import org.apache.logging.log4j.Logger;
 import java.io.Closeable;
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
-import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
-import java.util.TreeMap;
+import java.util.Objects;
 import java.util.function.Function;
+import java.util.function.Predicate;
 
 import static cc.blynk.server.internal.EmptyArraysUtil.EMPTY_BYTES;
 import static cc.blynk.utils.FileUtils.CSV_DIR;
-import static cc.blynk.utils.FileUtils.SIZE_OF_REPORT_ENTRY;
 import static cc.blynk.utils.StringUtils.DEVICE_SEPARATOR;
 
 /**
@@ -51,12 +49,15 @@ public class ReportingDiskDao implements Closeable {
     public final RawDataCacheForGraphProcessor rawDataCacheForGraphProcessor;
     public final RawDataProcessor rawDataProcessor;
     public final CSVGenerator csvGenerator;
+    public final ReportingStorage storage;
+    //optional, null when disabled
+    private final ReportingWal wal;
 
     public final String dataFolder;
 
     private final boolean enableRawDbDataStore;
 
-    private static final Function<Path, Boolean> NO_FILTER = s -> true;
+    private static final Function<String, Boolean> NO_FILTER = s -> true;
 
     //for test only
     public ReportingDiskDao(String reportingFolder, AverageAggregatorProcessor averageAggregator,
@@ -67,16 +68,79 @@ public class ReportingDiskDao implements Closeable {
         this.enableRawDbDataStore = isEnabled;
         this.rawDataProcessor = new RawDataProcessor(enableRawDbDataStore);
         this.csvGenerator = new CSVGenerator(this);
+        this.storage = new FileReportingStorage(reportingFolder);
+        this.wal = null;
     }
 
     public ReportingDiskDao(String reportingFolder, boolean isEnabled) {
-        this.averageAggregator = new AverageAggregatorProcessor(reportingFolder);
-        this.rawDataCacheForGraphProcessor = new RawDataCacheForGraphProcessor();
+        this(reportingFolder, isEnabled, new FileReportingStorage(reportingFolder), null,
+                new RawDataProcessor(isEnabled), new RawDataCacheForGraphProcessor());
+    }
+
+    public ReportingDiskDao(String reportingFolder, boolean isEnabled, ReportingStorage storage, ReportingWal wal,
+                            RawDataProcessor rawDataProcessor,
+                            RawDataCacheForGraphProcessor rawDataCacheForGraphProcessor) {
+        this.averageAggregator = new AverageAggregatorProcessor(reportingFolder, wal != null);
+        this.rawDataCacheForGraphProcessor = rawDataCacheForGraphProcessor;
         this.dataFolder = reportingFolder;
         this.enableRawDbDataStore = isEnabled;
-        this.rawDataProcessor = new RawDataProcessor(enableRawDbDataStore);
+        this.rawDataProcessor = rawDataProcessor;
         this.csvGenerator = new CSVGenerator(this);
+        this.storage = storage;
+        this.wal = wal;
         createCSVFolder();
+        if (wal != null) {
+            replayWal(wal);
+        }
+    }
+
+    private void replayWal(ReportingWal wal) {
+        long start = System.currentTimeMillis();
+        try {
+            long replayed = wal.replay(this::restore, averageAggregator.getSnapshotWalPosition());
+            log.info("Replayed {} reporting wal records in {} ms.", replayed, System.currentTimeMillis() - start);
+        } catch (Exception e) {
+            log.error("Error replaying reporting wal. Reason : {}", e.getMessage());
+        }
+        //wal has values that were flushed after the last checkpoint
+        averageAggregator.dropFlushed();
+        //replayed records are kept till the next checkpoint and the raw data store
+        wal.start();
+    }
+
+    private void restore(BaseReportingKey key, long ts, String stringValue, double doubleValue,
+                         boolean raw, boolean average) {
+        if (raw && enableRawDbDataStore) {
+            rawDataProcessor.collect(key, ts, stringValue, doubleValue);
+        }
+        if (average) {
+            averageAggregator.collect(key, ts, doubleValue);
+        }
+    }
+
+    /**
+     * Stores not yet flushed aggregation state, so it could be restored after restart.
+     * Should be called right after flush of the outdated reporting entries.
+     *
+     * @return wal position covered by the stored state, see {@link #truncateWal(long)}
+     */
+    public long checkpoint() {
+        if (wal == null) {
+            averageAggregator.snapshot();
+            return ReportingWal.NO_CHECKPOINT;
+        }
+        return wal.checkpoint(averageAggregator::snapshot);
+    }
+
+    /**
+     * Removes wal records covered by the checkpoint.
+     * Should be called only after raw data collected before the checkpoint is stored as well,
+     * otherwise it is lost in case of crash.
+     */
+    public void truncateWal(long checkpoint) {
+        if (wal != null && checkpoint != ReportingWal.NO_CHECKPOINT) {
+            wal.truncate(checkpoint);
+        }
     }
 
     private static void createCSVFolder() {
@@ -90,17 +154,11 @@ public class ReportingDiskDao implements Closeable {
     public ByteBuffer getByteBufferFromDisk(User user, int dashId, int deviceId,
                                             PinType pinType, short pin, int count,
                                             GraphGranularityType type, int skipCount) {
-        Path userDataFile = Paths.get(
-                dataFolder,
-                FileUtils.getUserStorageDir(user.email, user.appName),
-                generateFilename(dashId, deviceId, pinType, pin, type)
-        );
-        if (Files.exists(userDataFile)) {
-            try {
-                return FileUtils.read(userDataFile, count, skipCount);
-            } catch (Exception ioe) {
-                log.error(ioe);
-            }
+        try {
+            return storage.read(FileUtils.getUserStorageDir(user.email, user.appName),
+                    generateFilename(dashId, deviceId, pinType, pin, type), count, skipCount);
+        } catch (Exception ioe) {
+            log.error(ioe);
         }
 
         return null;
@@ -116,44 +174,18 @@ public class ReportingDiskDao implements Closeable {
     }
 
     private ByteBuffer getDataForTag(User user, GraphPinRequest graphPinRequest) {
-        TreeMap<Long, GraphFunction> data = new TreeMap<>();
-        for (int deviceId : graphPinRequest.deviceIds) {
-            ByteBuffer localByteBuf = getByteBufferFromDisk(user,
-                    graphPinRequest.dashId, deviceId,
+        int[] deviceIds = graphPinRequest.deviceIds;
+        ByteBuffer[] devicesData = new ByteBuffer[deviceIds.length];
+        for (int i = 0; i < deviceIds.length; i++) {
+            devicesData[i] = getByteBufferFromDisk(user,
+                    graphPinRequest.dashId, deviceIds[i],
                     graphPinRequest.pinType, graphPinRequest.pin,
                     graphPinRequest.count, graphPinRequest.type,
                     graphPinRequest.skipCount
             );
-            addBufferToResult(data, graphPinRequest.functionType, localByteBuf);
         }
 
-        return toByteBuf(data);
-    }
-
-    private static void addBufferToResult(TreeMap<Long, GraphFunction> data,
-                                          AggregationFunctionType functionType,
-                                          ByteBuffer localByteBuf) {
-        if (localByteBuf != null) {
-            while (localByteBuf.hasRemaining()) {
-                double newVal = localByteBuf.getDouble();
-                Long ts = localByteBuf.getLong();
-                GraphFunction graphFunctionObj = data.get(ts);
-                if (graphFunctionObj == null) {
-                    graphFunctionObj = functionType.produce();
-                    data.put(ts, graphFunctionObj);
-                }
-                graphFunctionObj.apply(newVal);
-            }
-        }
-    }
-
-    private static ByteBuffer toByteBuf(TreeMap<Long, GraphFunction> data) {
-        ByteBuffer result = ByteBuffer.allocate(data.size() * SIZE_OF_REPORT_ENTRY);
-        for (Map.Entry<Long, GraphFunction> entry : data.entrySet()) {
-            result.putDouble(entry.getValue().getResult())
-                    .putLong(entry.getKey());
-        }
-        return result;
+        return GraphDataMerger.merge(graphPinRequest.functionType, devicesData, deviceIds.length);
     }
 
     private ByteBuffer getByteBufferFromDisk(User user, GraphPinRequest graphPinRequest) {
@@ -174,35 +206,33 @@ public class ReportingDiskDao implements Closeable {
         }
     }
 
-    private Path getUserReportingFolderPath(User user) {
-        return Paths.get(dataFolder, FileUtils.getUserStorageDir(user.email, user.appName));
+    private static String getUserReportingDir(User user) {
+        return FileUtils.getUserStorageDir(user.email, user.appName);
     }
 
     public int delete(User user) {
-        return delete(user, NO_FILTER);
+        log.debug("Removing all reporting data for {}", user.email);
+        removeSeries(key -> isSameUser(key, user));
+        return storage.delete(getUserReportingDir(user), NO_FILTER);
     }
 
-    public int delete(User user, Function<Path, Boolean> filter) {
-        log.debug("Removing all reporting data for {}", user.email);
-        Path reportingFolderPath = getUserReportingFolderPath(user);
+    /**
+     * Removes only stored files of the user that match the filter. Used by the cleaner for the pins
+     * that are not shown on the graphs, so not stored yet raw and aggregated data of these pins is kept.
+     */
+    public int delete(User user, Function<String, Boolean> fileNameFilter) {
+        log.debug("Removing filtered reporting files for {}", user.email);
+        return storage.delete(getUserReportingDir(user), fileNameFilter);
+    }
 
-        int removedFilesCounter = 0;
-        try {
-            if (Files.exists(reportingFolderPath)) {
-                try (DirectoryStream<Path> reportingFolder = Files.newDirectoryStream(reportingFolderPath, "*")) {
-                    for (Path reportingFile : reportingFolder) {
-                        if (filter.apply(reportingFile)) {
-                            log.trace("Removing {}", reportingFile);
-                            FileUtils.deleteQuietly(reportingFile);
-                            removedFilesCounter++;
-                        }
-                    }
-                }
-            }
-        } catch (Exception e) {
-            log.error("Error removing file : {}.", reportingFolderPath);
-        }
-        return removedFilesCounter;
+    private static boolean isSameUser(BaseReportingKey key, User user) {
+        return key.email.equals(user.email) && Objects.equals(key.appName, user.appName);
+    }
+
+    //so ids of the removed series are reused and registries don't grow with every removed pin
+    private void removeSeries(Predicate<BaseReportingKey> filter) {
+        averageAggregator.removeSeries(filter);
+        rawDataProcessor.rawStorage.removeSeries(filter);
     }
 
     private static boolean containsPrefix(List<String> prefixes, String filename) {
@@ -226,101 +256,92 @@ public class ReportingDiskDao implements Closeable {
         return "history_" + dashId + DEVICE_SEPARATOR + deviceId + "_";
     }
 
-    private static void delete(String userReportingDir, int dashId, int deviceId, PinType pinType, short pin,
-                               GraphGranularityType reportGranularity) {
-        Path userDataFile = Paths.get(userReportingDir,
-                generateFilename(dashId, deviceId, pinType, pin, reportGranularity));
-        FileUtils.deleteQuietly(userDataFile);
-    }
-
     public static String generateFilename(int dashId, int deviceId,
                                           PinType pinType, short pin, GraphGranularityType type) {
         return generateFilename(dashId, deviceId, pinType.pintTypeChar, pin, type.label);
     }
 
-    public int delete(User user, int dashId, int deviceId, String[] pins) throws IOException {
+    public int delete(User user, int dashId, int deviceId, String[] pins) {
         log.debug("Removing selected pin data for dashId {}, deviceId {}.", dashId, deviceId);
-        Path userReportingPath = getUserReportingFolderPath(user);
 
-        int count = 0;
         List<String> prefixes = new ArrayList<>();
         for (String pin : pins) {
             prefixes.add(generateFilenamePrefix(dashId, deviceId, pin));
         }
-        try (DirectoryStream<Path> userReportingFolder = Files.newDirectoryStream(userReportingPath, "*")) {
-            for (Path reportingFile : userReportingFolder) {
-                String userFileName = reportingFile.getFileName().toString();
-                if (containsPrefix(prefixes, userFileName)) {
-                    FileUtils.deleteQuietly(reportingFile);
-                    count++;
-                }
-            }
-        }
-        return count;
+        removeSeries(key -> isSameUser(key, user) && containsPrefix(prefixes,
+                generateFilename(key.dashId, key.deviceId, key.pinType, key.pin, GraphGranularityType.MINUTE)));
+        return storage.delete(getUserReportingDir(user), fileName -> containsPrefix(prefixes, fileName));
     }
 
-    public int delete(User user, int dashId, int deviceId) throws IOException {
+    public int delete(User user, int dashId, int deviceId) {
         log.debug("Removing all pin data for dashId {}, deviceId {}.", dashId, deviceId);
-        Path userReportingPath = getUserReportingFolderPath(user);
-
-        int count = 0;
-        if (Files.exists(userReportingPath)) {
-            String fileNamePrefix = generateFilenamePrefix(dashId, deviceId);
-            try (DirectoryStream<Path> userReportingFolder = Files.newDirectoryStream(userReportingPath, "*")) {
-                for (Path reportingFile : userReportingFolder) {
-                    if (reportingFile.getFileName().toString().startsWith(fileNamePrefix)) {
-                        FileUtils.deleteQuietly(reportingFile);
-                        count++;
-                    }
-                }
-            }
-        }
-        return count;
+        String fileNamePrefix = generateFilenamePrefix(dashId, deviceId);
+        removeSeries(key -> isSameUser(key, user) && key.dashId == dashId && key.deviceId == deviceId);
+        return storage.delete(getUserReportingDir(user), fileName -> fileName.startsWith(fileNamePrefix));
     }
 
     public void delete(User user, int dashId, int deviceId, PinType pinType, short pin) {
         log.debug("Removing {}{} pin data for dashId {}, deviceId {}.", pinType.pintTypeChar, pin, dashId, deviceId);
-        String userReportingDir = getUserReportingFolderPath(user).toString();
 
+        List<String> fileNames = new ArrayList<>();
         for (GraphGranularityType reportGranularity : GraphGranularityType.getValues()) {
-            delete(userReportingDir, dashId, deviceId, pinType, pin, reportGranularity);
+            fileNames.add(generateFilename(dashId, deviceId, pinType, pin, reportGranularity));
         }
+        removeSeries(key -> isSameUser(key, user) && key.dashId == dashId && key.deviceId == deviceId
+                && key.pinType == pinType && key.pin == pin);
+        storage.delete(getUserReportingDir(user), fileNames::contains);
     }
 
     public void process(User user, DashBoard dash, int deviceId, short pin, PinType pinType, String value, long ts) {
+        process(user, dash, deviceId, pin, pinType, value, ts, NumberUtil.parseDouble(value));
+    }
+
+    //value is already parsed, for example straight from the bytes of hardware message
+    public void process(User user, DashBoard dash, int deviceId, short pin, PinType pinType,
+                        String value, long ts, double doubleVal) {
         try {
-            double doubleVal = NumberUtil.parseDouble(value);
-            process(user, dash, deviceId, pin, pinType, value, ts, doubleVal);
+            collect(user, dash, deviceId, pin, pinType, value, ts, doubleVal);
         } catch (Exception e) {
             //just in case
             log.trace("Error collecting reporting entry.");
         }
     }
 
-    private void process(User user, DashBoard dash, int deviceId, short pin, PinType pinType,
+    //series are looked up by the key fields, so key is allocated only for the new series
+    private void collect(User user, DashBoard dash, int deviceId, short pin, PinType pinType,
                          String value, long ts, double doubleVal) {
+        BaseReportingKey key = null;
         if (enableRawDbDataStore) {
-            rawDataProcessor.collect(
-                    new BaseReportingKey(user.email, user.appName, dash.id, deviceId, pinType, pin),
-                    ts, value, doubleVal);
+            int seriesId = rawDataProcessor.collect(user.email, user.appName, dash.id, deviceId,
+                    pinType, pin, ts, value, doubleVal);
+            if (wal != null) {
+                key = rawDataProcessor.rawStorage.getKey(seriesId);
+            }
         }
 
+        boolean average = false;
         //not a number, nothing to aggregate
-        if (doubleVal == NumberUtil.NO_RESULT) {
-            return;
-        }
-
-        //store history data only for the pins assigned to the superchart
-        Widget widgetWithLogPins = user.profile.getWidgetWithLoggedPin(dash, deviceId, pin, pinType);
-        if (widgetWithLogPins != null) {
-            BaseReportingKey key = new BaseReportingKey(user.email, user.appName, dash.id, deviceId, pinType, pin);
-            averageAggregator.collect(key, ts, doubleVal);
-            if (widgetWithLogPins instanceof Superchart) {
-                if (((Superchart) widgetWithLogPins).hasLivePeriodsSelected()) {
-                    rawDataCacheForGraphProcessor.collect(key, new GraphValue(doubleVal, ts));
+        if (doubleVal != NumberUtil.NO_RESULT) {
+            //store history data only for the pins assigned to the superchart
+            Widget widgetWithLogPins = user.profile.getWidgetWithLoggedPin(dash, deviceId, pin, pinType);
+            if (widgetWithLogPins != null) {
+                int seriesId = averageAggregator.collect(user.email, user.appName, dash.id, deviceId,
+                        pinType, pin, ts, doubleVal);
+                average = true;
+                boolean live = widgetWithLogPins instanceof Superchart
+                        && ((Superchart) widgetWithLogPins).hasLivePeriodsSelected();
+                if (key == null && (live || wal != null)) {
+                    key = averageAggregator.getKey(seriesId);
+                }
+                if (live && key != null) {
+                    rawDataCacheForGraphProcessor.collect(key, doubleVal, ts);
                 }
             }
         }
+
+        if (wal != null && key != null) {
+            wal.append(key, ts, value, doubleVal, enableRawDbDataStore, average);
+        }
     }
 
     public byte[][] getReportingData(User user, GraphPinRequest[] requestedPins) throws NoDataException {
@@ -350,6 +371,14 @@ public class ReportingDiskDao implements Closeable {
     @Override
     public void close() {
         System.out.println("Stopping aggregator...");
-        this.averageAggregator.close();
+        if (wal == null) {
+            this.averageAggregator.close();
+        } else {
+            //wal is not truncated, as raw data is not stored yet. it is replayed on the next start
+            this.wal.checkpoint(averageAggregator::snapshot);
+            this.wal.close();
+        }
+        this.rawDataProcessor.close();
+        this.storage.close();
     }
 }
@@ -5,7 +5,6 @@ import cc.blynk.server.core.model.auth.User;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import java.util.Collection;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
@@ -21,14 +20,13 @@ public class SharedTokenManager {
 
     final ConcurrentHashMap<String, SharedTokenValue> cache;
 
-    SharedTokenManager(Collection<User> users) {
+    SharedTokenManager() {
         this.cache = new ConcurrentHashMap<>();
-        for (User user : users) {
-            for (DashBoard dashBoard : user.profile.dashBoards) {
-                if (dashBoard.sharedToken != null) {
-                    cache.put(dashBoard.sharedToken, new SharedTokenValue(user, dashBoard.id));
-                }
-            }
+    }
+
+    void index(User user, DashBoard dashBoard) {
+        if (dashBoard.sharedToken != null) {
+            cache.put(dashBoard.sharedToken, new SharedTokenValue(user, dashBoard.id));
         }
     }
 
@@ -6,27 +6,40 @@ import cc.blynk.server.core.model.device.Device;
 import cc.blynk.server.db.DBManager;
 import cc.blynk.utils.TokenGeneratorUtil;
 
-import java.util.Collection;
-import java.util.concurrent.ConcurrentMap;
-
 /**
  * The Blynk Project.
  * Created by Dmitriy Dumanskiy.
  * Created on 14.10.16.
  */
-public class TokenManager {
+public class TokenManager implements ProfileIndexer {
 
     private final RegularTokenManager regularTokenManager;
     private final SharedTokenManager sharedTokenManager;
     private final DBManager dbManager;
     private final String host;
+    private final LazyProfileLoader profileLoader;
+
+    public TokenManager(DBManager dbManager, String host) {
+        this(dbManager, host, null);
+    }
 
-    public TokenManager(ConcurrentMap<UserKey, User> users, DBManager dbManager, String host) {
-        Collection<User> allUsers = users.values();
-        this.regularTokenManager = new RegularTokenManager(allUsers);
-        this.sharedTokenManager = new SharedTokenManager(allUsers);
+    /**
+     * Tokens of the existing profiles are added via {@link ProfileIndexPipeline}.
+     *
+     * @param profileLoader profiles that are not read yet, may be null
+     */
+    public TokenManager(DBManager dbManager, String host, LazyProfileLoader profileLoader) {
+        this.regularTokenManager = new RegularTokenManager();
+        this.sharedTokenManager = new SharedTokenManager();
         this.dbManager = dbManager;
         this.host = host;
+        this.profileLoader = profileLoader;
+    }
+
+    @Override
+    public void index(UserKey userKey, User user, DashBoard dash) {
+        regularTokenManager.index(user, dash);
+        sharedTokenManager.index(user, dash);
     }
 
     public void deleteDevice(Device device) {
@@ -45,11 +58,20 @@ public class TokenManager {
     }
 
     public TokenValue getTokenValueByToken(String token) {
-        return regularTokenManager.getUserByToken(token);
+        TokenValue tokenValue = regularTokenManager.getUserByToken(token);
+        //profile is indexed during the read, so token is within the cache after it
+        if (tokenValue == null && profileLoader != null && profileLoader.loadByToken(token)) {
+            tokenValue = regularTokenManager.getUserByToken(token);
+        }
+        return tokenValue;
     }
 
     public SharedTokenValue getUserBySharedToken(String token) {
-        return sharedTokenManager.getUserByToken(token);
+        SharedTokenValue tokenValue = sharedTokenManager.getUserByToken(token);
+        if (tokenValue == null && profileLoader != null && profileLoader.loadBySharedToken(token)) {
+            tokenValue = sharedTokenManager.getUserByToken(token);
+        }
+        return tokenValue;
     }
 
     public void assignToken(User user, DashBoard dash, Device device, String newToken, boolean isTemporary) {
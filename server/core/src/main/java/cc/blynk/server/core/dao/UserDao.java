@@ -16,6 +16,7 @@ import org.apache.logging.log4j.Logger;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -36,17 +37,27 @@ public class UserDao {
     public final ConcurrentMap<UserKey, User> users;
     private final String region;
     private final String host;
+    private final LazyProfileLoader profileLoader;
 
     public UserDao(ConcurrentMap<UserKey, User> users, String region, String host) {
+        this(users, region, host, null);
+    }
+
+    /**
+     * @param profileLoader profiles that are not read yet, may be null
+     */
+    public UserDao(ConcurrentMap<UserKey, User> users, String region, String host,
+                   LazyProfileLoader profileLoader) {
         //reading DB to RAM.
         this.users = users;
         this.region = region;
         this.host = host;
+        this.profileLoader = profileLoader;
         log.info("Region : {}. Host : {}.", region, host);
     }
 
     public boolean isUserExists(String name, String appName) {
-        return users.get(new UserKey(name, appName)) != null;
+        return getByName(name, appName) != null;
     }
 
     public boolean isSuperAdminExists() {
@@ -55,6 +66,14 @@ public class UserDao {
     }
 
     public User getSuperAdmin() {
+        User superAdmin = findSuperAdmin();
+        if (superAdmin == null && profileLoader != null && profileLoader.loadSuperAdmins()) {
+            superAdmin = findSuperAdmin();
+        }
+        return superAdmin;
+    }
+
+    private User findSuperAdmin() {
         for (User user : users.values()) {
             if (user.isSuperAdmin) {
                 return user;
@@ -64,11 +83,16 @@ public class UserDao {
     }
 
     public User getByName(String name, String appName) {
-        return users.get(new UserKey(name, appName));
+        UserKey userKey = new UserKey(name, appName);
+        User user = users.get(userKey);
+        if (user == null && profileLoader != null && profileLoader.loadByName(userKey)) {
+            user = users.get(userKey);
+        }
+        return user;
     }
 
     public boolean contains(String name, String appName) {
-        return users.containsKey(new UserKey(name, appName));
+        return getByName(name, appName) != null;
     }
 
     //for tests only
@@ -85,7 +109,22 @@ public class UserDao {
                 && (appName == null || user.appName.equals(appName))).collect(Collectors.toList());
     }
 
+    /**
+     * Reads all profiles that are not read yet. Blocks till they are read,
+     * so should be used only by the rare operations that need every user.
+     */
+    public Collection<User> getAllUsers() {
+        if (profileLoader != null && !profileLoader.isLoaded()) {
+            profileLoader.loadAll();
+        }
+        return users.values();
+    }
+
     public User delete(UserKey userKey) {
+        //not read profile is read first, so it is not read again after the removal
+        if (profileLoader != null) {
+            profileLoader.loadByName(userKey);
+        }
         return users.remove(userKey);
     }
 
@@ -0,0 +1,238 @@
+package cc.blynk.server.core.dao.functions;
+
+import cc.blynk.server.core.model.widgets.outputs.graph.AggregationFunctionType;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static cc.blynk.utils.FileUtils.SIZE_OF_REPORT_ENTRY;
+
+/**
+ * Merges graph data of few devices (tag) into single graph.
+ * Values with the same timestamp are aggregated with provided {@link AggregationFunctionType}.
+ *
+ * Device buffers are already ordered by time, so k-way merge over them is used :
+ * min-heap of buffers by the timestamp of the current entry, all entries with the smallest timestamp
+ * are aggregated with primitive accumulator and written to the result right away.
+ * When all devices have entry with the same timestamp (the most common case, as graph data is
+ * aligned to the granularity) entries are taken in single pass without heap operations.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+public final class GraphDataMerger {
+
+    private final AggregationFunctionType functionType;
+    private final ByteBuffer[] buffers;
+    //indexes of buffers with remaining entries, ordered by the ts of the current entry
+    private final int[] heap;
+    //ts of the current entry of the heap buffers, so heap doesn't touch buffers on every comparison
+    private final long[] heapTs;
+    private int heapSize;
+
+    //accumulator state for the current ts
+    private double accumulator;
+    private int count;
+    //values of the current ts, used only for median
+    private double[] values;
+
+    private GraphDataMerger(AggregationFunctionType functionType, ByteBuffer[] buffers, int buffersCount) {
+        this.functionType = functionType;
+        this.buffers = buffers;
+        this.heap = new int[buffersCount];
+        this.heapTs = new long[buffersCount];
+        this.values = functionType == AggregationFunctionType.MED ? new double[Math.max(1, buffersCount)] : null;
+    }
+
+    /**
+     * @param buffers      - devices data in reporting entry format (value (double), ts (long)), null means no data
+     * @param buffersCount - number of buffers to merge
+     * @return merged data, array of the buffer holds only merged entries
+     */
+    public static ByteBuffer merge(AggregationFunctionType functionType, ByteBuffer[] buffers, int buffersCount) {
+        return new GraphDataMerger(functionType, buffers, buffersCount).merge(buffersCount);
+    }
+
+    private ByteBuffer merge(int buffersCount) {
+        //devices usually report with the same granularity, so result is not bigger than the biggest series
+        int maxEntries = 0;
+        for (int i = 0; i < buffersCount; i++) {
+            ByteBuffer buffer = buffers[i];
+            if (buffer != null && buffer.remaining() >= SIZE_OF_REPORT_ENTRY) {
+                sortIfNeeded(buffer);
+                maxEntries = Math.max(maxEntries, buffer.remaining() / SIZE_OF_REPORT_ENTRY);
+                heap[heapSize] = i;
+                heapTs[heapSize] = currentTs(buffer);
+                heapSize++;
+            }
+        }
+        heapify();
+        boolean aligned = isAligned();
+
+        ByteBuffer result = ByteBuffer.allocate(maxEntries * SIZE_OF_REPORT_ENTRY);
+        while (heapSize > 0) {
+            long ts = heapTs[0];
+            count = 0;
+            if (aligned) {
+                //all devices have entry with same ts, so no need in heap operations for every entry
+                int size = 0;
+                for (int i = 0; i < heapSize; i++) {
+                    ByteBuffer buffer = buffers[heap[i]];
+                    //same ts may be stored few times within one series
+                    do {
+                        apply(buffer.getDouble());
+                        buffer.getLong();
+                    } while (buffer.remaining() >= SIZE_OF_REPORT_ENTRY && currentTs(buffer) == ts);
+                    if (buffer.remaining() >= SIZE_OF_REPORT_ENTRY) {
+                        heap[size] = heap[i];
+                        heapTs[size] = currentTs(buffer);
+                        size++;
+                    }
+                }
+                heapSize = size;
+                heapify();
+                aligned = isAligned();
+            } else {
+                int heapSizeBefore = heapSize;
+                do {
+                    ByteBuffer buffer = buffers[heap[0]];
+                    apply(buffer.getDouble());
+                    buffer.getLong();
+                    if (buffer.remaining() < SIZE_OF_REPORT_ENTRY) {
+                        heapSize--;
+                        heap[0] = heap[heapSize];
+                        heapTs[0] = heapTs[heapSize];
+                    } else {
+                        heapTs[0] = currentTs(buffer);
+                    }
+                    if (heapSize > 0) {
+                        siftDown(0);
+                    }
+                } while (heapSize > 0 && heapTs[0] == ts);
+                //check is linear, so it is done only when most of devices had same ts
+                if (count * 2 >= heapSizeBefore) {
+                    aligned = isAligned();
+                }
+            }
+
+            if (!result.hasRemaining()) {
+                result = ByteBuffer.wrap(Arrays.copyOf(result.array(), result.capacity() * 2))
+                        .position(result.position());
+            }
+            result.putDouble(getResult()).putLong(ts);
+        }
+
+        if (result.hasRemaining()) {
+            //devices have different timestamps, so result differs from the biggest series
+            return ByteBuffer.wrap(Arrays.copyOf(result.array(), result.position()));
+        }
+        result.flip();
+        return result;
+    }
+
+    private void apply(double value) {
+        switch (functionType) {
+            case MIN :
+                accumulator = count == 0 ? value : Math.min(accumulator, value);
+                break;
+            case MAX :
+                accumulator = count == 0 ? value : Math.max(accumulator, value);
+                break;
+            case MED :
+                if (count == values.length) {
+                    values = Arrays.copyOf(values, count * 2);
+                }
+                values[count] = value;
+                break;
+            default :
+                accumulator = count == 0 ? value : accumulator + value;
+                break;
+        }
+        count++;
+    }
+
+    private double getResult() {
+        switch (functionType) {
+            case AVG :
+                return accumulator / count;
+            case MED :
+                Arrays.sort(values, 0, count);
+                int middle = count / 2;
+                if (count % 2 == 0) {
+                    return (values[middle] + values[middle - 1]) / 2;
+                }
+                return values[middle];
+            default :
+                return accumulator;
+        }
+    }
+
+    private void heapify() {
+        for (int i = heapSize / 2 - 1; i >= 0; i--) {
+            siftDown(i);
+        }
+    }
+
+    private boolean isAligned() {
+        for (int i = 1; i < heapSize; i++) {
+            if (heapTs[i] != heapTs[0]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long currentTs(ByteBuffer buffer) {
+        return buffer.getLong(buffer.position() + 8);
+    }
+
+    private void siftDown(int i) {
+        int bufferIndex = heap[i];
+        long ts = heapTs[i];
+        int half = heapSize / 2;
+        while (i < half) {
+            int child = 2 * i + 1;
+            long childTs = heapTs[child];
+            int right = child + 1;
+            if (right < heapSize && heapTs[right] < childTs) {
+                child = right;
+                childTs = heapTs[right];
+            }
+            if (ts <= childTs) {
+                break;
+            }
+            heap[i] = heap[child];
+            heapTs[i] = childTs;
+            i = child;
+        }
+        heap[i] = bufferIndex;
+        heapTs[i] = ts;
+    }
+
+    /**
+     * Entries are appended to the series in the order they were flushed, so in rare cases
+     * (e.g. restored aggregation state) series may be not ordered by time.
+     * Insertion sort is used, as such series are almost sorted.
+     */
+    private static void sortIfNeeded(ByteBuffer buffer) {
+        int start = buffer.position();
+        int end = start + buffer.remaining() / SIZE_OF_REPORT_ENTRY * SIZE_OF_REPORT_ENTRY;
+        for (int i = start + SIZE_OF_REPORT_ENTRY; i < end; i += SIZE_OF_REPORT_ENTRY) {
+            long ts = buffer.getLong(i + 8);
+            if (ts >= buffer.getLong(i - SIZE_OF_REPORT_ENTRY + 8)) {
+                continue;
+            }
+            double value = buffer.getDouble(i);
+            int j = i - SIZE_OF_REPORT_ENTRY;
+            while (j >= start && buffer.getLong(j + 8) > ts) {
+                buffer.putDouble(j + SIZE_OF_REPORT_ENTRY, buffer.getDouble(j));
+                buffer.putLong(j + SIZE_OF_REPORT_ENTRY + 8, buffer.getLong(j + 8));
+                j -= SIZE_OF_REPORT_ENTRY;
+            }
+            buffer.putDouble(j + SIZE_OF_REPORT_ENTRY, value);
+            buffer.putLong(j + SIZE_OF_REPORT_ENTRY + 8, ts);
+        }
+    }
+
+}
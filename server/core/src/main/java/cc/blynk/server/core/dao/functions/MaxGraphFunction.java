@@ -7,7 +7,7 @@ package cc.blynk.server.core.dao.functions;
  */
 public class MaxGraphFunction implements GraphFunction {
 
-    private double value = Double.MIN_VALUE;
+    private double value = -Double.MAX_VALUE;
 
     @Override
     public void apply(double newValue) {
@@ -100,9 +100,25 @@ public class DashBoard {
     @Deprecated
     public Map<PinStorageKey, PinStorageValue> pinsStorage = Collections.emptyMap();
 
+    private transient volatile DashPinIndex pinIndex = DashPinIndex.EMPTY;
+
+    /**
+     * Index is rebuilt when widgets array was replaced. Concurrent rebuilds are fine,
+     * as all of them build same index for the same array.
+     */
+    public DashPinIndex getPinIndex() {
+        DashPinIndex index = this.pinIndex;
+        Widget[] widgets = this.widgets;
+        if (index.widgets != widgets) {
+            index = new DashPinIndex(widgets);
+            this.pinIndex = index;
+        }
+        return index;
+    }
+
     public boolean updateWidgets(int deviceId, short pin, PinType type, String value) {
         boolean hasWidget = false;
-        for (Widget widget : widgets) {
+        for (Widget widget : getPinIndex().getWidgets(deviceId, pin, type)) {
             if (widget.updateIfSame(deviceId, pin, type, value)) {
                 hasWidget = true;
             }
@@ -110,6 +126,49 @@ public class DashBoard {
         return hasWidget;
     }
 
+    /**
+     * Pin writes of the multi value widgets (terminal lines, table and lcd commands) are the stream
+     * of commands, so they are never replaced by the next write of the same pin.
+     * Pins of other devices are checked as well, as widget may be assigned to the device selector.
+     */
+    public boolean isMultiValuePin(int deviceId, short pin, PinType type) {
+        DashPinIndex index = getPinIndex();
+        if (index.hasMultiValueWidget(pin, type)) {
+            return true;
+        }
+        //tile templates are changed without widgets replacement, so they are not within index
+        for (Widget widget : index.getWidgets(deviceId, pin, type)) {
+            if (widget instanceof DeviceTiles) {
+                for (TileTemplate template : ((DeviceTiles) widget).templates) {
+                    for (Widget templateWidget : template.widgets) {
+                        if (templateWidget.isMultiValueWidget() && usesPin(templateWidget, pin, type)) {
+                            return true;
+                        }
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean usesPin(Widget widget, short pin, PinType type) {
+        if (widget instanceof OnePinWidget) {
+            OnePinWidget onePinWidget = (OnePinWidget) widget;
+            return onePinWidget.pin == pin && onePinWidget.pinType == type;
+        }
+        if (widget instanceof MultiPinWidget) {
+            DataStream[] dataStreams = ((MultiPinWidget) widget).dataStreams;
+            if (dataStreams != null) {
+                for (DataStream dataStream : dataStreams) {
+                    if (dataStream != null && dataStream.isSame(pin, type)) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
     public String getNameOrEmpty() {
         return name == null ? "" : name;
     }
@@ -193,12 +252,10 @@ public class DashBoard {
     }
 
     public WebHook findWebhookByPin(int deviceId, short pin, PinType pinType) {
-        for (Widget widget : widgets) {
-            if (widget instanceof WebHook) {
-                WebHook webHook = (WebHook) widget;
-                if (webHook.isSameWebHook(deviceId, pin, pinType)) {
-                    return webHook;
-                }
+        for (Widget widget : getPinIndex().getWebHooks(deviceId, pin, pinType)) {
+            WebHook webHook = (WebHook) widget;
+            if (webHook.isSameWebHook(deviceId, pin, pinType)) {
+                return webHook;
             }
         }
         return null;
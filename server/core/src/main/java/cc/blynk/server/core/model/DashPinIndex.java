@@ -0,0 +1,261 @@
+package cc.blynk.server.core.model;
+
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.model.widgets.MultiPinWidget;
+import cc.blynk.server.core.model.widgets.OnePinWidget;
+import cc.blynk.server.core.model.widgets.Widget;
+import cc.blynk.server.core.model.widgets.others.eventor.Eventor;
+import cc.blynk.server.core.model.widgets.others.eventor.Rule;
+import cc.blynk.server.core.model.widgets.others.webhook.WebHook;
+import cc.blynk.server.core.model.widgets.outputs.graph.GraphDataStream;
+import cc.blynk.server.core.model.widgets.outputs.graph.Superchart;
+import cc.blynk.server.core.model.widgets.ui.reporting.ReportingWidget;
+import cc.blynk.server.core.model.widgets.ui.tiles.DeviceTiles;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static cc.blynk.server.internal.EmptyArraysUtil.EMPTY_WIDGETS;
+
+/**
+ * Immutable index of the dashboard widgets by the pin, so hardware write doesn't scan all widgets
+ * of the dashboard few times (widgets update, history graph check, webhooks and eventor rules).
+ *
+ * Index returns candidates only, in the same order as they are within dashboard,
+ * callers still check every candidate with the same widget methods as before.
+ * Device tiles and reporting widgets are returned for any pin, as their content
+ * is changed without replacing the widget.
+ *
+ * Index is built for the widgets array. Widgets array is never modified in place, but replaced,
+ * so new index is built lazily on the first access after the array replacement.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+public final class DashPinIndex {
+
+    private static final Rule[] EMPTY_RULES = {};
+    //used for the keys without device id
+    private static final int ANY_DEVICE = -1;
+
+    static final DashPinIndex EMPTY = new DashPinIndex(EMPTY_WIDGETS);
+
+    //widgets array index was built for
+    final Widget[] widgets;
+
+    //widgets that may be updated by the pin of the device
+    private final PinTable<Widget[]> widgetsByPin;
+    //history graph widgets that may have the pin
+    private final PinTable<Widget[]> loggedByPin;
+    private final PinTable<Widget[]> webHooksByPin;
+    //terminal, table and lcd widgets of the pin for any device, their pin writes are commands, not a state
+    private final PinTable<Widget[]> multiValueByPin;
+    private final PinTable<Rule[]> rulesByPin;
+
+    public final Eventor eventor;
+
+    DashPinIndex(Widget[] widgets) {
+        this.widgets = widgets;
+
+        Map<Long, List<Widget>> widgetsMap = new LinkedHashMap<>();
+        Map<Long, List<Widget>> loggedMap = new LinkedHashMap<>();
+        Map<Long, List<Widget>> webHooksMap = new LinkedHashMap<>();
+        Map<Long, List<Widget>> multiValueMap = new LinkedHashMap<>();
+        Map<Long, List<Rule>> rulesMap = new LinkedHashMap<>();
+        //tiles and reports are changed without widget replacement, so they are checked for any pin
+        List<Widget> anyPinWidgets = new ArrayList<>();
+        List<Widget> anyPinLogged = new ArrayList<>();
+        Eventor eventor = null;
+
+        for (Widget widget : widgets) {
+            if (widget instanceof WebHook) {
+                WebHook webHook = (WebHook) widget;
+                for (PinType pinType : PinType.values()) {
+                    if (webHook.isSameWebHook(webHook.deviceId, webHook.pin, pinType)) {
+                        add(webHooksMap, key(webHook.deviceId, pinType, webHook.pin), webHook, List.of());
+                    }
+                }
+            } else if (widget instanceof OnePinWidget) {
+                OnePinWidget onePinWidget = (OnePinWidget) widget;
+                for (PinType pinType : PinType.values()) {
+                    if (onePinWidget.isSame(onePinWidget.deviceId, onePinWidget.pin, pinType)) {
+                        add(widgetsMap, key(onePinWidget.deviceId, pinType, onePinWidget.pin),
+                                widget, anyPinWidgets);
+                        if (widget.isMultiValueWidget()) {
+                            add(multiValueMap, key(ANY_DEVICE, pinType, onePinWidget.pin), widget, List.of());
+                        }
+                    }
+                }
+            } else if (widget instanceof MultiPinWidget) {
+                MultiPinWidget multiPinWidget = (MultiPinWidget) widget;
+                if (multiPinWidget.dataStreams != null) {
+                    for (DataStream dataStream : multiPinWidget.dataStreams) {
+                        addDataStream(widgetsMap, multiPinWidget.deviceId, dataStream, widget, anyPinWidgets);
+                        if (widget.isMultiValueWidget()) {
+                            addDataStream(multiValueMap, ANY_DEVICE, dataStream, widget, List.of());
+                        }
+                    }
+                }
+            } else if (widget instanceof Superchart) {
+                for (GraphDataStream graphDataStream : ((Superchart) widget).dataStreams) {
+                    if (graphDataStream != null) {
+                        addDataStream(loggedMap, ANY_DEVICE, graphDataStream.dataStream, widget, anyPinLogged);
+                    }
+                }
+            } else if (widget instanceof DeviceTiles) {
+                addToAll(widgetsMap, anyPinWidgets, widget);
+                addToAll(loggedMap, anyPinLogged, widget);
+            } else if (widget instanceof ReportingWidget) {
+                addToAll(loggedMap, anyPinLogged, widget);
+            } else if (widget instanceof Eventor && eventor == null) {
+                eventor = (Eventor) widget;
+                if (eventor.rules != null) {
+                    for (Rule rule : eventor.rules) {
+                        DataStream trigger = rule.triggerDataStream;
+                        for (PinType pinType : PinType.values()) {
+                            if (trigger != null && trigger.isSame(trigger.pin, pinType)) {
+                                add(rulesMap, key(ANY_DEVICE, pinType, trigger.pin), rule, List.of());
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        this.widgetsByPin = new PinTable<>(toArrays(widgetsMap, EMPTY_WIDGETS), anyPinWidgets.toArray(EMPTY_WIDGETS));
+        this.loggedByPin = new PinTable<>(toArrays(loggedMap, EMPTY_WIDGETS), anyPinLogged.toArray(EMPTY_WIDGETS));
+        this.webHooksByPin = new PinTable<>(toArrays(webHooksMap, EMPTY_WIDGETS), EMPTY_WIDGETS);
+        this.multiValueByPin = new PinTable<>(toArrays(multiValueMap, EMPTY_WIDGETS), EMPTY_WIDGETS);
+        this.rulesByPin = new PinTable<>(toArrays(rulesMap, EMPTY_RULES), EMPTY_RULES);
+        this.eventor = eventor;
+    }
+
+    private static long key(int deviceId, PinType pinType, short pin) {
+        return ((long) deviceId << 32) | (pinType.ordinal() << 16) | (pin & 0xFFFF);
+    }
+
+    private static void addDataStream(Map<Long, List<Widget>> map, int deviceId, DataStream dataStream,
+                                      Widget widget, List<Widget> anyPin) {
+        if (dataStream != null) {
+            for (PinType pinType : PinType.values()) {
+                if (dataStream.isSame(dataStream.pin, pinType)) {
+                    add(map, key(deviceId, pinType, dataStream.pin), widget, anyPin);
+                }
+            }
+        }
+    }
+
+    /**
+     * New key starts with widgets for any pin that are before the widget within dashboard,
+     * so widgets order is always the same as within dashboard.
+     */
+    private static <T> void add(Map<Long, List<T>> map, long key, T value, List<? extends T> anyPin) {
+        List<T> list = map.get(key);
+        if (list == null) {
+            list = new ArrayList<>(anyPin);
+            map.put(key, list);
+        }
+        //widget may have few data streams with same pin
+        if (list.isEmpty() || list.get(list.size() - 1) != value) {
+            list.add(value);
+        }
+    }
+
+    private static void addToAll(Map<Long, List<Widget>> map, List<Widget> anyPin, Widget widget) {
+        anyPin.add(widget);
+        for (List<Widget> list : map.values()) {
+            list.add(widget);
+        }
+    }
+
+    private static <T> Map<Long, T[]> toArrays(Map<Long, List<T>> map, T[] empty) {
+        Map<Long, T[]> result = new LinkedHashMap<>();
+        for (Map.Entry<Long, List<T>> entry : map.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().toArray(empty));
+        }
+        return result;
+    }
+
+    /**
+     * @return widgets that may be updated with the value of the device pin.
+     */
+    public Widget[] getWidgets(int deviceId, short pin, PinType pinType) {
+        return widgetsByPin.get(key(deviceId, pinType, pin));
+    }
+
+    /**
+     * @return widgets that may store history of the pin for some device.
+     */
+    public Widget[] getLoggedPinWidgets(short pin, PinType pinType) {
+        return loggedByPin.get(key(ANY_DEVICE, pinType, pin));
+    }
+
+    /**
+     * @return true if pin of some device is used by the multi value widget (terminal, table or lcd).
+     */
+    public boolean hasMultiValueWidget(short pin, PinType pinType) {
+        return multiValueByPin.get(key(ANY_DEVICE, pinType, pin)).length > 0;
+    }
+
+    public Widget[] getWebHooks(int deviceId, short pin, PinType pinType) {
+        return webHooksByPin.get(key(deviceId, pinType, pin));
+    }
+
+    /**
+     * @return eventor rules triggered by the pin, in the order of the eventor rules.
+     */
+    public Rule[] getEventorRules(short pin, PinType pinType) {
+        return rulesByPin.get(key(ANY_DEVICE, pinType, pin));
+    }
+
+    /**
+     * Open addressing hash table with primitive long keys, so lookup doesn't create any garbage.
+     * Table is never modified after creation.
+     */
+    private static final class PinTable<T> {
+
+        private final long[] keys;
+        private final Object[] values;
+        private final int mask;
+        private final T defaultValue;
+
+        PinTable(Map<Long, T> map, T defaultValue) {
+            int capacity = Integer.highestOneBit(Math.max(1, map.size()) * 2 - 1) << 1;
+            this.keys = new long[capacity];
+            this.values = new Object[capacity];
+            this.mask = capacity - 1;
+            this.defaultValue = defaultValue;
+            for (Map.Entry<Long, T> entry : map.entrySet()) {
+                long key = entry.getKey();
+                int i = index(key);
+                while (values[i] != null) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = key;
+                values[i] = entry.getValue();
+            }
+        }
+
+        private int index(long key) {
+            long hash = key * 0x9E3779B97F4A7C15L;
+            return (int) (hash ^ (hash >>> 32)) & mask;
+        }
+
+        @SuppressWarnings("unchecked")
+        T get(long key) {
+            int i = index(key);
+            Object value;
+            while ((value = values[i]) != null) {
+                if (keys[i] == key) {
+                    return (T) value;
+                }
+                i = (i + 1) & mask;
+            }
+            return defaultValue;
+        }
+    }
+
+}
@@ -10,6 +10,7 @@ import cc.blynk.server.core.model.serialization.JsonParser;
 import cc.blynk.server.core.model.serialization.View;
 import cc.blynk.server.core.model.storage.DashPinStorageKeyDeserializer;
 import cc.blynk.server.core.model.storage.PinStorageValueDeserializer;
+import cc.blynk.server.core.model.storage.PinValueJournal;
 import cc.blynk.server.core.model.storage.key.DashPinPropertyStorageKey;
 import cc.blynk.server.core.model.storage.key.DashPinStorageKey;
 import cc.blynk.server.core.model.storage.value.PinStorageValue;
@@ -57,6 +58,9 @@ public class Profile {
                      contentUsing = PinStorageValueDeserializer.class)
     public final Map<DashPinStorageKey, PinStorageValue> pinsStorage = new HashMap<>();
 
+    //pin values that are not stored to disk yet
+    public final transient PinValueJournal valueJournal = new PinValueJournal();
+
     //todo this method is very wrong, need to something with it.
     private static final DashBoard EMPTY_DASH = new DashBoard();
     public DashBoard getFirstDashOrEmpty() {
@@ -298,12 +302,21 @@ public class Profile {
     }
 
     public void update(DashBoard dash, int deviceId, short pin, PinType pinType, String value, long now) {
+        updateValue(dash, deviceId, pin, pinType, value);
+        //value changes are not a profile change, so dash.updatedAt is not touched here
+        valueJournal.record(dash.id, deviceId, pinType, pin, value, now);
+    }
+
+    //same as update, but not recorded to the journal. Used for the journal replay
+    public void updateValue(DashBoard dash, int deviceId, short pin, PinType pinType, String value) {
         if (!dash.updateWidgets(deviceId, pin, pinType, value)) {
             //special case. #237 if no widget - storing without widget.
             putPinStorageValue(dash, deviceId, pinType, pin, value);
         }
+    }
 
-        dash.updatedAt = now;
+    public boolean isValuesUpdated(long lastStart) {
+        return lastStart <= valueJournal.getUpdatedAt();
     }
 
     public void putPinPropertyStorageValue(DashBoard dash, int deviceId, PinType type, short pin,
@@ -325,7 +338,7 @@ public class Profile {
     }
 
     public Widget getWidgetWithLoggedPin(DashBoard dash, int deviceId, short pin, PinType pinType) {
-        for (Widget widget : dash.widgets) {
+        for (Widget widget : dash.getPinIndex().getLoggedPinWidgets(pin, pinType)) {
             if (widget instanceof Superchart) {
                 Superchart graph = (Superchart) widget;
                 if (isWithinGraph(dash, graph, pin, pinType, deviceId)) {
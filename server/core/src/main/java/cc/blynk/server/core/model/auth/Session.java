@@ -1,19 +1,25 @@
 package cc.blynk.server.core.model.auth;
 
 import cc.blynk.server.common.BaseSimpleChannelInboundHandler;
+import cc.blynk.server.core.model.DashBoard;
 import cc.blynk.server.core.protocol.handlers.decoders.MessageDecoder;
 import cc.blynk.server.core.protocol.handlers.decoders.MobileMessageDecoder;
+import cc.blynk.server.core.protocol.handlers.decoders.WSMessageDecoder;
+import cc.blynk.server.core.protocol.handlers.encoders.FanOut;
 import cc.blynk.server.core.protocol.model.messages.StringMessage;
+import cc.blynk.server.core.protocol.model.messages.common.HardwareBufMessage;
 import cc.blynk.server.core.session.HardwareStateHolder;
+import cc.blynk.server.internal.QuotaLimitChecker;
+import cc.blynk.server.internal.TokenBucket;
 import cc.blynk.utils.ArrayUtil;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFutureListener;
-import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.EventLoop;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import java.util.HashSet;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -21,7 +27,6 @@ import static cc.blynk.server.internal.CommonByteBufUtil.deviceOffline;
 import static cc.blynk.server.internal.CommonByteBufUtil.makeUTF8StringMessage;
 import static cc.blynk.server.internal.StateHolderUtil.getHardState;
 import static cc.blynk.server.internal.StateHolderUtil.isSameDash;
-import static cc.blynk.server.internal.StateHolderUtil.isSameDashAndDeviceId;
 import static cc.blynk.utils.StringUtils.prependDashIdAndDeviceId;
 
 /**
@@ -34,40 +39,69 @@ import static cc.blynk.utils.StringUtils.prependDashIdAndDeviceId;
 public class Session {
 
     private static final Logger log = LogManager.getLogger(Session.class);
+    private static final Channel[] EMPTY_CHANNELS = {};
 
     public final EventLoop initialEventLoop;
     public final Set<Channel> appChannels = ConcurrentHashMap.newKeySet();
     public final Set<Channel> hardwareChannels = ConcurrentHashMap.newKeySet();
+    //hardware channels by dash and device id, so routing to the device doesn't scan all hardware channels
+    private final ConcurrentHashMap<Long, Channel[]> deviceChannels = new ConcurrentHashMap<>();
 
     private final ChannelFutureListener appRemover = future -> appChannels.remove(future.channel());
-    private final ChannelFutureListener hardRemover = future -> hardwareChannels.remove(future.channel());
+
+    //message quota shared by all channels of the user, created by the first logged in channel
+    private volatile TokenBucket userQuota;
 
     public Session(EventLoop initialEventLoop) {
         this.initialEventLoop = initialEventLoop;
     }
 
-    public boolean isSameEventLoop(ChannelHandlerContext ctx) {
-        return isSameEventLoop(ctx.channel());
-    }
-
-    public boolean isSameEventLoop(Channel channel) {
-        return initialEventLoop == channel.eventLoop();
+    private static QuotaLimitChecker getQuotaLimitChecker(Channel channel) {
+        MessageDecoder messageDecoder = channel.pipeline().get(MessageDecoder.class);
+        if (messageDecoder != null) {
+            return messageDecoder.getQuotaLimitChecker();
+        }
+        MobileMessageDecoder mobileMessageDecoder = channel.pipeline().get(MobileMessageDecoder.class);
+        if (mobileMessageDecoder != null) {
+            return mobileMessageDecoder.getQuotaLimitChecker();
+        }
+        WSMessageDecoder wsMessageDecoder = channel.pipeline().get(WSMessageDecoder.class);
+        if (wsMessageDecoder != null) {
+            return wsMessageDecoder.getQuotaLimitChecker();
+        }
+        return null;
     }
 
     private static int getRequestRate(Set<Channel> channels) {
-        double sum = 0;
+        int sum = 0;
         for (Channel ch : channels) {
-            MessageDecoder messageDecoder = ch.pipeline().get(MessageDecoder.class);
-            if (messageDecoder != null) {
-                sum += messageDecoder.getQuotaMeter().getOneMinuteRateNoTick();
-            } else {
-                MobileMessageDecoder mobileMessageDecoder = ch.pipeline().get(MobileMessageDecoder.class);
-                if (mobileMessageDecoder != null) {
-                    sum += mobileMessageDecoder.getQuotaMeter().getOneMinuteRateNoTick();
+            QuotaLimitChecker limitChecker = getQuotaLimitChecker(ch);
+            if (limitChecker != null) {
+                sum += limitChecker.getMessageRate();
+            }
+        }
+        return sum;
+    }
+
+    private void attachUserQuota(Channel channel) {
+        QuotaLimitChecker limitChecker = getQuotaLimitChecker(channel);
+        if (limitChecker != null) {
+            limitChecker.attachUserQuota(this);
+        }
+    }
+
+    public TokenBucket getUserQuota(int userQuotaLimit) {
+        TokenBucket userQuota = this.userQuota;
+        if (userQuota == null) {
+            synchronized (this) {
+                userQuota = this.userQuota;
+                if (userQuota == null) {
+                    userQuota = new TokenBucket(userQuotaLimit, userQuotaLimit, System.currentTimeMillis());
+                    this.userQuota = userQuota;
                 }
             }
         }
-        return (int) sum;
+        return userQuota;
     }
 
     public static boolean needSync(Channel channel, String sharedToken) {
@@ -77,70 +111,113 @@ public class Session {
 
     public void addAppChannel(Channel appChannel) {
         if (appChannels.add(appChannel)) {
+            attachUserQuota(appChannel);
             appChannel.closeFuture().addListener(appRemover);
         }
     }
 
-    public void addHardChannel(Channel hardChannel) {
+    private static long deviceKey(int dashId, int deviceId) {
+        return ((long) dashId << 32) | (deviceId & 0xFFFFFFFFL);
+    }
+
+    public void addHardChannel(Channel hardChannel, int dashId, int deviceId) {
         if (hardwareChannels.add(hardChannel)) {
-            hardChannel.closeFuture().addListener(hardRemover);
+            attachUserQuota(hardChannel);
+            long key = deviceKey(dashId, deviceId);
+            deviceChannels.compute(key, (k, channels) -> channels == null
+                    ? new Channel[] {hardChannel}
+                    : ArrayUtil.add(channels, hardChannel, Channel.class));
+            hardChannel.closeFuture().addListener(future -> {
+                hardwareChannels.remove(hardChannel);
+                deviceChannels.computeIfPresent(key, (k, channels) -> removeChannel(channels, hardChannel));
+            });
         }
     }
 
-    private Set<Channel> filter(int bodySize, int activeDashId, int[] deviceIds) {
-        Set<Channel> targetChannels = new HashSet<>();
-        for (Channel channel : hardwareChannels) {
-            HardwareStateHolder hardwareState = getHardState(channel);
-            if (hardwareState != null && hardwareState.dash.id == activeDashId
-                    && (deviceIds.length == 0 || ArrayUtil.contains(deviceIds, hardwareState.device.id))) {
-                if (hardwareState.device.fitsBufferSize(bodySize)) {
-                    targetChannels.add(channel);
-                } else {
-                    log.trace("Message is to large. Size {}.", bodySize);
-                }
+    private static Channel[] removeChannel(Channel[] channels, Channel channel) {
+        for (int i = 0; i < channels.length; i++) {
+            if (channels[i] == channel) {
+                //null removes the mapping
+                return channels.length == 1 ? null : ArrayUtil.remove(channels, i, Channel.class);
             }
         }
-        return targetChannels;
+        return channels;
     }
 
-    private Set<Channel> filter(int bodySize, int activeDashId, int deviceId) {
-        Set<Channel> targetChannels = new HashSet<>();
-        for (Channel channel : hardwareChannels) {
-            HardwareStateHolder hardwareState = getHardState(channel);
-            if (hardwareState != null && hardwareState.isSameDashAndDeviceId(activeDashId, deviceId)) {
-                if (hardwareState.device.fitsBufferSize(bodySize)) {
-                    targetChannels.add(channel);
-                } else {
-                    log.trace("Message is to large. Size {}.", bodySize);
-                }
-            }
+    /**
+     * @return hardware channels of the device, array should not be modified.
+     */
+    public Channel[] getHardwareChannels(int dashId, int deviceId) {
+        Channel[] channels = deviceChannels.get(deviceKey(dashId, deviceId));
+        return channels == null ? EMPTY_CHANNELS : channels;
+    }
+
+    private boolean fitsBufferSize(HardwareStateHolder hardwareState, int bodySize) {
+        if (hardwareState.device.fitsBufferSize(bodySize)) {
+            return true;
         }
-        return targetChannels;
+        log.trace("Message is to large. Size {}.", bodySize);
+        return false;
     }
 
+    /**
+     * @return true if there is no active hardware for the message.
+     */
     public boolean sendMessageToHardware(int activeDashId, short cmd, int msgId, String body, int deviceId) {
-        return hardwareChannels.size() == 0
-                || sendMessageToHardware(filter(body.length(), activeDashId, deviceId), cmd, msgId, body);
+        if (hardwareChannels.size() == 0) {
+            return true;
+        }
+        try (FanOut fanOut = new FanOut(makeUTF8StringMessage(cmd, msgId, body))) {
+            writeToDevice(fanOut, activeDashId, deviceId, body.length());
+            return !fanOut.hasTargets();
+        }
     }
 
     public boolean sendMessageToHardware(int activeDashId, short cmd, int msgId, String body, int... deviceIds) {
-        return hardwareChannels.size() == 0
-                || sendMessageToHardware(filter(body.length(), activeDashId, deviceIds), cmd, msgId, body);
+        if (hardwareChannels.size() == 0) {
+            return true;
+        }
+        try (FanOut fanOut = new FanOut(makeUTF8StringMessage(cmd, msgId, body))) {
+            if (deviceIds.length == 0) {
+                //all devices of the dashboard
+                for (Channel channel : hardwareChannels) {
+                    HardwareStateHolder hardwareState = getHardState(channel);
+                    if (hardwareState != null && hardwareState.dash.id == activeDashId
+                            && fitsBufferSize(hardwareState, body.length())) {
+                        fanOut.write(channel);
+                    }
+                }
+            } else {
+                for (int i = 0; i < deviceIds.length; i++) {
+                    //device ids may repeat, device gets message only once
+                    if (ArrayUtil.getIndexByVal(deviceIds, deviceIds[i]) == i) {
+                        writeToDevice(fanOut, activeDashId, deviceIds[i], body.length());
+                    }
+                }
+            }
+            return !fanOut.hasTargets();
+        }
     }
 
-    public boolean sendMessageToHardware(short cmd, int msgId, String body) {
-        return sendMessageToHardware(hardwareChannels, cmd, msgId, body);
+    private void writeToDevice(FanOut fanOut, int dashId, int deviceId, int bodySize) {
+        for (Channel channel : getHardwareChannels(dashId, deviceId)) {
+            HardwareStateHolder hardwareState = getHardState(channel);
+            if (hardwareState != null && fitsBufferSize(hardwareState, bodySize)) {
+                fanOut.write(channel);
+            }
+        }
     }
 
-    private boolean sendMessageToHardware(Set<Channel> targetChannels, short cmd, int msgId, String body) {
-        int channelsNum = targetChannels.size();
-        if (channelsNum == 0) {
-            return true; // -> no active hardware
+    public boolean sendMessageToHardware(short cmd, int msgId, String body) {
+        if (hardwareChannels.size() == 0) {
+            return true;
+        }
+        try (FanOut fanOut = new FanOut(makeUTF8StringMessage(cmd, msgId, body))) {
+            for (Channel channel : hardwareChannels) {
+                fanOut.write(channel);
+            }
+            return !fanOut.hasTargets();
         }
-
-        send(targetChannels, cmd, msgId, body);
-
-        return false; // -> there is active hardware
     }
 
     public boolean isHardwareConnected() {
@@ -148,12 +225,7 @@ public class Session {
     }
 
     public boolean isHardwareConnected(int dashId, int deviceId) {
-        for (Channel channel : hardwareChannels) {
-            if (isSameDashAndDeviceId(channel, dashId, deviceId)) {
-                return true;
-            }
-        }
-        return false;
+        return deviceChannels.containsKey(deviceKey(dashId, deviceId));
     }
 
     public boolean isHardwareConnected(int dashId) {
@@ -171,60 +243,97 @@ public class Session {
             log.trace("Sending device offline message.");
 
             StringMessage deviceOfflineMessage = deviceOffline(dashId, deviceId);
-            sendMessageToMultipleReceivers(appChannels, deviceOfflineMessage);
+            try (FanOut fanOut = new FanOut(deviceOfflineMessage)) {
+                for (Channel channel : appChannels) {
+                    fanOut.writeToApp(channel);
+                }
+            }
         }
     }
 
+    /**
+     * Pin writes sent with this method are never conflated by the queues of the slow apps.
+     */
     public void sendToApps(short cmd, int msgId, int dashId, int deviceId, String body) {
         if (isAppConnected()) {
             String finalBody = prependDashIdAndDeviceId(dashId, deviceId, body);
-            sendToApps(cmd, msgId, dashId, finalBody);
+            try (FanOut fanOut = new FanOut(makeUTF8StringMessage(cmd, msgId, finalBody))) {
+                sendToApps(fanOut, dashId);
+            }
         }
     }
 
-    public void sendToApps(short cmd, int msgId, int dashId, String finalBody) {
-        Set<Channel> targetChannels = filterByDash(dashId);
-
-        int targetsNum = targetChannels.size();
-        if (targetsNum > 0) {
-            send(targetChannels, cmd, msgId, finalBody);
+    /**
+     * Same as above, but slow apps receive only latest value of the pin,
+     * unless pin is used by the multi value widget of the dashboard.
+     */
+    public void sendToApps(short cmd, int msgId, DashBoard dash, int deviceId, String body) {
+        if (isAppConnected()) {
+            String finalBody = prependDashIdAndDeviceId(dash.id, deviceId, body);
+            try (FanOut fanOut = new FanOut(makeUTF8StringMessage(cmd, msgId, finalBody), dash, deviceId, body)) {
+                sendToApps(fanOut, dash.id);
+            }
         }
     }
 
-    private Set<Channel> filterByDash(int dashId) {
-        Set<Channel> targetChannels = new HashSet<>();
-        for (Channel channel : appChannels) {
-            if (isSameDash(channel, dashId)) {
-                targetChannels.add(channel);
+    /**
+     * Same as String version, but body bytes are forwarded as they are, only prefix is added.
+     * Prefix is allocated by the allocator of the channel that received the body.
+     */
+    public void sendToApps(ByteBufAllocator alloc, short cmd, int msgId,
+                           DashBoard dash, int deviceId, ByteBuf body) {
+        if (isAppConnected()) {
+            ByteBuf finalBody = HardwareBufMessage.prependDashIdAndDeviceId(alloc, dash.id, deviceId, body);
+            HardwareBufMessage msg = new HardwareBufMessage(msgId, cmd, finalBody);
+            try (FanOut fanOut = new FanOut(msg, dash, deviceId, body)) {
+                sendToApps(fanOut, dash.id);
+            } finally {
+                msg.release();
             }
         }
-        return targetChannels;
     }
 
-    private static void sendMessageToMultipleReceivers(Set<Channel> targets, StringMessage msg) {
-        for (Channel channel : targets) {
-            if (channel.isWritable()) {
-                channel.writeAndFlush(msg, channel.voidPromise());
+    /**
+     * Sends few pin writes of the device as one write. Every body is still a separate message for the app,
+     * but all of them are encoded into the single frame, so app channels are visited only once.
+     */
+    public void sendToApps(short cmd, int msgId, int dashId, int deviceId, String[] bodies) {
+        if (isAppConnected()) {
+            StringMessage[] messages = new StringMessage[bodies.length];
+            for (int i = 0; i < bodies.length; i++) {
+                messages[i] = makeUTF8StringMessage(cmd, msgId, prependDashIdAndDeviceId(dashId, deviceId, bodies[i]));
+            }
+            try (FanOut fanOut = new FanOut(messages)) {
+                sendToApps(fanOut, dashId);
             }
         }
     }
 
-    private static void send(Set<Channel> targets, short cmd, int msgId, String body) {
-        StringMessage msg = makeUTF8StringMessage(cmd, msgId, body);
-        sendMessageToMultipleReceivers(targets, msg);
+    public void sendToApps(short cmd, int msgId, int dashId, String finalBody) {
+        if (isAppConnected()) {
+            try (FanOut fanOut = new FanOut(makeUTF8StringMessage(cmd, msgId, finalBody))) {
+                sendToApps(fanOut, dashId);
+            }
+        }
     }
 
-    public void sendToSharedApps(Channel sendingChannel, String sharedToken, short cmd, int msgId, String body) {
-        Set<Channel> targetChannels = new HashSet<>();
+    private void sendToApps(FanOut fanOut, int dashId) {
         for (Channel channel : appChannels) {
-            if (channel != sendingChannel && needSync(channel, sharedToken)) {
-                targetChannels.add(channel);
+            if (isSameDash(channel, dashId)) {
+                fanOut.writeToApp(channel);
             }
         }
+    }
 
-        int channelsNum = targetChannels.size();
-        if (channelsNum > 0) {
-            send(targetChannels, cmd, msgId, body);
+    public void sendToSharedApps(Channel sendingChannel, String sharedToken, short cmd, int msgId, String body) {
+        if (isAppConnected()) {
+            try (FanOut fanOut = new FanOut(makeUTF8StringMessage(cmd, msgId, body))) {
+                for (Channel channel : appChannels) {
+                    if (channel != sendingChannel && needSync(channel, sharedToken)) {
+                        fanOut.writeToApp(channel);
+                    }
+                }
+            }
         }
     }
 
@@ -241,10 +350,8 @@ public class Session {
     }
 
     public void closeHardwareChannelByDeviceId(int dashId, int deviceId) {
-        for (Channel channel : hardwareChannels) {
-            if (isSameDashAndDeviceId(channel, dashId, deviceId)) {
-                channel.close();
-            }
+        for (Channel channel : getHardwareChannels(dashId, deviceId)) {
+            channel.close();
         }
     }
 
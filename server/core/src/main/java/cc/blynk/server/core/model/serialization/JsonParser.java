@@ -161,6 +161,10 @@ public final class JsonParser {
         userWriter.writeValue(file, user);
     }
 
+    public static byte[] writeUserAsBytes(User user) throws IOException {
+        return userWriter.writeValueAsBytes(user);
+    }
+
     private static String toJson(ObjectWriter writer, Object o) {
         try {
             return writer.writeValueAsString(o);
@@ -207,6 +211,10 @@ public final class JsonParser {
         return userReader.readValue(userFile);
     }
 
+    public static User parseUserFromBytes(byte[] data, int offset, int length) throws IOException {
+        return userReader.readValue(data, offset, length);
+    }
+
     public static User parseUserFromString(String userString) throws IOException {
         return userReader.readValue(userString);
     }
@@ -0,0 +1,235 @@
+package cc.blynk.server.core.model.storage;
+
+import cc.blynk.server.core.model.DashBoard;
+import cc.blynk.server.core.model.Profile;
+import cc.blynk.server.core.model.enums.PinType;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+/**
+ * Pin values written to the profile since it was last stored to disk.
+ * Values change much more often than the profile structure, so instead of rewriting
+ * the whole profile on every value change, new values are appended to the small
+ * journal file, that is replayed on top of the profile during the server start.
+ * When journal becomes too big, profile should be stored fully, that also resets the journal.
+ *
+ * Journal file starts with the header : magic (int), stamp of the profile file it belongs to (long).
+ * Record format : body length (int), crc32 of the body (int),
+ * body : dashId (int), deviceId (int), pinType (byte), pin (short), value (utf8).
+ * All values are kept (not only the last one), as some widgets (like table) depend on all commands.
+ * Journal with the stamp of another profile file (left after the crash during the full save) is
+ * older than the profile and is never applied.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+public final class PinValueJournal {
+
+    //not stored values above this size, means profile is written too often and should be stored fully
+    private static final int MAX_PENDING_BYTES = 64 * 1024;
+    //journal file is merged to the profile once it grows above this size
+    private static final long MAX_JOURNAL_FILE_BYTES = 512 * 1024;
+    private static final int MAGIC = 0x424C5056;
+    private static final int HEADER_SIZE = Integer.BYTES + Long.BYTES;
+    private static final int RECORD_HEADER_SIZE = Integer.BYTES + Integer.BYTES;
+    private static final int MIN_BODY_SIZE = Integer.BYTES + Integer.BYTES + Byte.BYTES + Short.BYTES;
+
+    //stamp of the profile file on disk, journal file is valid only on top of it
+    private long profileStamp;
+
+    private ByteArrayOutputStream pending;
+    private DataOutputStream out;
+    private final CRC32 crc = new CRC32();
+    private boolean overflowed;
+
+    //size of the journal file on disk
+    private long storedBytes;
+
+    private volatile long updatedAt;
+
+    public synchronized void record(int dashId, int deviceId, PinType pinType, short pin, String value, long now) {
+        this.updatedAt = now;
+        if (overflowed) {
+            return;
+        }
+        if (pending == null) {
+            pending = new ByteArrayOutputStream(256);
+            out = new DataOutputStream(pending);
+        }
+        try {
+            byte[] valueBytes = value.getBytes(StandardCharsets.UTF_8);
+            ByteBuffer body = ByteBuffer.allocate(MIN_BODY_SIZE + valueBytes.length);
+            body.putInt(dashId)
+                .putInt(deviceId)
+                .put((byte) pinType.pintTypeChar)
+                .putShort(pin)
+                .put(valueBytes);
+            crc.reset();
+            crc.update(body.array());
+            out.writeInt(body.capacity());
+            out.writeInt((int) crc.getValue());
+            out.write(body.array());
+        } catch (IOException e) {
+            //not possible for in-memory stream
+            throw new RuntimeException(e);
+        }
+        if (pending.size() > MAX_PENDING_BYTES) {
+            overflowed = true;
+            releasePending();
+        }
+    }
+
+    public synchronized boolean hasPending() {
+        return pending != null;
+    }
+
+    /**
+     * @return true in case values can't be appended to the journal and whole profile should be stored.
+     */
+    public synchronized boolean needsFullSave() {
+        return overflowed || storedBytes > MAX_JOURNAL_FILE_BYTES;
+    }
+
+    /**
+     * Takes values that were not stored yet. Taken values should be appended to the journal file.
+     * When journal file is not started yet, values are prepended with the header.
+     */
+    public synchronized byte[] drain() {
+        if (pending == null) {
+            return null;
+        }
+        byte[] values = pending.toByteArray();
+        releasePending();
+        if (storedBytes > 0) {
+            return values;
+        }
+        ByteBuffer result = ByteBuffer.allocate(HEADER_SIZE + values.length);
+        result.putInt(MAGIC).putLong(profileStamp).put(values);
+        return result.array();
+    }
+
+    public synchronized void markStored(long bytes) {
+        this.storedBytes += bytes;
+    }
+
+    public synchronized long getStoredBytes() {
+        return storedBytes;
+    }
+
+    /**
+     * Called when drained values or the profile were not stored. Values are still within the profile,
+     * so profile should be stored fully to not lose them.
+     */
+    public synchronized void storeFailed() {
+        this.overflowed = true;
+        releasePending();
+    }
+
+    /**
+     * Called after the profile file was stored or read, so the next journal file is bound to it.
+     */
+    public synchronized void profileStored(long profileStamp) {
+        this.profileStamp = profileStamp;
+    }
+
+    public synchronized long getProfileStamp() {
+        return profileStamp;
+    }
+
+    /**
+     * @return stamp of the profile file content, journal file is applied only on top of the same profile.
+     */
+    public static long stamp(byte[] profile, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(profile, offset, length);
+        return (long) length << 32 | crc.getValue();
+    }
+
+    /**
+     * Called right before the whole profile is stored, as profile already contains all values.
+     */
+    public synchronized void reset() {
+        this.overflowed = false;
+        this.storedBytes = 0;
+        releasePending();
+    }
+
+    private void releasePending() {
+        this.pending = null;
+        this.out = null;
+    }
+
+    public long getUpdatedAt() {
+        return updatedAt;
+    }
+
+    /**
+     * Applies journal records to the profile. Last record may be not complete in case server was killed
+     * during the write, it is ignored, as well as everything after the first record with the wrong crc.
+     * Journal file should be truncated to the returned size before new records are appended to it.
+     *
+     * @return size of the journal part with the complete records
+     *         or -1 in case journal belongs to another profile file
+     */
+    public static long replay(InputStream is, Profile profile, long profileStamp) throws IOException {
+        DataInputStream in = new DataInputStream(is);
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Wrong journal header.");
+            }
+            if (in.readLong() != profileStamp) {
+                return -1;
+            }
+        } catch (EOFException eof) {
+            //header was not fully written, so there are no records as well
+            return 0;
+        }
+        long validBytes = HEADER_SIZE;
+        CRC32 crc = new CRC32();
+        byte[] body = new byte[256];
+        while (true) {
+            int length;
+            try {
+                length = in.readInt();
+                int expectedCrc = in.readInt();
+                if (length < MIN_BODY_SIZE || length > MAX_PENDING_BYTES) {
+                    return validBytes;
+                }
+                if (body.length < length) {
+                    body = new byte[length];
+                }
+                in.readFully(body, 0, length);
+                crc.reset();
+                crc.update(body, 0, length);
+                if ((int) crc.getValue() != expectedCrc) {
+                    return validBytes;
+                }
+            } catch (EOFException eof) {
+                return validBytes;
+            }
+            validBytes += RECORD_HEADER_SIZE + length;
+
+            ByteBuffer record = ByteBuffer.wrap(body, 0, length);
+            int dashId = record.getInt();
+            int deviceId = record.getInt();
+            PinType pinType = PinType.getPinType((char) record.get());
+            short pin = record.getShort();
+            String value = new String(body, MIN_BODY_SIZE, length - MIN_BODY_SIZE, StandardCharsets.UTF_8);
+            DashBoard dash = profile.getDashById(dashId);
+            //dashboard may be removed after values were written
+            if (dash != null) {
+                profile.updateValue(dash, deviceId, pin, pinType, value);
+            }
+        }
+    }
+
+}
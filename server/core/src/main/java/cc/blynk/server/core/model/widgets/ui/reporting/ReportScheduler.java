@@ -1,5 +1,6 @@
 package cc.blynk.server.core.model.widgets.ui.reporting;
 
+import cc.blynk.server.core.dao.ProfileIndexer;
 import cc.blynk.server.core.dao.ReportingDiskDao;
 import cc.blynk.server.core.dao.UserKey;
 import cc.blynk.server.core.model.DashBoard;
@@ -17,6 +18,7 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 import static cc.blynk.server.core.model.widgets.ui.reporting.ReportResult.EXPIRED;
 
@@ -26,7 +28,7 @@ import static cc.blynk.server.core.model.widgets.ui.reporting.ReportResult.EXPIR
  * Created on 31/05/2018.
  *
  */
-public class ReportScheduler extends ScheduledThreadPoolExecutor {
+public class ReportScheduler extends ScheduledThreadPoolExecutor implements ProfileIndexer {
 
     private static final Logger log = LogManager.getLogger(ReportScheduler.class);
 
@@ -34,9 +36,13 @@ public class ReportScheduler extends ScheduledThreadPoolExecutor {
     public final MailWrapper mailWrapper;
     public final ReportingDiskDao reportingDao;
     public final String downloadUrl;
+    private final LongAdder indexedReports = new LongAdder();
 
+    /**
+     * Reports of the existing profiles are scheduled via {@link cc.blynk.server.core.dao.ProfileIndexPipeline}.
+     */
     public ReportScheduler(int corePoolSize, String downloadUrl,
-                           MailWrapper mailWrapper, ReportingDiskDao reportingDao, Map<UserKey, User> users) {
+                           MailWrapper mailWrapper, ReportingDiskDao reportingDao) {
         super(corePoolSize,  BlynkTPFactory.build("report"));
         setRemoveOnCancelPolicy(true);
         setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
@@ -44,51 +50,47 @@ public class ReportScheduler extends ScheduledThreadPoolExecutor {
         this.downloadUrl = downloadUrl;
         this.mailWrapper = mailWrapper;
         this.reportingDao = reportingDao;
-        init(users);
     }
 
-    private void init(Map<UserKey, User> users) {
-        int counter = 0;
-        for (Map.Entry<UserKey, User> entry : users.entrySet()) {
-            User user = entry.getValue();
-            for (DashBoard dashBoard : user.profile.dashBoards) {
-                for (Widget widget : dashBoard.widgets) {
-                    if (widget instanceof ReportingWidget) {
-                        ReportingWidget reportingWidget = (ReportingWidget) widget;
-                        for (Report report : reportingWidget.reports) {
-                            if (report.isValid() && report.isPeriodic() && report.isActive) {
-                                try {
-                                    long now = System.currentTimeMillis();
-                                    long initialDelaySeconds;
+    @Override
+    public void index(UserKey userKey, User user, DashBoard dash, Widget widget) {
+        if (widget instanceof ReportingWidget) {
+            ReportingWidget reportingWidget = (ReportingWidget) widget;
+            for (Report report : reportingWidget.reports) {
+                if (report.isValid() && report.isPeriodic() && report.isActive) {
+                    try {
+                        long now = System.currentTimeMillis();
+                        long initialDelaySeconds;
 
-                                    if (report.nextReportAt < now && report.lastRunResult != EXPIRED) {
-                                        //this is special case, when we restart server we may miss some reports
-                                        //while the server is down, so we perform checks and run those reports,
-                                        //so we are sure we didn't miss any report.
-                                        log.warn("Rescheduling missed report {} for {}.", report, user.email);
-                                        initialDelaySeconds = 0;
-                                    } else {
-                                        initialDelaySeconds = report.calculateDelayInSeconds();
-                                        log.trace("Adding periodic report for user {} with delay {} to scheduler.",
-                                                user.email, initialDelaySeconds);
-                                        report.nextReportAt = now + initialDelaySeconds * 1000;
-                                    }
-                                    schedule(user, dashBoard.id, report, initialDelaySeconds);
-                                    counter++;
-                                } catch (IllegalCommandBodyException e) {
-                                    report.lastRunResult = EXPIRED;
-                                    log.debug("Report is expired for {}, {}", user.email, report.id);
-                                } catch (Exception e) {
-                                    report.lastRunResult = ReportResult.ERROR;
-                                    log.debug("Error scheduling report for {}, {}", user.email, report.id);
-                                }
-                            }
+                        if (report.nextReportAt < now && report.lastRunResult != EXPIRED) {
+                            //this is special case, when we restart server we may miss some reports
+                            //while the server is down, so we perform checks and run those reports,
+                            //so we are sure we didn't miss any report.
+                            log.warn("Rescheduling missed report {} for {}.", report, user.email);
+                            initialDelaySeconds = 0;
+                        } else {
+                            initialDelaySeconds = report.calculateDelayInSeconds();
+                            log.trace("Adding periodic report for user {} with delay {} to scheduler.",
+                                    user.email, initialDelaySeconds);
+                            report.nextReportAt = now + initialDelaySeconds * 1000;
                         }
+                        schedule(user, dash.id, report, initialDelaySeconds);
+                        indexedReports.increment();
+                    } catch (IllegalCommandBodyException e) {
+                        report.lastRunResult = EXPIRED;
+                        log.debug("Report is expired for {}, {}", user.email, report.id);
+                    } catch (Exception e) {
+                        report.lastRunResult = ReportResult.ERROR;
+                        log.debug("Error scheduling report for {}, {}", user.email, report.id);
                     }
                 }
             }
         }
-        log.info("Reports : {}", counter);
+    }
+
+    @Override
+    public void indexFinished() {
+        log.info("Reports : {}", indexedReports.sum());
     }
 
     public void schedule(User user, int dashId, Report report, long delayInSeconds) {
@@ -2,6 +2,7 @@ package cc.blynk.server.core.processors;
 
 import cc.blynk.server.core.BlockingIOProcessor;
 import cc.blynk.server.core.model.DashBoard;
+import cc.blynk.server.core.model.DashPinIndex;
 import cc.blynk.server.core.model.Profile;
 import cc.blynk.server.core.model.auth.Session;
 import cc.blynk.server.core.model.auth.User;
@@ -92,15 +93,21 @@ public class EventorProcessor {
 
     public void process(User user, Session session, DashBoard dash, int deviceId, short pin,
                         PinType type, String triggerValue, long now) {
-        Eventor eventor = dash.getEventorWidget();
+        DashPinIndex pinIndex = dash.getPinIndex();
+        Eventor eventor = pinIndex.eventor;
         if (eventor == null || eventor.rules == null
                 || eventor.deviceId != deviceId || !dash.isActive) {
             return;
         }
 
+        Rule[] rules = pinIndex.getEventorRules(pin, type);
+        if (rules.length == 0) {
+            return;
+        }
+
         double valueParsed = NumberUtil.parseDouble(triggerValue);
 
-        for (Rule rule : eventor.rules) {
+        for (Rule rule : rules) {
             if (rule.isReady(pin, type)) {
                 if (rule.matchesCondition(triggerValue, valueParsed)) {
                     if (!rule.isProcessed) {
@@ -192,7 +199,7 @@ public class EventorProcessor {
                          int deviceId, SetPinAction action, long now) {
         String body = action.makeHardwareBody();
         session.sendMessageToHardware(dash.id, HARDWARE, 888, body, deviceId);
-        session.sendToApps(HARDWARE, 888, dash.id, deviceId, body);
+        session.sendToApps(HARDWARE, 888, dash, deviceId, body);
 
         profile.update(dash, deviceId, action.dataStream.pin, action.dataStream.pinType, action.value, now);
     }
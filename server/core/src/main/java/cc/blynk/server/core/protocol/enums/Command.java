@@ -131,6 +131,9 @@ public final class Command {
     public static final short HTTP_CLONE = 93;
     public static final short HTTP_TOTAL = 94;
 
+    //few pin writes from the hardware within one message
+    public static final short HARDWARE_BATCH = 95;
+
     //right now we have less than 100 commands
     public static final int LAST_COMMAND_INDEX = 100;
 
@@ -160,6 +163,7 @@ public final class Command {
             Map.entry(SET_WIDGET_PROPERTY, "setWidgetProperty"),
             Map.entry(BRIDGE, "Bridge"),
             Map.entry(HARDWARE, "Hardware"),
+            Map.entry(HARDWARE_BATCH, "HardwareBatch"),
             Map.entry(GET_SHARE_TOKEN, "GetShareToken"),
             Map.entry(REFRESH_SHARE_TOKEN, "RefreshShareToken"),
             Map.entry(SHARE_LOGIN, "ShareLogin"),
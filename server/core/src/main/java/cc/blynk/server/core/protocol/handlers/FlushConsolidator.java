@@ -0,0 +1,136 @@
+package cc.blynk.server.core.protocol.handlers;
+
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Consolidates flushes of the connection, so few small messages are written to the socket with one syscall.
+ * Handlers still call writeAndFlush for every message.
+ *
+ * Flushes during the read are done once, when read batch is completed,
+ * but not later than after maxFlushes pending flushes.
+ * Flushes outside of the read (like hardware values forwarded to the app) are delayed for maxDelayMicros
+ * or till maxFlushes pending flushes, with 0 delay they are flushed immediately.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+public class FlushConsolidator extends ChannelDuplexHandler {
+
+    private final int maxFlushes;
+    private final long maxDelayNanos;
+
+    private ChannelHandlerContext ctx;
+    private boolean readInProgress;
+    private int pendingFlushes;
+    private ScheduledFuture<?> scheduledFlush;
+
+    private final Runnable flushTask = () -> {
+        scheduledFlush = null;
+        if (pendingFlushes > 0 && !readInProgress) {
+            flushNow(ctx);
+        }
+    };
+
+    public FlushConsolidator(int maxFlushes, long maxDelayMicros) {
+        this.maxFlushes = maxFlushes;
+        this.maxDelayNanos = TimeUnit.MICROSECONDS.toNanos(maxDelayMicros);
+    }
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) {
+        this.ctx = ctx;
+    }
+
+    @Override
+    public void flush(ChannelHandlerContext ctx) {
+        //0 or 1 means every flush is done immediately
+        if (maxFlushes <= 1) {
+            ctx.flush();
+            return;
+        }
+
+        if (readInProgress) {
+            if (++pendingFlushes >= maxFlushes) {
+                flushNow(ctx);
+            }
+        } else if (maxDelayNanos > 0) {
+            if (++pendingFlushes >= maxFlushes) {
+                flushNow(ctx);
+            } else if (scheduledFlush == null) {
+                scheduledFlush = ctx.executor().schedule(flushTask, maxDelayNanos, TimeUnit.NANOSECONDS);
+            }
+        } else {
+            flushNow(ctx);
+        }
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+        readInProgress = true;
+        ctx.fireChannelRead(msg);
+    }
+
+    @Override
+    public void channelReadComplete(ChannelHandlerContext ctx) {
+        readInProgress = false;
+        flushIfNeeded(ctx);
+        ctx.fireChannelReadComplete();
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) {
+        if (!ctx.channel().isWritable()) {
+            //there is no sense to hold the data, it is already too much of it
+            flushIfNeeded(ctx);
+        }
+        ctx.fireChannelWritabilityChanged();
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+        readInProgress = false;
+        flushIfNeeded(ctx);
+        ctx.fireExceptionCaught(cause);
+    }
+
+    @Override
+    public void disconnect(ChannelHandlerContext ctx, ChannelPromise promise) {
+        readInProgress = false;
+        flushIfNeeded(ctx);
+        ctx.disconnect(promise);
+    }
+
+    @Override
+    public void close(ChannelHandlerContext ctx, ChannelPromise promise) {
+        readInProgress = false;
+        flushIfNeeded(ctx);
+        ctx.close(promise);
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) {
+        flushIfNeeded(ctx);
+    }
+
+    private void flushIfNeeded(ChannelHandlerContext ctx) {
+        if (pendingFlushes > 0) {
+            flushNow(ctx);
+        }
+    }
+
+    private void flushNow(ChannelHandlerContext ctx) {
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+        pendingFlushes = 0;
+        ctx.flush();
+    }
+
+}
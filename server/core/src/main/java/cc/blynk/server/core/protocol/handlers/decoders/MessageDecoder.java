@@ -4,8 +4,8 @@ import cc.blynk.server.Limits;
 import cc.blynk.server.core.protocol.enums.Command;
 import cc.blynk.server.core.protocol.model.messages.MessageBase;
 import cc.blynk.server.core.protocol.model.messages.ResponseMessage;
+import cc.blynk.server.core.protocol.model.messages.common.HardwareBufMessage;
 import cc.blynk.server.core.stats.GlobalStats;
-import cc.blynk.server.core.stats.metrics.InstanceLoadMeter;
 import cc.blynk.server.internal.QuotaLimitChecker;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
@@ -31,10 +31,17 @@ public class MessageDecoder extends ByteToMessageDecoder {
 
     private final GlobalStats stats;
     private final QuotaLimitChecker limitChecker;
+    //hardware commands are kept as bytes of the frame, without String body
+    private final boolean bufHardwareMessages;
 
     public MessageDecoder(GlobalStats stats, Limits limits) {
+        this(stats, limits, false);
+    }
+
+    public MessageDecoder(GlobalStats stats, Limits limits, boolean bufHardwareMessages) {
         this.stats = stats;
-        this.limitChecker = new QuotaLimitChecker(limits.userQuotaLimit);
+        this.limitChecker = new QuotaLimitChecker(limits);
+        this.bufHardwareMessages = bufHardwareMessages;
     }
 
     @Override
@@ -49,12 +56,11 @@ public class MessageDecoder extends ByteToMessageDecoder {
         int messageId = in.readUnsignedShort();
         int codeOrLength = in.readUnsignedShort();
 
-        if (limitChecker.quotaReached(ctx, messageId)) {
-            return;
-        }
-
         MessageBase message;
         if (command == Command.RESPONSE) {
+            if (limitChecker.quotaReached(ctx, messageId)) {
+                return;
+            }
             message = new ResponseMessage(messageId, codeOrLength);
         } else {
             if (in.readableBytes() < codeOrLength) {
@@ -62,7 +68,19 @@ public class MessageDecoder extends ByteToMessageDecoder {
                 return;
             }
 
-            message = produce(messageId, command, (String) in.readCharSequence(codeOrLength, CharsetUtil.UTF_8));
+            //quota is checked for the complete frame only, dropped frame is skipped as whole
+            int messages = QuotaLimitChecker.messages(command, in, in.readerIndex(), codeOrLength);
+            if (limitChecker.quotaReached(ctx, messageId, messages)) {
+                in.skipBytes(codeOrLength);
+                return;
+            }
+
+            if (bufHardwareMessages && command == Command.HARDWARE) {
+                message = new HardwareBufMessage(messageId, command, in.readRetainedSlice(codeOrLength));
+            } else {
+                message = produce(messageId, command,
+                        (String) in.readCharSequence(codeOrLength, CharsetUtil.UTF_8));
+            }
         }
 
         log.trace("Incoming {}", message);
@@ -72,8 +90,8 @@ public class MessageDecoder extends ByteToMessageDecoder {
         out.add(message);
     }
 
-    public InstanceLoadMeter getQuotaMeter() {
-        return limitChecker.quotaMeter;
+    public QuotaLimitChecker getQuotaLimitChecker() {
+        return limitChecker;
     }
 
 }
@@ -6,7 +6,6 @@ import cc.blynk.server.core.protocol.exceptions.UnsupportedCommandException;
 import cc.blynk.server.core.protocol.model.messages.MessageBase;
 import cc.blynk.server.core.protocol.model.messages.ResponseMessage;
 import cc.blynk.server.core.stats.GlobalStats;
-import cc.blynk.server.core.stats.metrics.InstanceLoadMeter;
 import cc.blynk.server.internal.QuotaLimitChecker;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
@@ -39,7 +38,7 @@ public class MobileMessageDecoder extends ByteToMessageDecoder {
 
     public MobileMessageDecoder(GlobalStats stats, Limits limits) {
         this.stats = stats;
-        this.limitChecker = new QuotaLimitChecker(limits.userQuotaLimit);
+        this.limitChecker = new QuotaLimitChecker(limits);
     }
 
     @Override
@@ -56,12 +55,11 @@ public class MobileMessageDecoder extends ByteToMessageDecoder {
         //so it should perfectly fit int
         int codeOrLength = (int) in.readUnsignedInt();
 
-        if (limitChecker.quotaReached(ctx, messageId)) {
-            return;
-        }
-
         MessageBase message;
         if (command == Command.RESPONSE) {
+            if (limitChecker.quotaReached(ctx, messageId)) {
+                return;
+            }
             message = new ResponseMessage(messageId, codeOrLength);
         } else {
             if (in.readableBytes() < codeOrLength) {
@@ -71,6 +69,12 @@ public class MobileMessageDecoder extends ByteToMessageDecoder {
 
             validateLength(codeOrLength);
 
+            //quota is checked for the complete frame only, dropped frame is skipped as whole
+            if (limitChecker.quotaReached(ctx, messageId)) {
+                in.skipBytes(codeOrLength);
+                return;
+            }
+
             message = produce(messageId, command, (String) in.readCharSequence(codeOrLength, CharsetUtil.UTF_8));
         }
 
@@ -87,7 +91,7 @@ public class MobileMessageDecoder extends ByteToMessageDecoder {
         }
     }
 
-    public InstanceLoadMeter getQuotaMeter() {
-        return limitChecker.quotaMeter;
+    public QuotaLimitChecker getQuotaLimitChecker() {
+        return limitChecker;
     }
 }
@@ -5,7 +5,6 @@ import cc.blynk.server.core.protocol.enums.Command;
 import cc.blynk.server.core.protocol.model.messages.MessageBase;
 import cc.blynk.server.core.protocol.model.messages.ResponseMessage;
 import cc.blynk.server.core.stats.GlobalStats;
-import cc.blynk.server.core.stats.metrics.InstanceLoadMeter;
 import cc.blynk.server.internal.QuotaLimitChecker;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
@@ -33,7 +32,7 @@ public class WSMessageDecoder extends ChannelInboundHandlerAdapter {
 
     public WSMessageDecoder(GlobalStats globalStats, Limits limits) {
         this.stats = globalStats;
-        this.limitChecker = new QuotaLimitChecker(limits.userQuotaLimit);
+        this.limitChecker = new QuotaLimitChecker(limits);
     }
 
     @Override
@@ -46,7 +45,8 @@ public class WSMessageDecoder extends ChannelInboundHandlerAdapter {
                 short command = in.readUnsignedByte();
                 int messageId = in.readUnsignedShort();
 
-                if (limitChecker.quotaReached(ctx, messageId)) {
+                int messages = QuotaLimitChecker.messages(command, in, in.readerIndex(), in.readableBytes());
+                if (limitChecker.quotaReached(ctx, messageId, messages)) {
                     return;
                 }
 
@@ -76,8 +76,8 @@ public class WSMessageDecoder extends ChannelInboundHandlerAdapter {
         }
     }
 
-    public InstanceLoadMeter getQuotaMeter() {
-        return limitChecker.quotaMeter;
+    public QuotaLimitChecker getQuotaLimitChecker() {
+        return limitChecker;
     }
 
 }
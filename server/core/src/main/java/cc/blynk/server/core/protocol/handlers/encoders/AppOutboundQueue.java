@@ -0,0 +1,210 @@
+package cc.blynk.server.core.protocol.handlers.encoders;
+
+import cc.blynk.server.core.model.storage.key.DashPinStorageKey;
+import cc.blynk.server.core.stats.OutboundQueueStats;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.util.ReferenceCountUtil;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static cc.blynk.utils.StringUtils.BODY_SEPARATOR;
+
+/**
+ * Bounded outbound queue of the app channel for messages sent by {@link FanOut}.
+ * When app is slow and channel is not writable, messages are kept here instead of being lost
+ * and are written when channel becomes writable again.
+ * Pin values are conflated by dashId, deviceId and pin, so only latest value of the pin is kept
+ * and slow app gets current state instead of gaps. Writes to the pins of multi value widgets
+ * (terminal lines, table and lcd commands) are not a state, so they are queued in order, as any other message.
+ * When queue is full, new messages are dropped.
+ *
+ * Messages are added from the threads of other channels, so queue is guarded with own lock.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+public class AppOutboundQueue extends ChannelInboundHandlerAdapter {
+
+    private final OutboundQueueStats stats;
+    private final int limit;
+
+    //ordered by last update, pin key or unique key for other messages
+    private final LinkedHashMap<Object, Object> pending = new LinkedHashMap<>();
+    private volatile int size;
+    private boolean drainScheduled;
+    private ChannelHandlerContext ctx;
+
+    private final Runnable drainTask = this::drain;
+
+    public AppOutboundQueue(OutboundQueueStats stats, int limit) {
+        this.stats = stats;
+        this.limit = limit;
+    }
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) {
+        this.ctx = ctx;
+    }
+
+    /**
+     * Messages may be written directly only when there is nothing pending,
+     * otherwise older value of the pin could be written after the newer one.
+     */
+    boolean isBypassed(Channel channel) {
+        return limit <= 0 || (size == 0 && channel.isWritable());
+    }
+
+    /**
+     * @param msg - retained message or frame, queue is responsible for its release.
+     */
+    void offer(Object key, Object msg) {
+        boolean scheduleDrain = false;
+        synchronized (pending) {
+            Object previous = pending.remove(key);
+            if (previous != null) {
+                ReferenceCountUtil.release(previous);
+                stats.conflated.increment();
+                stats.depth.decrement();
+            } else if (pending.size() >= limit) {
+                ReferenceCountUtil.release(msg);
+                stats.dropped.increment();
+                return;
+            }
+            pending.put(key, msg);
+            size = pending.size();
+            stats.queued.increment();
+            stats.depth.increment();
+            if (!drainScheduled && ctx.channel().isWritable()) {
+                drainScheduled = true;
+                scheduleDrain = true;
+            }
+        }
+        //channel may become writable before message was added
+        if (scheduleDrain) {
+            ctx.executor().execute(drainTask);
+        }
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) {
+        if (ctx.channel().isWritable()) {
+            drain();
+        }
+        ctx.fireChannelWritabilityChanged();
+    }
+
+    private void drain() {
+        Channel channel = ctx.channel();
+        synchronized (pending) {
+            drainScheduled = false;
+        }
+        boolean written = false;
+        while (channel.isWritable()) {
+            Object msg;
+            synchronized (pending) {
+                Iterator<Object> iterator = pending.values().iterator();
+                if (!iterator.hasNext()) {
+                    break;
+                }
+                msg = iterator.next();
+                iterator.remove();
+                size = pending.size();
+            }
+            stats.depth.decrement();
+            stats.drained.increment();
+            channel.write(msg, channel.voidPromise());
+            written = true;
+        }
+        if (written) {
+            channel.flush();
+        }
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        releasePending();
+        super.channelInactive(ctx);
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) {
+        releasePending();
+    }
+
+    private void releasePending() {
+        synchronized (pending) {
+            for (Map.Entry<Object, Object> entry : pending.entrySet()) {
+                ReferenceCountUtil.release(entry.getValue());
+                stats.depth.decrement();
+            }
+            pending.clear();
+            size = 0;
+        }
+    }
+
+    /**
+     * @param body - hardware body without dashId and deviceId prefix, like "vw 1 100".
+     * @return conflation key of the pin write or null if body is not a pin write.
+     */
+    static DashPinStorageKey pinKey(int dashId, int deviceId, String body) {
+        int length = body.length();
+        if (length < 5 || body.charAt(1) != 'w' || body.charAt(2) != BODY_SEPARATOR) {
+            return null;
+        }
+        int pin = 0;
+        int i = 3;
+        for (; i < length && body.charAt(i) != BODY_SEPARATOR; i++) {
+            pin = addDigit(pin, body.charAt(i));
+            if (pin < 0) {
+                return null;
+            }
+        }
+        return pinKey(dashId, deviceId, body.charAt(0), pin, i - 3, i < length);
+    }
+
+    static DashPinStorageKey pinKey(int dashId, int deviceId, ByteBuf body) {
+        int start = body.readerIndex();
+        int end = body.writerIndex();
+        if (end - start < 5 || body.getByte(start + 1) != 'w' || body.getByte(start + 2) != BODY_SEPARATOR) {
+            return null;
+        }
+        int pin = 0;
+        int i = start + 3;
+        for (; i < end && body.getByte(i) != BODY_SEPARATOR; i++) {
+            pin = addDigit(pin, (char) body.getByte(i));
+            if (pin < 0) {
+                return null;
+            }
+        }
+        return pinKey(dashId, deviceId, (char) body.getByte(start), pin, i - start - 3, i < end);
+    }
+
+    private static int addDigit(int pin, char c) {
+        if (c < '0' || c > '9') {
+            return -1;
+        }
+        return pin * 10 + (c - '0');
+    }
+
+    private static DashPinStorageKey pinKey(int dashId, int deviceId, char pinTypeChar,
+                                            int pin, int digits, boolean hasValue) {
+        if (digits == 0 || digits > 3 || pin > 255 || !hasValue) {
+            return null;
+        }
+        switch (pinTypeChar) {
+            case 'a' :
+            case 'd' :
+            case 'v' :
+                return new DashPinStorageKey(dashId, deviceId, pinTypeChar, (short) pin);
+            default:
+                return null;
+        }
+    }
+
+}
@@ -0,0 +1,161 @@
+package cc.blynk.server.core.protocol.handlers.encoders;
+
+import cc.blynk.server.core.model.DashBoard;
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.model.storage.key.DashPinStorageKey;
+import cc.blynk.server.core.protocol.enums.Command;
+import cc.blynk.server.core.protocol.model.messages.MessageBase;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandler;
+import io.netty.handler.codec.MessageToByteEncoder;
+import io.netty.util.ReferenceCountUtil;
+
+/**
+ * Writes same message to few channels. Message is encoded only once for every frame format
+ * (hardware and mobile) into the pooled buffer and channels receive duplicates of that buffer.
+ * Channels with other encoders (web dashboard) receive the message itself.
+ * Few messages for the same channels (like pin writes of the hardware batch) are encoded into the single frame,
+ * channels with other encoders receive them one by one.
+ *
+ * Encoded frames are released on close, channels hold own references until frame is written.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+public final class FanOut implements AutoCloseable {
+
+    private final MessageBase[] messages;
+
+    //device and pin write body without prefix (String or ByteBuf), used for the conflation in app queues
+    private final DashBoard dash;
+    private final int deviceId;
+    private final Object pinBody;
+    private Object queueKey;
+
+    private ByteBuf hardwareFrame;
+    private ByteBuf mobileFrame;
+
+    //not writable channels are counted as well
+    private int targets;
+
+    public FanOut(MessageBase message) {
+        this(message, null, -1, null);
+    }
+
+    public FanOut(MessageBase[] messages) {
+        this(messages, null, -1, null);
+    }
+
+    /**
+     * @param pinBody - hardware body without dashId and deviceId prefix, String or ByteBuf.
+     */
+    public FanOut(MessageBase message, DashBoard dash, int deviceId, Object pinBody) {
+        this(new MessageBase[] {message}, dash, deviceId, pinBody);
+    }
+
+    private FanOut(MessageBase[] messages, DashBoard dash, int deviceId, Object pinBody) {
+        this.messages = messages;
+        this.dash = dash;
+        this.deviceId = deviceId;
+        this.pinBody = pinBody;
+    }
+
+    public void write(Channel channel) {
+        targets++;
+        if (!channel.isWritable()) {
+            return;
+        }
+        ByteBuf frame = retainFrame(channel);
+        if (frame != null) {
+            channel.writeAndFlush(frame, channel.voidPromise());
+            return;
+        }
+        for (MessageBase message : messages) {
+            channel.write(ReferenceCountUtil.retain(message), channel.voidPromise());
+        }
+        channel.flush();
+    }
+
+    /**
+     * Same as {@link #write(Channel)}, but slow app channel keeps the message in own {@link AppOutboundQueue}.
+     */
+    public void writeToApp(Channel channel) {
+        AppOutboundQueue queue = channel.pipeline().get(AppOutboundQueue.class);
+        if (queue == null || queue.isBypassed(channel)) {
+            write(channel);
+            return;
+        }
+        targets++;
+        ByteBuf frame = retainFrame(channel);
+        if (frame != null) {
+            queue.offer(getQueueKey(), frame);
+            return;
+        }
+        for (MessageBase message : messages) {
+            //messages of the batch are never replaced by each other
+            Object key = messages.length == 1 ? getQueueKey() : new Object();
+            queue.offer(key, ReferenceCountUtil.retain(message));
+        }
+    }
+
+    //null for the channel without blynk encoder
+    private ByteBuf retainFrame(Channel channel) {
+        ChannelHandler encoder = channel.pipeline().get(MessageToByteEncoder.class);
+        if (encoder instanceof MobileMessageEncoder) {
+            MobileMessageEncoder mobileEncoder = (MobileMessageEncoder) encoder;
+            if (mobileFrame == null) {
+                mobileFrame = mobileEncoder.encodeFrame(channel.alloc(), messages);
+            }
+            return mobileEncoder.retainFrame(messages[0].command, mobileFrame);
+        }
+        if (encoder instanceof MessageEncoder) {
+            MessageEncoder hardwareEncoder = (MessageEncoder) encoder;
+            if (hardwareFrame == null) {
+                hardwareFrame = hardwareEncoder.encodeFrame(channel.alloc(), messages);
+            }
+            return hardwareEncoder.retainFrame(messages[0].command, hardwareFrame);
+        }
+        return null;
+    }
+
+    private Object getQueueKey() {
+        if (queueKey == null) {
+            DashPinStorageKey pinKey = null;
+            if (messages.length == 1 && messages[0].command == Command.HARDWARE && dash != null) {
+                if (pinBody instanceof String) {
+                    pinKey = AppOutboundQueue.pinKey(dash.id, deviceId, (String) pinBody);
+                } else if (pinBody instanceof ByteBuf) {
+                    pinKey = AppOutboundQueue.pinKey(dash.id, deviceId, (ByteBuf) pinBody);
+                }
+                //terminal lines, table and lcd commands are queued in order as they are
+                if (pinKey != null
+                        && dash.isMultiValuePin(deviceId, pinKey.pin, PinType.getPinType(pinKey.pinTypeChar))) {
+                    pinKey = null;
+                }
+            }
+            queueKey = pinKey;
+            //not a pin write, message is never replaced
+            if (queueKey == null) {
+                queueKey = new Object();
+            }
+        }
+        return queueKey;
+    }
+
+    public boolean hasTargets() {
+        return targets > 0;
+    }
+
+    @Override
+    public void close() {
+        if (hardwareFrame != null) {
+            hardwareFrame.release();
+        }
+        if (mobileFrame != null) {
+            mobileFrame.release();
+        }
+    }
+
+}
@@ -2,8 +2,10 @@ package cc.blynk.server.core.protocol.handlers.encoders;
 
 import cc.blynk.server.core.protocol.model.messages.MessageBase;
 import cc.blynk.server.core.protocol.model.messages.ResponseMessage;
+import cc.blynk.server.core.protocol.model.messages.common.HardwareBufMessage;
 import cc.blynk.server.core.stats.GlobalStats;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.MessageToByteEncoder;
 
@@ -24,13 +26,26 @@ public class MessageEncoder extends MessageToByteEncoder<MessageBase> {
 
     @Override
     protected void encode(ChannelHandlerContext ctx, MessageBase message, ByteBuf out) {
+        if (!(message instanceof ResponseMessage)) {
+            stats.mark(message.command);
+        }
+        encode(message, out);
+    }
+
+    private static void encode(MessageBase message, ByteBuf out) {
         out.writeByte(message.command);
         out.writeShort(message.id);
 
         if (message instanceof ResponseMessage) {
             out.writeShort(((ResponseMessage) message).code);
         } else {
-            stats.mark(message.command);
+            if (message instanceof HardwareBufMessage) {
+                ByteBuf body = ((HardwareBufMessage) message).body;
+                //indexes of the body are not changed, as same message is written to few channels
+                out.writeShort(body.readableBytes());
+                out.writeBytes(body, body.readerIndex(), body.readableBytes());
+                return;
+            }
 
             byte[] body = message.getBytes();
             out.writeShort(body.length);
@@ -39,4 +54,25 @@ public class MessageEncoder extends MessageToByteEncoder<MessageBase> {
             }
         }
     }
+
+    /**
+     * Encodes messages one after another into the frame that may be written to few channels, see {@link FanOut}.
+     */
+    ByteBuf encodeFrame(ByteBufAllocator alloc, MessageBase[] messages) {
+        ByteBuf frame = alloc.buffer();
+        for (MessageBase message : messages) {
+            encode(message, frame);
+        }
+        stats.fanOut.markEncoded(frame.readableBytes());
+        return frame;
+    }
+
+    /**
+     * Frame that is already encoded for few channels for the write to one of them, see {@link FanOut}.
+     */
+    ByteBuf retainFrame(short command, ByteBuf frame) {
+        stats.mark(command);
+        stats.fanOut.markWritten(frame.readableBytes());
+        return frame.retainedDuplicate();
+    }
 }
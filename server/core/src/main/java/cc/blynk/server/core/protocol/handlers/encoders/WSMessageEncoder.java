@@ -9,6 +9,7 @@ import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelOutboundHandlerAdapter;
 import io.netty.channel.ChannelPromise;
 import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.util.ReferenceCountUtil;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
@@ -41,6 +42,8 @@ public class WSMessageEncoder extends ChannelOutboundHandlerAdapter {
                     out.writeBytes(body);
                 }
             }
+            //hardware messages may hold the buffer
+            ReferenceCountUtil.release(msg);
             super.write(ctx, new BinaryWebSocketFrame(out), promise);
         } else {
             super.write(ctx, msg, promise);
@@ -0,0 +1,226 @@
+package cc.blynk.server.core.protocol.model.messages.common;
+
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.protocol.model.messages.MessageBase;
+import cc.blynk.utils.NumberUtil;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.util.CharsetUtil;
+import io.netty.util.ReferenceCounted;
+
+import static cc.blynk.utils.StringUtils.BODY_SEPARATOR;
+import static cc.blynk.utils.StringUtils.DEVICE_SEPARATOR;
+
+/**
+ * Hardware message that keeps body as bytes of the incoming frame, so body is never
+ * decoded to the String and encoded back when it is forwarded to the apps.
+ * Pin type, pin and value are parsed in place, only value is materialized as String.
+ *
+ * Message holds reference to the buffer, so it should be released after processing.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+public final class HardwareBufMessage extends MessageBase implements ReferenceCounted {
+
+    private static final NumberFormatException cachedNumberFormatExceptionForPin =
+            new NumberFormatException("Not a valid pin number.");
+
+    public final ByteBuf body;
+
+    //offsets within body, filled by parseWriteCommand()
+    private int pinIndex;
+    private int valueIndex;
+
+    public HardwareBufMessage(int messageId, short command, ByteBuf body) {
+        super(messageId, command);
+        this.body = body;
+    }
+
+    /**
+     * Same as StringUtils.prependDashIdAndDeviceId, but body bytes are not copied.
+     * Prefix is the first component of the returned composite buffer.
+     */
+    public static ByteBuf prependDashIdAndDeviceId(ByteBufAllocator alloc, int dashId, int deviceId, ByteBuf body) {
+        ByteBuf prefix = alloc.buffer(24);
+        writeNumber(prefix, dashId);
+        prefix.writeByte(DEVICE_SEPARATOR);
+        writeNumber(prefix, deviceId);
+        prefix.writeByte(BODY_SEPARATOR);
+        CompositeByteBuf result = alloc.compositeBuffer(2);
+        return result.addComponents(true, prefix, body.retainedSlice());
+    }
+
+    private static void writeNumber(ByteBuf buf, int number) {
+        long value = number;
+        if (value < 0) {
+            buf.writeByte('-');
+            value = -value;
+        }
+        long divider = 1;
+        while (divider * 10 <= value) {
+            divider *= 10;
+        }
+        for (; divider > 0; divider /= 10) {
+            buf.writeByte((int) ('0' + (value / divider) % 10));
+        }
+    }
+
+    public int length() {
+        return body.readableBytes();
+    }
+
+    public boolean isWriteOperation() {
+        return body.getByte(body.readerIndex() + 1) == 'w';
+    }
+
+    /**
+     * Finds pin and value within body, the same way as StringUtils.split3 does for the string body.
+     *
+     * @return false if body has no pin or value.
+     */
+    public boolean parseWriteCommand() {
+        int end = body.writerIndex();
+        int pinSeparator = body.indexOf(body.readerIndex() + 1, end, (byte) BODY_SEPARATOR);
+        if (pinSeparator == -1) {
+            return false;
+        }
+        int valueSeparator = body.indexOf(pinSeparator + 1, end, (byte) BODY_SEPARATOR);
+        if (valueSeparator == -1 || valueSeparator + 1 == end) {
+            return false;
+        }
+        this.pinIndex = pinSeparator + 1;
+        this.valueIndex = valueSeparator + 1;
+        return true;
+    }
+
+    public PinType getPinType() {
+        return PinType.getPinType((char) body.getByte(body.readerIndex()));
+    }
+
+    public short getPin() {
+        int end = valueIndex - 1;
+        if (pinIndex == end) {
+            throw cachedNumberFormatExceptionForPin;
+        }
+        int pin = 0;
+        for (int i = pinIndex; i < end; i++) {
+            int digit = body.getByte(i) - '0';
+            if (digit < 0 || digit > 9) {
+                throw cachedNumberFormatExceptionForPin;
+            }
+            pin = pin * 10 + digit;
+            if (pin > 255) {
+                throw cachedNumberFormatExceptionForPin;
+            }
+        }
+        return (short) pin;
+    }
+
+    public String getValue() {
+        return body.toString(valueIndex, body.writerIndex() - valueIndex, CharsetUtil.UTF_8);
+    }
+
+    public double getValueAsDouble() {
+        return parseDouble(body, valueIndex, body.writerIndex());
+    }
+
+    static double parseDouble(ByteBuf buf, int off, int end) {
+        return NumberUtil.parseDouble(new AsciiView(buf), off, end);
+    }
+
+    /**
+     * Ascii view of the buffer, so NumberUtil could parse bytes in place. Indexes are the buffer indexes.
+     */
+    private static final class AsciiView implements CharSequence {
+
+        private final ByteBuf buf;
+
+        AsciiView(ByteBuf buf) {
+            this.buf = buf;
+        }
+
+        @Override
+        public int length() {
+            return buf.writerIndex();
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char) (buf.getByte(index) & 0xFF);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return buf.toString(start, end - start, CharsetUtil.US_ASCII);
+        }
+
+        @Override
+        public String toString() {
+            return subSequence(0, length()).toString();
+        }
+    }
+
+    @Override
+    public byte[] getBytes() {
+        return ByteBufUtil.getBytes(body, body.readerIndex(), body.readableBytes());
+    }
+
+    @Override
+    public int refCnt() {
+        return body.refCnt();
+    }
+
+    @Override
+    public HardwareBufMessage retain() {
+        body.retain();
+        return this;
+    }
+
+    @Override
+    public HardwareBufMessage retain(int increment) {
+        body.retain(increment);
+        return this;
+    }
+
+    @Override
+    public HardwareBufMessage touch() {
+        body.touch();
+        return this;
+    }
+
+    @Override
+    public HardwareBufMessage touch(Object hint) {
+        body.touch(hint);
+        return this;
+    }
+
+    @Override
+    public boolean release() {
+        return body.release();
+    }
+
+    @Override
+    public boolean release(int decrement) {
+        return body.release(decrement);
+    }
+
+    @Override
+    public String toString() {
+        return "HardwareBufMessage{" + super.toString()
+                + ", body='" + body.toString(body.readerIndex(), body.readableBytes(), CharsetUtil.UTF_8) + "'}";
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return super.equals(o) && ByteBufUtil.equals(body, ((HardwareBufMessage) o).body);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * super.hashCode() + ByteBufUtil.hashCode(body);
+    }
+}
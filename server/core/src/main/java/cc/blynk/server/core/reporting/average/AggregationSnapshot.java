@@ -0,0 +1,339 @@
+package cc.blynk.server.core.reporting.average;
+
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.reporting.raw.BaseReportingKey;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Binary snapshot of the in-flight aggregation state (series registry and minute/hourly/daily tables).
+ *
+ * Format :
+ * magic (int), version (short), snapshot ts (long), covered reporting wal position (long),
+ * followed by the sequence of blocks :
+ * type (byte), entries count (int), entries, CRC32 of the type, count and entries (long).
+ * Series block entry - id (int), email (UTF), appName (UTF), dashId (int), deviceId (int),
+ * pinType (char), pin (short).
+ * Table block entry - series id (int), bucket (long), sum (double), count (long).
+ * Snapshot is finished with END block without entries.
+ *
+ * Blocks are read one by one and applied only after checksum verification,
+ * so memory used during restore doesn't depend on the snapshot size
+ * and corrupted block doesn't affect blocks restored before it.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+final class AggregationSnapshot {
+
+    private static final Logger log = LogManager.getLogger(AggregationSnapshot.class);
+
+    static final int MAGIC = 0x424C4147;
+    static final short VERSION = 1;
+    static final int WATERMARK_MAGIC = 0x424C4157;
+
+    private static final byte END_BLOCK = 0;
+    private static final byte SERIES_BLOCK = 1;
+    //table blocks go in the same order as tables passed to write/read
+    private static final byte FIRST_TABLE_BLOCK = 2;
+
+    private static final int SERIES_PER_BLOCK = 4096;
+
+    private AggregationSnapshot() {
+    }
+
+    /**
+     * Writes snapshot to the temp file and moves it to the target path, so target
+     * path always contains complete snapshot.
+     *
+     * @return number of written table entries
+     */
+    static long write(Path path, long walPosition,
+                      SeriesRegistry seriesRegistry, AggregationTable... tables) throws IOException {
+        Path tmpPath = path.resolveSibling(path.getFileName() + ".tmp");
+        CRC32 crc = new CRC32();
+        long entries = 0;
+
+        try (FileOutputStream fos = new FileOutputStream(tmpPath.toFile());
+             DataOutputStream dos = new DataOutputStream(
+                     new CheckedOutputStream(new BufferedOutputStream(fos, 64 * 1024), crc))) {
+            dos.writeInt(MAGIC);
+            dos.writeShort(VERSION);
+            dos.writeLong(System.currentTimeMillis());
+            dos.writeLong(walPosition);
+
+            //entries are copied first and only series of the copied entries are written,
+            //so series registered or removed during the write can't break the snapshot
+            AggregationTable.Entries[][] copies = new AggregationTable.Entries[tables.length][];
+            for (int i = 0; i < tables.length; i++) {
+                copies[i] = tables[i].copyStripes();
+            }
+            Map<Integer, BaseReportingKey> series = resolveSeries(seriesRegistry, copies);
+            writeSeries(dos, crc, series);
+
+            for (int i = 0; i < tables.length; i++) {
+                byte type = (byte) (FIRST_TABLE_BLOCK + i);
+                for (AggregationTable.Entries stripe : copies[i]) {
+                    int size = 0;
+                    for (int seriesId : stripe.seriesIds) {
+                        if (seriesId != SeriesRegistry.NO_ID && series.get(seriesId) != null) {
+                            size++;
+                        }
+                    }
+                    if (size == 0) {
+                        continue;
+                    }
+                    startBlock(dos, crc, type, size);
+                    for (int slot = 0; slot < stripe.seriesIds.length; slot++) {
+                        int seriesId = stripe.seriesIds[slot];
+                        if (seriesId != SeriesRegistry.NO_ID && series.get(seriesId) != null) {
+                            dos.writeInt(seriesId);
+                            dos.writeLong(stripe.buckets[slot]);
+                            dos.writeDouble(stripe.sums[slot]);
+                            dos.writeLong(stripe.counts[slot]);
+                        }
+                    }
+                    dos.writeLong(crc.getValue());
+                    entries += size;
+                }
+            }
+
+            startBlock(dos, crc, END_BLOCK, 0);
+            dos.writeLong(crc.getValue());
+            dos.flush();
+            fos.getFD().sync();
+        }
+
+        Files.move(tmpPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return entries;
+    }
+
+    //series id -> key, null value for the removed series
+    private static Map<Integer, BaseReportingKey> resolveSeries(SeriesRegistry seriesRegistry,
+                                                                AggregationTable.Entries[][] copies) {
+        Map<Integer, BaseReportingKey> series = new HashMap<>();
+        for (AggregationTable.Entries[] tableCopy : copies) {
+            for (AggregationTable.Entries stripe : tableCopy) {
+                for (int seriesId : stripe.seriesIds) {
+                    if (seriesId != SeriesRegistry.NO_ID && !series.containsKey(seriesId)) {
+                        series.put(seriesId, seriesRegistry.getKey(seriesId));
+                    }
+                }
+            }
+        }
+        return series;
+    }
+
+    private static void writeSeries(DataOutputStream dos, CRC32 crc, Map<Integer, BaseReportingKey> series)
+            throws IOException {
+        int[] ids = new int[SERIES_PER_BLOCK];
+        BaseReportingKey[] keys = new BaseReportingKey[SERIES_PER_BLOCK];
+        int count = 0;
+        for (Map.Entry<Integer, BaseReportingKey> entry : series.entrySet()) {
+            if (entry.getValue() == null) {
+                continue;
+            }
+            ids[count] = entry.getKey();
+            keys[count] = entry.getValue();
+            if (++count == SERIES_PER_BLOCK) {
+                writeSeriesBlock(dos, crc, ids, keys, count);
+                count = 0;
+            }
+        }
+        if (count > 0) {
+            writeSeriesBlock(dos, crc, ids, keys, count);
+        }
+    }
+
+    private static void writeSeriesBlock(DataOutputStream dos, CRC32 crc,
+                                         int[] ids, BaseReportingKey[] keys, int count) throws IOException {
+        startBlock(dos, crc, SERIES_BLOCK, count);
+        for (int i = 0; i < count; i++) {
+            BaseReportingKey key = keys[i];
+            dos.writeInt(ids[i]);
+            dos.writeUTF(key.email);
+            dos.writeUTF(key.appName);
+            dos.writeInt(key.dashId);
+            dos.writeInt(key.deviceId);
+            dos.writeChar(key.pinType.pintTypeChar);
+            dos.writeShort(key.pin);
+        }
+        dos.writeLong(crc.getValue());
+    }
+
+    private static void startBlock(DataOutputStream dos, CRC32 crc, byte type, int count) throws IOException {
+        crc.reset();
+        dos.writeByte(type);
+        dos.writeInt(count);
+    }
+
+    /**
+     * Restores snapshot into provided tables. Series ids within snapshot are remapped
+     * to the ids of the provided registry.
+     * Reading stops on the first corrupted or truncated block, blocks restored before it are kept.
+     *
+     * @return number of restored table entries
+     */
+    static long read(Path path, SeriesRegistry seriesRegistry, AggregationTable... tables) throws IOException {
+        CRC32 crc = new CRC32();
+        long restored = 0;
+
+        try (InputStream is = Files.newInputStream(path);
+             DataInputStream dis = new DataInputStream(
+                     new CheckedInputStream(new BufferedInputStream(is, 64 * 1024), crc))) {
+            if (dis.readInt() != MAGIC) {
+                throw new IOException("Not an aggregation snapshot.");
+            }
+            readHeader(dis);
+
+            //snapshot series id -> registry series id.
+            //ids are sparse (see SeriesRegistry), so map is used instead of array
+            Map<Integer, Integer> idMapping = new HashMap<>();
+
+            while (true) {
+                crc.reset();
+                byte type = dis.readByte();
+                int count = dis.readInt();
+                if (count < 0) {
+                    throw new IOException("Aggregation snapshot block " + type + " is corrupted.");
+                }
+                if (type == END_BLOCK) {
+                    verify(dis, crc, type);
+                    return restored;
+                }
+
+                if (type == SERIES_BLOCK) {
+                    int[] ids = new int[count];
+                    BaseReportingKey[] keys = new BaseReportingKey[count];
+                    for (int i = 0; i < count; i++) {
+                        ids[i] = dis.readInt();
+                        keys[i] = new BaseReportingKey(dis.readUTF(), dis.readUTF(), dis.readInt(), dis.readInt(),
+                                PinType.getPinType(dis.readChar()), dis.readShort());
+                    }
+                    verify(dis, crc, type);
+
+                    for (int i = 0; i < count; i++) {
+                        idMapping.put(ids[i], seriesRegistry.getOrCreateId(keys[i]));
+                    }
+                } else {
+                    int tableIndex = type - FIRST_TABLE_BLOCK;
+                    if (tableIndex < 0 || tableIndex >= tables.length) {
+                        throw new IOException("Unknown aggregation snapshot block " + type + ".");
+                    }
+                    int[] seriesIds = new int[count];
+                    long[] buckets = new long[count];
+                    double[] sums = new double[count];
+                    long[] counts = new long[count];
+                    for (int i = 0; i < count; i++) {
+                        seriesIds[i] = dis.readInt();
+                        buckets[i] = dis.readLong();
+                        sums[i] = dis.readDouble();
+                        counts[i] = dis.readLong();
+                    }
+                    verify(dis, crc, type);
+
+                    AggregationTable table = tables[tableIndex];
+                    for (int i = 0; i < count; i++) {
+                        Integer seriesId = idMapping.get(seriesIds[i]);
+                        if (seriesId != null) {
+                            table.add(seriesId, buckets[i], sums[i], counts[i]);
+                            restored++;
+                        }
+                    }
+                }
+            }
+        } catch (EOFException eof) {
+            log.warn("Aggregation snapshot {} is truncated. Restored {} entries.", path, restored);
+            return restored;
+        }
+    }
+
+    /**
+     * Stores flush watermarks of the tables (see {@link AggregationTable#getFlushedBefore()}).
+     * Watermarks are stored separately from the snapshot right after every flush,
+     * so entries of the older snapshot that were flushed after it was taken are not flushed again.
+     */
+    static void writeWatermarks(Path path, AggregationTable... tables) throws IOException {
+        Path tmpPath = path.resolveSibling(path.getFileName() + ".tmp");
+        CRC32 crc = new CRC32();
+        try (FileOutputStream fos = new FileOutputStream(tmpPath.toFile());
+             DataOutputStream dos = new DataOutputStream(new CheckedOutputStream(fos, crc))) {
+            dos.writeInt(WATERMARK_MAGIC);
+            dos.writeInt(tables.length);
+            for (AggregationTable table : tables) {
+                dos.writeLong(table.getFlushedBefore());
+            }
+            dos.writeLong(crc.getValue());
+            dos.flush();
+            fos.getFD().sync();
+        }
+        Files.move(tmpPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    static void readWatermarks(Path path, AggregationTable... tables) throws IOException {
+        CRC32 crc = new CRC32();
+        try (DataInputStream dis = new DataInputStream(new CheckedInputStream(Files.newInputStream(path), crc))) {
+            if (dis.readInt() != WATERMARK_MAGIC || dis.readInt() != tables.length) {
+                throw new IOException("Not an aggregation watermark file.");
+            }
+            long[] watermarks = new long[tables.length];
+            for (int i = 0; i < tables.length; i++) {
+                watermarks[i] = dis.readLong();
+            }
+            long expected = crc.getValue();
+            if (dis.readLong() != expected) {
+                throw new IOException("Aggregation watermark file is corrupted.");
+            }
+            for (int i = 0; i < tables.length; i++) {
+                tables[i].setFlushedBefore(watermarks[i]);
+            }
+        }
+    }
+
+    /**
+     * @return position of the reporting wal covered by the snapshot
+     */
+    static long readWalPosition(Path path) throws IOException {
+        try (DataInputStream dis = new DataInputStream(Files.newInputStream(path))) {
+            if (dis.readInt() != MAGIC) {
+                throw new IOException("Not an aggregation snapshot.");
+            }
+            return readHeader(dis);
+        }
+    }
+
+    private static long readHeader(DataInputStream dis) throws IOException {
+        short version = dis.readShort();
+        if (version != VERSION) {
+            throw new IOException("Unsupported aggregation snapshot version " + version + ".");
+        }
+        dis.readLong();
+        return dis.readLong();
+    }
+
+    private static void verify(DataInputStream dis, CRC32 crc, byte type) throws IOException {
+        long expected = crc.getValue();
+        if (dis.readLong() != expected) {
+            throw new IOException("Aggregation snapshot block " + type + " is corrupted.");
+        }
+    }
+
+}
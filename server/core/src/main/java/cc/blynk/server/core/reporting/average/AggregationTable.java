@@ -0,0 +1,344 @@
+package cc.blynk.server.core.reporting.average;
+
+import cc.blynk.server.core.reporting.raw.BaseReportingKey;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntPredicate;
+
+/**
+ * Aggregated reporting values of a single granularity keyed by (series id, time bucket).
+ * Entries are stored inline within primitive arrays of open addressing (linear probing) tables,
+ * so {@link #add(int, long, double)} doesn't allocate anything for existing entries.
+ * Table is split into stripes guarded by separate locks to lower contention between event loops.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+public final class AggregationTable {
+
+    private static final int STRIPES_SHIFT = 6;
+    private static final int STRIPES = 1 << STRIPES_SHIFT;
+    private static final IntPredicate NO_SERIES = seriesId -> false;
+
+    private final SeriesRegistry seriesRegistry;
+    private final Stripe[] stripes;
+    //removeOutdated is called only by the single reporting worker thread
+    private volatile long flushedBefore;
+
+    //for test only
+    public AggregationTable() {
+        this(new SeriesRegistry());
+    }
+
+    AggregationTable(SeriesRegistry seriesRegistry) {
+        this.seriesRegistry = seriesRegistry;
+        this.stripes = new Stripe[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    private static long hash(int seriesId, long bucket) {
+        long h = seriesId * 0x9E3779B97F4A7C15L + bucket;
+        h = (h ^ (h >>> 32)) * 0xD6E8FEB86659FD93L;
+        return h ^ (h >>> 32);
+    }
+
+    private Stripe stripe(long hash) {
+        //high bits select stripe, low bits select slot within stripe
+        return stripes[(int) (hash >>> (Long.SIZE - STRIPES_SHIFT))];
+    }
+
+    void add(int seriesId, long bucket, double value) {
+        long hash = hash(seriesId, bucket);
+        stripe(hash).add(seriesId, bucket, (int) hash, value, 1);
+    }
+
+    void add(int seriesId, long bucket, double sum, long count) {
+        long hash = hash(seriesId, bucket);
+        stripe(hash).add(seriesId, bucket, (int) hash, sum, count);
+    }
+
+    public void put(AggregationKey key, AggregationValue value) {
+        int seriesId = seriesRegistry.getOrCreateId(key.getBaseReportingKey());
+        long hash = hash(seriesId, key.ts);
+        stripe(hash).add(seriesId, key.ts, (int) hash, value.values, value.count);
+    }
+
+    public void putAll(Map<AggregationKey, AggregationValue> map) {
+        for (Map.Entry<AggregationKey, AggregationValue> entry : map.entrySet()) {
+            put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    public AggregationValue get(AggregationKey key) {
+        int seriesId = seriesRegistry.getId(key.getBaseReportingKey());
+        if (seriesId == SeriesRegistry.NO_ID) {
+            return null;
+        }
+        long hash = hash(seriesId, key.ts);
+        return stripe(hash).get(seriesId, key.ts, (int) hash);
+    }
+
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            size += stripe.size();
+        }
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public void clear() {
+        for (Stripe stripe : stripes) {
+            stripe.removeBefore(Long.MAX_VALUE);
+        }
+    }
+
+    /**
+     * Removes all entries of the series that match the predicate.
+     */
+    void removeSeries(IntPredicate seriesIds) {
+        for (Stripe stripe : stripes) {
+            stripe.removeSeries(seriesIds);
+        }
+    }
+
+    /**
+     * Removes all entries with the time bucket before provided one.
+     *
+     * @return removed entries
+     */
+    public Map<AggregationKey, AggregationValue> removeOutdated(long nowTruncatedToPeriod) {
+        Map<AggregationKey, AggregationValue> result = new HashMap<>();
+        for (Stripe stripe : stripes) {
+            stripe.copyTo(result, seriesRegistry, nowTruncatedToPeriod, true);
+        }
+        //watermark only moves forward
+        if (nowTruncatedToPeriod > flushedBefore) {
+            flushedBefore = nowTruncatedToPeriod;
+        }
+        return result;
+    }
+
+    /**
+     * @return copy of all entries within the table
+     */
+    public ConcurrentHashMap<AggregationKey, AggregationValue> toMap() {
+        ConcurrentHashMap<AggregationKey, AggregationValue> result = new ConcurrentHashMap<>();
+        for (Stripe stripe : stripes) {
+            stripe.copyTo(result, seriesRegistry, Long.MAX_VALUE, false);
+        }
+        return result;
+    }
+
+    /**
+     * Copies all entries of the table. Every stripe is copied under its lock,
+     * so collectors are blocked only for the copy of a single stripe.
+     */
+    Entries[] copyStripes() {
+        Entries[] result = new Entries[stripes.length];
+        for (int i = 0; i < stripes.length; i++) {
+            result[i] = stripes[i].copy();
+        }
+        return result;
+    }
+
+    /**
+     * Buckets before this one were already flushed to the storage.
+     */
+    long getFlushedBefore() {
+        return flushedBefore;
+    }
+
+    void setFlushedBefore(long bucket) {
+        this.flushedBefore = bucket;
+    }
+
+    /**
+     * Drops entries that were already flushed to the storage, for example ones restored from
+     * the snapshot that was taken before the last flush. Late values with the old bucket that
+     * were collected after the last flush are dropped as well, as they can't be told apart.
+     */
+    void dropFlushed() {
+        long bucket = flushedBefore;
+        if (bucket > 0) {
+            for (Stripe stripe : stripes) {
+                stripe.removeBefore(bucket);
+            }
+        }
+    }
+
+    //copy of the stripe, arrays are the open addressing table, slots with NO_ID series are empty
+    static final class Entries {
+
+        final int size;
+        final int[] seriesIds;
+        final long[] buckets;
+        final double[] sums;
+        final long[] counts;
+
+        private Entries(int size, int[] seriesIds, long[] buckets, double[] sums, long[] counts) {
+            this.size = size;
+            this.seriesIds = seriesIds;
+            this.buckets = buckets;
+            this.sums = sums;
+            this.counts = counts;
+        }
+    }
+
+    private static final class Stripe {
+
+        private static final int INITIAL_CAPACITY = 64;
+
+        //series id 0 marks empty slot
+        private int[] seriesIds;
+        private long[] buckets;
+        private double[] sums;
+        private long[] counts;
+        private int size;
+
+        Stripe() {
+            init(INITIAL_CAPACITY);
+        }
+
+        private void init(int capacity) {
+            this.seriesIds = new int[capacity];
+            this.buckets = new long[capacity];
+            this.sums = new double[capacity];
+            this.counts = new long[capacity];
+            this.size = 0;
+        }
+
+        synchronized void add(int seriesId, long bucket, int hash, double sum, long count) {
+            int mask = seriesIds.length - 1;
+            int i = hash & mask;
+            while (seriesIds[i] != SeriesRegistry.NO_ID) {
+                if (seriesIds[i] == seriesId && buckets[i] == bucket) {
+                    sums[i] += sum;
+                    counts[i] += count;
+                    return;
+                }
+                i = (i + 1) & mask;
+            }
+
+            seriesIds[i] = seriesId;
+            buckets[i] = bucket;
+            sums[i] = sum;
+            counts[i] = count;
+            //keeping load factor below 0.75
+            if (++size > (seriesIds.length >> 1) + (seriesIds.length >> 2)) {
+                rehash(seriesIds.length << 1, Long.MIN_VALUE, NO_SERIES);
+            }
+        }
+
+        synchronized AggregationValue get(int seriesId, long bucket, int hash) {
+            int mask = seriesIds.length - 1;
+            int i = hash & mask;
+            while (seriesIds[i] != SeriesRegistry.NO_ID) {
+                if (seriesIds[i] == seriesId && buckets[i] == bucket) {
+                    return new AggregationValue(sums[i], counts[i]);
+                }
+                i = (i + 1) & mask;
+            }
+            return null;
+        }
+
+        synchronized int size() {
+            return size;
+        }
+
+        synchronized Entries copy() {
+            return new Entries(size, seriesIds.clone(), buckets.clone(), sums.clone(), counts.clone());
+        }
+
+        synchronized void removeBefore(long beforeBucket) {
+            int removed = 0;
+            for (int i = 0; i < seriesIds.length; i++) {
+                if (seriesIds[i] != SeriesRegistry.NO_ID && buckets[i] < beforeBucket) {
+                    removed++;
+                }
+            }
+            if (removed > 0) {
+                rehash(capacityFor(size - removed), beforeBucket, NO_SERIES);
+            }
+        }
+
+        synchronized void removeSeries(IntPredicate removedSeries) {
+            int removed = 0;
+            for (int seriesId : seriesIds) {
+                if (seriesId != SeriesRegistry.NO_ID && removedSeries.test(seriesId)) {
+                    removed++;
+                }
+            }
+            if (removed > 0) {
+                rehash(capacityFor(size - removed), Long.MIN_VALUE, removedSeries);
+            }
+        }
+
+        private static int capacityFor(int size) {
+            int capacity = INITIAL_CAPACITY;
+            while (capacity < size * 2) {
+                capacity <<= 1;
+            }
+            return capacity;
+        }
+
+        synchronized void copyTo(Map<AggregationKey, AggregationValue> result, SeriesRegistry seriesRegistry,
+                                 long beforeBucket, boolean remove) {
+            if (size == 0) {
+                return;
+            }
+            int removed = 0;
+            for (int i = 0; i < seriesIds.length; i++) {
+                int seriesId = seriesIds[i];
+                if (seriesId != SeriesRegistry.NO_ID && buckets[i] < beforeBucket) {
+                    BaseReportingKey baseReportingKey = seriesRegistry.getKey(seriesId);
+                    //series was removed, entry is dropped
+                    if (baseReportingKey != null) {
+                        result.put(new AggregationKey(baseReportingKey, buckets[i]),
+                                   new AggregationValue(sums[i], counts[i]));
+                    }
+                    removed++;
+                }
+            }
+            if (remove && removed > 0) {
+                //most of the entries usually are removed, so it is cheaper to rebuild table
+                rehash(capacityFor(size - removed), beforeBucket, NO_SERIES);
+            }
+        }
+
+        //moves entries with bucket >= fromBucket of not removed series to the new table of provided capacity
+        private void rehash(int capacity, long fromBucket, IntPredicate removedSeries) {
+            int[] oldSeriesIds = this.seriesIds;
+            long[] oldBuckets = this.buckets;
+            double[] oldSums = this.sums;
+            long[] oldCounts = this.counts;
+
+            init(capacity);
+            int mask = capacity - 1;
+            for (int i = 0; i < oldSeriesIds.length; i++) {
+                int seriesId = oldSeriesIds[i];
+                if (seriesId != SeriesRegistry.NO_ID && oldBuckets[i] >= fromBucket
+                        && !removedSeries.test(seriesId)) {
+                    int j = (int) hash(seriesId, oldBuckets[i]) & mask;
+                    while (seriesIds[j] != SeriesRegistry.NO_ID) {
+                        j = (j + 1) & mask;
+                    }
+                    seriesIds[j] = seriesId;
+                    buckets[j] = oldBuckets[i];
+                    sums[j] = oldSums[i];
+                    counts[j] = oldCounts[i];
+                    size++;
+                }
+            }
+        }
+    }
+
+}
@@ -9,8 +9,8 @@ import java.io.Serializable;
  */
 public class AggregationValue implements Serializable {
 
-    private double values = 0;
-    private long count = 0;
+    double values = 0;
+    long count = 0;
 
     public AggregationValue() {
     }
@@ -20,6 +20,11 @@ public class AggregationValue implements Serializable {
         this.count = 1;
     }
 
+    AggregationValue(double values, long count) {
+        this.values = values;
+        this.count = count;
+    }
+
     public void update(double val) {
         values += val;
         count++;
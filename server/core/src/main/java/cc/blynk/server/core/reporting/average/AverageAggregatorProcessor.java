@@ -1,18 +1,19 @@
 package cc.blynk.server.core.reporting.average;
 
+import cc.blynk.server.core.model.enums.PinType;
 import cc.blynk.server.core.reporting.raw.BaseReportingKey;
 import cc.blynk.utils.FileUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.io.Closeable;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
 
 import static cc.blynk.server.internal.SerializationUtil.deserialize;
-import static cc.blynk.server.internal.SerializationUtil.serialize;
 
 /**
  * The Blynk Project.
@@ -26,73 +27,186 @@ public class AverageAggregatorProcessor implements Closeable {
     public static final long MINUTE = 1000 * 60;
     public static final long HOUR = 60 * MINUTE;
     public static final long DAY = 24 * HOUR;
+    static final String SNAPSHOT_FILENAME = "aggregation_snapshot.bin";
+    static final String WATERMARK_FILENAME = "aggregation_watermark.bin";
+    //legacy java serialization files, used only to restore state after upgrade
     static final String MINUTE_TEMP_FILENAME = "minute_temp.bin";
     static final String HOURLY_TEMP_FILENAME = "hourly_temp.bin";
     static final String DAILY_TEMP_FILENAME = "daily_temp.bin";
-    private final String dataFolder;
-    private final ConcurrentHashMap<AggregationKey, AggregationValue> minute;
-    private final ConcurrentHashMap<AggregationKey, AggregationValue> hourly;
-    private final ConcurrentHashMap<AggregationKey, AggregationValue> daily;
+    private final Path snapshotPath;
+    private final Path watermarkPath;
+    private final SeriesRegistry seriesRegistry;
+    private final AggregationTable minute;
+    private final AggregationTable hourly;
+    private final AggregationTable daily;
+    //position of the reporting wal that is covered by the restored snapshot
+    private long snapshotWalPosition;
 
-    @SuppressWarnings("unchecked")
     public AverageAggregatorProcessor(String dataFolder) {
-        this.dataFolder = dataFolder;
+        this(dataFolder, false);
+    }
 
-        Path path;
+    /**
+     * @param keepSnapshot - restored snapshot is kept till the next one is stored.
+     *                     Needed when wal records are replayed on top of it,
+     *                     as they are kept till the next snapshot as well.
+     */
+    public AverageAggregatorProcessor(String dataFolder, boolean keepSnapshot) {
+        this.snapshotPath = Paths.get(dataFolder, SNAPSHOT_FILENAME);
+        this.watermarkPath = Paths.get(dataFolder, WATERMARK_FILENAME);
+        this.seriesRegistry = new SeriesRegistry();
+        this.minute = new AggregationTable(seriesRegistry);
+        this.hourly = new AggregationTable(seriesRegistry);
+        this.daily = new AggregationTable(seriesRegistry);
+
+        if (Files.exists(snapshotPath)) {
+            long start = System.currentTimeMillis();
+            try {
+                this.snapshotWalPosition = AggregationSnapshot.readWalPosition(snapshotPath);
+                long restored = AggregationSnapshot.read(snapshotPath, seriesRegistry, minute, hourly, daily);
+                log.info("Restored {} aggregation entries in {} ms.", restored, System.currentTimeMillis() - start);
+            } catch (Exception e) {
+                log.error("Error restoring aggregation snapshot. Reason : {}", e.getMessage());
+            }
+            if (!keepSnapshot) {
+                FileUtils.deleteQuietly(snapshotPath);
+            }
+        }
 
-        path = Paths.get(dataFolder, MINUTE_TEMP_FILENAME);
-        this.minute = (ConcurrentHashMap<AggregationKey, AggregationValue>) deserialize(path);
-        FileUtils.deleteQuietly(path);
+        restoreLegacy(Paths.get(dataFolder, MINUTE_TEMP_FILENAME), minute);
+        restoreLegacy(Paths.get(dataFolder, HOURLY_TEMP_FILENAME), hourly);
+        restoreLegacy(Paths.get(dataFolder, DAILY_TEMP_FILENAME), daily);
 
-        path = Paths.get(dataFolder, HOURLY_TEMP_FILENAME);
-        this.hourly = (ConcurrentHashMap<AggregationKey, AggregationValue>) deserialize(path);
-        FileUtils.deleteQuietly(path);
+        if (Files.exists(watermarkPath)) {
+            try {
+                AggregationSnapshot.readWatermarks(watermarkPath, minute, hourly, daily);
+            } catch (Exception e) {
+                log.error("Error reading aggregation watermarks. Reason : {}", e.getMessage());
+            }
+        }
+        dropFlushed();
+    }
 
-        path = Paths.get(dataFolder, DAILY_TEMP_FILENAME);
-        this.daily = (ConcurrentHashMap<AggregationKey, AggregationValue>) deserialize(path);
-        FileUtils.deleteQuietly(path);
+    /**
+     * Drops restored entries that were flushed to the storage after the snapshot was taken.
+     * Should be called as well after all the lost values were collected again (for example from wal).
+     */
+    public void dropFlushed() {
+        minute.dropFlushed();
+        hourly.dropFlushed();
+        daily.dropFlushed();
     }
 
-    private static void aggregate(Map<AggregationKey, AggregationValue> map, AggregationKey key, double value) {
-        AggregationValue aggregationValue = map.get(key);
-        if (aggregationValue == null) {
-            aggregationValue = map.putIfAbsent(key, new AggregationValue(value));
-            if (aggregationValue == null) {
-                return;
-            }
+    /**
+     * Stores what was flushed to the storage so far. Supposed to be called right after the flush,
+     * so if the server crashes before the next snapshot, already flushed entries of
+     * the previous snapshot are not flushed again.
+     */
+    public void storeFlushWatermarks() {
+        try {
+            AggregationSnapshot.writeWatermarks(watermarkPath, minute, hourly, daily);
+        } catch (Exception e) {
+            log.error("Error storing aggregation watermarks. Reason : {}", e.getMessage());
         }
+    }
 
-        aggregationValue.update(value);
+    @SuppressWarnings("unchecked")
+    private static void restoreLegacy(Path path, AggregationTable table) {
+        if (Files.exists(path)) {
+            table.putAll((Map<AggregationKey, AggregationValue>) deserialize(path));
+            FileUtils.deleteQuietly(path);
+        }
     }
 
     public void collect(BaseReportingKey baseReportingKey, long ts, double val) {
-        aggregate(minute, new AggregationKey(baseReportingKey, ts / MINUTE), val);
-        aggregate(hourly, new AggregationKey(baseReportingKey, ts / HOUR), val);
-        aggregate(daily, new AggregationKey(baseReportingKey, ts / DAY), val);
+        collect(seriesRegistry.getOrCreateId(baseReportingKey), ts, val);
     }
 
-    public ConcurrentHashMap<AggregationKey, AggregationValue> getMinute() {
+    /**
+     * Doesn't allocate anything for the already known series.
+     *
+     * @return series id
+     */
+    public int collect(String email, String appName, int dashId, int deviceId, PinType pinType, short pin,
+                       long ts, double val) {
+        int seriesId = seriesRegistry.getOrCreateId(email, appName, dashId, deviceId, pinType, pin);
+        collect(seriesId, ts, val);
+        return seriesId;
+    }
+
+    private void collect(int seriesId, long ts, double val) {
+        minute.add(seriesId, ts / MINUTE, val);
+        hourly.add(seriesId, ts / HOUR, val);
+        daily.add(seriesId, ts / DAY, val);
+    }
+
+    public BaseReportingKey getKey(int seriesId) {
+        return seriesRegistry.getKey(seriesId);
+    }
+
+    /**
+     * Forgets series that match the filter. Not yet flushed entries of them are dropped.
+     */
+    public int removeSeries(Predicate<BaseReportingKey> filter) {
+        return seriesRegistry.remove(filter, removed -> {
+            minute.removeSeries(removed);
+            hourly.removeSeries(removed);
+            daily.removeSeries(removed);
+        });
+    }
+
+    public AggregationTable getMinute() {
         return minute;
     }
 
-    public ConcurrentHashMap<AggregationKey, AggregationValue> getHourly() {
+    public AggregationTable getHourly() {
         return hourly;
     }
 
-    public ConcurrentHashMap<AggregationKey, AggregationValue> getDaily() {
+    public AggregationTable getDaily() {
         return daily;
     }
 
+    public long getSnapshotWalPosition() {
+        return snapshotWalPosition;
+    }
+
+    /**
+     * Stores current aggregation state to disk, so it could be restored after restart or crash.
+     * Supposed to be called right after outdated entries were flushed,
+     * so snapshot contains only entries that are not stored yet.
+     */
+    public void snapshot() {
+        //nothing to restore, so previous snapshot is outdated as well
+        if (minute.isEmpty() && hourly.isEmpty() && daily.isEmpty()) {
+            FileUtils.deleteQuietly(snapshotPath);
+            return;
+        }
+        snapshot(0);
+    }
+
+    /**
+     * Same as {@link #snapshot()}, but snapshot is stored even if it is empty,
+     * as it marks the position of the reporting wal covered by it.
+     *
+     * @return true in case snapshot was stored
+     */
+    public boolean snapshot(long walPosition) {
+        long start = System.currentTimeMillis();
+        try {
+            long entries = AggregationSnapshot.write(snapshotPath, walPosition, seriesRegistry, minute, hourly, daily);
+            log.debug("Aggregation snapshot with {} entries stored in {} ms.",
+                    entries, System.currentTimeMillis() - start);
+            return true;
+        } catch (Exception e) {
+            log.error("Error storing aggregation snapshot. Reason : {}", e.getMessage());
+            return false;
+        }
+    }
+
     @Override
     public void close() {
-        if (minute.size() > 100_000) {
-            log.info("Too many minute records ({}). "
-                    + "This may cause performance issues on server start. Skipping.", minute.size());
-        } else {
-            serialize(Paths.get(dataFolder, MINUTE_TEMP_FILENAME), minute);
-        }
-        serialize(Paths.get(dataFolder, HOURLY_TEMP_FILENAME), hourly);
-        serialize(Paths.get(dataFolder, DAILY_TEMP_FILENAME), daily);
+        snapshot();
     }
 
 }
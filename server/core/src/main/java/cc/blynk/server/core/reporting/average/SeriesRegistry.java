@@ -0,0 +1,275 @@
+package cc.blynk.server.core.reporting.average;
+
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.reporting.raw.BaseReportingKey;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.function.Consumer;
+import java.util.function.IntPredicate;
+import java.util.function.Predicate;
+
+/**
+ * Interns reporting series. Every unique {@link BaseReportingKey} gets int id,
+ * so aggregation tables and raw data buffer could store series as primitive without holding
+ * email/appName strings per entry.
+ * Existing series are looked up by the key fields, so collecting value doesn't allocate the key.
+ *
+ * Id consists of the slot (low bits) and the slot generation (high bits). Slots of the removed series
+ * are reused with the next generation. Generation has only few bits and wraps around, so entries of the
+ * removed series are purged from the tables and buffers before their slots are reused
+ * (see {@link #remove(Predicate, Consumer)}). Entries added concurrently with the removal are not resolved
+ * to the new series, {@link #getKey(int)} returns null for them, so they are dropped with the next flush.
+ * 0 means "no id".
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+public final class SeriesRegistry {
+
+    public static final int NO_ID = 0;
+
+    private static final int SLOT_BITS = 25;
+    private static final int SLOT_MASK = (1 << SLOT_BITS) - 1;
+    private static final int GENERATION_MASK = (1 << (Integer.SIZE - 1 - SLOT_BITS)) - 1;
+
+    private static final int TOMBSTONE = -1;
+
+    private static final int STRIPES_SHIFT = 6;
+    private static final int STRIPES = 1 << STRIPES_SHIFT;
+
+    private final Stripe[] stripes;
+
+    //slot -> series, written under lock and published via volatile write
+    private volatile Series[] series = new Series[1024];
+    //guarded by this
+    private int[] generations = new int[1024];
+    private int[] freeSlots = new int[16];
+    private int freeSlotsCount;
+    private int lastSlot;
+    private int size;
+
+    public SeriesRegistry() {
+        this.stripes = new Stripe[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    private static int hash(String email, String appName, int dashId, int deviceId, PinType pinType, short pin) {
+        int h = Objects.hashCode(email);
+        h = 31 * h + Objects.hashCode(appName);
+        h = 31 * h + dashId;
+        h = 31 * h + deviceId;
+        h = 31 * h + pinType.ordinal();
+        h = 31 * h + pin;
+        return h ^ (h >>> 16);
+    }
+
+    private Stripe stripe(int hash) {
+        return stripes[(hash * 0x9E3779B9) >>> (Integer.SIZE - STRIPES_SHIFT)];
+    }
+
+    public int getOrCreateId(BaseReportingKey key) {
+        return getOrCreateId(key.email, key.appName, key.dashId, key.deviceId, key.pinType, key.pin);
+    }
+
+    public int getOrCreateId(String email, String appName, int dashId, int deviceId, PinType pinType, short pin) {
+        int hash = hash(email, appName, dashId, deviceId, pinType, pin);
+        int id = stripe(hash).find(hash, email, appName, dashId, deviceId, pinType, pin);
+        if (id != NO_ID) {
+            return id;
+        }
+        return createId(hash, new BaseReportingKey(email, appName, dashId, deviceId, pinType, pin));
+    }
+
+    private synchronized int createId(int hash, BaseReportingKey key) {
+        Stripe stripe = stripe(hash);
+        int id = stripe.find(hash, key.email, key.appName, key.dashId, key.deviceId, key.pinType, key.pin);
+        if (id != NO_ID) {
+            return id;
+        }
+
+        int slot;
+        if (freeSlotsCount > 0) {
+            slot = freeSlots[--freeSlotsCount];
+        } else {
+            slot = ++lastSlot;
+            if (slot > SLOT_MASK) {
+                throw new IllegalStateException("Too many reporting series.");
+            }
+        }
+
+        Series[] series = this.series;
+        if (slot >= series.length) {
+            series = Arrays.copyOf(series, series.length * 2);
+            generations = Arrays.copyOf(generations, series.length);
+        }
+        int newId = (generations[slot] << SLOT_BITS) | slot;
+        series[slot] = new Series(newId, hash, key);
+        this.series = series;
+        stripe.add(series, hash, newId);
+        size++;
+        return newId;
+    }
+
+    public int getId(BaseReportingKey key) {
+        int hash = hash(key.email, key.appName, key.dashId, key.deviceId, key.pinType, key.pin);
+        return stripe(hash).find(hash, key.email, key.appName,
+                key.dashId, key.deviceId, key.pinType, key.pin);
+    }
+
+    /**
+     * @return key of the series or null in case series was removed.
+     */
+    public BaseReportingKey getKey(int id) {
+        Series[] series = this.series;
+        int slot = id & SLOT_MASK;
+        if (slot >= series.length) {
+            return null;
+        }
+        Series s = series[slot];
+        return s != null && s.id == id ? s.key : null;
+    }
+
+    /**
+     * Removes all series that match the filter. Ids of removed series are reused for the new series.
+     *
+     * @param purge - removes entries of the removed ids from all tables and buffers that use this registry.
+     *                Called under the registry lock, so slots are not reused till purge is done
+     * @return number of removed series
+     */
+    public synchronized int remove(Predicate<BaseReportingKey> filter, Consumer<IntPredicate> purge) {
+        Series[] series = this.series;
+        int[] removedIds = new int[16];
+        int removed = 0;
+        for (int slot = 1; slot <= lastSlot; slot++) {
+            Series s = series[slot];
+            if (s != null && filter.test(s.key)) {
+                stripe(s.hash).remove(s.hash, s.id);
+                series[slot] = null;
+                generations[slot] = (generations[slot] + 1) & GENERATION_MASK;
+                if (removed == removedIds.length) {
+                    removedIds = Arrays.copyOf(removedIds, removed * 2);
+                }
+                removedIds[removed++] = s.id;
+            }
+        }
+        if (removed == 0) {
+            return 0;
+        }
+        size -= removed;
+        this.series = series;
+
+        int[] ids = Arrays.copyOf(removedIds, removed);
+        Arrays.sort(ids);
+        purge.accept(id -> Arrays.binarySearch(ids, id) >= 0);
+
+        for (int id : ids) {
+            if (freeSlotsCount == freeSlots.length) {
+                freeSlots = Arrays.copyOf(freeSlots, freeSlotsCount * 2);
+            }
+            freeSlots[freeSlotsCount++] = id & SLOT_MASK;
+        }
+        return removed;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    private static final class Series {
+
+        private final int id;
+        private final int hash;
+        private final BaseReportingKey key;
+
+        Series(int id, int hash, BaseReportingKey key) {
+            this.id = id;
+            this.hash = hash;
+            this.key = key;
+        }
+
+        boolean matches(String email, String appName, int dashId, int deviceId, PinType pinType, short pin) {
+            return key.dashId == dashId && key.deviceId == deviceId
+                    && key.pin == pin && key.pinType == pinType
+                    && Objects.equals(key.email, email) && Objects.equals(key.appName, appName);
+        }
+    }
+
+    //open addressing table of ids with linear probing
+    private final class Stripe {
+
+        private int[] ids = new int[16];
+        //used and removed slots
+        private int occupied;
+
+        synchronized int find(int hash, String email, String appName,
+                              int dashId, int deviceId, PinType pinType, short pin) {
+            //read under the lock, as series is published before its id is added to the stripe
+            Series[] series = SeriesRegistry.this.series;
+            int mask = ids.length - 1;
+            for (int i = hash & mask; ids[i] != NO_ID; i = (i + 1) & mask) {
+                int id = ids[i];
+                if (id != TOMBSTONE) {
+                    Series s = series[id & SLOT_MASK];
+                    if (s.hash == hash && s.matches(email, appName, dashId, deviceId, pinType, pin)) {
+                        return id;
+                    }
+                }
+            }
+            return NO_ID;
+        }
+
+        synchronized void add(Series[] series, int hash, int id) {
+            //keeping load factor (including removed) below 0.5
+            if (++occupied > ids.length >> 1) {
+                rehash(series);
+            }
+            insert(hash, id);
+        }
+
+        private void insert(int hash, int id) {
+            int mask = ids.length - 1;
+            int i = hash & mask;
+            while (ids[i] != NO_ID && ids[i] != TOMBSTONE) {
+                i = (i + 1) & mask;
+            }
+            ids[i] = id;
+        }
+
+        synchronized void remove(int hash, int id) {
+            int mask = ids.length - 1;
+            for (int i = hash & mask; ids[i] != NO_ID; i = (i + 1) & mask) {
+                if (ids[i] == id) {
+                    ids[i] = TOMBSTONE;
+                    return;
+                }
+            }
+        }
+
+        //drops tombstones and grows table in case it is mostly used by the live ids
+        private void rehash(Series[] series) {
+            int[] oldIds = this.ids;
+            int live = 0;
+            for (int id : oldIds) {
+                if (id != NO_ID && id != TOMBSTONE) {
+                    live++;
+                }
+            }
+            int capacity = oldIds.length;
+            while (live + 1 > capacity >> 2) {
+                capacity <<= 1;
+            }
+            this.ids = new int[capacity];
+            this.occupied = live + 1;
+            for (int id : oldIds) {
+                if (id != NO_ID && id != TOMBSTONE) {
+                    insert(series[id & SLOT_MASK].hash, id);
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,91 @@
+package cc.blynk.server.core.reporting.raw;
+
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+
+import static cc.blynk.utils.FileUtils.SIZE_OF_REPORT_ENTRY;
+
+/**
+ * Fixed size ring buffer with the last values of the single pin for the graph LIVE stream.
+ *
+ * Entries are stored in the primitive array in the reporting entry format (value bits, ts),
+ * so reading is the bulk copy of the array into the result buffer.
+ * Reads are lock-free : sequence counter is odd while entry is written,
+ * so reader retries the copy in case entry was overwritten during the read.
+ * Pin is usually updated by the single device channel, so writers lock is never contended.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+public final class LiveGraphBuffer {
+
+    private final int capacity;
+    //value bits and ts of every entry
+    private final long[] data;
+    //twice the number of added entries, odd while entry is written
+    private volatile long seq;
+    private volatile long lastWriteTs;
+
+    public LiveGraphBuffer(int capacity) {
+        this.capacity = capacity;
+        this.data = new long[capacity * 2];
+    }
+
+    public synchronized void add(double value, long ts, long now) {
+        long s = seq;
+        seq = s + 1;
+        //entry must not be changed before readers see odd sequence
+        VarHandle.storeStoreFence();
+        int slot = (int) ((s >>> 1) % capacity) * 2;
+        data[slot] = Double.doubleToRawLongBits(value);
+        data[slot + 1] = ts;
+        seq = s + 2;
+        lastWriteTs = now;
+    }
+
+    public int size() {
+        return (int) Math.min(seq >>> 1, capacity);
+    }
+
+    public boolean isIdle(long now, long idleTime) {
+        return now - lastWriteTs > idleTime;
+    }
+
+    /**
+     * @param count - max number of the returned entries
+     * @param skip - number of the latest entries to skip
+     * @return entries in the reporting entry format, oldest first, null when there is no data.
+     */
+    public ByteBuffer read(int count, int skip) {
+        while (true) {
+            long s = seq;
+            if ((s & 1) != 0) {
+                Thread.onSpinWait();
+                continue;
+            }
+            long added = s >>> 1;
+            long end = added - skip;
+            long start = Math.max(added - Math.min(added, capacity), end - count);
+            if (end <= start) {
+                return null;
+            }
+
+            int size = (int) (end - start);
+            ByteBuffer result = ByteBuffer.allocate(size * SIZE_OF_REPORT_ENTRY);
+            LongBuffer entries = result.asLongBuffer();
+            int from = (int) (start % capacity);
+            int tillArrayEnd = Math.min(size, capacity - from);
+            entries.put(data, from * 2, tillArrayEnd * 2);
+            entries.put(data, 0, (size - tillArrayEnd) * 2);
+
+            //copy must be finished before sequence is checked
+            VarHandle.loadLoadFence();
+            if (seq == s) {
+                return result;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,288 @@
+package cc.blynk.server.core.reporting.raw;
+
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.reporting.average.SeriesRegistry;
+import cc.blynk.server.core.stats.BufferStats;
+import cc.blynk.utils.NumberUtil;
+
+import java.util.function.IntPredicate;
+import java.util.function.Predicate;
+
+/**
+ * Bounded in-memory buffer for the raw data records that should be stored in reporting DB lately.
+ * Records are kept in primitive columns (series id, ts, double value and optional string value)
+ * of the ring buffers, so collecting record doesn't create any garbage.
+ *
+ * Buffer is split into shards by series id in order to reduce contention between event loops.
+ * When shard is full - {@link RawDataOverflowPolicy} is applied.
+ * Shard arrays grow on demand, so memory is not allocated for the unused capacity.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+public final class RawDataBuffer {
+
+    private static final int SHARDS_COUNT = 16;
+    private static final int INITIAL_SHARD_CAPACITY = 1024;
+
+    private final SeriesRegistry seriesRegistry;
+    private final int capacity;
+    private final Shard[] shards;
+    private final RawDataOverflowPolicy overflowPolicy;
+    private final BufferStats stats;
+    //null when overflow policy is not SPILL_TO_DISK
+    private final RawDataSpill spill;
+
+    public RawDataBuffer(int capacity, RawDataOverflowPolicy overflowPolicy, String dataFolder, BufferStats stats) {
+        this.seriesRegistry = new SeriesRegistry();
+        this.overflowPolicy = overflowPolicy;
+        this.stats = stats;
+        this.capacity = capacity;
+        int shardCapacity = (capacity + SHARDS_COUNT - 1) / SHARDS_COUNT;
+        this.shards = new Shard[SHARDS_COUNT];
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = new Shard(shardCapacity);
+        }
+        this.spill = overflowPolicy == RawDataOverflowPolicy.SPILL_TO_DISK
+                ? new RawDataSpill(dataFolder, seriesRegistry, stats)
+                : null;
+        stats.setCapacity((long) shardCapacity * SHARDS_COUNT);
+    }
+
+    public void add(BaseReportingKey key, long ts, String stringValue, double doubleValue) {
+        add(key.email, key.appName, key.dashId, key.deviceId, key.pinType, key.pin, ts, stringValue, doubleValue);
+    }
+
+    /**
+     * @return series id of the added record or NO_ID when buffer is disabled.
+     */
+    public int add(String email, String appName, int dashId, int deviceId, PinType pinType, short pin,
+                   long ts, String stringValue, double doubleValue) {
+        //disabled buffer
+        if (capacity == 0) {
+            return SeriesRegistry.NO_ID;
+        }
+        int seriesId = seriesRegistry.getOrCreateId(email, appName, dashId, deviceId, pinType, pin);
+        //string value is needed only for the non numeric values
+        String value = doubleValue == NumberUtil.NO_RESULT ? stringValue : null;
+        Shard shard = shards[seriesId & (SHARDS_COUNT - 1)];
+
+        RawDataChunk overflow = null;
+        synchronized (shard) {
+            if (shard.size == shard.capacity) {
+                switch (overflowPolicy) {
+                    case DROP_NEWEST :
+                        stats.dropped.increment();
+                        return seriesId;
+                    case SPILL_TO_DISK :
+                        overflow = shard.detach(seriesRegistry);
+                        stats.size.add(-overflow.size);
+                        break;
+                    default :
+                        shard.removeFirst();
+                        stats.dropped.increment();
+                        stats.size.decrement();
+                        break;
+                }
+            }
+            shard.add(seriesId, ts, doubleValue, value);
+            stats.size.increment();
+        }
+
+        if (overflow != null) {
+            spill.spill(overflow);
+        }
+        return seriesId;
+    }
+
+    public BaseReportingKey getKey(int seriesId) {
+        return seriesRegistry.getKey(seriesId);
+    }
+
+    /**
+     * Forgets series that match the filter. Not yet stored records of them are dropped.
+     */
+    public int removeSeries(Predicate<BaseReportingKey> filter) {
+        return seriesRegistry.remove(filter, this::purge);
+    }
+
+    private void purge(IntPredicate removedSeries) {
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                stats.size.add(-shard.removeSeries(removedSeries));
+            }
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                size += shard.size;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Removes all records from the buffer (and spilled to disk ones) and passes them to consumer
+     * in chunks of chunkSize records.
+     * Records added during drain are left for the next drain.
+     * In case consumer fails, records of current chunk are lost and exception is rethrown.
+     *
+     * @return number of drained records
+     */
+    public int drain(int chunkSize, RawDataChunk.Consumer consumer) throws Exception {
+        RawDataChunk chunk = new RawDataChunk(seriesRegistry, chunkSize);
+        int drained = 0;
+
+        if (spill != null) {
+            drained += spill.drain(chunk, consumer);
+        }
+
+        for (Shard shard : shards) {
+            int limit;
+            synchronized (shard) {
+                limit = shard.size;
+            }
+            while (limit > 0) {
+                int polled;
+                synchronized (shard) {
+                    polled = shard.poll(chunk, limit);
+                }
+                stats.size.add(-polled);
+                limit -= polled;
+                drained += polled;
+                if (chunk.isFull()) {
+                    consumer.accept(chunk);
+                    chunk.clear();
+                }
+                if (polled == 0) {
+                    break;
+                }
+            }
+        }
+
+        if (chunk.size > 0) {
+            consumer.accept(chunk);
+            chunk.clear();
+        }
+        return drained;
+    }
+
+    public void close() {
+        if (spill != null) {
+            spill.close();
+        }
+    }
+
+    private static final class Shard {
+
+        private final int capacity;
+
+        private int[] seriesIds;
+        private long[] ts;
+        private double[] doubleValues;
+        private String[] stringValues;
+        private int head;
+        private int size;
+
+        Shard(int capacity) {
+            this.capacity = capacity;
+            int initial = Math.min(capacity, INITIAL_SHARD_CAPACITY);
+            allocate(initial);
+        }
+
+        private void allocate(int length) {
+            this.seriesIds = new int[length];
+            this.ts = new long[length];
+            this.doubleValues = new double[length];
+            this.stringValues = new String[length];
+        }
+
+        void add(int seriesId, long ts, double doubleValue, String stringValue) {
+            if (size == seriesIds.length) {
+                grow();
+            }
+            int index = (head + size) % seriesIds.length;
+            this.seriesIds[index] = seriesId;
+            this.ts[index] = ts;
+            this.doubleValues[index] = doubleValue;
+            this.stringValues[index] = stringValue;
+            size++;
+        }
+
+        private void grow() {
+            int[] oldSeriesIds = seriesIds;
+            long[] oldTs = ts;
+            double[] oldDoubleValues = doubleValues;
+            String[] oldStringValues = stringValues;
+
+            allocate((int) Math.min(capacity, oldSeriesIds.length * 2L));
+            for (int i = 0; i < size; i++) {
+                int index = (head + i) % oldSeriesIds.length;
+                seriesIds[i] = oldSeriesIds[index];
+                ts[i] = oldTs[index];
+                doubleValues[i] = oldDoubleValues[index];
+                stringValues[i] = oldStringValues[index];
+            }
+            head = 0;
+        }
+
+        void removeFirst() {
+            stringValues[head] = null;
+            head = (head + 1) % seriesIds.length;
+            size--;
+        }
+
+        /**
+         * Drops records of the series that match the predicate, order of the rest is kept.
+         *
+         * @return number of dropped records
+         */
+        int removeSeries(IntPredicate removedSeries) {
+            int kept = 0;
+            for (int i = 0; i < size; i++) {
+                int from = (head + i) % seriesIds.length;
+                if (!removedSeries.test(seriesIds[from])) {
+                    int to = (head + kept) % seriesIds.length;
+                    seriesIds[to] = seriesIds[from];
+                    ts[to] = ts[from];
+                    doubleValues[to] = doubleValues[from];
+                    stringValues[to] = stringValues[from];
+                    kept++;
+                }
+            }
+            for (int i = kept; i < size; i++) {
+                stringValues[(head + i) % seriesIds.length] = null;
+            }
+            int removed = size - kept;
+            size = kept;
+            return removed;
+        }
+
+        /**
+         * Moves up to limit records to the chunk, as much as chunk could hold.
+         */
+        int poll(RawDataChunk chunk, int limit) {
+            int polled = 0;
+            while (polled < limit && size > 0 && !chunk.isFull()) {
+                chunk.add(seriesIds[head], ts[head], doubleValues[head], stringValues[head]);
+                removeFirst();
+                polled++;
+            }
+            return polled;
+        }
+
+        /**
+         * Moves all records to the new chunk, so they could be processed outside of the lock.
+         */
+        RawDataChunk detach(SeriesRegistry seriesRegistry) {
+            RawDataChunk chunk = new RawDataChunk(seriesRegistry, size);
+            poll(chunk, size);
+            return chunk;
+        }
+    }
+
+}
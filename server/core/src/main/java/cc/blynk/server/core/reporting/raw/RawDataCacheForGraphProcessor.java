@@ -2,15 +2,13 @@ package cc.blynk.server.core.reporting.raw;
 
 import cc.blynk.server.core.model.auth.User;
 import cc.blynk.server.core.reporting.GraphPinRequest;
-import cc.blynk.utils.structure.LimitedArrayDeque;
 
 import java.nio.ByteBuffer;
 import java.util.concurrent.ConcurrentHashMap;
 
-import static cc.blynk.utils.FileUtils.SIZE_OF_REPORT_ENTRY;
-
 /**
  * Raw data storage for graph LIVE stream.
+ * Series that were not updated for the idle time are removed with {@link #removeIdle(long)}.
  *
  * The Blynk Project.
  * Created by Dmitriy Dumanskiy.
@@ -19,54 +17,54 @@ import static cc.blynk.utils.FileUtils.SIZE_OF_REPORT_ENTRY;
 public class RawDataCacheForGraphProcessor {
 
     private static final int GRAPH_CACHE_SIZE = 60;
+    public static final int DEFAULT_IDLE_MINUTES = 60;
 
-    public final ConcurrentHashMap<BaseReportingKey, LimitedArrayDeque<GraphValue>> rawStorage;
+    public final ConcurrentHashMap<BaseReportingKey, LiveGraphBuffer> rawStorage;
+    private final long idleTime;
 
     public RawDataCacheForGraphProcessor() {
-        rawStorage = new ConcurrentHashMap<>();
+        this(DEFAULT_IDLE_MINUTES);
+    }
+
+    public RawDataCacheForGraphProcessor(int idleMinutes) {
+        this.rawStorage = new ConcurrentHashMap<>();
+        this.idleTime = idleMinutes * 60_000L;
     }
 
-    public void collect(BaseReportingKey baseReportingKey, GraphValue graphCacheValue) {
-        LimitedArrayDeque<GraphValue> cache = rawStorage.get(baseReportingKey);
-        if (cache == null) {
-            cache = new LimitedArrayDeque<>(GRAPH_CACHE_SIZE);
-            rawStorage.put(baseReportingKey, cache);
+    public void collect(BaseReportingKey baseReportingKey, double value, long ts) {
+        long now = System.currentTimeMillis();
+        LiveGraphBuffer cache = rawStorage.get(baseReportingKey);
+        if (cache != null) {
+            cache.add(value, ts, now);
+            //buffer removed after the write is not idle, so only removal before the write loses the value
+            if (rawStorage.get(baseReportingKey) == cache) {
+                return;
+            }
         }
-        cache.add(graphCacheValue);
+        //racing writers should share the same buffer
+        rawStorage.compute(baseReportingKey, (key, buffer) -> {
+            if (buffer == null) {
+                buffer = new LiveGraphBuffer(GRAPH_CACHE_SIZE);
+            }
+            buffer.add(value, ts, now);
+            return buffer;
+        });
     }
 
     public ByteBuffer getLiveGraphData(User user, GraphPinRequest graphPinRequest) {
-        LimitedArrayDeque<GraphValue> cache = rawStorage.get(new BaseReportingKey(user, graphPinRequest));
+        LiveGraphBuffer cache = rawStorage.get(new BaseReportingKey(user, graphPinRequest));
 
-        if (cache != null && cache.size() > graphPinRequest.skipCount) {
-            return toByteBuffer(cache, graphPinRequest.count, graphPinRequest.skipCount);
+        if (cache != null) {
+            return cache.read(graphPinRequest.count, graphPinRequest.skipCount);
         }
 
         return null;
     }
 
-    private ByteBuffer toByteBuffer(LimitedArrayDeque<GraphValue> cache, int count, int skipCount) {
-        int size = cache.size();
-        int expectedMinimumLength = count + skipCount;
-        int diff = size - expectedMinimumLength;
-        int startReadIndex = Math.max(0, diff);
-        int expectedResultSize = diff < 0 ? count + diff : count;
-        if (expectedResultSize <= 0) {
-            return null;
-        }
-
-        ByteBuffer byteBuffer = ByteBuffer.allocate(expectedResultSize * SIZE_OF_REPORT_ENTRY);
-
-        int i = 0;
-        int counter = 0;
-        for (GraphValue graphValue : cache) {
-            if (startReadIndex <= i && counter < expectedResultSize) {
-                counter++;
-                byteBuffer.putDouble(graphValue.value)
-                        .putLong(graphValue.ts);
-            }
-            i++;
+    public void removeIdle(long now) {
+        for (BaseReportingKey key : rawStorage.keySet()) {
+            //idle check and removal are atomic with the buffer creation
+            rawStorage.computeIfPresent(key, (k, cache) -> cache.isIdle(now, idleTime) ? null : cache);
         }
-        return byteBuffer;
     }
 }
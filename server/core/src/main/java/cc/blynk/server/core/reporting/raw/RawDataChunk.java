@@ -0,0 +1,75 @@
+package cc.blynk.server.core.reporting.raw;
+
+import cc.blynk.server.core.reporting.average.SeriesRegistry;
+
+/**
+ * Bunch of raw data records in primitive columns.
+ * Same chunk instance is reused for the whole drain of {@link RawDataBuffer}.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+public final class RawDataChunk {
+
+    private final SeriesRegistry seriesRegistry;
+
+    final int[] seriesIds;
+    final long[] ts;
+    final double[] doubleValues;
+    //not null only for non numeric values
+    final String[] stringValues;
+    int size;
+
+    RawDataChunk(SeriesRegistry seriesRegistry, int capacity) {
+        this.seriesRegistry = seriesRegistry;
+        this.seriesIds = new int[capacity];
+        this.ts = new long[capacity];
+        this.doubleValues = new double[capacity];
+        this.stringValues = new String[capacity];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public BaseReportingKey getKey(int i) {
+        return seriesRegistry.getKey(seriesIds[i]);
+    }
+
+    public long getTs(int i) {
+        return ts[i];
+    }
+
+    public double getDoubleValue(int i) {
+        return doubleValues[i];
+    }
+
+    public String getStringValue(int i) {
+        return stringValues[i];
+    }
+
+    boolean isFull() {
+        return size == seriesIds.length;
+    }
+
+    void add(int seriesId, long ts, double doubleValue, String stringValue) {
+        this.seriesIds[size] = seriesId;
+        this.ts[size] = ts;
+        this.doubleValues[size] = doubleValue;
+        this.stringValues[size] = stringValue;
+        size++;
+    }
+
+    void clear() {
+        //releasing strings
+        for (int i = 0; i < size; i++) {
+            stringValues[i] = null;
+        }
+        size = 0;
+    }
+
+    public interface Consumer {
+        void accept(RawDataChunk chunk) throws Exception;
+    }
+}
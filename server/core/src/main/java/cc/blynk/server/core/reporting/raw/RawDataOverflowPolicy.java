@@ -0,0 +1,26 @@
+package cc.blynk.server.core.reporting.raw;
+
+/**
+ * Defines what happens with raw data when raw data buffer is full.
+ * Configured via "reporting.raw.buffer.overflow.policy" server property.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+public enum RawDataOverflowPolicy {
+
+    //oldest record is overwritten with the new one
+    DROP_OLDEST,
+    //new record is ignored
+    DROP_NEWEST,
+    //all buffered records are moved to disk and stored to DB during next drain
+    SPILL_TO_DISK;
+
+    public static RawDataOverflowPolicy fromString(String policy) {
+        if (policy == null || policy.isEmpty()) {
+            return DROP_OLDEST;
+        }
+        return valueOf(policy.trim().toUpperCase());
+    }
+}
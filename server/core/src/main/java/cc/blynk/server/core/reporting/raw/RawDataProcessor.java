@@ -1,16 +1,11 @@
 package cc.blynk.server.core.reporting.raw;
 
-import cc.blynk.server.core.reporting.average.AggregationKey;
-import cc.blynk.utils.NumberUtil;
-
-import java.util.Collections;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.stats.BufferStats;
 
 /**
- * Simply stores every record in memory that should be stored in reporting DB lately.
- * Could cause OOM at high request rate. However we don't use it very high loads.
- * So this is fine for now.
+ * Stores every record in bounded memory buffer, so it could be stored in reporting DB lately.
+ * When buffer is full - configured overflow policy is applied.
  *
  * The Blynk Project.
  * Created by Dmitriy Dumanskiy.
@@ -18,24 +13,35 @@ import java.util.concurrent.ConcurrentHashMap;
  */
 public class RawDataProcessor {
 
-    public final Map<AggregationKey, Object> rawStorage;
+    public static final int DEFAULT_CAPACITY = 1_000_000;
+
+    public final RawDataBuffer rawStorage;
 
+    //for test only
     public RawDataProcessor(boolean enable) {
-        if (enable) {
-            rawStorage = new ConcurrentHashMap<>();
-        } else {
-            rawStorage = Collections.emptyMap();
-        }
+        this(enable, DEFAULT_CAPACITY, RawDataOverflowPolicy.DROP_OLDEST, null, new BufferStats());
+    }
+
+    public RawDataProcessor(boolean enable, int capacity, RawDataOverflowPolicy overflowPolicy,
+                            String dataFolder, BufferStats stats) {
+        this.rawStorage = new RawDataBuffer(enable ? capacity : 0, overflowPolicy, dataFolder, stats);
     }
 
     //todo 2 millis is minimum allowed interval for data pushing.
     public void collect(BaseReportingKey key, long ts, String stringValue, double doubleValue) {
-        final AggregationKey aggregationKey = new AggregationKey(key, ts);
-        if (doubleValue == NumberUtil.NO_RESULT) {
-            rawStorage.put(aggregationKey, stringValue);
-        } else {
-            rawStorage.put(aggregationKey, doubleValue);
-        }
+        rawStorage.add(key, ts, stringValue, doubleValue);
+    }
+
+    /**
+     * @return series id of the record or NO_ID when raw data store is disabled.
+     */
+    public int collect(String email, String appName, int dashId, int deviceId, PinType pinType, short pin,
+                       long ts, String stringValue, double doubleValue) {
+        return rawStorage.add(email, appName, dashId, deviceId, pinType, pin, ts, stringValue, doubleValue);
+    }
+
+    public void close() {
+        rawStorage.close();
     }
 
 }
@@ -0,0 +1,177 @@
+package cc.blynk.server.core.reporting.raw;
+
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.reporting.average.SeriesRegistry;
+import cc.blynk.server.core.stats.BufferStats;
+import cc.blynk.utils.BlynkTPFactory;
+import cc.blynk.utils.FileUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stores overflowed raw data records to disk within "dataFolder/raw_spill" folder.
+ * Every spilled chunk is written to separate file by the separate thread, so event loops are not blocked.
+ * Files left from the previous run are drained as well.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+final class RawDataSpill {
+
+    private static final Logger log = LogManager.getLogger(RawDataSpill.class);
+
+    static final String SPILL_FOLDER = "raw_spill";
+    private static final String SPILL_EXTENSION = ".bin";
+    //chunks waiting to be written, when exceeded - chunk is dropped
+    private static final int MAX_PENDING_CHUNKS = 16;
+
+    private final Path spillFolder;
+    private final SeriesRegistry seriesRegistry;
+    private final BufferStats stats;
+    private final ThreadPoolExecutor writer;
+    private final AtomicLong fileSeq;
+
+    RawDataSpill(String dataFolder, SeriesRegistry seriesRegistry, BufferStats stats) {
+        this.spillFolder = Paths.get(dataFolder, SPILL_FOLDER);
+        this.seriesRegistry = seriesRegistry;
+        this.stats = stats;
+        this.writer = new ThreadPoolExecutor(1, 1, 1, TimeUnit.MINUTES,
+                new ArrayBlockingQueue<>(MAX_PENDING_CHUNKS), BlynkTPFactory.build("RawDataSpill"));
+        //overflow is rare, so no need to keep thread
+        this.writer.allowCoreThreadTimeOut(true);
+        this.fileSeq = new AtomicLong(System.currentTimeMillis());
+    }
+
+    void spill(RawDataChunk chunk) {
+        try {
+            writer.execute(() -> write(chunk));
+            stats.spilled.add(chunk.size);
+        } catch (RejectedExecutionException e) {
+            stats.dropped.add(chunk.size);
+            log.warn("Raw data spill queue is full. Dropping {} records.", chunk.size);
+        }
+    }
+
+    private void write(RawDataChunk chunk) {
+        //file name is ordered by the time of spill, so records are drained in order they came
+        String fileName = String.format("%019d", fileSeq.getAndIncrement());
+        Path tmpPath = spillFolder.resolve(fileName + ".tmp");
+        try {
+            Files.createDirectories(spillFolder);
+            try (OutputStream os = Files.newOutputStream(tmpPath);
+                 DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(os))) {
+                //records of the removed series are dropped
+                BaseReportingKey[] keys = new BaseReportingKey[chunk.size];
+                int live = 0;
+                for (int i = 0; i < chunk.size; i++) {
+                    keys[i] = chunk.getKey(i);
+                    if (keys[i] != null) {
+                        live++;
+                    }
+                }
+                dos.writeInt(live);
+                for (int i = 0; i < chunk.size; i++) {
+                    BaseReportingKey key = keys[i];
+                    if (key == null) {
+                        continue;
+                    }
+                    dos.writeUTF(key.email);
+                    dos.writeUTF(key.appName);
+                    dos.writeInt(key.dashId);
+                    dos.writeInt(key.deviceId);
+                    dos.writeChar(key.pinType.pintTypeChar);
+                    dos.writeShort(key.pin);
+                    dos.writeLong(chunk.ts[i]);
+                    dos.writeDouble(chunk.doubleValues[i]);
+                    String stringValue = chunk.stringValues[i];
+                    dos.writeBoolean(stringValue != null);
+                    if (stringValue != null) {
+                        dos.writeUTF(stringValue);
+                    }
+                }
+            }
+            Files.move(tmpPath, spillFolder.resolve(fileName + SPILL_EXTENSION), StandardCopyOption.ATOMIC_MOVE);
+        } catch (Exception e) {
+            stats.dropped.add(chunk.size);
+            log.error("Error spilling raw data to disk. Reason : {}", e.getMessage());
+            FileUtils.deleteQuietly(tmpPath);
+        }
+    }
+
+    /**
+     * Reads all spilled files to the chunk and passes every full chunk to consumer.
+     * Files are removed once read. Last not full chunk is left for the caller.
+     *
+     * @return number of drained records
+     */
+    int drain(RawDataChunk chunk, RawDataChunk.Consumer consumer) throws Exception {
+        if (Files.notExists(spillFolder)) {
+            return 0;
+        }
+
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(spillFolder, "*" + SPILL_EXTENSION)) {
+            for (Path file : stream) {
+                files.add(file);
+            }
+        }
+        Collections.sort(files);
+
+        int drained = 0;
+        for (Path file : files) {
+            try (InputStream is = Files.newInputStream(file);
+                 DataInputStream dis = new DataInputStream(new BufferedInputStream(is))) {
+                int count = dis.readInt();
+                for (int i = 0; i < count; i++) {
+                    BaseReportingKey key = new BaseReportingKey(dis.readUTF(), dis.readUTF(),
+                            dis.readInt(), dis.readInt(), PinType.getPinType(dis.readChar()), dis.readShort());
+                    long ts = dis.readLong();
+                    double doubleValue = dis.readDouble();
+                    String stringValue = dis.readBoolean() ? dis.readUTF() : null;
+                    chunk.add(seriesRegistry.getOrCreateId(key), ts, doubleValue, stringValue);
+                    if (chunk.isFull()) {
+                        consumer.accept(chunk);
+                        chunk.clear();
+                    }
+                }
+                drained += count;
+            } catch (IOException ioe) {
+                log.error("Error reading spilled raw data {}. Reason : {}", file, ioe.getMessage());
+            }
+            FileUtils.deleteQuietly(file);
+        }
+        return drained;
+    }
+
+    void close() {
+        writer.shutdown();
+        try {
+            writer.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
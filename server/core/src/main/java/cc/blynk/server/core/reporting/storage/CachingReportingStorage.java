@@ -0,0 +1,281 @@
+package cc.blynk.server.core.reporting.storage;
+
+import cc.blynk.server.core.stats.CacheStats;
+import cc.blynk.server.internal.IOBudget;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+import static cc.blynk.utils.FileUtils.SIZE_OF_REPORT_ENTRY;
+
+/**
+ * Keeps last entries of the recently read series in memory, so same graph opened by
+ * many users (shared dashboards) or refreshed often is not read from disk every time.
+ * Cached tail is extended with every write to the series, so it is always up to date.
+ *
+ * Cache is bounded by the size of the cached data in bytes. Least recently used series are evicted first.
+ * Cache is split into segments by series name to reduce contention.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+public class CachingReportingStorage implements ReportingStorage {
+
+    private static final int SEGMENTS_COUNT = 16;
+    //key and map entry overhead
+    private static final int ENTRY_OVERHEAD = 128;
+
+    private final ReportingStorage storage;
+    private final Segment[] segments;
+    //max number of reporting entries cached per series
+    private final int maxSeriesEntries;
+    private final CacheStats stats;
+
+    public CachingReportingStorage(ReportingStorage storage, long maxBytes, int maxSeriesEntries, CacheStats stats) {
+        this.storage = storage;
+        this.maxSeriesEntries = maxSeriesEntries;
+        this.stats = stats;
+        this.segments = new Segment[SEGMENTS_COUNT];
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = new Segment(maxBytes / SEGMENTS_COUNT);
+        }
+        stats.setMaxBytes(maxBytes);
+    }
+
+    private static String key(String userDir, String fileName) {
+        return userDir + '/' + fileName;
+    }
+
+    private Segment segment(String key) {
+        int hash = key.hashCode();
+        return segments[(hash ^ (hash >>> 16)) & (SEGMENTS_COUNT - 1)];
+    }
+
+    @Override
+    public ByteBuffer read(String userDir, String fileName, int count, int skip) throws IOException {
+        String key = key(userDir, fileName);
+        Segment segment = segment(key);
+        long writeSeq;
+        synchronized (segment) {
+            Tail tail = segment.get(key);
+            if (tail != null && tail.covers(count + skip)) {
+                stats.hits.increment();
+                return tail.read(count, skip);
+            }
+            writeSeq = segment.writeSeq;
+        }
+        stats.misses.increment();
+
+        int tailEntries = count + skip;
+        if (tailEntries > maxSeriesEntries) {
+            return storage.read(userDir, fileName, count, skip);
+        }
+
+        ByteBuffer data = storage.read(userDir, fileName, tailEntries, 0);
+        byte[] bytes = data == null ? new byte[0] : Arrays.copyOf(data.array(), data.limit());
+        //series has less entries than requested, so whole series is cached
+        Tail tail = new Tail(bytes, bytes.length < tailEntries * SIZE_OF_REPORT_ENTRY);
+        synchronized (segment) {
+            //series was changed during read or is being changed, so read data may be outdated
+            if (writeSeq == segment.writeSeq && !segment.isBeingWritten(key)) {
+                segment.put(key, tail);
+            }
+        }
+        return tail.read(count, skip);
+    }
+
+    @Override
+    public void write(String userDir, String fileName, ByteBuffer entries) throws IOException {
+        ByteBuffer written = entries.duplicate();
+        String key = key(userDir, fileName);
+        Segment segment = segment(key);
+        //readers of the series don't cache what they read till the write is finished,
+        //as read data may already have the written entries, that are appended to the tail after the write
+        synchronized (segment) {
+            segment.writeSeq++;
+            segment.startWrite(key);
+        }
+
+        boolean success = false;
+        try {
+            storage.write(userDir, fileName, entries);
+            success = true;
+        } finally {
+            synchronized (segment) {
+                segment.writeSeq++;
+                segment.finishWrite(key);
+                if (success) {
+                    Tail tail = segment.get(key);
+                    if (tail != null) {
+                        segment.put(key, tail.append(written, maxSeriesEntries * SIZE_OF_REPORT_ENTRY));
+                    }
+                } else {
+                    //not known what part of entries was written
+                    segment.remove(key);
+                }
+            }
+        }
+    }
+
+    @Override
+    public int delete(String userDir, Function<String, Boolean> fileNameFilter) {
+        int deleted = storage.delete(userDir, fileNameFilter);
+        String prefix = userDir + '/';
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.writeSeq++;
+                segment.removeIf(key -> key.startsWith(prefix)
+                        && fileNameFilter.apply(key.substring(prefix.length())));
+            }
+        }
+        return deleted;
+    }
+
+    @Override
+    public int truncate(String fileNameSuffix, int maxRecordsCount, IOBudget budget) throws IOException {
+        int truncated = storage.truncate(fileNameSuffix, maxRecordsCount, budget);
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.writeSeq++;
+                segment.removeIf(key -> key.endsWith(fileNameSuffix));
+            }
+        }
+        return truncated;
+    }
+
+    @Override
+    public void close() {
+        storage.close();
+    }
+
+    //last entries of the series
+    private static final class Tail {
+
+        private final byte[] data;
+        //true when data is the whole series
+        private final boolean complete;
+
+        Tail(byte[] data, boolean complete) {
+            this.data = data;
+            this.complete = complete;
+        }
+
+        boolean covers(int entries) {
+            return complete || data.length >= entries * SIZE_OF_REPORT_ENTRY;
+        }
+
+        //same as ReportingStorage read, new buffer is returned as callers may modify it
+        ByteBuffer read(int count, int skip) {
+            int end = data.length - skip * SIZE_OF_REPORT_ENTRY;
+            int start = Math.max(0, end - count * SIZE_OF_REPORT_ENTRY);
+            if (end <= start) {
+                return null;
+            }
+            return ByteBuffer.wrap(Arrays.copyOfRange(data, start, end));
+        }
+
+        Tail append(ByteBuffer entries, int maxBytes) {
+            int newLength = data.length + entries.remaining();
+            int drop = Math.max(0, newLength - maxBytes);
+            byte[] result = new byte[newLength - drop];
+            if (drop < data.length) {
+                System.arraycopy(data, drop, result, 0, data.length - drop);
+                entries.get(result, data.length - drop, entries.remaining());
+            } else {
+                entries.position(entries.position() + drop - data.length);
+                entries.get(result);
+            }
+            return new Tail(result, complete && drop == 0);
+        }
+
+        int size() {
+            return data.length + ENTRY_OVERHEAD;
+        }
+    }
+
+    private final class Segment extends LinkedHashMap<String, Tail> {
+
+        private final long maxBytes;
+        private long bytes;
+        //incremented on every change of the segment series, guarded by this
+        long writeSeq;
+        //series with writes in progress -> number of writes, guarded by this
+        private final Map<String, Integer> pendingWrites = new HashMap<>();
+
+        Segment(long maxBytes) {
+            super(16, 0.75f, true);
+            this.maxBytes = maxBytes;
+        }
+
+        @Override
+        public Tail put(String key, Tail tail) {
+            if (tail.size() > maxBytes) {
+                remove(key);
+                return null;
+            }
+            Tail prev = super.put(key, tail);
+            if (prev == null) {
+                changeSize(tail.size(), 1);
+            } else {
+                changeSize(tail.size() - prev.size(), 0);
+            }
+            evict();
+            return prev;
+        }
+
+        @Override
+        public Tail remove(Object key) {
+            Tail prev = super.remove(key);
+            if (prev != null) {
+                changeSize(-prev.size(), -1);
+            }
+            return prev;
+        }
+
+        void startWrite(String key) {
+            pendingWrites.merge(key, 1, Integer::sum);
+        }
+
+        void finishWrite(String key) {
+            pendingWrites.computeIfPresent(key, (k, writes) -> writes == 1 ? null : writes - 1);
+        }
+
+        boolean isBeingWritten(String key) {
+            return pendingWrites.containsKey(key);
+        }
+
+        void removeIf(Function<String, Boolean> keyFilter) {
+            for (Iterator<Map.Entry<String, Tail>> it = entrySet().iterator(); it.hasNext();) {
+                Map.Entry<String, Tail> entry = it.next();
+                if (keyFilter.apply(entry.getKey())) {
+                    it.remove();
+                    changeSize(-entry.getValue().size(), -1);
+                }
+            }
+        }
+
+        private void evict() {
+            Iterator<Map.Entry<String, Tail>> it = entrySet().iterator();
+            while (bytes > maxBytes && it.hasNext()) {
+                Map.Entry<String, Tail> eldest = it.next();
+                it.remove();
+                changeSize(-eldest.getValue().size(), -1);
+                stats.evictions.increment();
+            }
+        }
+
+        private void changeSize(long bytesDiff, int entriesDiff) {
+            bytes += bytesDiff;
+            stats.bytes.add(bytesDiff);
+            stats.entries.add(entriesDiff);
+        }
+    }
+
+}
@@ -0,0 +1,526 @@
+package cc.blynk.server.core.reporting.storage;
+
+import cc.blynk.server.internal.IOBudget;
+import cc.blynk.utils.FileUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.function.Function;
+import java.util.zip.CRC32;
+
+import static cc.blynk.utils.FileUtils.SIZE_OF_REPORT_ENTRY;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Storage that keeps every series within separate file "dataFolder/compressed/userDir/fileName",
+ * same as {@link FileReportingStorage}, but entries are compressed with {@link GorillaCodec}.
+ * Constant values take less than 1 byte per entry and sensor values ~6-7 bytes instead of 16,
+ * timestamps of minute/hourly/daily graphs take single bit.
+ *
+ * File is the sequence of blocks. Every block is payload length (int), compressed payload
+ * and 12 bytes footer : CRC32 of payload (int), number of entries (int) and payload length (int),
+ * so file could be read from the end. Only full blocks of {@link #ENTRIES_PER_BLOCK} entries are
+ * appended to the file and written blocks are never modified.
+ *
+ * Entries that don't fill the block yet are appended as is to the tail file "fileName.tail".
+ * Tail starts with the copy of the footer of the last block, so tail is valid only while that block
+ * is the last one. When tail gets enough entries, new blocks are appended and forced to disk and
+ * only after that tail is replaced with the new one, so crash at any moment either keeps the old tail
+ * (torn block is cut after the last valid block) or leaves the stale tail which entries are already
+ * within the blocks.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+public class CompressedReportingStorage extends FileReportingStorage {
+
+    private static final Logger log = LogManager.getLogger(CompressedReportingStorage.class);
+
+    public static final String COMPRESSED_FOLDER = "compressed";
+    private static final String TAIL_SUFFIX = ".tail";
+    private static final String TMP_SUFFIX = ".tmp";
+
+    static final int ENTRIES_PER_BLOCK = 120;
+    private static final int HEADER_SIZE = 4;
+    private static final int FOOTER_SIZE = 12;
+    private static final int BLOCK_OVERHEAD = HEADER_SIZE + FOOTER_SIZE;
+
+    private final Path compressedFolder;
+
+    public CompressedReportingStorage(String dataFolder) {
+        super(Paths.get(dataFolder, COMPRESSED_FOLDER).toString());
+        this.compressedFolder = Paths.get(dataFolder, COMPRESSED_FOLDER);
+    }
+
+    @Override
+    public ByteBuffer read(String userDir, String fileName, int count, int skip) throws IOException {
+        Path path = compressedFolder.resolve(userDir).resolve(fileName);
+        if (Files.notExists(path)) {
+            return null;
+        }
+        synchronized (lock(path)) {
+            try (FileChannel channel = FileChannel.open(path, READ)) {
+                return read(channel, path, count, skip);
+            } catch (NoSuchFileException e) {
+                return null;
+            }
+        }
+    }
+
+    private static ByteBuffer read(FileChannel channel, Path path, int count, int skip) throws IOException {
+        try {
+            return read(channel, path, channel.size(), count, skip);
+        } catch (CorruptedFileException e) {
+            //file is fixed with the next write
+            return read(channel, path, recover(channel, path), count, skip);
+        }
+    }
+
+    private static ByteBuffer read(FileChannel channel, Path path, long end, int count, int skip)
+            throws IOException {
+        //newest entries are within the tail
+        ByteBuffer tail = readTail(path, lastFooter(channel, path, end));
+        int tailEntries = tail.remaining() / SIZE_OF_REPORT_ENTRY;
+        int tailTo = Math.max(0, tailEntries - skip);
+        int tailFrom = Math.max(0, tailEntries - skip - count);
+        tail.limit(tailTo * SIZE_OF_REPORT_ENTRY).position(tailFrom * SIZE_OF_REPORT_ENTRY);
+
+        ByteBuffer blocks = readBlocks(channel, path, end,
+                count - (tailTo - tailFrom), Math.max(0, skip - tailEntries));
+        if (blocks == null) {
+            return tail.hasRemaining() ? tail.slice() : null;
+        }
+        if (!tail.hasRemaining()) {
+            return blocks;
+        }
+        ByteBuffer result = ByteBuffer.allocate(blocks.remaining() + tail.remaining());
+        result.put(blocks).put(tail).flip();
+        return result;
+    }
+
+    private static ByteBuffer readBlocks(FileChannel channel, Path path, long end, int count, int skip)
+            throws IOException {
+        //walking blocks from the end till we have enough entries
+        Blocks blocks = new Blocks();
+        long position = end;
+        int entries = 0;
+        ByteBuffer footer = ByteBuffer.allocate(FOOTER_SIZE);
+        while (position > 0 && entries < count + skip) {
+            readFooter(channel, path, position, footer);
+            footer.getInt();
+            int blockEntries = footer.getInt();
+            int payloadLength = footer.getInt();
+            position -= BLOCK_OVERHEAD + payloadLength;
+            blocks.add(position, blockEntries);
+            entries += blockEntries;
+        }
+
+        int from = Math.max(0, entries - count - skip);
+        int to = entries - skip;
+        if (to <= from) {
+            return null;
+        }
+
+        ByteBuffer data = ByteBuffer.allocate((int) (end - position));
+        readFully(channel, data, position);
+        data.flip();
+
+        ByteBuffer result = ByteBuffer.allocate((to - from) * SIZE_OF_REPORT_ENTRY);
+        int blockFirstEntry = 0;
+        //blocks were collected from the end
+        for (int i = blocks.size - 1; i >= 0; i--) {
+            int blockEntries = blocks.entries[i];
+            int blockFrom = Math.max(0, from - blockFirstEntry);
+            int blockTo = Math.min(blockEntries, to - blockFirstEntry);
+            if (blockFrom < blockTo) {
+                int blockStart = (int) (blocks.positions[i] - position);
+                verifyBlock(data, blockStart, path);
+                data.position(blockStart + HEADER_SIZE);
+                GorillaCodec.decode(data, blockEntries, result, blockFrom, blockTo);
+            }
+            blockFirstEntry += blockEntries;
+        }
+        result.flip();
+        return result;
+    }
+
+    //checks that payload length within header matches footer and payload checksum
+    private static void verifyBlock(ByteBuffer data, int blockStart, Path path) throws CorruptedFileException {
+        int payloadLength = data.getInt(blockStart);
+        int footerStart = blockStart + HEADER_SIZE + payloadLength;
+        if (payloadLength <= 0 || footerStart + FOOTER_SIZE > data.limit()
+                || data.getInt(footerStart + 8) != payloadLength
+                || data.getInt(footerStart) != crc(data, blockStart + HEADER_SIZE, payloadLength)) {
+            throw new CorruptedFileException(path);
+        }
+    }
+
+    private static int crc(ByteBuffer data, int from, int length) {
+        CRC32 crc = new CRC32();
+        ByteBuffer payload = data.duplicate();
+        payload.limit(from + length).position(from);
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+
+    private static void readFooter(FileChannel channel, Path path, long blockEnd, ByteBuffer footer)
+            throws IOException {
+        if (blockEnd < BLOCK_OVERHEAD) {
+            throw new CorruptedFileException(path);
+        }
+        footer.clear();
+        readFully(channel, footer, blockEnd - FOOTER_SIZE);
+        footer.flip();
+        int entries = footer.getInt(4);
+        int payloadLength = footer.getInt(8);
+        if (entries <= 0 || entries > ENTRIES_PER_BLOCK
+                || payloadLength <= 0 || payloadLength > blockEnd - BLOCK_OVERHEAD) {
+            throw new CorruptedFileException(path);
+        }
+    }
+
+    /**
+     * Scans file from the beginning.
+     *
+     * @return end of the last valid block
+     */
+    private static long recover(FileChannel channel, Path path) throws IOException {
+        long size = channel.size();
+        long position = 0;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        while (position + BLOCK_OVERHEAD <= size) {
+            header.clear();
+            readFully(channel, header, position);
+            int payloadLength = header.getInt(0);
+            if (payloadLength <= 0 || position + BLOCK_OVERHEAD + payloadLength > size) {
+                break;
+            }
+            ByteBuffer block = ByteBuffer.allocate(BLOCK_OVERHEAD + payloadLength);
+            readFully(channel, block, position);
+            block.flip();
+            int entries = block.getInt(HEADER_SIZE + payloadLength + 4);
+            if (entries <= 0 || entries > ENTRIES_PER_BLOCK) {
+                break;
+            }
+            try {
+                verifyBlock(block, 0, path);
+            } catch (CorruptedFileException e) {
+                break;
+            }
+            position += block.limit();
+        }
+        log.warn("Reporting file {} is corrupted. Only first {} of {} bytes are valid.", path, position, size);
+        return position;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, position + buf.position()) < 0) {
+                throw new IOException("Unexpected end of reporting file.");
+            }
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) {
+            position += channel.write(buf, position);
+        }
+    }
+
+    private static Path tailPath(Path path) {
+        return path.resolveSibling(path.getFileName() + TAIL_SUFFIX);
+    }
+
+    //footer of the last block with verified checksum, zeros for the empty file
+    private static ByteBuffer lastFooter(FileChannel channel, Path path, long end) throws IOException {
+        if (end == 0) {
+            return ByteBuffer.allocate(FOOTER_SIZE);
+        }
+        ByteBuffer block = readLastBlock(channel, path, end);
+        block.position(block.limit() - FOOTER_SIZE);
+        return block.slice();
+    }
+
+    private static ByteBuffer readTail(Path path, ByteBuffer footer) throws IOException {
+        try (FileChannel tail = FileChannel.open(tailPath(path), READ)) {
+            return readTail(tail, footer);
+        } catch (NoSuchFileException e) {
+            return ByteBuffer.allocate(0);
+        }
+    }
+
+    /**
+     * @return entries of the tail, empty buffer in case tail is stale and its entries are within the blocks.
+     *         Entry torn by crash is ignored.
+     */
+    private static ByteBuffer readTail(FileChannel tail, ByteBuffer footer) throws IOException {
+        long size = Math.min(tail.size(), FOOTER_SIZE + (ENTRIES_PER_BLOCK - 1) * SIZE_OF_REPORT_ENTRY);
+        if (size < FOOTER_SIZE) {
+            return ByteBuffer.allocate(0);
+        }
+        ByteBuffer data = ByteBuffer.allocate((int) size);
+        readFully(tail, data, 0);
+        data.flip().limit(FOOTER_SIZE);
+        if (!data.equals(footer)) {
+            return ByteBuffer.allocate(0);
+        }
+        int entries = (int) (size - FOOTER_SIZE) / SIZE_OF_REPORT_ENTRY;
+        data.limit(FOOTER_SIZE + entries * SIZE_OF_REPORT_ENTRY).position(FOOTER_SIZE);
+        return data.slice();
+    }
+
+    @Override
+    public void write(String userDir, String fileName, ByteBuffer entries) throws IOException {
+        if (!entries.hasRemaining()) {
+            return;
+        }
+        Path path = compressedFolder.resolve(userDir).resolve(fileName);
+        synchronized (lock(path)) {
+            try (FileChannel channel = open(path, CREATE, READ, WRITE)) {
+                write(channel, path, entries);
+            }
+        }
+    }
+
+    private static void write(FileChannel channel, Path path, ByteBuffer entries) throws IOException {
+        long end = channel.size();
+        ByteBuffer footer;
+        try {
+            footer = lastFooter(channel, path, end);
+        } catch (CorruptedFileException e) {
+            //append of the blocks was torn by crash, their entries are still within the tail
+            end = recover(channel, path);
+            channel.truncate(end);
+            footer = lastFooter(channel, path, end);
+        }
+
+        ByteBuffer merged;
+        try (FileChannel tail = FileChannel.open(tailPath(path), CREATE, READ, WRITE)) {
+            ByteBuffer tailEntries = readTail(tail, footer);
+            if (tailEntries.remaining() + entries.remaining() < ENTRIES_PER_BLOCK * SIZE_OF_REPORT_ENTRY) {
+                if (tailEntries.hasRemaining()) {
+                    long position = FOOTER_SIZE + tailEntries.remaining();
+                    if (tail.size() > position) {
+                        //cutting entry torn by crash
+                        tail.truncate(position);
+                    }
+                    writeFully(tail, entries, position);
+                } else {
+                    //stale entries are removed before the new footer makes them valid again
+                    tail.truncate(0);
+                    ByteBuffer data = ByteBuffer.allocate(FOOTER_SIZE + entries.remaining());
+                    data.put(footer).put(entries).flip();
+                    writeFully(tail, data, 0);
+                }
+                return;
+            }
+            merged = ByteBuffer.allocate(tailEntries.remaining() + entries.remaining());
+            merged.put(tailEntries).put(entries).flip();
+        }
+
+        int blocksCount = merged.remaining() / SIZE_OF_REPORT_ENTRY / ENTRIES_PER_BLOCK;
+        ByteBuffer out = ByteBuffer.allocate(
+                (GorillaCodec.maxEncodedSize(ENTRIES_PER_BLOCK) + BLOCK_OVERHEAD) * blocksCount);
+        for (int i = 0; i < blocksCount; i++) {
+            int headerPosition = out.position();
+            out.position(headerPosition + HEADER_SIZE);
+            int payloadLength = GorillaCodec.encode(merged, ENTRIES_PER_BLOCK, out);
+            out.putInt(headerPosition, payloadLength);
+            out.putInt(crc(out, headerPosition + HEADER_SIZE, payloadLength))
+               .putInt(ENTRIES_PER_BLOCK)
+               .putInt(payloadLength);
+        }
+        out.flip();
+        writeFully(channel, out, end);
+        //blocks should be on disk before the tail with their entries is replaced
+        channel.force(true);
+
+        out.position(out.limit() - FOOTER_SIZE);
+        replaceTail(path, out, merged);
+    }
+
+    private static void replaceTail(Path path, ByteBuffer footer, ByteBuffer entries) throws IOException {
+        Path tailPath = tailPath(path);
+        Path tmpPath = tailPath.resolveSibling(tailPath.getFileName() + TMP_SUFFIX);
+        try (FileChannel tmp = FileChannel.open(tmpPath, CREATE, WRITE, TRUNCATE_EXISTING)) {
+            ByteBuffer data = ByteBuffer.allocate(FOOTER_SIZE + entries.remaining());
+            data.put(footer).put(entries).flip();
+            writeFully(tmp, data, 0);
+            tmp.force(true);
+        }
+        Files.move(tmpPath, tailPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    //whole last block with verified checksum
+    private static ByteBuffer readLastBlock(FileChannel channel, Path path, long size) throws IOException {
+        ByteBuffer footer = ByteBuffer.allocate(FOOTER_SIZE);
+        readFooter(channel, path, size, footer);
+        int payloadLength = footer.getInt(8);
+        ByteBuffer block = ByteBuffer.allocate(BLOCK_OVERHEAD + payloadLength);
+        readFully(channel, block, size - block.capacity());
+        block.flip();
+        verifyBlock(block, 0, path);
+        return block;
+    }
+
+    /**
+     * Removes series files together with their tails.
+     */
+    @Override
+    public int delete(String userDir, Function<String, Boolean> fileNameFilter) {
+        Path reportingFolderPath = compressedFolder.resolve(userDir);
+
+        int removedFilesCounter = 0;
+        try {
+            if (Files.exists(reportingFolderPath)) {
+                try (DirectoryStream<Path> reportingFolder = Files.newDirectoryStream(reportingFolderPath, "*")) {
+                    for (Path reportingFile : reportingFolder) {
+                        String fileName = reportingFile.getFileName().toString();
+                        String seriesName = seriesName(fileName);
+                        if (fileNameFilter.apply(seriesName)) {
+                            log.trace("Removing {}", reportingFile);
+                            synchronized (lock(reportingFolderPath.resolve(seriesName))) {
+                                FileUtils.deleteQuietly(reportingFile);
+                            }
+                            if (fileName.equals(seriesName)) {
+                                removedFilesCounter++;
+                            }
+                        }
+                    }
+                }
+            }
+        } catch (Exception e) {
+            log.error("Error removing file : {}.", reportingFolderPath);
+        }
+        return removedFilesCounter;
+    }
+
+    //name of the series the tail or temporary file belongs to
+    private static String seriesName(String fileName) {
+        if (fileName.endsWith(TMP_SUFFIX)) {
+            fileName = fileName.substring(0, fileName.length() - TMP_SUFFIX.length());
+        }
+        if (fileName.endsWith(TAIL_SUFFIX)) {
+            fileName = fileName.substring(0, fileName.length() - TAIL_SUFFIX.length());
+        }
+        return fileName;
+    }
+
+    @Override
+    public int truncate(String fileNameSuffix, int maxRecordsCount, IOBudget budget) throws IOException {
+        int truncatedFilesCounter = 0;
+        if (Files.notExists(compressedFolder)) {
+            return 0;
+        }
+
+        DirectoryStream.Filter<Path> filter = entry -> entry.getFileName().toString().endsWith(fileNameSuffix);
+        try (DirectoryStream<Path> reportingFolder = Files.newDirectoryStream(compressedFolder)) {
+            for (Path userReportingDirectory : reportingFolder) {
+                if (Files.isDirectory(userReportingDirectory)) {
+                    int filesCounter = 0;
+                    try {
+                        try (DirectoryStream<Path> userReportingFolder =
+                                     Files.newDirectoryStream(userReportingDirectory, filter)) {
+                            for (Path userReportingFile : userReportingFolder) {
+                                filesCounter++;
+                                long copiedBytes = truncate(userReportingFile, maxRecordsCount);
+                                if (copiedBytes >= 0) {
+                                    truncatedFilesCounter++;
+                                }
+                                budget.spend(1, Math.max(copiedBytes, 0));
+                            }
+                        }
+                        if (filesCounter == 0) {
+                            deleteFolderIfEmpty(userReportingDirectory);
+                        }
+                    } catch (Exception e) {
+                        log.error("Truncation failed for {}. Reason : {}.", userReportingDirectory, e.getMessage());
+                    }
+                }
+            }
+        }
+        return truncatedFilesCounter;
+    }
+
+    //whole blocks are removed and tail is not counted, so up to 2 * ENTRIES_PER_BLOCK - 1 extra entries may be kept.
+    //tail stays valid, as the last block is never removed
+    //returns number of kept (copied) bytes or -1 when file is not changed
+    private long truncate(Path path, int maxRecordsCount) throws IOException {
+        synchronized (lock(path)) {
+            Path tmpPath = path.resolveSibling(path.getFileName() + TMP_SUFFIX);
+            long keptBytes;
+            try (FileChannel channel = FileChannel.open(path, READ)) {
+                long size = channel.size();
+                long position = size;
+                int entries = 0;
+                ByteBuffer footer = ByteBuffer.allocate(FOOTER_SIZE);
+                while (position > 0 && entries < maxRecordsCount) {
+                    try {
+                        readFooter(channel, path, position, footer);
+                    } catch (CorruptedFileException e) {
+                        //file is fixed with the next write
+                        return -1;
+                    }
+                    footer.getInt();
+                    entries += footer.getInt();
+                    position -= BLOCK_OVERHEAD + footer.getInt();
+                }
+                if (position == 0) {
+                    return -1;
+                }
+                keptBytes = size - position;
+                try (FileChannel tmp = FileChannel.open(tmpPath, CREATE, WRITE)) {
+                    tmp.truncate(0);
+                    long transferred = 0;
+                    while (transferred < keptBytes) {
+                        transferred += channel.transferTo(position + transferred, keptBytes - transferred, tmp);
+                    }
+                    //kept blocks should be on disk before they replace the file
+                    tmp.force(true);
+                }
+            }
+            Files.move(tmpPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return keptBytes;
+        }
+    }
+
+    private static final class CorruptedFileException extends IOException {
+
+        CorruptedFileException(Path path) {
+            super("Reporting file " + path + " is corrupted.");
+        }
+    }
+
+    //block positions and sizes collected while walking file from the end
+    private static final class Blocks {
+
+        private long[] positions = new long[8];
+        private int[] entries = new int[8];
+        private int size;
+
+        void add(long position, int blockEntries) {
+            if (size == positions.length) {
+                positions = Arrays.copyOf(positions, size * 2);
+                entries = Arrays.copyOf(entries, size * 2);
+            }
+            positions[size] = position;
+            entries[size] = blockEntries;
+            size++;
+        }
+    }
+
+}
@@ -0,0 +1,215 @@
+package cc.blynk.server.core.reporting.storage;
+
+import cc.blynk.server.internal.IOBudget;
+import cc.blynk.utils.FileUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.function.Function;
+
+import static cc.blynk.utils.FileUtils.SIZE_OF_REPORT_ENTRY;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Legacy storage. Every series is stored within separate append only file
+ * "dataFolder/userDir/fileName".
+ *
+ * Writes are done by the flush worker, while truncation is done by the housekeeping worker,
+ * so reads, writes and truncation of the same file are serialized with the striped file lock.
+ * User folder is created and removed under the folder lock. Folder locks are separate from the file locks,
+ * as folder lock is taken while the file lock is held and nothing is locked under the folder lock,
+ * so concurrent writers never wait for each other in the opposite order.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+public class FileReportingStorage implements ReportingStorage {
+
+    private static final Logger log = LogManager.getLogger(FileReportingStorage.class);
+
+    private static final int LOCKS_COUNT = 64;
+
+    private final String dataFolder;
+    private final Object[] locks;
+    private final Object[] folderLocks;
+
+    public FileReportingStorage(String dataFolder) {
+        this.dataFolder = dataFolder;
+        this.locks = newLocks();
+        this.folderLocks = newLocks();
+    }
+
+    private static Object[] newLocks() {
+        Object[] locks = new Object[LOCKS_COUNT];
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+        return locks;
+    }
+
+    protected Object lock(Path path) {
+        return locks[path.hashCode() & (LOCKS_COUNT - 1)];
+    }
+
+    private Object folderLock(Path userReportingDirectory) {
+        return folderLocks[userReportingDirectory.hashCode() & (LOCKS_COUNT - 1)];
+    }
+
+    /**
+     * Opens the file, user folder is created only when it doesn't exist,
+     * so no need to check it before every write.
+     * Should be called under the file lock.
+     */
+    protected FileChannel open(Path path, OpenOption... options) throws IOException {
+        try {
+            return FileChannel.open(path, options);
+        } catch (NoSuchFileException e) {
+            //folder can't be removed by the truncation till file is created
+            synchronized (folderLock(path.getParent())) {
+                Files.createDirectories(path.getParent());
+                return FileChannel.open(path, options);
+            }
+        }
+    }
+
+    /**
+     * Removes user folder in case it has no files. Folder with file that was just created is kept.
+     */
+    protected void deleteFolderIfEmpty(Path userReportingDirectory) throws IOException {
+        synchronized (folderLock(userReportingDirectory)) {
+            try {
+                Files.deleteIfExists(userReportingDirectory);
+            } catch (DirectoryNotEmptyException e) {
+                //file was written after the folder was scanned
+            }
+        }
+    }
+
+    @Override
+    public ByteBuffer read(String userDir, String fileName, int count, int skip) throws IOException {
+        Path userDataFile = Paths.get(dataFolder, userDir, fileName);
+        synchronized (lock(userDataFile)) {
+            if (Files.exists(userDataFile)) {
+                return FileUtils.read(userDataFile, count, skip);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void write(String userDir, String fileName, ByteBuffer entries) throws IOException {
+        Path userReportFile = Paths.get(dataFolder, userDir, fileName);
+        synchronized (lock(userReportFile)) {
+            try (FileChannel channel = open(userReportFile, CREATE, WRITE, APPEND)) {
+                while (entries.hasRemaining()) {
+                    channel.write(entries);
+                }
+            }
+        }
+    }
+
+    @Override
+    public int delete(String userDir, Function<String, Boolean> fileNameFilter) {
+        Path reportingFolderPath = Paths.get(dataFolder, userDir);
+
+        int removedFilesCounter = 0;
+        try {
+            if (Files.exists(reportingFolderPath)) {
+                try (DirectoryStream<Path> reportingFolder = Files.newDirectoryStream(reportingFolderPath, "*")) {
+                    for (Path reportingFile : reportingFolder) {
+                        if (fileNameFilter.apply(reportingFile.getFileName().toString())) {
+                            log.trace("Removing {}", reportingFile);
+                            synchronized (lock(reportingFile)) {
+                                FileUtils.deleteQuietly(reportingFile);
+                            }
+                            removedFilesCounter++;
+                        }
+                    }
+                }
+            }
+        } catch (Exception e) {
+            log.error("Error removing file : {}.", reportingFolderPath);
+        }
+        return removedFilesCounter;
+    }
+
+    @Override
+    public int truncate(String fileNameSuffix, int maxRecordsCount, IOBudget budget) throws IOException {
+        int truncatedFilesCounter = 0;
+
+        Path reportingFolderPath = Paths.get(dataFolder);
+        if (Files.notExists(reportingFolderPath)) {
+            return 0;
+        }
+
+        DirectoryStream.Filter<Path> filter = entry -> entry.getFileName().toString().endsWith(fileNameSuffix);
+        try (DirectoryStream<Path> reportingFolder = Files.newDirectoryStream(reportingFolderPath, "*")) {
+            for (Path userReportingDirectory : reportingFolder) {
+                if (Files.isDirectory(userReportingDirectory)) {
+                    int filesCounter = 0;
+                    try {
+                        try (DirectoryStream<Path> userReportingFolder =
+                                     Files.newDirectoryStream(userReportingDirectory, filter)) {
+                            for (Path userReportingFile : userReportingFolder) {
+                                filesCounter++;
+                                long writtenBytes = truncate(userReportingFile, maxRecordsCount);
+                                if (writtenBytes > 0) {
+                                    truncatedFilesCounter++;
+                                }
+                                //budget may pause the worker, so it is never spent under the file lock
+                                budget.spend(1, writtenBytes);
+                            }
+                        }
+                        if (filesCounter == 0) {
+                            deleteFolderIfEmpty(userReportingDirectory);
+                        }
+                    } catch (Exception e) {
+                        log.error("Truncation failed for {}. Reason : {}.", userReportingDirectory, e.getMessage());
+                    }
+                }
+            }
+        }
+        return truncatedFilesCounter;
+    }
+
+    //returns number of kept bytes or 0 when file is not changed
+    private long truncate(Path userReportingFile, int maxRecordsCount) throws IOException {
+        synchronized (lock(userReportingFile)) {
+            long fileSize;
+            try {
+                fileSize = Files.size(userReportingFile);
+            } catch (NoSuchFileException e) {
+                //removed after the folder was scanned
+                return 0;
+            }
+            if (fileSize <= maxRecordsCount * SIZE_OF_REPORT_ENTRY) {
+                return 0;
+            }
+            ByteBuffer userReportingData = FileUtils.read(userReportingFile, maxRecordsCount);
+            try (OutputStream os = Files.newOutputStream(userReportingFile, TRUNCATE_EXISTING)) {
+                os.write(userReportingData.array());
+            }
+            return userReportingData.capacity();
+        }
+    }
+
+    @Override
+    public void close() {
+        //every write is closed right away, so nothing to do here
+    }
+}
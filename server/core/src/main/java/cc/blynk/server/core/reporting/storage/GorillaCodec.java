@@ -0,0 +1,230 @@
+package cc.blynk.server.core.reporting.storage;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Compresses sequence of reporting entries (value (double) and timestamp (long))
+ * with encoding described in "Gorilla: A Fast, Scalable, In-Memory Time Series Database" paper.
+ *
+ * First entry is stored as is. For every next entry :
+ * timestamp is stored as difference between current and previous timestamp deltas (delta-of-delta),
+ * which is 0 for the regular series, so takes single bit;
+ * value is stored as XOR with previous value, only meaningful bits of XOR are written,
+ * so repeated value takes single bit and slowly changing value takes few bits.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+public final class GorillaCodec {
+
+    //first entry + worst case of the every next entry (5 + 64 bits for ts, 2 + 5 + 6 + 64 bits for value)
+    private static final int FIRST_ENTRY_SIZE = 16;
+    private static final int MAX_ENTRY_BITS = 5 + 64 + 2 + 5 + 6 + 64;
+
+    private GorillaCodec() {
+    }
+
+    public static int maxEncodedSize(int count) {
+        return FIRST_ENTRY_SIZE + (count * MAX_ENTRY_BITS + 7) / 8;
+    }
+
+    /**
+     * Encodes count entries from the current position of entries buffer.
+     *
+     * @return number of written bytes
+     */
+    public static int encode(ByteBuffer entries, int count, ByteBuffer out) {
+        if (count == 0) {
+            return 0;
+        }
+        int start = out.position();
+        BitWriter writer = new BitWriter(out);
+
+        double value = entries.getDouble();
+        long ts = entries.getLong();
+        writer.write(ts, 64);
+        long prevBits = Double.doubleToRawLongBits(value);
+        writer.write(prevBits, 64);
+
+        long prevTs = ts;
+        long prevDelta = 0;
+        int prevLeading = -1;
+        int prevTrailing = 0;
+
+        for (int i = 1; i < count; i++) {
+            value = entries.getDouble();
+            ts = entries.getLong();
+
+            long delta = ts - prevTs;
+            writeDeltaOfDelta(writer, delta - prevDelta);
+            prevDelta = delta;
+            prevTs = ts;
+
+            long bits = Double.doubleToRawLongBits(value);
+            long xor = bits ^ prevBits;
+            prevBits = bits;
+            if (xor == 0) {
+                writer.write(0, 1);
+                continue;
+            }
+            //leading zeros count is stored in 5 bits
+            int leading = Math.min(Long.numberOfLeadingZeros(xor), 31);
+            int trailing = Long.numberOfTrailingZeros(xor);
+            if (prevLeading != -1 && leading >= prevLeading && trailing >= prevTrailing) {
+                //meaningful bits fit into previous window
+                writer.write(0b10, 2);
+                writer.write(xor >>> prevTrailing, 64 - prevLeading - prevTrailing);
+            } else {
+                int meaningful = 64 - leading - trailing;
+                writer.write(0b11, 2);
+                writer.write(leading, 5);
+                //1..64 is stored as 0..63
+                writer.write(meaningful - 1, 6);
+                writer.write(xor >>> trailing, meaningful);
+                prevLeading = leading;
+                prevTrailing = trailing;
+            }
+        }
+
+        writer.flush();
+        return out.position() - start;
+    }
+
+    private static void writeDeltaOfDelta(BitWriter writer, long dod) {
+        if (dod == 0) {
+            writer.write(0, 1);
+        } else if (dod >= -63 && dod <= 64) {
+            writer.write(0b10, 2);
+            writer.write(dod + 63, 7);
+        } else if (dod >= -255 && dod <= 256) {
+            writer.write(0b110, 3);
+            writer.write(dod + 255, 9);
+        } else if (dod >= -2047 && dod <= 2048) {
+            writer.write(0b1110, 4);
+            writer.write(dod + 2047, 12);
+        } else if (dod >= Integer.MIN_VALUE && dod <= Integer.MAX_VALUE) {
+            writer.write(0b11110, 5);
+            writer.write(dod, 32);
+        } else {
+            writer.write(0b11111, 5);
+            writer.write(dod, 64);
+        }
+    }
+
+    /**
+     * Decodes count entries from the current position of payload buffer
+     * and puts entries with index within [from, to) range to out buffer in the legacy reporting format.
+     */
+    public static void decode(ByteBuffer payload, int count, ByteBuffer out, int from, int to) {
+        if (count == 0) {
+            return;
+        }
+        BitReader reader = new BitReader(payload);
+
+        long ts = reader.read(64);
+        long bits = reader.read(64);
+        if (from == 0 && to > 0) {
+            out.putDouble(Double.longBitsToDouble(bits)).putLong(ts);
+        }
+
+        long delta = 0;
+        int leading = 0;
+        int trailing = 0;
+
+        for (int i = 1; i < count && i < to; i++) {
+            delta += readDeltaOfDelta(reader);
+            ts += delta;
+
+            if (reader.read(1) == 1) {
+                if (reader.read(1) == 1) {
+                    leading = (int) reader.read(5);
+                    int meaningful = (int) reader.read(6) + 1;
+                    trailing = 64 - leading - meaningful;
+                }
+                bits ^= reader.read(64 - leading - trailing) << trailing;
+            }
+
+            if (i >= from) {
+                out.putDouble(Double.longBitsToDouble(bits)).putLong(ts);
+            }
+        }
+    }
+
+    private static long readDeltaOfDelta(BitReader reader) {
+        if (reader.read(1) == 0) {
+            return 0;
+        }
+        if (reader.read(1) == 0) {
+            return reader.read(7) - 63;
+        }
+        if (reader.read(1) == 0) {
+            return reader.read(9) - 255;
+        }
+        if (reader.read(1) == 0) {
+            return reader.read(12) - 2047;
+        }
+        if (reader.read(1) == 0) {
+            return (int) reader.read(32);
+        }
+        return reader.read(64);
+    }
+
+    private static final class BitWriter {
+
+        private final ByteBuffer out;
+        //not yet written bits are the lowest accBits bits
+        private long acc;
+        private int accBits;
+
+        BitWriter(ByteBuffer out) {
+            this.out = out;
+        }
+
+        void write(long value, int bits) {
+            if (bits > 32) {
+                write(value >>> 32, bits - 32);
+                write(value, 32);
+                return;
+            }
+            acc = (acc << bits) | (value & ((1L << bits) - 1));
+            accBits += bits;
+            while (accBits >= 8) {
+                accBits -= 8;
+                out.put((byte) (acc >>> accBits));
+            }
+        }
+
+        void flush() {
+            if (accBits > 0) {
+                out.put((byte) (acc << (8 - accBits)));
+                accBits = 0;
+            }
+        }
+    }
+
+    private static final class BitReader {
+
+        private final ByteBuffer in;
+        private long acc;
+        private int accBits;
+
+        BitReader(ByteBuffer in) {
+            this.in = in;
+        }
+
+        long read(int bits) {
+            if (bits > 32) {
+                long high = read(bits - 32);
+                return (high << 32) | read(32);
+            }
+            while (accBits < bits) {
+                acc = (acc << 8) | (in.get() & 0xFF);
+                accBits += 8;
+            }
+            accBits -= bits;
+            return (acc >>> accBits) & ((1L << bits) - 1);
+        }
+    }
+
+}
@@ -0,0 +1,77 @@
+package cc.blynk.server.core.reporting.storage;
+
+import cc.blynk.server.internal.IOBudget;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.function.Function;
+
+import static cc.blynk.utils.FileUtils.SIZE_OF_REPORT_ENTRY;
+
+/**
+ * Storage engine for history graph (reporting) data.
+ * Every series is identified by the user storage directory
+ * (see {@link cc.blynk.utils.FileUtils#getUserStorageDir(String, String)}) and the series file name
+ * (see {@link cc.blynk.server.core.dao.ReportingDiskDao#generateFilename}).
+ * Every series is the sequence of reporting entries - value (double) and timestamp (long).
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+public interface ReportingStorage extends Closeable {
+
+    /**
+     * Read bunch of last records of the series.
+     *
+     * @param userDir  - user storage directory
+     * @param fileName - series name
+     * @param count    - number of records to read
+     * @param skip     - number of entries to skip from the end
+     * @return - byte buffer with data or null in case there is no data
+     */
+    ByteBuffer read(String userDir, String fileName, int count, int skip) throws IOException;
+
+    /**
+     * Appends bunch of reporting entries to the end of the series.
+     *
+     * @param userDir  - user storage directory
+     * @param fileName - series name
+     * @param entries  - reporting entries, remaining bytes should be multiple of reporting entry size
+     */
+    void write(String userDir, String fileName, ByteBuffer entries) throws IOException;
+
+    default void write(String userDir, String fileName, double value, long ts) throws IOException {
+        ByteBuffer entry = ByteBuffer.allocate(SIZE_OF_REPORT_ENTRY);
+        entry.putDouble(value).putLong(ts).flip();
+        write(userDir, fileName, entry);
+    }
+
+    /**
+     * Removes all user series that match the filter.
+     *
+     * @return number of removed series
+     */
+    int delete(String userDir, Function<String, Boolean> fileNameFilter);
+
+    /**
+     * Cuts all series with name ending with provided suffix to maxRecordsCount last records.
+     * Storage is allowed to keep slightly more records than requested.
+     *
+     * @return number of truncated series
+     */
+    default int truncate(String fileNameSuffix, int maxRecordsCount) throws IOException {
+        return truncate(fileNameSuffix, maxRecordsCount, IOBudget.UNLIMITED);
+    }
+
+    /**
+     * Same as {@link #truncate(String, int)}, but every visited series is spent from the budget,
+     * so truncation of the large storage doesn't take the whole disk.
+     */
+    int truncate(String fileNameSuffix, int maxRecordsCount, IOBudget budget) throws IOException;
+
+    @Override
+    void close();
+
+}
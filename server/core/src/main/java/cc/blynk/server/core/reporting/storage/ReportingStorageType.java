@@ -0,0 +1,37 @@
+package cc.blynk.server.core.reporting.storage;
+
+/**
+ * Defines which engine is used for storing history graph data on disk.
+ * Configured via "reporting.storage.type" server property.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+public enum ReportingStorageType {
+
+    //separate append only file per every series
+    FILE,
+    //all series are packed into big memory mapped segment files
+    SEGMENT,
+    //separate file per every series with delta-of-delta timestamps and XOR values encoding
+    COMPRESSED;
+
+    public static ReportingStorageType fromString(String type) {
+        if (type == null || type.isEmpty()) {
+            return FILE;
+        }
+        return valueOf(type.trim().toUpperCase());
+    }
+
+    public ReportingStorage create(String reportingFolder) {
+        switch (this) {
+            case SEGMENT :
+                return new SegmentReportingStorage(reportingFolder);
+            case COMPRESSED :
+                return new CompressedReportingStorage(reportingFolder);
+            default :
+                return new FileReportingStorage(reportingFolder);
+        }
+    }
+}
@@ -0,0 +1,553 @@
+package cc.blynk.server.core.reporting.storage;
+
+import cc.blynk.server.internal.IOBudget;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+import static cc.blynk.utils.FileUtils.SIZE_OF_REPORT_ENTRY;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Storage that packs all series into the big memory mapped segment files
+ * "dataFolder/segments/segment_N.dat" instead of creating separate file for every series.
+ *
+ * Segment is split into fixed size blocks. Every block belongs to one series and holds
+ * 16 bytes header (series id, block sequence number within series, number of entries)
+ * and up to {@link #ENTRIES_PER_BLOCK} reporting entries in the same format as legacy files.
+ * Series always append to its last block, so all blocks except the last one are full.
+ *
+ * Names of the series are stored in the append only "series.idx" file.
+ * In-memory series index (list of block addresses per series) is rebuilt on start
+ * by scanning block headers, so start time is proportional to the number of blocks.
+ * Blocks of removed/truncated series are reused.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+public class SegmentReportingStorage implements ReportingStorage {
+
+    private static final Logger log = LogManager.getLogger(SegmentReportingStorage.class);
+
+    public static final String SEGMENTS_FOLDER = "segments";
+    static final String SERIES_INDEX_FILENAME = "series.idx";
+    private static final String SEGMENT_PREFIX = "segment_";
+    private static final String SEGMENT_EXTENSION = ".dat";
+
+    static final int BLOCK_SIZE = 1024;
+    private static final int BLOCK_HEADER_SIZE = 16;
+    static final int ENTRIES_PER_BLOCK = (BLOCK_SIZE - BLOCK_HEADER_SIZE) / SIZE_OF_REPORT_ENTRY;
+    //64 MB segments
+    private static final int DEFAULT_BLOCKS_PER_SEGMENT = 64 * 1024;
+
+    private static final int SERIES_ID_OFFSET = 0;
+    private static final int SEQ_OFFSET = 4;
+    private static final int COUNT_OFFSET = 8;
+
+    private static final byte ADD_SERIES = 1;
+    private static final byte REMOVE_SERIES = 2;
+
+    private final Path segmentsFolder;
+    private final int blocksPerSegment;
+
+    //userDir -> (fileName -> series)
+    private final ConcurrentHashMap<String, ConcurrentHashMap<String, Series>> users;
+
+    private volatile MappedByteBuffer[] segments;
+    private int nextFreshBlock;
+    private long[] freeBlocks;
+    private int freeBlocksCount;
+
+    private final Object indexLock = new Object();
+    private FileChannel seriesIndexChannel;
+    private DataOutputStream seriesIndex;
+    private int nextSeriesId;
+
+    public SegmentReportingStorage(String dataFolder) {
+        this(dataFolder, DEFAULT_BLOCKS_PER_SEGMENT);
+    }
+
+    public SegmentReportingStorage(String dataFolder, int blocksPerSegment) {
+        this.segmentsFolder = Paths.get(dataFolder, SEGMENTS_FOLDER);
+        this.blocksPerSegment = blocksPerSegment;
+        this.users = new ConcurrentHashMap<>();
+        this.segments = new MappedByteBuffer[0];
+        this.freeBlocks = new long[1024];
+        this.nextSeriesId = 1;
+        try {
+            Files.createDirectories(segmentsFolder);
+            long start = System.currentTimeMillis();
+            load();
+            log.info("Loaded {} segments with history data. Time : {} ms.",
+                    segments.length, System.currentTimeMillis() - start);
+        } catch (IOException ioe) {
+            throw new RuntimeException("Error initializing segment reporting storage.", ioe);
+        }
+    }
+
+    private static long address(int segment, int offset) {
+        return ((long) segment << 32) | offset;
+    }
+
+    private static int segmentIndex(long address) {
+        return (int) (address >>> 32);
+    }
+
+    private static int offset(long address) {
+        return (int) address;
+    }
+
+    private MappedByteBuffer segment(long address) {
+        return segments[segmentIndex(address)];
+    }
+
+    private void load() throws IOException {
+        Map<Integer, Series> byId = readSeriesIndex();
+
+        List<Path> segmentFiles = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(segmentsFolder,
+                SEGMENT_PREFIX + "*" + SEGMENT_EXTENSION)) {
+            for (Path segmentFile : stream) {
+                segmentFiles.add(segmentFile);
+            }
+        }
+        segmentFiles.sort((p1, p2) -> Integer.compare(segmentNumber(p1), segmentNumber(p2)));
+
+        MappedByteBuffer[] loadedSegments = new MappedByteBuffer[segmentFiles.size()];
+        for (int i = 0; i < loadedSegments.length; i++) {
+            if (segmentNumber(segmentFiles.get(i)) != i) {
+                throw new IOException("Segment " + i + " is missing in " + segmentsFolder);
+            }
+            loadedSegments[i] = map(segmentFiles.get(i));
+        }
+        this.segments = loadedSegments;
+
+        //going backwards, so free blocks are reused from the beginning of the storage
+        for (int segmentIndex = loadedSegments.length - 1; segmentIndex >= 0; segmentIndex--) {
+            MappedByteBuffer segment = loadedSegments[segmentIndex];
+            for (int offset = segment.capacity() - BLOCK_SIZE; offset >= 0; offset -= BLOCK_SIZE) {
+                long address = address(segmentIndex, offset);
+                int seriesId = segment.getInt(offset + SERIES_ID_OFFSET);
+                if (seriesId != 0) {
+                    Series series = byId.get(seriesId);
+                    if (series != null) {
+                        series.addLoadedBlock(address, segment.getInt(offset + SEQ_OFFSET));
+                        continue;
+                    }
+                    //block of the removed series
+                    segment.putInt(offset + SERIES_ID_OFFSET, 0);
+                }
+                pushFreeBlock(address);
+            }
+        }
+        this.nextFreshBlock = blocksPerSegment;
+
+        for (Series series : byId.values()) {
+            series.finishLoading();
+            if (series.blocksCount > 0) {
+                long lastBlock = series.blocks[series.blocksCount - 1];
+                series.lastBlockCount = segment(lastBlock).getInt(offset(lastBlock) + COUNT_OFFSET);
+            }
+            users.computeIfAbsent(series.userDir, k -> new ConcurrentHashMap<>())
+                    .put(series.fileName, series);
+        }
+
+        rewriteSeriesIndex(byId.values());
+        this.seriesIndexChannel = FileChannel.open(segmentsFolder.resolve(SERIES_INDEX_FILENAME),
+                CREATE, WRITE, APPEND);
+        this.seriesIndex = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(seriesIndexChannel)));
+    }
+
+    private Map<Integer, Series> readSeriesIndex() throws IOException {
+        Map<Integer, Series> byId = new HashMap<>();
+        Path indexPath = segmentsFolder.resolve(SERIES_INDEX_FILENAME);
+        if (Files.notExists(indexPath)) {
+            return byId;
+        }
+
+        try (DataInputStream dis = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexPath)))) {
+            while (true) {
+                byte op = dis.readByte();
+                int id = dis.readInt();
+                if (op == ADD_SERIES) {
+                    String userDir = dis.readUTF();
+                    String fileName = dis.readUTF();
+                    byId.put(id, new Series(id, userDir, fileName));
+                } else if (op == REMOVE_SERIES) {
+                    byId.remove(id);
+                } else {
+                    log.error("Corrupted series index {}. Skipping the rest.", indexPath);
+                    break;
+                }
+                nextSeriesId = Math.max(nextSeriesId, id + 1);
+            }
+        } catch (EOFException eof) {
+            //end of the index or the last record wasn't completely written, that's fine
+        }
+        return byId;
+    }
+
+    //drops all removed series from the index, so it doesn't grow forever
+    private void rewriteSeriesIndex(Iterable<Series> liveSeries) throws IOException {
+        Path indexPath = segmentsFolder.resolve(SERIES_INDEX_FILENAME);
+        Path tmpPath = segmentsFolder.resolve(SERIES_INDEX_FILENAME + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmpPath, CREATE, WRITE, TRUNCATE_EXISTING);
+             DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)))) {
+            for (Series series : liveSeries) {
+                writeAddRecord(dos, series);
+            }
+            dos.flush();
+            //new index should be on disk before it replaces the old one
+            channel.force(true);
+        }
+        Files.move(tmpPath, indexPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    //should be called under the index lock
+    private void syncSeriesIndex() throws IOException {
+        seriesIndex.flush();
+        seriesIndexChannel.force(false);
+    }
+
+    private static void writeAddRecord(DataOutputStream dos, Series series) throws IOException {
+        dos.writeByte(ADD_SERIES);
+        dos.writeInt(series.id);
+        dos.writeUTF(series.userDir);
+        dos.writeUTF(series.fileName);
+    }
+
+    private static int segmentNumber(Path segmentFile) {
+        String name = segmentFile.getFileName().toString();
+        return Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_EXTENSION.length()));
+    }
+
+    private MappedByteBuffer map(Path segmentFile) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(segmentFile.toFile(), "rw")) {
+            long size = raf.length();
+            if (size == 0) {
+                size = (long) blocksPerSegment * BLOCK_SIZE;
+                raf.setLength(size);
+            }
+            return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    private void pushFreeBlock(long address) {
+        if (freeBlocksCount == freeBlocks.length) {
+            freeBlocks = Arrays.copyOf(freeBlocks, freeBlocks.length * 2);
+        }
+        freeBlocks[freeBlocksCount++] = address;
+    }
+
+    private synchronized long allocateBlock() throws IOException {
+        if (freeBlocksCount > 0) {
+            return freeBlocks[--freeBlocksCount];
+        }
+        if (nextFreshBlock == blocksPerSegment) {
+            MappedByteBuffer[] current = segments;
+            int segmentIndex = current.length;
+            MappedByteBuffer[] extended = Arrays.copyOf(current, segmentIndex + 1);
+            extended[segmentIndex] = map(segmentsFolder.resolve(SEGMENT_PREFIX + segmentIndex + SEGMENT_EXTENSION));
+            this.segments = extended;
+            this.nextFreshBlock = 0;
+        }
+        return address(segments.length - 1, BLOCK_SIZE * nextFreshBlock++);
+    }
+
+    private synchronized void freeBlock(long address) {
+        segment(address).putInt(offset(address) + SERIES_ID_OFFSET, 0);
+        pushFreeBlock(address);
+    }
+
+    private Series getOrCreate(String userDir, String fileName) throws IOException {
+        Series series = get(userDir, fileName);
+        if (series != null) {
+            return series;
+        }
+
+        synchronized (indexLock) {
+            ConcurrentHashMap<String, Series> userSeries = users.computeIfAbsent(userDir,
+                    k -> new ConcurrentHashMap<>());
+            series = userSeries.get(fileName);
+            if (series == null) {
+                series = new Series(nextSeriesId++, userDir, fileName);
+                writeAddRecord(seriesIndex, series);
+                syncSeriesIndex();
+                userSeries.put(fileName, series);
+            }
+            return series;
+        }
+    }
+
+    private Series get(String userDir, String fileName) {
+        ConcurrentHashMap<String, Series> userSeries = users.get(userDir);
+        if (userSeries == null) {
+            return null;
+        }
+        return userSeries.get(fileName);
+    }
+
+    @Override
+    public ByteBuffer read(String userDir, String fileName, int count, int skip) {
+        Series series = get(userDir, fileName);
+        if (series == null) {
+            return null;
+        }
+
+        synchronized (series) {
+            int size = series.size();
+            int diff = size - (count + skip);
+            int startIndex = Math.max(0, diff);
+            int resultCount = diff < 0 ? count + diff : count;
+            if (resultCount <= 0) {
+                return null;
+            }
+
+            ByteBuffer result = ByteBuffer.allocate(resultCount * SIZE_OF_REPORT_ENTRY);
+            int index = startIndex;
+            while (result.hasRemaining()) {
+                int blockIndex = index / ENTRIES_PER_BLOCK;
+                int indexInBlock = index % ENTRIES_PER_BLOCK;
+                int entries = Math.min(result.remaining() / SIZE_OF_REPORT_ENTRY, ENTRIES_PER_BLOCK - indexInBlock);
+
+                long address = series.blocks[blockIndex];
+                int from = offset(address) + BLOCK_HEADER_SIZE + indexInBlock * SIZE_OF_REPORT_ENTRY;
+                ByteBuffer slice = segment(address).duplicate();
+                slice.limit(from + entries * SIZE_OF_REPORT_ENTRY).position(from);
+                result.put(slice);
+
+                index += entries;
+            }
+            result.flip();
+            return result;
+        }
+    }
+
+    @Override
+    public void write(String userDir, String fileName, ByteBuffer entries) throws IOException {
+        while (true) {
+            Series series = getOrCreate(userDir, fileName);
+            synchronized (series) {
+                //series was removed while we were waiting for the lock
+                if (series.removed) {
+                    continue;
+                }
+                while (entries.remaining() >= SIZE_OF_REPORT_ENTRY) {
+                    if (series.blocksCount == 0 || series.lastBlockCount == ENTRIES_PER_BLOCK) {
+                        long address = allocateBlock();
+                        MappedByteBuffer segment = segment(address);
+                        int blockOffset = offset(address);
+                        segment.putInt(blockOffset + SEQ_OFFSET, series.nextSeq++);
+                        segment.putInt(blockOffset + COUNT_OFFSET, 0);
+                        segment.putInt(blockOffset + SERIES_ID_OFFSET, series.id);
+                        series.addBlock(address);
+                    }
+
+                    long address = series.blocks[series.blocksCount - 1];
+                    MappedByteBuffer segment = segment(address);
+                    int blockOffset = offset(address);
+                    int entriesCount = Math.min(entries.remaining() / SIZE_OF_REPORT_ENTRY,
+                            ENTRIES_PER_BLOCK - series.lastBlockCount);
+                    int bytes = entriesCount * SIZE_OF_REPORT_ENTRY;
+
+                    ByteBuffer target = segment.duplicate();
+                    target.position(blockOffset + BLOCK_HEADER_SIZE + series.lastBlockCount * SIZE_OF_REPORT_ENTRY);
+                    ByteBuffer source = entries.duplicate();
+                    source.limit(source.position() + bytes);
+                    target.put(source);
+                    entries.position(entries.position() + bytes);
+
+                    series.lastBlockCount += entriesCount;
+                    //count is updated after the data, so partially written entry is never visible
+                    segment.putInt(blockOffset + COUNT_OFFSET, series.lastBlockCount);
+                }
+                return;
+            }
+        }
+    }
+
+    @Override
+    public int delete(String userDir, Function<String, Boolean> fileNameFilter) {
+        ConcurrentHashMap<String, Series> userSeries = users.get(userDir);
+        if (userSeries == null) {
+            return 0;
+        }
+
+        int removedCounter = 0;
+        for (Series series : userSeries.values()) {
+            if (fileNameFilter.apply(series.fileName)) {
+                remove(userSeries, series);
+                removedCounter++;
+            }
+        }
+        return removedCounter;
+    }
+
+    private void remove(ConcurrentHashMap<String, Series> userSeries, Series series) {
+        synchronized (indexLock) {
+            userSeries.remove(series.fileName, series);
+            try {
+                seriesIndex.writeByte(REMOVE_SERIES);
+                seriesIndex.writeInt(series.id);
+                syncSeriesIndex();
+            } catch (IOException ioe) {
+                log.error("Error updating series index. Reason : {}", ioe.getMessage());
+            }
+        }
+        synchronized (series) {
+            series.removed = true;
+            for (int i = 0; i < series.blocksCount; i++) {
+                freeBlock(series.blocks[i]);
+            }
+            series.blocksCount = 0;
+        }
+    }
+
+    //series are in memory, so there is no disk work to limit
+    @Override
+    public int truncate(String fileNameSuffix, int maxRecordsCount, IOBudget budget) {
+        int truncatedCounter = 0;
+        for (ConcurrentHashMap<String, Series> userSeries : users.values()) {
+            for (Series series : userSeries.values()) {
+                if (series.fileName.endsWith(fileNameSuffix) && truncate(series, maxRecordsCount)) {
+                    truncatedCounter++;
+                }
+            }
+        }
+        return truncatedCounter;
+    }
+
+    //only the whole blocks are dropped, so a bit more than maxRecordsCount may be kept
+    private boolean truncate(Series series, int maxRecordsCount) {
+        synchronized (series) {
+            int blocksToDrop = 0;
+            int size = series.size();
+            while (series.blocksCount - blocksToDrop > 1 && size - ENTRIES_PER_BLOCK >= maxRecordsCount) {
+                size -= ENTRIES_PER_BLOCK;
+                blocksToDrop++;
+            }
+            if (blocksToDrop == 0) {
+                return false;
+            }
+            for (int i = 0; i < blocksToDrop; i++) {
+                freeBlock(series.blocks[i]);
+            }
+            System.arraycopy(series.blocks, blocksToDrop, series.blocks, 0, series.blocksCount - blocksToDrop);
+            series.blocksCount -= blocksToDrop;
+            return true;
+        }
+    }
+
+    @Override
+    public void close() {
+        for (MappedByteBuffer segment : segments) {
+            segment.force();
+        }
+        synchronized (indexLock) {
+            try {
+                seriesIndex.close();
+            } catch (IOException ioe) {
+                log.error("Error closing series index. Reason : {}", ioe.getMessage());
+            }
+        }
+    }
+
+    private static final class Series {
+
+        private final int id;
+        private final String userDir;
+        private final String fileName;
+
+        //addresses of the series blocks ordered by block sequence number
+        private long[] blocks;
+        private int blocksCount;
+        private int lastBlockCount;
+        private int nextSeq;
+        private boolean removed;
+
+        //used only during loading
+        private int[] loadedSeqs;
+
+        Series(int id, String userDir, String fileName) {
+            this.id = id;
+            this.userDir = userDir;
+            this.fileName = fileName;
+            this.blocks = new long[2];
+        }
+
+        int size() {
+            if (blocksCount == 0) {
+                return 0;
+            }
+            return (blocksCount - 1) * ENTRIES_PER_BLOCK + lastBlockCount;
+        }
+
+        void addBlock(long address) {
+            if (blocksCount == blocks.length) {
+                blocks = Arrays.copyOf(blocks, blocks.length * 2);
+            }
+            blocks[blocksCount++] = address;
+            lastBlockCount = 0;
+        }
+
+        void addLoadedBlock(long address, int seq) {
+            if (loadedSeqs == null) {
+                loadedSeqs = new int[blocks.length];
+            }
+            addBlock(address);
+            if (loadedSeqs.length < blocks.length) {
+                loadedSeqs = Arrays.copyOf(loadedSeqs, blocks.length);
+            }
+            loadedSeqs[blocksCount - 1] = seq;
+        }
+
+        void finishLoading() {
+            if (loadedSeqs == null) {
+                return;
+            }
+            //blocks are scanned backwards, so usually they come in the reversed order.
+            //sorting pairs of (seq, position) packed into the long
+            long[] order = new long[blocksCount];
+            for (int i = 0; i < blocksCount; i++) {
+                order[i] = ((long) loadedSeqs[i] << 32) | i;
+            }
+            Arrays.sort(order);
+            long[] sortedBlocks = new long[blocks.length];
+            for (int i = 0; i < blocksCount; i++) {
+                int position = (int) order[i];
+                sortedBlocks[i] = blocks[position];
+                loadedSeqs[i] = (int) (order[i] >>> 32);
+            }
+            this.blocks = sortedBlocks;
+            this.nextSeq = loadedSeqs[blocksCount - 1] + 1;
+            this.loadedSeqs = null;
+        }
+    }
+}
@@ -0,0 +1,434 @@
+package cc.blynk.server.core.reporting.wal;
+
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.reporting.raw.BaseReportingKey;
+import cc.blynk.utils.BlynkTPFactory;
+import cc.blynk.utils.NumberUtil;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongPredicate;
+import java.util.zip.CRC32;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Write-ahead log for the hardware pin values that are collected for reporting between ReportingWorker runs.
+ * Allows to restore aggregation state after crash.
+ *
+ * {@link #append} only copies record to in-memory buffer, so it is safe to call it from the event loop.
+ * Separate thread writes all records collected during commit interval as single batch
+ * followed by single fsync (group commit). So in case of crash records of the last commit interval may be lost.
+ * File format : magic (int), position of the first record (long), batches.
+ * Batch format : payload length (int), CRC32 of payload (long), payload.
+ *
+ * Positions of the records are logical - they are not changed when log is truncated.
+ * {@link #checkpoint} returns position up to which aggregated values are stored within snapshot,
+ * so on replay these records are applied only to the raw data. Records are removed with {@link #truncate}
+ * only when their raw data is stored as well.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+public final class ReportingWal implements Closeable {
+
+    private static final Logger log = LogManager.getLogger(ReportingWal.class);
+
+    public static final String WAL_FILENAME = "reporting.wal";
+    public static final long NO_CHECKPOINT = -1;
+
+    private static final int MAGIC = 0x424C574C;
+    private static final int FILE_HEADER_SIZE = 4 + 8;
+    private static final int BATCH_HEADER_SIZE = 4 + 8;
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+    //in case disk is too slow, we drop new records instead of blocking the event loops
+    private static final int MAX_BUFFER_SIZE = 32 * 1024 * 1024;
+
+    private static final byte RAW_FLAG = 1;
+    private static final byte AVERAGE_FLAG = 2;
+
+    private final Path walPath;
+    private final Object lock = new Object();
+    //guarded by lock. channel is replaced on truncate
+    private FileChannel channel;
+    //logical position of the first record within file
+    private long base;
+    //end of the last fully written batch. anything after it is left by the failed commit and is overwritten
+    private long committedSize;
+    private final long commitIntervalMillis;
+    private final ScheduledExecutorService writer;
+    private final CRC32 crc = new CRC32();
+    private final ByteBuffer batchHeader = ByteBuffer.allocate(BATCH_HEADER_SIZE);
+
+    //records received since last commit, guarded by this
+    private ByteBuffer pending;
+    private long droppedRecords;
+
+    //guarded by lock
+    private ByteBuffer spare;
+
+    public ReportingWal(String dataFolder, long commitIntervalMillis) throws IOException {
+        this.walPath = Paths.get(dataFolder, WAL_FILENAME);
+        open();
+        this.commitIntervalMillis = commitIntervalMillis;
+        this.writer = Executors.newSingleThreadScheduledExecutor(BlynkTPFactory.build("ReportingWal"));
+        this.pending = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+        this.spare = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+    }
+
+    private void open() throws IOException {
+        this.channel = FileChannel.open(walPath, CREATE, READ, WRITE);
+        long size = channel.size();
+        if (size >= FILE_HEADER_SIZE) {
+            ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+            readFully(header, 0);
+            header.flip();
+            if (header.getInt() == MAGIC) {
+                this.base = header.getLong();
+                this.committedSize = size;
+                channel.position(size);
+                return;
+            }
+        }
+        if (size > 0) {
+            log.warn("Unknown reporting wal format. Wal is reset.");
+        }
+        channel.truncate(0);
+        writeHeader(channel, 0);
+        channel.force(false);
+        this.base = 0;
+        this.committedSize = FILE_HEADER_SIZE;
+    }
+
+    private static void writeHeader(FileChannel channel, long base) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+        header.putInt(MAGIC).putLong(base).flip();
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+    }
+
+    private long toPosition(long fileOffset) {
+        return base + fileOffset - FILE_HEADER_SIZE;
+    }
+
+    public void start() {
+        writer.scheduleWithFixedDelay(this::commit, commitIntervalMillis, commitIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public void append(BaseReportingKey key, long ts, String stringValue, double doubleValue,
+                       boolean raw, boolean average) {
+        byte[] email = key.email.getBytes(UTF_8);
+        byte[] appName = key.appName.getBytes(UTF_8);
+        //string value is needed only for the non numeric raw data
+        byte[] value = doubleValue == NumberUtil.NO_RESULT ? stringValue.getBytes(UTF_8) : null;
+        int size = 1 + 4 + email.length + 4 + appName.length + 4 + 4 + 2 + 2 + 8 + 8
+                + (value == null ? 0 : 4 + value.length);
+        byte flags = (byte) ((raw ? RAW_FLAG : 0) | (average ? AVERAGE_FLAG : 0));
+
+        synchronized (this) {
+            if (!ensureCapacity(size)) {
+                droppedRecords++;
+                return;
+            }
+            ByteBuffer buf = pending;
+            buf.put(flags);
+            putBytes(buf, email);
+            putBytes(buf, appName);
+            buf.putInt(key.dashId)
+               .putInt(key.deviceId)
+               .putChar(key.pinType.pintTypeChar)
+               .putShort(key.pin)
+               .putLong(ts)
+               .putDouble(doubleValue);
+            if (value != null) {
+                putBytes(buf, value);
+            }
+        }
+    }
+
+    private static void putBytes(ByteBuffer buf, byte[] bytes) {
+        buf.putInt(bytes.length);
+        buf.put(bytes);
+    }
+
+    private boolean ensureCapacity(int size) {
+        if (pending.remaining() >= size) {
+            return true;
+        }
+        int required = pending.position() + size;
+        if (required > MAX_BUFFER_SIZE) {
+            return false;
+        }
+        ByteBuffer grown = ByteBuffer.allocate(Math.min(MAX_BUFFER_SIZE, Math.max(pending.capacity() * 2, required)));
+        pending.flip();
+        grown.put(pending);
+        pending = grown;
+        return true;
+    }
+
+    /**
+     * Writes all pending records to disk.
+     */
+    void commit() {
+        synchronized (lock) {
+            try {
+                commitPending();
+            } catch (Exception e) {
+                log.error("Error writing reporting wal. Reason : {}", e.getMessage());
+            }
+        }
+    }
+
+    private void commitPending() throws IOException {
+        ByteBuffer batch;
+        long dropped;
+        synchronized (this) {
+            if (pending.position() == 0) {
+                return;
+            }
+            batch = pending;
+            pending = spare;
+            dropped = droppedRecords;
+            droppedRecords = 0;
+        }
+        if (dropped > 0) {
+            log.warn("Reporting wal buffer is full. {} records were not logged.", dropped);
+        }
+
+        batch.flip();
+        try {
+            //replay stops on the broken batch, so nothing is appended after it
+            if (channel.size() != committedSize) {
+                channel.truncate(committedSize);
+            }
+            channel.position(committedSize);
+
+            crc.reset();
+            crc.update(batch.array(), 0, batch.limit());
+            batchHeader.clear();
+            batchHeader.putInt(batch.limit()).putLong(crc.getValue()).flip();
+
+            ByteBuffer[] buffers = {batchHeader, batch};
+            while (batch.hasRemaining()) {
+                channel.write(buffers);
+            }
+            channel.force(false);
+        } catch (IOException e) {
+            restorePending(batch);
+            throw e;
+        }
+        committedSize += BATCH_HEADER_SIZE + batch.limit();
+        batch.clear();
+        spare = batch;
+    }
+
+    /**
+     * Returns not committed batch in front of the records received during the commit,
+     * so they are written with the next commit.
+     */
+    private void restorePending(ByteBuffer batch) {
+        batch.position(batch.limit());
+        synchronized (this) {
+            ByteBuffer received = pending;
+            received.flip();
+            int required = batch.position() + received.remaining();
+            if (required > MAX_BUFFER_SIZE) {
+                log.warn("Reporting wal buffer is full. Records received during the failed commit were not logged.");
+            } else {
+                if (required > batch.capacity()) {
+                    ByteBuffer grown = ByteBuffer.allocate(Math.min(MAX_BUFFER_SIZE,
+                            Math.max(batch.capacity() * 2, required)));
+                    batch.flip();
+                    batch = grown.put(batch);
+                }
+                batch.limit(batch.capacity());
+                batch.put(received);
+            }
+            received.clear();
+            pending = batch;
+            spare = received;
+        }
+    }
+
+    /**
+     * Commits pending records and runs the action that stores collected state.
+     * Action gets position of the log that is covered by the state.
+     * Records received during the action run are not covered. So in case of crash right after checkpoint
+     * some of them may be applied twice. That's preferable over losing them.
+     *
+     * @return position covered by the stored state or NO_CHECKPOINT in case state wasn't stored
+     */
+    public long checkpoint(LongPredicate storeState) {
+        synchronized (lock) {
+            try {
+                commitPending();
+                long position = toPosition(committedSize);
+                return storeState.test(position) ? position : NO_CHECKPOINT;
+            } catch (Exception e) {
+                log.error("Error on reporting wal checkpoint. Reason : {}", e.getMessage());
+                return NO_CHECKPOINT;
+            }
+        }
+    }
+
+    /**
+     * Removes all records before the provided position.
+     * Records after it are copied to the new file that replaces the log, so crash during truncate
+     * leaves either old or new log.
+     */
+    public void truncate(long position) {
+        synchronized (lock) {
+            long from = position - base + FILE_HEADER_SIZE;
+            if (from <= FILE_HEADER_SIZE) {
+                return;
+            }
+            Path tmpPath = walPath.resolveSibling(WAL_FILENAME + ".tmp");
+            try {
+                try (FileChannel out = FileChannel.open(tmpPath, CREATE, WRITE, TRUNCATE_EXISTING)) {
+                    writeHeader(out, position);
+                    long size = committedSize;
+                    while (from < size) {
+                        from += channel.transferTo(from, size - from, out);
+                    }
+                    out.force(false);
+                }
+                Files.move(tmpPath, walPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                channel.close();
+                open();
+            } catch (Exception e) {
+                log.error("Error truncating reporting wal. Reason : {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Reads all committed records from the beginning of the log.
+     * Reading stops on the first incomplete or corrupted batch, log is truncated at it,
+     * so new records are not appended after the broken ones.
+     *
+     * @param checkpoint position of the log covered by the restored aggregation state,
+     *                   records before it are replayed only for the raw data.
+     * @return number of replayed records
+     */
+    public long replay(WalRecordConsumer consumer, long checkpoint) throws IOException {
+        long replayed = 0;
+        synchronized (lock) {
+            long offset = FILE_HEADER_SIZE;
+            long size = channel.size();
+            ByteBuffer header = ByteBuffer.allocate(BATCH_HEADER_SIZE);
+            while (offset + BATCH_HEADER_SIZE <= size) {
+                header.clear();
+                readFully(header, offset);
+                header.flip();
+                int length = header.getInt();
+                long expectedCrc = header.getLong();
+                if (length <= 0 || offset + BATCH_HEADER_SIZE + length > size) {
+                    log.warn("Reporting wal is truncated at {}.", offset);
+                    break;
+                }
+
+                ByteBuffer batch = ByteBuffer.allocate(length);
+                readFully(batch, offset + BATCH_HEADER_SIZE);
+                crc.reset();
+                crc.update(batch.array(), 0, length);
+                if (crc.getValue() != expectedCrc) {
+                    log.warn("Reporting wal batch at {} is corrupted.", offset);
+                    break;
+                }
+
+                boolean beforeCheckpoint = toPosition(offset) < checkpoint;
+                batch.flip();
+                while (batch.hasRemaining()) {
+                    if (readRecord(batch, consumer, beforeCheckpoint)) {
+                        replayed++;
+                    }
+                }
+                offset += BATCH_HEADER_SIZE + length;
+            }
+            if (offset < size) {
+                channel.truncate(offset);
+            }
+            channel.position(offset);
+            this.committedSize = offset;
+        }
+        return replayed;
+    }
+
+    private void readFully(ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, position + buf.position()) < 0) {
+                throw new IOException("Unexpected end of reporting wal.");
+            }
+        }
+    }
+
+    private static boolean readRecord(ByteBuffer buf, WalRecordConsumer consumer, boolean beforeCheckpoint) {
+        byte flags = buf.get();
+        String email = getString(buf);
+        String appName = getString(buf);
+        int dashId = buf.getInt();
+        int deviceId = buf.getInt();
+        PinType pinType = PinType.getPinType(buf.getChar());
+        short pin = buf.getShort();
+        long ts = buf.getLong();
+        double doubleValue = buf.getDouble();
+        String stringValue = doubleValue == NumberUtil.NO_RESULT ? getString(buf) : null;
+
+        boolean raw = (flags & RAW_FLAG) != 0;
+        //aggregated value is already within the restored state
+        boolean average = (flags & AVERAGE_FLAG) != 0 && !beforeCheckpoint;
+        if (raw || average) {
+            consumer.accept(new BaseReportingKey(email, appName, dashId, deviceId, pinType, pin),
+                    ts, stringValue, doubleValue, raw, average);
+            return true;
+        }
+        return false;
+    }
+
+    private static String getString(ByteBuffer buf) {
+        byte[] bytes = new byte[buf.getInt()];
+        buf.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    @Override
+    public void close() {
+        writer.shutdown();
+        try {
+            writer.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (lock) {
+            commit();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.error("Error closing reporting wal. Reason : {}", e.getMessage());
+            }
+        }
+    }
+
+    public interface WalRecordConsumer {
+        void accept(BaseReportingKey key, long ts, String stringValue, double doubleValue,
+                    boolean raw, boolean average);
+    }
+
+}
@@ -0,0 +1,32 @@
+package cc.blynk.server.core.stats;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fill level and overflow counters of the bounded in-memory buffer.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+public class BufferStats {
+
+    public final LongAdder size = new LongAdder();
+    public final LongAdder dropped = new LongAdder();
+    public final LongAdder spilled = new LongAdder();
+    private volatile long capacity;
+
+    public void setCapacity(long capacity) {
+        this.capacity = capacity;
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    public int getFillPercent() {
+        long capacity = this.capacity;
+        return capacity == 0 ? 0 : (int) (size.sum() * 100 / capacity);
+    }
+
+}
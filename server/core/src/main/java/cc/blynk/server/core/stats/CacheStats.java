@@ -0,0 +1,36 @@
+package cc.blynk.server.core.stats;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Hit rate and memory footprint of the size bounded cache.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+public class CacheStats {
+
+    public final LongAdder hits = new LongAdder();
+    public final LongAdder misses = new LongAdder();
+    public final LongAdder evictions = new LongAdder();
+    //current number of cached entries and their size
+    public final LongAdder entries = new LongAdder();
+    public final LongAdder bytes = new LongAdder();
+    private volatile long maxBytes;
+
+    public void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public int getHitRatePercent() {
+        long hits = this.hits.sum();
+        long total = hits + misses.sum();
+        return total == 0 ? 0 : (int) (hits * 100 / total);
+    }
+
+}
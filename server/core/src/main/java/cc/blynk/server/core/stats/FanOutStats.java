@@ -0,0 +1,30 @@
+package cc.blynk.server.core.stats;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Messages sent to few channels at once are encoded only once.
+ * Difference between written and encoded bytes shows how much encoding work is saved.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+public class FanOutStats {
+
+    public final LongAdder frames = new LongAdder();
+    public final LongAdder encodedBytes = new LongAdder();
+    public final LongAdder writes = new LongAdder();
+    public final LongAdder writtenBytes = new LongAdder();
+
+    public void markEncoded(int bytes) {
+        frames.increment();
+        encodedBytes.add(bytes);
+    }
+
+    public void markWritten(int bytes) {
+        writes.increment();
+        writtenBytes.add(bytes);
+    }
+
+}
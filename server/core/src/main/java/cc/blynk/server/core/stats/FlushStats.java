@@ -0,0 +1,64 @@
+package cc.blynk.server.core.stats;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Holds results of the last run of the periodic flush job (like ReportingWorker).
+ * Used in order to see when flush starts overrunning its period.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+public class FlushStats {
+
+    private final long period;
+
+    private volatile long lastEntries;
+    private volatile long lastFiles;
+    private volatile long lastDurationMillis;
+
+    private final LongAdder overruns = new LongAdder();
+
+    public FlushStats(long period) {
+        this.period = period;
+    }
+
+    public void mark(long entries, long files, long durationMillis) {
+        this.lastEntries = entries;
+        this.lastFiles = files;
+        this.lastDurationMillis = durationMillis;
+        if (durationMillis > period) {
+            overruns.increment();
+        }
+    }
+
+    public long getLastEntries() {
+        return lastEntries;
+    }
+
+    public long getLastFiles() {
+        return lastFiles;
+    }
+
+    public long getLastDurationMillis() {
+        return lastDurationMillis;
+    }
+
+    public long getEntriesPerSecond() {
+        return perSecond(lastEntries, lastDurationMillis);
+    }
+
+    public long getFilesPerSecond() {
+        return perSecond(lastFiles, lastDurationMillis);
+    }
+
+    public long getOverruns() {
+        return overruns.sum();
+    }
+
+    private static long perSecond(long count, long durationMillis) {
+        return count * 1000 / Math.max(durationMillis, 1);
+    }
+
+}
@@ -1,5 +1,6 @@
 package cc.blynk.server.core.stats;
 
+import cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType;
 import cc.blynk.server.core.protocol.enums.Command;
 
 import java.util.concurrent.atomic.LongAdder;
@@ -20,8 +21,36 @@ public class GlobalStats {
     //2 last load adders are used as separate counters
     public final LongAdder[] specificCounters;
 
+    //results of the last reporting data flush, it should fit in 1 minute
+    public final FlushStats reportingFlush;
+
+    //raw data waiting to be stored to reporting DB
+    public final BufferStats rawDataBuffer;
+
+    //history graph data served from memory instead of disk
+    public final CacheStats reportingCache;
+
+    //messages encoded once for few receivers
+    public final FanOutStats fanOut;
+
+    //messages waiting for slow app channels to become writable
+    public final OutboundQueueStats appOutboundQueue;
+
+    //run time and lag of the periodic maintenance jobs
+    public final MaintenanceStats maintenance;
+
+    //results of the last user profiles saving
+    public final ProfileSaveStats profileSave;
+
     public GlobalStats() {
         this.totalMessages = new Meter();
+        this.reportingFlush = new FlushStats(GraphGranularityType.MINUTE.period);
+        this.rawDataBuffer = new BufferStats();
+        this.reportingCache = new CacheStats();
+        this.fanOut = new FanOutStats();
+        this.appOutboundQueue = new OutboundQueueStats();
+        this.maintenance = new MaintenanceStats();
+        this.profileSave = new ProfileSaveStats();
 
         //yeah, this is a bit ugly code, but as fast as possible =).
         this.specificCounters = new LongAdder[Command.LAST_COMMAND_INDEX];
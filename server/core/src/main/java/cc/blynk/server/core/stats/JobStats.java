@@ -0,0 +1,84 @@
+package cc.blynk.server.core.stats;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Holds results of the periodic maintenance job runs.
+ * Lag is the delay of the job start comparing to its schedule, it grows when jobs of the same lane
+ * are too slow. Overrun is the run that took longer than the job period.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+public class JobStats {
+
+    public final String name;
+
+    public final String lane;
+
+    public final long periodMillis;
+
+    private volatile long lastDurationMillis;
+    private volatile long maxDurationMillis;
+    private volatile long lastLagMillis;
+    private volatile long maxLagMillis;
+
+    private final LongAdder runs = new LongAdder();
+    private final LongAdder overruns = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+
+    public JobStats(String name, String lane, long periodMillis) {
+        this.name = name;
+        this.lane = lane;
+        this.periodMillis = periodMillis;
+    }
+
+    //called only from the job thread, so max values don't need CAS
+    public void mark(long lagMillis, long durationMillis, boolean failed) {
+        runs.increment();
+        this.lastLagMillis = lagMillis;
+        this.lastDurationMillis = durationMillis;
+        if (lagMillis > maxLagMillis) {
+            this.maxLagMillis = lagMillis;
+        }
+        if (durationMillis > maxDurationMillis) {
+            this.maxDurationMillis = durationMillis;
+        }
+        if (durationMillis > periodMillis) {
+            overruns.increment();
+        }
+        if (failed) {
+            failures.increment();
+        }
+    }
+
+    public long getLastDurationMillis() {
+        return lastDurationMillis;
+    }
+
+    public long getMaxDurationMillis() {
+        return maxDurationMillis;
+    }
+
+    public long getLastLagMillis() {
+        return lastLagMillis;
+    }
+
+    public long getMaxLagMillis() {
+        return maxLagMillis;
+    }
+
+    public long getRuns() {
+        return runs.sum();
+    }
+
+    public long getOverruns() {
+        return overruns.sum();
+    }
+
+    public long getFailures() {
+        return failures.sum();
+    }
+
+}
@@ -0,0 +1,25 @@
+package cc.blynk.server.core.stats;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Stats of all periodic maintenance jobs, see MaintenanceScheduler.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+public class MaintenanceStats {
+
+    private final ConcurrentHashMap<String, JobStats> jobs = new ConcurrentHashMap<>();
+
+    public JobStats register(String name, String lane, long periodMillis) {
+        return jobs.computeIfAbsent(name, key -> new JobStats(key, lane, periodMillis));
+    }
+
+    public Collection<JobStats> getJobs() {
+        return jobs.values();
+    }
+
+}
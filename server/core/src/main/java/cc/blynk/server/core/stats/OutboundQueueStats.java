@@ -0,0 +1,22 @@
+package cc.blynk.server.core.stats;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Messages to slow app channels are kept in the outbound queue of the channel
+ * till it becomes writable again. Newer pin value replaces older one in the queue.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+public class OutboundQueueStats {
+
+    public final LongAdder queued = new LongAdder();
+    public final LongAdder conflated = new LongAdder();
+    public final LongAdder dropped = new LongAdder();
+    public final LongAdder drained = new LongAdder();
+    //messages in the queues of all channels right now
+    public final LongAdder depth = new LongAdder();
+
+}
@@ -0,0 +1,66 @@
+package cc.blynk.server.core.stats;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Holds results of the last profile saving cycle, see ProfileSaverWorker.
+ * Deferred profiles are the ones that didn't fit into the cycle time budget
+ * and were moved to the next cycle.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+public class ProfileSaveStats {
+
+    private volatile long lastFullSaves;
+    private volatile long lastValueAppends;
+    private volatile long lastDeferred;
+    private volatile long lastBytes;
+    private volatile long lastDurationMillis;
+
+    private final LongAdder totalBytes = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+
+    public void mark(long fullSaves, long valueAppends, long deferred, long bytes, long durationMillis) {
+        this.lastFullSaves = fullSaves;
+        this.lastValueAppends = valueAppends;
+        this.lastDeferred = deferred;
+        this.lastBytes = bytes;
+        this.lastDurationMillis = durationMillis;
+        totalBytes.add(bytes);
+    }
+
+    public void markError() {
+        errors.increment();
+    }
+
+    public long getLastFullSaves() {
+        return lastFullSaves;
+    }
+
+    public long getLastValueAppends() {
+        return lastValueAppends;
+    }
+
+    public long getLastDeferred() {
+        return lastDeferred;
+    }
+
+    public long getLastBytes() {
+        return lastBytes;
+    }
+
+    public long getLastDurationMillis() {
+        return lastDurationMillis;
+    }
+
+    public long getTotalBytes() {
+        return totalBytes.sum();
+    }
+
+    public long getErrors() {
+        return errors.sum();
+    }
+
+}
@@ -0,0 +1,29 @@
+package cc.blynk.server.core.stats.model;
+
+import cc.blynk.server.core.stats.BufferStats;
+
+/**
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+class BufferStat {
+
+    private final long size;
+
+    private final long capacity;
+
+    private final int fillPercent;
+
+    private final long dropped;
+
+    private final long spilled;
+
+    BufferStat(BufferStats bufferStats) {
+        this.size = bufferStats.size.sum();
+        this.capacity = bufferStats.getCapacity();
+        this.fillPercent = bufferStats.getFillPercent();
+        this.dropped = bufferStats.dropped.sum();
+        this.spilled = bufferStats.spilled.sum();
+    }
+}
@@ -0,0 +1,35 @@
+package cc.blynk.server.core.stats.model;
+
+import cc.blynk.server.core.stats.CacheStats;
+
+/**
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+class CacheStat {
+
+    private final long hits;
+
+    private final long misses;
+
+    private final int hitRate;
+
+    private final long evictions;
+
+    private final long entries;
+
+    private final long bytes;
+
+    private final long maxBytes;
+
+    CacheStat(CacheStats cacheStats) {
+        this.hits = cacheStats.hits.sum();
+        this.misses = cacheStats.misses.sum();
+        this.hitRate = cacheStats.getHitRatePercent();
+        this.evictions = cacheStats.evictions.sum();
+        this.entries = cacheStats.entries.sum();
+        this.bytes = cacheStats.bytes.sum();
+        this.maxBytes = cacheStats.getMaxBytes();
+    }
+}
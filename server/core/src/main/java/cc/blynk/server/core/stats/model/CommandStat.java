@@ -25,6 +25,7 @@ import static cc.blynk.server.core.protocol.enums.Command.GET_SERVER;
 import static cc.blynk.server.core.protocol.enums.Command.GET_SHARE_TOKEN;
 import static cc.blynk.server.core.protocol.enums.Command.GET_TAGS;
 import static cc.blynk.server.core.protocol.enums.Command.HARDWARE;
+import static cc.blynk.server.core.protocol.enums.Command.HARDWARE_BATCH;
 import static cc.blynk.server.core.protocol.enums.Command.HARDWARE_CONNECTED;
 import static cc.blynk.server.core.protocol.enums.Command.HARDWARE_LOGIN;
 import static cc.blynk.server.core.protocol.enums.Command.HARDWARE_SYNC;
@@ -75,6 +76,7 @@ public class CommandStat {
     public int setWidgetProperty;
     public int bridge;
     public int hardware;
+    public int hardwareBatch;
     public int getSharedDash;
     public int getShareToken;
     public int refreshShareToken;
@@ -175,6 +177,9 @@ public class CommandStat {
             case HARDWARE :
                 this.hardware = val;
                 break;
+            case HARDWARE_BATCH :
+                this.hardwareBatch = val;
+                break;
             case GET_SHARE_TOKEN :
                 this.getShareToken = val;
                 break;
@@ -0,0 +1,26 @@
+package cc.blynk.server.core.stats.model;
+
+import cc.blynk.server.core.stats.FanOutStats;
+
+/**
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+class FanOutStat {
+
+    private final long frames;
+
+    private final long encodedBytes;
+
+    private final long writes;
+
+    private final long writtenBytes;
+
+    FanOutStat(FanOutStats fanOutStats) {
+        this.frames = fanOutStats.frames.sum();
+        this.encodedBytes = fanOutStats.encodedBytes.sum();
+        this.writes = fanOutStats.writes.sum();
+        this.writtenBytes = fanOutStats.writtenBytes.sum();
+    }
+}
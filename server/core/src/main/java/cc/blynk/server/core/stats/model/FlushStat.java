@@ -0,0 +1,32 @@
+package cc.blynk.server.core.stats.model;
+
+import cc.blynk.server.core.stats.FlushStats;
+
+/**
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+class FlushStat {
+
+    private final long entries;
+
+    private final long files;
+
+    private final long durationMillis;
+
+    private final long entriesPerSec;
+
+    private final long filesPerSec;
+
+    private final long overruns;
+
+    FlushStat(FlushStats flushStats) {
+        this.entries = flushStats.getLastEntries();
+        this.files = flushStats.getLastFiles();
+        this.durationMillis = flushStats.getLastDurationMillis();
+        this.entriesPerSec = flushStats.getEntriesPerSecond();
+        this.filesPerSec = flushStats.getFilesPerSecond();
+        this.overruns = flushStats.getOverruns();
+    }
+}
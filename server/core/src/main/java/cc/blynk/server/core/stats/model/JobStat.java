@@ -0,0 +1,56 @@
+package cc.blynk.server.core.stats.model;
+
+import cc.blynk.server.core.stats.JobStats;
+import cc.blynk.server.core.stats.MaintenanceStats;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+public class JobStat {
+
+    public final String name;
+
+    public final String lane;
+
+    public final long periodMillis;
+
+    public final long runs;
+
+    public final long overruns;
+
+    public final long failures;
+
+    public final long lastDurationMillis;
+
+    public final long maxDurationMillis;
+
+    public final long lastLagMillis;
+
+    public final long maxLagMillis;
+
+    public JobStat(JobStats jobStats) {
+        this.name = jobStats.name;
+        this.lane = jobStats.lane;
+        this.periodMillis = jobStats.periodMillis;
+        this.runs = jobStats.getRuns();
+        this.overruns = jobStats.getOverruns();
+        this.failures = jobStats.getFailures();
+        this.lastDurationMillis = jobStats.getLastDurationMillis();
+        this.maxDurationMillis = jobStats.getMaxDurationMillis();
+        this.lastLagMillis = jobStats.getLastLagMillis();
+        this.maxLagMillis = jobStats.getMaxLagMillis();
+    }
+
+    public static List<JobStat> of(MaintenanceStats maintenanceStats) {
+        List<JobStat> result = new ArrayList<>();
+        for (JobStats jobStats : maintenanceStats.getJobs()) {
+            result.add(new JobStat(jobStats));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,29 @@
+package cc.blynk.server.core.stats.model;
+
+import cc.blynk.server.core.stats.OutboundQueueStats;
+
+/**
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+class OutboundQueueStat {
+
+    private final long queued;
+
+    private final long conflated;
+
+    private final long dropped;
+
+    private final long drained;
+
+    private final long depth;
+
+    OutboundQueueStat(OutboundQueueStats outboundQueueStats) {
+        this.queued = outboundQueueStats.queued.sum();
+        this.conflated = outboundQueueStats.conflated.sum();
+        this.dropped = outboundQueueStats.dropped.sum();
+        this.drained = outboundQueueStats.drained.sum();
+        this.depth = outboundQueueStats.depth.sum();
+    }
+}
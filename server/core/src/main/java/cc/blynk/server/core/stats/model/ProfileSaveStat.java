@@ -0,0 +1,35 @@
+package cc.blynk.server.core.stats.model;
+
+import cc.blynk.server.core.stats.ProfileSaveStats;
+
+/**
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+class ProfileSaveStat {
+
+    private final long fullSaves;
+
+    private final long valueAppends;
+
+    private final long deferred;
+
+    private final long bytes;
+
+    private final long durationMillis;
+
+    private final long totalBytes;
+
+    private final long errors;
+
+    ProfileSaveStat(ProfileSaveStats profileSaveStats) {
+        this.fullSaves = profileSaveStats.getLastFullSaves();
+        this.valueAppends = profileSaveStats.getLastValueAppends();
+        this.deferred = profileSaveStats.getLastDeferred();
+        this.bytes = profileSaveStats.getLastBytes();
+        this.durationMillis = profileSaveStats.getLastDurationMillis();
+        this.totalBytes = profileSaveStats.getTotalBytes();
+        this.errors = profileSaveStats.getErrors();
+    }
+}
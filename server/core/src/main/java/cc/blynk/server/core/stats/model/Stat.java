@@ -13,6 +13,7 @@ import cc.blynk.server.core.protocol.enums.Command;
 import cc.blynk.server.core.stats.GlobalStats;
 import io.netty.buffer.ByteBufAllocator;
 
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.LongAdder;
 
@@ -31,6 +32,13 @@ public class Stat {
     public final HttpStat http = new HttpStat();
     public final BlockingIOStat ioStat;
     public final MemoryStat memoryStat;
+    public final FlushStat reportingFlush;
+    public final BufferStat rawDataBuffer;
+    public final CacheStat reportingCache;
+    public final FanOutStat fanOut;
+    public final OutboundQueueStat appOutboundQueue;
+    public final List<JobStat> maintenance;
+    public final ProfileSaveStat profileSave;
 
     public final int oneMinRate;
     public final int registrations;
@@ -121,9 +129,19 @@ public class Stat {
 
         this.ioStat = new BlockingIOStat(blockingIOProcessor, reportScheduler);
         this.memoryStat = new MemoryStat(ByteBufAllocator.DEFAULT);
+        this.reportingFlush = new FlushStat(globalStats.reportingFlush);
+        this.rawDataBuffer = new BufferStat(globalStats.rawDataBuffer);
+        this.reportingCache = new CacheStat(globalStats.reportingCache);
+        this.fanOut = new FanOutStat(globalStats.fanOut);
+        this.appOutboundQueue = new OutboundQueueStat(globalStats.appOutboundQueue);
+        this.maintenance = JobStat.of(globalStats.maintenance);
+        this.profileSave = new ProfileSaveStat(globalStats.profileSave);
     }
 
     private boolean dashUpdated(User user, long now, long period) {
+        if (now - user.profile.valueJournal.getUpdatedAt() < period) {
+            return true;
+        }
         for (DashBoard dash : user.profile.dashBoards) {
             if (now - dash.updatedAt < period) {
                 return true;
@@ -4,6 +4,7 @@ import cc.blynk.server.core.BlockingIOProcessor;
 import cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType;
 import cc.blynk.server.core.reporting.average.AggregationKey;
 import cc.blynk.server.core.reporting.average.AggregationValue;
+import cc.blynk.server.core.reporting.raw.RawDataBuffer;
 import cc.blynk.server.core.stats.model.Stat;
 import cc.blynk.server.db.dao.ReportingDBDao;
 import cc.blynk.utils.properties.BaseProperties;
@@ -100,9 +101,19 @@ public class ReportingDBManager implements Closeable {
         }
     }
 
-    public void insertReportingRaw(Map<AggregationKey, Object> rawData) {
+    /**
+     * @param onStored - called when raw data collected so far is stored. Not called in case of error.
+     */
+    public void insertReportingRaw(RawDataBuffer rawData, Runnable onStored) {
         if (isDBEnabled() && rawData.size() > 0) {
-            blockingIOProcessor.executeDB(() -> reportingDBDao.insertRawData(rawData));
+            blockingIOProcessor.executeDB(() -> {
+                if (reportingDBDao.insertRawData(rawData)) {
+                    onStored.run();
+                }
+            });
+        } else {
+            //nothing to store or nowhere to store
+            onStored.run();
         }
     }
 
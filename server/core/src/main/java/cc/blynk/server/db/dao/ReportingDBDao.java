@@ -6,6 +6,8 @@ import cc.blynk.server.core.model.widgets.outputs.graph.GraphPeriod;
 import cc.blynk.server.core.reporting.average.AggregationKey;
 import cc.blynk.server.core.reporting.average.AggregationValue;
 import cc.blynk.server.core.reporting.average.AverageAggregatorProcessor;
+import cc.blynk.server.core.reporting.raw.BaseReportingKey;
+import cc.blynk.server.core.reporting.raw.RawDataBuffer;
 import cc.blynk.server.core.stats.model.CommandStat;
 import cc.blynk.server.core.stats.model.HttpStat;
 import cc.blynk.server.core.stats.model.Stat;
@@ -21,7 +23,6 @@ import java.sql.Timestamp;
 import java.sql.Types;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
-import java.util.Iterator;
 import java.util.Map;
 
 /**
@@ -41,10 +42,14 @@ public class ReportingDBDao {
             "INSERT INTO reporting_average_daily (email, project_id, device_id, pin, pin_type, ts, value) "
                     + "VALUES (?, ?, ?, ?, ?, ?, ?)";
 
+    //same pin may be reported few times within same millisecond, last value wins
     private static final String insertRawData =
             "INSERT INTO reporting_raw_data (email, project_id, device_id, pin, pinType, ts, "
                     + "stringValue, doubleValue) "
-                    + "VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+                    + "VALUES (?, ?, ?, ?, ?, ?, ?, ?) "
+                    + "ON CONFLICT (email, project_id, device_id, pin, pinType, ts) "
+                    + "DO UPDATE SET stringValue = EXCLUDED.stringValue, doubleValue = EXCLUDED.doubleValue";
+    private static final int RAW_DATA_CHUNK_SIZE = 10_000;
 
     public static final String selectMinute =
             "SELECT ts, value FROM reporting_average_minute WHERE ts > ? ORDER BY ts DESC limit ?";
@@ -132,49 +137,58 @@ public class ReportingDBDao {
         }
     }
 
-    public void insertRawData(Map<AggregationKey, Object> rawData) {
+    /**
+     * @return false in case of error
+     */
+    public boolean insertRawData(RawDataBuffer rawData) {
         long start = System.currentTimeMillis();
 
         log.info("Storing raw reporting...");
         int counter = 0;
+        boolean stored = true;
 
         try (Connection connection = ds.getConnection();
              PreparedStatement ps = connection.prepareStatement(insertRawData)) {
 
-            for (Iterator<Map.Entry<AggregationKey, Object>> iter = rawData.entrySet().iterator(); iter.hasNext();) {
-                Map.Entry<AggregationKey, Object> entry = iter.next();
-
-                final AggregationKey key = entry.getKey();
-                final Object value = entry.getValue();
-
-                ps.setString(1, key.getEmail());
-                ps.setInt(2, key.getDashId());
-                ps.setInt(3, key.getDeviceId());
-                ps.setShort(4, key.getPin());
-                ps.setString(5, key.getPinType().pinTypeString);
-                ps.setTimestamp(6, new Timestamp(key.ts), DateTimeUtils.UTC_CALENDAR);
-
-                if (value instanceof String) {
-                    ps.setString(7, (String) value);
-                    ps.setNull(8, Types.DOUBLE);
-                } else {
-                    ps.setNull(7, Types.VARCHAR);
-                    ps.setDouble(8, (Double) value);
+            //every chunk is stored within separate transaction, so memory used by batch is limited
+            counter = rawData.drain(RAW_DATA_CHUNK_SIZE, chunk -> {
+                for (int i = 0; i < chunk.size(); i++) {
+                    final BaseReportingKey key = chunk.getKey(i);
+                    //series was removed after the record was collected
+                    if (key == null) {
+                        continue;
+                    }
+                    final String stringValue = chunk.getStringValue(i);
+
+                    ps.setString(1, key.email);
+                    ps.setInt(2, key.dashId);
+                    ps.setInt(3, key.deviceId);
+                    ps.setShort(4, key.pin);
+                    ps.setString(5, key.pinType.pinTypeString);
+                    ps.setTimestamp(6, new Timestamp(chunk.getTs(i)), DateTimeUtils.UTC_CALENDAR);
+
+                    if (stringValue != null) {
+                        ps.setString(7, stringValue);
+                        ps.setNull(8, Types.DOUBLE);
+                    } else {
+                        ps.setNull(7, Types.VARCHAR);
+                        ps.setDouble(8, chunk.getDoubleValue(i));
+                    }
+
+                    ps.addBatch();
                 }
 
-                ps.addBatch();
-                counter++;
-                iter.remove();
-            }
-
-            ps.executeBatch();
-            connection.commit();
+                ps.executeBatch();
+                connection.commit();
+            });
         } catch (Exception e) {
             log.error("Error inserting raw reporting data in DB.", e);
+            stored = false;
         }
 
         log.info("Storing raw reporting finished. Time {}. Records saved {}",
                 System.currentTimeMillis() - start, counter);
+        return stored;
     }
 
     public void insertStat(String region, Stat stat) {
@@ -0,0 +1,87 @@
+package cc.blynk.server.internal;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Limits disk work of the bulk jobs (files and bytes per second), so they don't take
+ * the whole disk from the latency critical jobs, like reporting flush.
+ * Work is accounted after it is done and caller is paused until the spent budget is paid back.
+ * Budget that was not used within the last second is not accumulated.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+public final class IOBudget {
+
+    public static final IOBudget UNLIMITED = new IOBudget(0, 0);
+
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+    //shorter pauses are accumulated as debt, so budget is not checked via sleep on every file
+    private static final long MIN_PAUSE_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final long filesPerSecond;
+    private final long bytesPerSecond;
+
+    //nanoTime when already spent budget is paid back
+    private long filesPaidAt;
+    private long bytesPaidAt;
+
+    private final LongAdder pausedNanos = new LongAdder();
+
+    /**
+     * @param filesPerSecond - 0 or less means no limit
+     * @param bytesPerSecond - 0 or less means no limit
+     */
+    public IOBudget(long filesPerSecond, long bytesPerSecond) {
+        this.filesPerSecond = filesPerSecond;
+        this.bytesPerSecond = bytesPerSecond;
+        //budget of the first second is available right away
+        long start = System.nanoTime() - NANOS_PER_SECOND;
+        this.filesPaidAt = start;
+        this.bytesPaidAt = start;
+    }
+
+    public boolean isUnlimited() {
+        return filesPerSecond <= 0 && bytesPerSecond <= 0;
+    }
+
+    /**
+     * Spends the budget for already done work and pauses the caller when budget is exceeded.
+     */
+    public void spend(long files, long bytes) {
+        if (isUnlimited()) {
+            return;
+        }
+        long pause;
+        synchronized (this) {
+            long now = System.nanoTime();
+            filesPaidAt = pay(filesPaidAt, files, filesPerSecond, now);
+            bytesPaidAt = pay(bytesPaidAt, bytes, bytesPerSecond, now);
+            pause = Math.max(filesPaidAt, bytesPaidAt) - now;
+        }
+        if (pause >= MIN_PAUSE_NANOS) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(pause);
+                pausedNanos.add(pause);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static long pay(long paidAt, long units, long perSecond, long now) {
+        if (perSecond <= 0 || units <= 0) {
+            return paidAt;
+        }
+        long start = Math.max(paidAt, now - NANOS_PER_SECOND);
+        //split to avoid overflow for large byte counts
+        return start + (units / perSecond) * NANOS_PER_SECOND + (units % perSecond) * NANOS_PER_SECOND / perSecond;
+    }
+
+    public long getPausedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(pausedNanos.sum());
+    }
+
+}
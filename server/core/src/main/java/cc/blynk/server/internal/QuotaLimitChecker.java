@@ -1,14 +1,26 @@
 package cc.blynk.server.internal;
 
+import cc.blynk.server.Limits;
+import cc.blynk.server.core.model.auth.Session;
+import cc.blynk.server.core.protocol.enums.Command;
 import cc.blynk.server.core.protocol.enums.Response;
-import cc.blynk.server.core.stats.metrics.InstanceLoadMeter;
+import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.util.concurrent.TimeUnit;
+
 import static cc.blynk.server.internal.CommonByteBufUtil.makeResponse;
+import static cc.blynk.utils.StringUtils.BODY_SEPARATOR;
 
 /**
+ * Message quota of the channel. Every channel has own token bucket, after login channel also
+ * shares user bucket with all other channels of the user, if user limit is enabled.
+ *
+ * Messages over the quota are dropped, or in throttle mode are processed, but reading from the socket
+ * is paused till the quota debt is paid, so TCP backpressure slows the sender down.
+ *
  * The Blynk Project.
  * Created by Dmitriy Dumanskiy.
  * Created on 10.03.18.
@@ -25,26 +37,132 @@ public class QuotaLimitChecker {
     */
     private final static int USER_QUOTA_LIMIT_WARN_PERIOD = 60_000;
 
+    private final TokenBucket channelQuota;
     private final int userQuotaLimit;
+    private final boolean throttle;
+    //shared with other channels of the user, so always used under its lock
+    private volatile TokenBucket userQuota;
     private long lastQuotaExceededTime;
-    public final InstanceLoadMeter quotaMeter;
+    private boolean paused;
+
+    //accepted messages within current and previous second, for the stats
+    private long currentSecond;
+    private int currentSecondMessages;
+    private volatile int lastSecondMessages;
+
+    public QuotaLimitChecker(Limits limits) {
+        this.channelQuota = new TokenBucket(limits.userQuotaLimit, limits.userQuotaBurst, System.currentTimeMillis());
+        this.userQuotaLimit = limits.userAggregatedQuotaLimit;
+        this.throttle = limits.userQuotaThrottle;
+    }
 
-    public QuotaLimitChecker(int userQuotaLimit) {
-        this.userQuotaLimit = userQuotaLimit;
-        this.quotaMeter = new InstanceLoadMeter();
+    public void attachUserQuota(Session session) {
+        if (userQuotaLimit > 0) {
+            this.userQuota = session.getUserQuota(userQuotaLimit);
+        }
     }
 
     public boolean quotaReached(ChannelHandlerContext ctx, int msgId) {
-        if (quotaMeter.getOneMinuteRate() > userQuotaLimit) {
-            sendErrorResponseIfTicked(ctx, msgId);
+        return quotaReached(ctx, msgId, 1);
+    }
+
+    /**
+     * Same as above, for the frame that carries few messages (like hardware batch).
+     * Frame takes a token for every message, frame over the quota is dropped as whole.
+     */
+    public boolean quotaReached(ChannelHandlerContext ctx, int msgId, int messages) {
+        long now = System.currentTimeMillis();
+        if (throttle) {
+            long delay = channelQuota.borrow(now, messages);
+            TokenBucket userQuota = this.userQuota;
+            if (userQuota != null) {
+                synchronized (userQuota) {
+                    delay = Math.max(delay, userQuota.borrow(now, messages));
+                }
+            }
+            if (delay > 0) {
+                pauseReading(ctx, delay);
+            }
+        } else if (!tryAcquire(now, messages)) {
+            sendErrorResponseIfTicked(ctx, msgId, now);
             return true;
         }
-        quotaMeter.mark();
+        count(now, messages);
         return false;
     }
 
-    private void sendErrorResponseIfTicked(ChannelHandlerContext ctx, int msgId) {
-        long now = System.currentTimeMillis();
+    /**
+     * @return number of messages within the frame body. Every write of the hardware batch is
+     * pin type with operation, pin and value, all separated with \0. Wrong batch is rejected by the handler,
+     * here it is counted as at least 1 message.
+     */
+    public static int messages(short command, ByteBuf body, int index, int length) {
+        if (command != Command.HARDWARE_BATCH) {
+            return 1;
+        }
+        int separators = 0;
+        int end = index + length;
+        for (int i = index; i < end; i++) {
+            if (body.getByte(i) == BODY_SEPARATOR) {
+                separators++;
+            }
+        }
+        return Math.max(1, (separators + 1) / 3);
+    }
+
+    //frame rejected by one bucket takes nothing from the other.
+    //channel bucket is used only within the channel event loop, so it can't change between check and take
+    private boolean tryAcquire(long now, int messages) {
+        TokenBucket userQuota = this.userQuota;
+        if (userQuota == null) {
+            return channelQuota.tryAcquire(now, messages);
+        }
+        if (!channelQuota.hasTokens(now, messages)) {
+            return false;
+        }
+        synchronized (userQuota) {
+            if (!userQuota.tryAcquire(now, messages)) {
+                return false;
+            }
+        }
+        return channelQuota.tryAcquire(now, messages);
+    }
+
+    private void pauseReading(ChannelHandlerContext ctx, long delay) {
+        //already buffered messages are still decoded, so only first debt schedules resume
+        if (!paused) {
+            paused = true;
+            log.debug("User has exceeded message quota limit. Pausing read for {} ms.", delay);
+            ctx.channel().config().setAutoRead(false);
+            ctx.executor().schedule(() -> {
+                paused = false;
+                ctx.channel().config().setAutoRead(true);
+            }, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void count(long now, int messages) {
+        long second = now / 1000;
+        if (second != currentSecond) {
+            lastSecondMessages = second == currentSecond + 1 ? currentSecondMessages : 0;
+            currentSecond = second;
+            currentSecondMessages = 0;
+        }
+        currentSecondMessages += messages;
+    }
+
+    /**
+     * Accepted messages within last second.
+     */
+    public int getMessageRate() {
+        //channel was silent during last second
+        if (System.currentTimeMillis() / 1000 > currentSecond + 1) {
+            return 0;
+        }
+        return lastSecondMessages;
+    }
+
+    private void sendErrorResponseIfTicked(ChannelHandlerContext ctx, int msgId, long now) {
         //once a minute sending user response message in case limit is exceeded constantly
         if (lastQuotaExceededTime + USER_QUOTA_LIMIT_WARN_PERIOD < now) {
             lastQuotaExceededTime = now;
@@ -0,0 +1,57 @@
+package cc.blynk.server.internal;
+
+import cc.blynk.server.core.protocol.handlers.FlushConsolidator;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPipeline;
+import io.netty.util.concurrent.EventExecutor;
+
+/**
+ * Logged in channel stays registered on own event loop, so socket I/O and decoding are done there,
+ * while its logic handler is added with the event loop of the user session.
+ * Netty hands events of such handler off to the session loop as tasks, so all channels of the
+ * user are still processed by one thread, without deregistering and registering the socket.
+ *
+ * Read batch reaches the logic handler after the channel loop already completed the read,
+ * so responses of the handler are consolidated on the session loop, before they are handed back
+ * to the channel loop, otherwise every response is flushed separately.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+public final class SessionLoopUtil {
+
+    private SessionLoopUtil() {
+    }
+
+    /**
+     * Replaces login handler with the logic handler executed by the session loop.
+     */
+    public static void replace(ChannelHandlerContext ctx, EventExecutor sessionLoop,
+                               String name, ChannelHandler handler,
+                               int maxConsolidatedFlushes, long maxFlushDelayMicros) {
+        ChannelPipeline pipeline = ctx.pipeline();
+        String previous = ctx.name();
+        if (sessionLoop != ctx.channel().eventLoop()) {
+            String consolidatorName = name + "FlushConsolidator";
+            pipeline.addAfter(sessionLoop, previous, consolidatorName,
+                    new FlushConsolidator(maxConsolidatedFlushes, maxFlushDelayMicros));
+            previous = consolidatorName;
+        }
+        pipeline.addAfter(sessionLoop, previous, name, handler).remove(ctx.handler());
+    }
+
+    /**
+     * Runs the task on the session loop. Task is executed right away, when called from the session loop,
+     * so messages that follow the login within the same read are processed after it.
+     */
+    public static void execute(EventExecutor sessionLoop, Runnable task) {
+        if (sessionLoop.inEventLoop()) {
+            task.run();
+        } else {
+            sessionLoop.execute(task);
+        }
+    }
+
+}
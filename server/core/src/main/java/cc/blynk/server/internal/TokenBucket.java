@@ -0,0 +1,84 @@
+package cc.blynk.server.internal;
+
+/**
+ * Exact token bucket for message quota. Refilled lazily on every call, so there is no timer
+ * and no floating point math per message.
+ * Tokens are kept in 1/1000 of the message, so millis clock refills exactly ratePerSecond tokens per ms.
+ *
+ * Not thread safe. Bucket shared between channels of different event loops should be synchronized outside.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+public final class TokenBucket {
+
+    private static final long MESSAGE_COST = 1000;
+
+    private final long ratePerSecond;
+    private final long capacity;
+    private long tokens;
+    private long lastRefill;
+
+    public TokenBucket(int ratePerSecond, int burst, long now) {
+        this.ratePerSecond = Math.max(ratePerSecond, 1);
+        this.capacity = Math.max(burst, 1) * MESSAGE_COST;
+        this.tokens = capacity;
+        this.lastRefill = now;
+    }
+
+    private void refill(long now) {
+        long elapsed = now - lastRefill;
+        if (elapsed > 0) {
+            lastRefill = now;
+            //long idle channel gets full bucket without multiplication overflow
+            tokens = elapsed >= capacity ? capacity : Math.min(capacity, tokens + elapsed * ratePerSecond);
+        }
+    }
+
+    /**
+     * Takes 1 message from the bucket if it is available.
+     */
+    public boolean tryAcquire(long now) {
+        return tryAcquire(now, 1);
+    }
+
+    /**
+     * Takes all messages from the bucket or none of them.
+     */
+    public boolean tryAcquire(long now, int messages) {
+        refill(now);
+        long cost = messages * MESSAGE_COST;
+        if (tokens >= cost) {
+            tokens -= cost;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Checks that bucket has all messages without taking them.
+     */
+    public boolean hasTokens(long now, int messages) {
+        refill(now);
+        return tokens >= messages * MESSAGE_COST;
+    }
+
+    /**
+     * Takes 1 message from the bucket even if it is empty.
+     * @return 0 if message fits the quota, otherwise millis till the debt is paid.
+     */
+    public long borrow(long now) {
+        return borrow(now, 1);
+    }
+
+    public long borrow(long now, int messages) {
+        refill(now);
+        tokens -= messages * MESSAGE_COST;
+        if (tokens >= 0) {
+            return 0;
+        }
+        return (-tokens + ratePerSecond - 1) / ratePerSecond;
+    }
+
+}
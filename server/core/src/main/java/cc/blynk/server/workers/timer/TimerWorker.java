@@ -1,5 +1,6 @@
 package cc.blynk.server.workers.timer;
 
+import cc.blynk.server.core.dao.ProfileIndexer;
 import cc.blynk.server.core.dao.SessionDao;
 import cc.blynk.server.core.dao.UserDao;
 import cc.blynk.server.core.dao.UserKey;
@@ -34,6 +35,7 @@ import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
 
 import static cc.blynk.server.core.protocol.enums.Command.HARDWARE;
 import static cc.blynk.server.internal.EmptyArraysUtil.EMPTY_INTS;
@@ -54,7 +56,7 @@ import static cc.blynk.server.internal.EmptyArraysUtil.EMPTY_INTS;
  * Created on 2/6/2015.
  *
  */
-public class TimerWorker implements Runnable {
+public class TimerWorker implements Runnable, ProfileIndexer {
 
     private static final Logger log = LogManager.getLogger(TimerWorker.class);
     public static final int TIMER_MSG_ID = 7777;
@@ -64,7 +66,11 @@ public class TimerWorker implements Runnable {
     private final GCMWrapper gcmWrapper;
     private final AtomicReferenceArray<ConcurrentHashMap<TimerKey, BaseAction[]>> timerExecutors;
     private final static int size = 86400;
+    private final LongAdder indexedTimers = new LongAdder();
 
+    /**
+     * Timers of the existing profiles are added via {@link cc.blynk.server.core.dao.ProfileIndexPipeline}.
+     */
     @SuppressWarnings("unchecked")
     public TimerWorker(UserDao userDao, SessionDao sessionDao, GCMWrapper gcmWrapper) {
         this.userDao = userDao;
@@ -73,31 +79,24 @@ public class TimerWorker implements Runnable {
         //array cell for every second in a day,
         //yes, it costs a bit of memory, but still cheap :)
         this.timerExecutors = new AtomicReferenceArray<>(size);
-        init(userDao.users);
     }
 
-    private void init(ConcurrentMap<UserKey, User> users) {
-        int counter = 0;
-        for (Map.Entry<UserKey, User> entry : users.entrySet()) {
-            for (DashBoard dash : entry.getValue().profile.dashBoards) {
-                int dashId = dash.id;
-                for (Widget widget : dash.widgets) {
-                    if (widget instanceof DeviceTiles) {
-                        DeviceTiles deviceTiles = (DeviceTiles) widget;
-                        counter += add(entry.getKey(), deviceTiles, dashId);
-                    } else if (widget instanceof Timer) {
-                        Timer timer = (Timer) widget;
-                        add(entry.getKey(), timer, dashId, -1, -1);
-                        counter++;
-                    } else if (widget instanceof Eventor) {
-                        Eventor eventor = (Eventor) widget;
-                        add(entry.getKey(), eventor, dashId);
-                        counter++;
-                    }
-                }
-            }
+    @Override
+    public void index(UserKey userKey, User user, DashBoard dash, Widget widget) {
+        if (widget instanceof DeviceTiles) {
+            indexedTimers.add(add(userKey, (DeviceTiles) widget, dash.id));
+        } else if (widget instanceof Timer) {
+            add(userKey, (Timer) widget, dash.id, -1, -1);
+            indexedTimers.increment();
+        } else if (widget instanceof Eventor) {
+            add(userKey, (Eventor) widget, dash.id);
+            indexedTimers.increment();
         }
-        log.info("Timers : {}", counter);
+    }
+
+    @Override
+    public void indexFinished() {
+        log.info("Timers : {}", indexedTimers.sum());
     }
 
     public int add(UserKey userKey, DeviceTiles deviceTiles, int dashId) {
@@ -35,6 +35,7 @@ module cc.blynk.core {
     exports cc.blynk.server.core.reporting.average;
     exports cc.blynk.server.core.reporting.raw;
     exports cc.blynk.server.core.reporting;
+    exports cc.blynk.server.core.reporting.storage;
     exports cc.blynk.server.db.model;
     exports cc.blynk.server.db.dao;
     exports cc.blynk.server.core.protocol.model.messages;
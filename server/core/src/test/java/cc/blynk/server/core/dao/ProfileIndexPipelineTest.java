@@ -0,0 +1,84 @@
+package cc.blynk.server.core.dao;
+
+import cc.blynk.server.core.model.DashBoard;
+import cc.blynk.server.core.model.auth.User;
+import cc.blynk.server.core.model.device.Device;
+import cc.blynk.server.core.model.widgets.Widget;
+import cc.blynk.server.core.model.widgets.controls.Button;
+import cc.blynk.utils.AppNameUtil;
+import org.junit.Test;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+public class ProfileIndexPipelineTest {
+
+    @Test
+    public void allIndexersSeeEveryDashAndWidgetOnce() {
+        ConcurrentMap<UserKey, User> users = new ConcurrentHashMap<>();
+        for (int i = 0; i < 1000; i++) {
+            User user = new User("user" + i, "pass", AppNameUtil.BLYNK, "local", "127.0.0.1", false, false);
+            DashBoard dash = new DashBoard();
+            dash.id = 1;
+            dash.sharedToken = "shared" + i;
+            Device device = new Device();
+            device.token = "token" + i;
+            dash.devices = new Device[] {device};
+            dash.widgets = new Widget[] {new Button(), new Button()};
+            user.profile.dashBoards = new DashBoard[] {dash};
+            users.put(new UserKey(user), user);
+        }
+
+        TokenManager tokenManager = new TokenManager(null, "127.0.0.1");
+        CountingIndexer counter = new CountingIndexer();
+        new ProfileIndexPipeline(4)
+                .register("tokens", tokenManager)
+                .register("counter", counter)
+                .run(users);
+
+        assertEquals(1000, counter.dashes.sum());
+        assertEquals(2000, counter.widgets.sum());
+        assertEquals(1, counter.finished.sum());
+
+        User user = users.get(new UserKey("user7", AppNameUtil.BLYNK));
+        TokenValue tokenValue = tokenManager.getTokenValueByToken("token7");
+        assertNotNull(tokenValue);
+        assertSame(user, tokenValue.user);
+        assertSame(user, tokenManager.getUserBySharedToken("shared7").user);
+        assertNull(tokenManager.getTokenValueByToken("token1000"));
+    }
+
+    private static final class CountingIndexer implements ProfileIndexer {
+
+        private final LongAdder dashes = new LongAdder();
+        private final LongAdder widgets = new LongAdder();
+        private final LongAdder finished = new LongAdder();
+
+        @Override
+        public void index(UserKey userKey, User user, DashBoard dash) {
+            dashes.increment();
+        }
+
+        @Override
+        public void index(UserKey userKey, User user, DashBoard dash, Widget widget) {
+            widgets.increment();
+        }
+
+        @Override
+        public void indexFinished() {
+            finished.increment();
+        }
+    }
+
+}
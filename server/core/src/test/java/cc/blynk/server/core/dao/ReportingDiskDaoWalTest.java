@@ -0,0 +1,126 @@
+package cc.blynk.server.core.dao;
+
+import cc.blynk.server.core.model.DashBoard;
+import cc.blynk.server.core.model.DataStream;
+import cc.blynk.server.core.model.Profile;
+import cc.blynk.server.core.model.auth.User;
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.model.widgets.Widget;
+import cc.blynk.server.core.model.widgets.outputs.graph.GraphDataStream;
+import cc.blynk.server.core.model.widgets.outputs.graph.Superchart;
+import cc.blynk.server.core.reporting.average.AggregationKey;
+import cc.blynk.server.core.reporting.raw.RawDataCacheForGraphProcessor;
+import cc.blynk.server.core.reporting.raw.RawDataProcessor;
+import cc.blynk.server.core.reporting.storage.FileReportingStorage;
+import cc.blynk.server.core.reporting.wal.ReportingWal;
+import cc.blynk.utils.AppNameUtil;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static cc.blynk.server.core.reporting.average.AverageAggregatorProcessor.MINUTE;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+public class ReportingDiskDaoWalTest {
+
+    private static final short PIN = 1;
+
+    private String folder;
+    private User user;
+    private DashBoard dash;
+    //crashed dao doesn't close its wal, so test does it
+    private ReportingWal wal;
+
+    @Before
+    public void init() throws IOException {
+        folder = Files.createTempDirectory("reporting_wal").toString();
+
+        Superchart superchart = new Superchart();
+        superchart.dataStreams = new GraphDataStream[] {
+                new GraphDataStream(null, null, 0, 0, new DataStream(PIN, PinType.VIRTUAL),
+                        null, 0, null, null, null, 0, 0, false, null, false, false, false, null,
+                        0, false, 0)
+        };
+        dash = new DashBoard();
+        dash.id = 1;
+        dash.widgets = new Widget[] {superchart};
+        user = new User();
+        user.email = "test@test.com";
+        user.appName = AppNameUtil.BLYNK;
+        user.profile = new Profile();
+        user.profile.dashBoards = new DashBoard[] {dash};
+    }
+
+    private ReportingDiskDao start() throws IOException {
+        wal = new ReportingWal(folder, 60_000);
+        return new ReportingDiskDao(folder, true, new FileReportingStorage(folder), wal,
+                new RawDataProcessor(true), new RawDataCacheForGraphProcessor());
+    }
+
+    //wal group commit is done, nothing else is stored
+    private void crash() {
+        wal.close();
+    }
+
+    private double minuteAverage(ReportingDiskDao reportingDao, long ts) {
+        return reportingDao.averageAggregator.getMinute().get(new AggregationKey(user.email, user.appName,
+                dash.id, 0, PinType.VIRTUAL, PIN, ts / MINUTE)).calcAverage();
+    }
+
+    @Test
+    public void crashAfterCheckpointRestoresRawAndAggregatedValuesOnce() throws Exception {
+        long ts = System.currentTimeMillis();
+
+        ReportingDiskDao reportingDao = start();
+        reportingDao.process(user, dash, 0, PIN, PinType.VIRTUAL, "1", ts);
+        //raw data is not stored yet, so wal is not truncated
+        reportingDao.checkpoint();
+        reportingDao.process(user, dash, 0, PIN, PinType.VIRTUAL, "3", ts + 1);
+        crash();
+
+        reportingDao = start();
+        //first value is taken from the snapshot and is not applied again from the wal
+        assertEquals(2, minuteAverage(reportingDao, ts), 0);
+        assertEquals(2, reportingDao.rawDataProcessor.rawStorage.size());
+
+        //raw data is stored after the checkpoint
+        long checkpoint = reportingDao.checkpoint();
+        assertEquals(2, reportingDao.rawDataProcessor.rawStorage.drain(100, chunk -> { }));
+        reportingDao.truncateWal(checkpoint);
+        crash();
+
+        reportingDao = start();
+        assertEquals(2, minuteAverage(reportingDao, ts), 0);
+        assertEquals(0, reportingDao.rawDataProcessor.rawStorage.size());
+        crash();
+    }
+
+    @Test
+    public void crashBeforeFirstCheckpointRestoresAllValues() throws Exception {
+        long ts = System.currentTimeMillis();
+
+        ReportingDiskDao reportingDao = start();
+        reportingDao.process(user, dash, 0, PIN, PinType.VIRTUAL, "1", ts);
+        reportingDao.process(user, dash, 0, PIN, PinType.VIRTUAL, "3", ts + 1);
+        crash();
+
+        reportingDao = start();
+        assertEquals(2, minuteAverage(reportingDao, ts), 0);
+        assertEquals(2, reportingDao.rawDataProcessor.rawStorage.size());
+
+        //restart without checkpoint replays the same records again
+        crash();
+        reportingDao = start();
+        assertEquals(2, minuteAverage(reportingDao, ts), 0);
+        assertEquals(2, reportingDao.rawDataProcessor.rawStorage.size());
+        crash();
+    }
+
+}
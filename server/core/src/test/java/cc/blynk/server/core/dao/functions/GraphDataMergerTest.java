@@ -0,0 +1,121 @@
+package cc.blynk.server.core.dao.functions;
+
+import cc.blynk.server.core.model.widgets.outputs.graph.AggregationFunctionType;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+public class GraphDataMergerTest {
+
+    private static ByteBuffer[] devicesData(Random random, int devices, int points) {
+        ByteBuffer[] data = new ByteBuffer[devices];
+        for (int device = 0; device < devices; device++) {
+            //some devices have no data, others have gaps
+            if (device % 5 == 4) {
+                continue;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(points * 16);
+            for (int i = 0; i < points; i++) {
+                if (random.nextInt(4) != 0) {
+                    buffer.putDouble(random.nextInt(200) - 100).putLong(i * 60_000L);
+                }
+            }
+            buffer.flip();
+            data[device] = buffer;
+        }
+        return data;
+    }
+
+    //previous TreeMap based implementation
+    private static ByteBuffer mergeWithTreeMap(AggregationFunctionType functionType, ByteBuffer[] data) {
+        TreeMap<Long, GraphFunction> result = new TreeMap<>();
+        for (ByteBuffer buffer : data) {
+            if (buffer != null) {
+                buffer = buffer.duplicate();
+                while (buffer.hasRemaining()) {
+                    double value = buffer.getDouble();
+                    result.computeIfAbsent(buffer.getLong(), ts -> functionType.produce()).apply(value);
+                }
+            }
+        }
+        ByteBuffer byteBuffer = ByteBuffer.allocate(result.size() * 16);
+        for (Map.Entry<Long, GraphFunction> entry : result.entrySet()) {
+            byteBuffer.putDouble(entry.getValue().getResult()).putLong(entry.getKey());
+        }
+        byteBuffer.flip();
+        return byteBuffer;
+    }
+
+    @Test
+    public void sameResultAsTreeMapMerge() {
+        Random random = new Random(7);
+        for (AggregationFunctionType functionType : AggregationFunctionType.values()) {
+            ByteBuffer[] data = devicesData(random, 20, 100);
+            ByteBuffer expected = mergeWithTreeMap(functionType, data);
+            ByteBuffer actual = GraphDataMerger.merge(functionType, data, data.length);
+
+            assertEquals(expected.remaining(), actual.array().length);
+            while (expected.hasRemaining()) {
+                assertEquals(functionType.name(), expected.getDouble(), actual.getDouble(), 0.000001);
+                assertEquals(expected.getLong(), actual.getLong());
+            }
+        }
+    }
+
+    @Test
+    public void notOrderedSeriesIsMerged() {
+        ByteBuffer first = ByteBuffer.allocate(3 * 16);
+        first.putDouble(3).putLong(3).putDouble(1).putLong(1).putDouble(2).putLong(2).flip();
+        ByteBuffer second = ByteBuffer.allocate(2 * 16);
+        second.putDouble(20).putLong(2).putDouble(40).putLong(4).flip();
+
+        ByteBuffer result = GraphDataMerger.merge(AggregationFunctionType.SUM,
+                new ByteBuffer[] {first, second, null}, 3);
+
+        double[] values = {1, 22, 3, 40};
+        for (int i = 0; i < values.length; i++) {
+            assertEquals(values[i], result.getDouble(), 0.000001);
+            assertEquals(i + 1, result.getLong());
+        }
+        assertEquals(0, result.remaining());
+    }
+
+    @Test
+    public void alignedSeriesWithRepeatedTs() {
+        ByteBuffer first = ByteBuffer.allocate(3 * 16);
+        first.putDouble(1).putLong(1).putDouble(2).putLong(1).putDouble(3).putLong(2).flip();
+        ByteBuffer second = ByteBuffer.allocate(2 * 16);
+        second.putDouble(10).putLong(1).putDouble(30).putLong(2).flip();
+
+        ByteBuffer result = GraphDataMerger.merge(AggregationFunctionType.AVG,
+                new ByteBuffer[] {first, second}, 2);
+
+        assertEquals(13D / 3, result.getDouble(), 0.000001);
+        assertEquals(1, result.getLong());
+        assertEquals(16.5, result.getDouble(), 0.000001);
+        assertEquals(2, result.getLong());
+        assertEquals(0, result.remaining());
+    }
+
+    @Test
+    public void maxOfNegativeValues() {
+        ByteBuffer first = ByteBuffer.allocate(16);
+        first.putDouble(-3).putLong(1).flip();
+        ByteBuffer second = ByteBuffer.allocate(16);
+        second.putDouble(-5).putLong(1).flip();
+
+        ByteBuffer result = GraphDataMerger.merge(AggregationFunctionType.MAX, new ByteBuffer[] {first, second}, 2);
+        assertEquals(-3, result.getDouble(), 0.000001);
+    }
+
+}
@@ -0,0 +1,196 @@
+package cc.blynk.server.core.model;
+
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.model.widgets.OnePinWidget;
+import cc.blynk.server.core.model.widgets.Widget;
+import cc.blynk.server.core.model.widgets.controls.Button;
+import cc.blynk.server.core.model.widgets.others.eventor.Eventor;
+import cc.blynk.server.core.model.widgets.others.eventor.Rule;
+import cc.blynk.server.core.model.widgets.others.eventor.model.action.BaseAction;
+import cc.blynk.server.core.model.widgets.others.eventor.model.condition.number.GreaterThan;
+import cc.blynk.server.core.model.widgets.others.webhook.WebHook;
+import cc.blynk.server.core.model.widgets.outputs.LCD;
+import cc.blynk.server.core.model.widgets.outputs.ValueDisplay;
+import cc.blynk.server.core.model.widgets.outputs.graph.GraphDataStream;
+import cc.blynk.server.core.model.widgets.outputs.graph.Superchart;
+import cc.blynk.server.core.model.widgets.ui.tiles.DeviceTiles;
+import cc.blynk.server.core.model.widgets.ui.tiles.Tile;
+import cc.blynk.server.core.model.widgets.ui.tiles.TileTemplate;
+import cc.blynk.utils.ArrayUtil;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+public class DashPinIndexTest {
+
+    private static final PinType[] PIN_TYPES = {PinType.VIRTUAL, PinType.DIGITAL, PinType.ANALOG};
+
+    private static OnePinWidget onePin(OnePinWidget widget, long id, int deviceId, int pin, PinType pinType) {
+        widget.id = id;
+        widget.deviceId = deviceId;
+        widget.pin = (short) pin;
+        widget.pinType = pinType;
+        return widget;
+    }
+
+    private static Superchart superchart(long id, int targetId, int pin) {
+        Superchart superchart = new Superchart();
+        superchart.id = id;
+        superchart.dataStreams = new GraphDataStream[] {
+                new GraphDataStream(null, null, 0, targetId, new DataStream((short) pin, PinType.VIRTUAL),
+                        null, 0, null, null, null, 0, 0, false, null, false, false, false, null, 0, false, 0)
+        };
+        return superchart;
+    }
+
+    private static DeviceTiles deviceTiles(long id, int deviceId, int pin) {
+        DeviceTiles deviceTiles = new DeviceTiles();
+        deviceTiles.id = id;
+        deviceTiles.tiles = new Tile[] {new Tile(deviceId, 1, null, new DataStream((short) pin, PinType.VIRTUAL))};
+        return deviceTiles;
+    }
+
+    @Test
+    public void indexReturnsAllMatchingWidgetsInDashboardOrder() {
+        Random random = new Random(1);
+        List<Widget> widgets = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            int deviceId = random.nextInt(4);
+            int pin = random.nextInt(20);
+            PinType pinType = PIN_TYPES[random.nextInt(PIN_TYPES.length)];
+            switch (i % 5) {
+                case 0 :
+                    Button button = new Button();
+                    button.pwmMode = random.nextBoolean();
+                    widgets.add(onePin(button, i, deviceId, pin, pinType));
+                    break;
+                case 1 :
+                    LCD lcd = new LCD();
+                    lcd.id = i;
+                    lcd.deviceId = deviceId;
+                    lcd.dataStreams = new DataStream[] {
+                            new DataStream((short) pin, pinType),
+                            new DataStream((short) pin, pinType),
+                            new DataStream((short) random.nextInt(20), PinType.VIRTUAL)
+                    };
+                    widgets.add(lcd);
+                    break;
+                case 2 :
+                    if (random.nextInt(10) == 0) {
+                        widgets.add(deviceTiles(i, deviceId, pin));
+                    } else {
+                        widgets.add(superchart(i, deviceId, pin));
+                    }
+                    break;
+                default :
+                    widgets.add(onePin(new ValueDisplay(), i, deviceId, pin, pinType));
+                    break;
+            }
+        }
+        DashBoard dash = new DashBoard();
+        dash.widgets = widgets.toArray(new Widget[0]);
+
+        for (int deviceId = 0; deviceId < 5; deviceId++) {
+            for (short pin = 0; pin < 22; pin++) {
+                for (PinType pinType : PIN_TYPES) {
+                    List<Widget> expected = new ArrayList<>();
+                    for (Widget widget : dash.widgets) {
+                        if (widget.isSame(deviceId, pin, pinType)) {
+                            expected.add(widget);
+                        }
+                    }
+                    List<Widget> actual = new ArrayList<>();
+                    for (Widget widget : dash.getPinIndex().getWidgets(deviceId, pin, pinType)) {
+                        if (widget.isSame(deviceId, pin, pinType)) {
+                            actual.add(widget);
+                        }
+                    }
+                    assertEquals(expected, actual);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void loggedPinWidgetIsFirstWithinDashboard() {
+        Profile profile = new Profile();
+        DashBoard dash = new DashBoard();
+        Superchart superchart = superchart(2, 1, 5);
+        DeviceTiles deviceTiles = deviceTiles(1, 2, 7);
+        deviceTiles.templates = new TileTemplate[0];
+        dash.widgets = new Widget[] {deviceTiles, superchart};
+
+        assertSame(superchart, profile.getWidgetWithLoggedPin(dash, 1, (short) 5, PinType.VIRTUAL));
+        assertNull(profile.getWidgetWithLoggedPin(dash, 2, (short) 5, PinType.VIRTUAL));
+        assertNull(profile.getWidgetWithLoggedPin(dash, 1, (short) 6, PinType.VIRTUAL));
+        assertArrayEquals(new Widget[] {deviceTiles, superchart},
+                dash.getPinIndex().getLoggedPinWidgets((short) 5, PinType.VIRTUAL));
+        assertArrayEquals(new Widget[] {deviceTiles},
+                dash.getPinIndex().getLoggedPinWidgets((short) 6, PinType.VIRTUAL));
+    }
+
+    @Test
+    public void indexIsRebuiltWhenWidgetsAreReplaced() {
+        DashBoard dash = new DashBoard();
+        Widget button = onePin(new Button(), 1, 0, 1, PinType.VIRTUAL);
+        dash.widgets = new Widget[] {button};
+        DashPinIndex index = dash.getPinIndex();
+        assertSame(index, dash.getPinIndex());
+        assertTrue(dash.updateWidgets(0, (short) 1, PinType.VIRTUAL, "1"));
+        assertEquals(false, dash.updateWidgets(0, (short) 2, PinType.VIRTUAL, "1"));
+
+        Widget display = onePin(new ValueDisplay(), 2, 0, 2, PinType.VIRTUAL);
+        dash.widgets = ArrayUtil.add(dash.widgets, display, Widget.class);
+        assertTrue(dash.updateWidgets(0, (short) 2, PinType.VIRTUAL, "2"));
+        assertEquals("2", ((OnePinWidget) display).value);
+
+        //tiles are changed in place, so they are always checked
+        DeviceTiles deviceTiles = deviceTiles(3, 0, 3);
+        dash.widgets = ArrayUtil.add(dash.widgets, deviceTiles, Widget.class);
+        assertEquals(false, dash.updateWidgets(1, (short) 4, PinType.VIRTUAL, "3"));
+        deviceTiles.tiles = new Tile[] {new Tile(1, 1, null, new DataStream((short) 4, PinType.VIRTUAL))};
+        assertTrue(dash.updateWidgets(1, (short) 4, PinType.VIRTUAL, "3"));
+    }
+
+    @Test
+    public void webHooksAndEventorRulesByPin() {
+        WebHook webHook = (WebHook) onePin(new WebHook(), 1, 0, 3, PinType.VIRTUAL);
+        Rule rule1 = new Rule(new DataStream((short) 3, PinType.VIRTUAL), null,
+                new GreaterThan(10), new BaseAction[0], true);
+        Rule rule2 = new Rule(new DataStream((short) 4, PinType.VIRTUAL), null,
+                new GreaterThan(10), new BaseAction[0], true);
+        Rule rule3 = new Rule(new DataStream((short) 3, PinType.VIRTUAL), null,
+                new GreaterThan(20), new BaseAction[0], true);
+        Eventor eventor = new Eventor(new Rule[] {rule1, rule2, rule3});
+        eventor.id = 2;
+
+        DashBoard dash = new DashBoard();
+        dash.widgets = new Widget[] {webHook, eventor};
+
+        assertSame(webHook, dash.findWebhookByPin(0, (short) 3, PinType.VIRTUAL));
+        assertNull(dash.findWebhookByPin(1, (short) 3, PinType.VIRTUAL));
+        assertNull(dash.findWebhookByPin(0, (short) 4, PinType.VIRTUAL));
+        //webhook is not regular widget, so it is not updated with pin values
+        assertEquals(false, dash.updateWidgets(0, (short) 3, PinType.VIRTUAL, "1"));
+
+        DashPinIndex index = dash.getPinIndex();
+        assertSame(eventor, index.eventor);
+        assertArrayEquals(new Rule[] {rule1, rule3}, index.getEventorRules((short) 3, PinType.VIRTUAL));
+        assertArrayEquals(new Rule[] {rule2}, index.getEventorRules((short) 4, PinType.VIRTUAL));
+        assertEquals(0, index.getEventorRules((short) 3, PinType.DIGITAL).length);
+    }
+
+}
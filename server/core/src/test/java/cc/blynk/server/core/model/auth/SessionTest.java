@@ -0,0 +1,105 @@
+package cc.blynk.server.core.model.auth;
+
+import cc.blynk.server.common.BaseSimpleChannelInboundHandler;
+import cc.blynk.server.core.model.DashBoard;
+import cc.blynk.server.core.model.device.Device;
+import cc.blynk.server.core.protocol.handlers.encoders.MessageEncoder;
+import cc.blynk.server.core.protocol.model.messages.MessageBase;
+import cc.blynk.server.core.session.HardwareStateHolder;
+import cc.blynk.server.core.session.StateHolderBase;
+import cc.blynk.server.core.stats.GlobalStats;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.Test;
+
+import static cc.blynk.server.core.protocol.enums.Command.HARDWARE;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+public class SessionTest {
+
+    private static final GlobalStats stats = new GlobalStats();
+
+    private static EmbeddedChannel hardware(Session session, int dashId, int deviceId) {
+        User user = new User();
+        user.email = "test@test.com";
+        user.appName = "Blynk";
+        DashBoard dash = new DashBoard();
+        dash.id = dashId;
+        Device device = new Device();
+        device.id = deviceId;
+        HardwareStateHolder state = new HardwareStateHolder(user, dash, device);
+        EmbeddedChannel channel = new EmbeddedChannel(new MessageEncoder(stats),
+                new BaseSimpleChannelInboundHandler<MessageBase>(MessageBase.class) {
+                    @Override
+                    public void messageReceived(ChannelHandlerContext ctx, MessageBase msg) {
+                    }
+
+                    @Override
+                    public StateHolderBase getState() {
+                        return state;
+                    }
+                });
+        session.addHardChannel(channel, dashId, deviceId);
+        return channel;
+    }
+
+    private static int received(EmbeddedChannel channel) {
+        int count = 0;
+        ByteBuf frame;
+        while ((frame = channel.readOutbound()) != null) {
+            frame.release();
+            count++;
+        }
+        return count;
+    }
+
+    @Test
+    public void hardwareChannelsAreIndexedByDashAndDevice() {
+        Session session = new Session(null);
+        EmbeddedChannel first = hardware(session, 1, 0);
+        EmbeddedChannel second = hardware(session, 1, 0);
+        EmbeddedChannel otherDevice = hardware(session, 1, 1);
+        EmbeddedChannel otherDash = hardware(session, 2, 0);
+
+        assertArrayEquals(new Channel[] {first, second}, session.getHardwareChannels(1, 0));
+        assertTrue(session.isHardwareConnected(1, 1));
+        assertFalse(session.isHardwareConnected(1, 2));
+        assertFalse(session.isHardwareConnected(3, 0));
+
+        assertFalse(session.sendMessageToHardware(1, HARDWARE, 1, "vw\u00001\u00001", 0));
+        assertEquals(1, received(first));
+        assertEquals(1, received(second));
+        assertEquals(0, received(otherDevice));
+        assertEquals(0, received(otherDash));
+
+        //repeated device ids receive message only once
+        assertFalse(session.sendMessageToHardware(1, HARDWARE, 1, "vw\u00001\u00001", 1, 1, 5));
+        assertEquals(1, received(otherDevice));
+        assertEquals(0, received(first));
+        assertTrue(session.sendMessageToHardware(1, HARDWARE, 1, "vw\u00001\u00001", 5));
+
+        //empty device ids means whole dashboard
+        assertFalse(session.sendMessageToHardware(2, HARDWARE, 1, "vw\u00001\u00001", new int[0]));
+        assertEquals(1, received(otherDash));
+
+        first.close();
+        assertArrayEquals(new Channel[] {second}, session.getHardwareChannels(1, 0));
+        session.closeHardwareChannelByDeviceId(1, 0);
+        assertFalse(second.isOpen());
+        assertFalse(session.isHardwareConnected(1, 0));
+        assertEquals(2, session.hardwareChannels.size());
+        assertNull(second.readOutbound());
+    }
+
+}
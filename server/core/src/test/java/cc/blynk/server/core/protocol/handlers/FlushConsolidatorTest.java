@@ -0,0 +1,125 @@
+package cc.blynk.server.core.protocol.handlers;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.ReferenceCountUtil;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+public class FlushConsolidatorTest {
+
+    private static class FlushCounter extends ChannelOutboundHandlerAdapter {
+        int flushes;
+
+        @Override
+        public void flush(ChannelHandlerContext ctx) {
+            flushes++;
+            ctx.flush();
+        }
+    }
+
+    //replies to every incoming message with separate writeAndFlush
+    private static class Echo extends ChannelInboundHandlerAdapter {
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            ReferenceCountUtil.release(msg);
+            ctx.writeAndFlush(Unpooled.buffer(1).writeByte(1));
+        }
+    }
+
+    private static int readAll(EmbeddedChannel channel) {
+        int count = 0;
+        ByteBuf buf;
+        while ((buf = channel.readOutbound()) != null) {
+            buf.release();
+            count++;
+        }
+        return count;
+    }
+
+    private static Object[] messages(int count) {
+        Object[] messages = new Object[count];
+        for (int i = 0; i < count; i++) {
+            messages[i] = Unpooled.buffer(1).writeByte(i);
+        }
+        return messages;
+    }
+
+    @Test
+    public void responsesOfOneReadAreFlushedOnce() {
+        FlushCounter counter = new FlushCounter();
+        EmbeddedChannel channel = new EmbeddedChannel(counter, new FlushConsolidator(64, 0), new Echo());
+
+        //embedded channel completes read after all messages
+        channel.writeInbound(messages(10));
+        assertEquals(1, counter.flushes);
+        assertEquals(10, readAll(channel));
+
+        //but not later than after max flushes
+        channel.writeInbound(messages(150));
+        assertEquals(1 + 3, counter.flushes);
+        assertEquals(150, readAll(channel));
+    }
+
+    @Test
+    public void writesOutsideOfReadAreFlushedImmediatelyWithoutDelay() {
+        FlushCounter counter = new FlushCounter();
+        EmbeddedChannel channel = new EmbeddedChannel(counter, new FlushConsolidator(64, 0), new Echo());
+        channel.writeAndFlush(Unpooled.buffer(1).writeByte(1));
+        channel.writeAndFlush(Unpooled.buffer(1).writeByte(1));
+        assertEquals(2, counter.flushes);
+        assertEquals(2, readAll(channel));
+    }
+
+    @Test
+    public void writesOutsideOfReadAreDelayed() throws Exception {
+        FlushCounter counter = new FlushCounter();
+        EmbeddedChannel channel = new EmbeddedChannel(counter, new FlushConsolidator(3, 50_000), new Echo());
+        channel.writeAndFlush(Unpooled.buffer(1).writeByte(1));
+        channel.writeAndFlush(Unpooled.buffer(1).writeByte(1));
+        assertEquals(0, counter.flushes);
+
+        //scheduled flush is run by the embedded channel only when asked, so polling till it is due
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (counter.flushes == 0 && System.nanoTime() < deadline) {
+            channel.runScheduledPendingTasks();
+            Thread.sleep(1);
+        }
+        assertEquals(1, counter.flushes);
+        assertEquals(2, readAll(channel));
+
+        //max flushes is reached before the delay
+        for (int i = 0; i < 3; i++) {
+            channel.writeAndFlush(Unpooled.buffer(1).writeByte(1));
+        }
+        assertEquals(2, counter.flushes);
+
+        //pending data is flushed before close
+        channel.writeAndFlush(Unpooled.buffer(1).writeByte(1));
+        channel.close();
+        assertEquals(3, counter.flushes);
+        assertEquals(4, readAll(channel));
+    }
+
+    @Test
+    public void consolidationIsDisabledWithZeroFlushes() {
+        FlushCounter counter = new FlushCounter();
+        EmbeddedChannel channel = new EmbeddedChannel(counter, new FlushConsolidator(0, 1000), new Echo());
+        channel.writeInbound(messages(10));
+        assertEquals(10, counter.flushes);
+        assertEquals(10, readAll(channel));
+    }
+
+}
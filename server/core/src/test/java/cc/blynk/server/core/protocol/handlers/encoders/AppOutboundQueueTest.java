@@ -0,0 +1,176 @@
+package cc.blynk.server.core.protocol.handlers.encoders;
+
+import cc.blynk.server.core.model.DashBoard;
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.model.storage.key.DashPinStorageKey;
+import cc.blynk.server.core.model.widgets.Widget;
+import cc.blynk.server.core.model.widgets.controls.Terminal;
+import cc.blynk.server.core.protocol.model.messages.StringMessage;
+import cc.blynk.server.core.stats.GlobalStats;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.CharsetUtil;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static cc.blynk.server.core.protocol.enums.Command.DEVICE_OFFLINE;
+import static cc.blynk.server.core.protocol.enums.Command.HARDWARE;
+import static cc.blynk.utils.StringUtils.prependDashIdAndDeviceId;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+/**
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+public class AppOutboundQueueTest {
+
+    private static DashBoard dash(int dashId, Widget... widgets) {
+        DashBoard dash = new DashBoard();
+        dash.id = dashId;
+        dash.widgets = widgets;
+        return dash;
+    }
+
+    private static void send(EmbeddedChannel channel, int dashId, int deviceId, String body) {
+        send(channel, dash(dashId), deviceId, body);
+    }
+
+    private static void send(EmbeddedChannel channel, DashBoard dash, int deviceId, String body) {
+        StringMessage message = new StringMessage(1, HARDWARE, prependDashIdAndDeviceId(dash.id, deviceId, body));
+        try (FanOut fanOut = new FanOut(message, dash, deviceId, body)) {
+            fanOut.writeToApp(channel);
+        }
+    }
+
+    //bodies of written frames, without 7 bytes of the mobile header
+    private static List<String> received(EmbeddedChannel channel) {
+        List<String> bodies = new ArrayList<>();
+        ByteBuf frame;
+        while ((frame = channel.readOutbound()) != null) {
+            bodies.add(frame.toString(7, frame.readableBytes() - 7, CharsetUtil.UTF_8));
+            frame.release();
+        }
+        return bodies;
+    }
+
+    @Test
+    public void slowAppReceivesLatestValueOfEveryPin() {
+        GlobalStats stats = new GlobalStats();
+        EmbeddedChannel channel = new EmbeddedChannel(new MobileMessageEncoder(stats),
+                new AppOutboundQueue(stats.appOutboundQueue, 3));
+        channel.config().setWriteBufferWaterMark(new WriteBufferWaterMark(1, 2));
+
+        send(channel, 1, 0, "vw\u00001\u00001");
+        assertEquals(1, received(channel).size());
+
+        //app doesn't read, so socket buffer is full
+        ByteBuf stuck = Unpooled.wrappedBuffer(new byte[16]);
+        channel.write(stuck);
+        assertFalse(channel.isWritable());
+
+        send(channel, 1, 0, "vw\u00001\u00002");
+        send(channel, 1, 0, "vw\u00002\u00001");
+        send(channel, 1, 0, "vw\u00001\u00003");
+        try (FanOut fanOut = new FanOut(new StringMessage(2, DEVICE_OFFLINE, "1-0"))) {
+            fanOut.writeToApp(channel);
+        }
+        //queue is full, same pin of other device is not conflated, so dropped
+        send(channel, 1, 1, "vw\u00001\u00001");
+        assertEquals(3, stats.appOutboundQueue.depth.sum());
+        assertEquals(1, stats.appOutboundQueue.conflated.sum());
+        assertEquals(1, stats.appOutboundQueue.dropped.sum());
+
+        //app read the data
+        channel.flush();
+        assertEquals(stuck, channel.readOutbound());
+        stuck.release();
+        List<String> bodies = received(channel);
+        assertEquals(3, bodies.size());
+        assertEquals("1-0\u0000vw\u00002\u00001", bodies.get(0));
+        assertEquals("1-0\u0000vw\u00001\u00003", bodies.get(1));
+        assertEquals("1-0", bodies.get(2));
+        assertEquals(0, stats.appOutboundQueue.depth.sum());
+        assertEquals(3, stats.appOutboundQueue.drained.sum());
+
+        //nothing is pending, so written directly
+        send(channel, 1, 0, "vw\u00001\u00004");
+        assertEquals(1, received(channel).size());
+        assertEquals(4, stats.appOutboundQueue.queued.sum());
+    }
+
+    @Test
+    public void writesOfMultiValueWidgetsAreNotConflated() {
+        Terminal terminal = new Terminal();
+        terminal.pin = 5;
+        terminal.pinType = PinType.VIRTUAL;
+        DashBoard dash = dash(1, terminal);
+
+        GlobalStats stats = new GlobalStats();
+        EmbeddedChannel channel = new EmbeddedChannel(new MobileMessageEncoder(stats),
+                new AppOutboundQueue(stats.appOutboundQueue, 10));
+        channel.config().setWriteBufferWaterMark(new WriteBufferWaterMark(1, 2));
+        ByteBuf stuck = Unpooled.wrappedBuffer(new byte[16]);
+        channel.write(stuck);
+
+        send(channel, dash, 0, "vw\u00005\u0000line1");
+        send(channel, dash, 0, "vw\u00001\u00001");
+        send(channel, dash, 0, "vw\u00005\u0000line2");
+        send(channel, dash, 0, "vw\u00001\u00002");
+        send(channel, dash, 0, "vw\u00005\u0000line3");
+        //terminal pin of other device may be shown by the device selector
+        send(channel, dash, 1, "vw\u00005\u0000line1");
+        send(channel, dash, 1, "vw\u00005\u0000line2");
+        assertEquals(1, stats.appOutboundQueue.conflated.sum());
+
+        channel.flush();
+        assertEquals(stuck, channel.readOutbound());
+        stuck.release();
+        List<String> bodies = received(channel);
+        assertEquals(6, bodies.size());
+        assertEquals("1-0\u0000vw\u00005\u0000line1", bodies.get(0));
+        assertEquals("1-0\u0000vw\u00005\u0000line2", bodies.get(1));
+        assertEquals("1-0\u0000vw\u00001\u00002", bodies.get(2));
+        assertEquals("1-0\u0000vw\u00005\u0000line3", bodies.get(3));
+        assertEquals("1-1\u0000vw\u00005\u0000line1", bodies.get(4));
+        assertEquals("1-1\u0000vw\u00005\u0000line2", bodies.get(5));
+    }
+
+    @Test
+    public void pendingMessagesAreReleasedOnClose() {
+        GlobalStats stats = new GlobalStats();
+        EmbeddedChannel channel = new EmbeddedChannel(new MobileMessageEncoder(stats),
+                new AppOutboundQueue(stats.appOutboundQueue, 10));
+        channel.config().setWriteBufferWaterMark(new WriteBufferWaterMark(1, 2));
+        channel.write(Unpooled.wrappedBuffer(new byte[16]));
+
+        send(channel, 1, 0, "vw\u00001\u00001");
+        send(channel, 1, 0, "vw\u00002\u00001");
+        assertEquals(2, stats.appOutboundQueue.depth.sum());
+
+        channel.close();
+        assertEquals(0, stats.appOutboundQueue.depth.sum());
+        assertNull(channel.readOutbound());
+    }
+
+    @Test
+    public void pinKeyIsParsedFromStringAndBytes() {
+        String[] bodies = {"vw\u00001\u0000100", "dw\u0000255\u00001", "aw\u000012\u0000", "vw\u00001",
+                "vr\u00001", "vw\u0000256\u00001", "vw\u0000a\u00001", "xw\u00001\u00001", "vw\u0000\u00001"};
+        DashPinStorageKey[] expected = {new DashPinStorageKey(1, 2, 'v', (short) 1),
+                new DashPinStorageKey(1, 2, 'd', (short) 255), new DashPinStorageKey(1, 2, 'a', (short) 12),
+                null, null, null, null, null, null};
+        for (int i = 0; i < bodies.length; i++) {
+            assertEquals(bodies[i], expected[i], AppOutboundQueue.pinKey(1, 2, bodies[i]));
+            ByteBuf buf = Unpooled.copiedBuffer(bodies[i], CharsetUtil.UTF_8);
+            assertEquals(bodies[i], expected[i], AppOutboundQueue.pinKey(1, 2, buf));
+        }
+    }
+
+}
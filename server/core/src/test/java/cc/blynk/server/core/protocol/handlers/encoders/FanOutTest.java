@@ -0,0 +1,121 @@
+package cc.blynk.server.core.protocol.handlers.encoders;
+
+import cc.blynk.server.core.protocol.model.messages.MessageBase;
+import cc.blynk.server.core.protocol.model.messages.StringMessage;
+import cc.blynk.server.core.stats.GlobalStats;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.Test;
+
+import static cc.blynk.server.core.protocol.enums.Command.HARDWARE;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+public class FanOutTest {
+
+    private static byte[] encoded(EmbeddedChannel channel, StringMessage message) {
+        channel.writeOutbound(message);
+        ByteBuf buf = channel.readOutbound();
+        byte[] bytes = ByteBufUtil.getBytes(buf);
+        buf.release();
+        return bytes;
+    }
+
+    @Test
+    public void messageIsEncodedOncePerFrameFormat() {
+        GlobalStats stats = new GlobalStats();
+        StringMessage message = new StringMessage(1, HARDWARE, "1-0\u0000vw\u00001\u0000100");
+        byte[] mobileExpected = encoded(new EmbeddedChannel(new MobileMessageEncoder(stats)), message);
+        byte[] hardwareExpected = encoded(new EmbeddedChannel(new MessageEncoder(stats)), message);
+
+        EmbeddedChannel[] mobileChannels = new EmbeddedChannel[3];
+        EmbeddedChannel[] hardwareChannels = new EmbeddedChannel[2];
+        for (int i = 0; i < mobileChannels.length; i++) {
+            mobileChannels[i] = new EmbeddedChannel(new MobileMessageEncoder(stats));
+        }
+        for (int i = 0; i < hardwareChannels.length; i++) {
+            hardwareChannels[i] = new EmbeddedChannel(new MessageEncoder(stats));
+        }
+        //no blynk encoder, channel gets message as it is
+        EmbeddedChannel otherChannel = new EmbeddedChannel();
+
+        try (FanOut fanOut = new FanOut(message)) {
+            assertFalse(fanOut.hasTargets());
+            for (EmbeddedChannel channel : mobileChannels) {
+                fanOut.write(channel);
+            }
+            for (EmbeddedChannel channel : hardwareChannels) {
+                fanOut.write(channel);
+            }
+            fanOut.write(otherChannel);
+            assertTrue(fanOut.hasTargets());
+        }
+
+        ByteBuf first = null;
+        for (EmbeddedChannel channel : mobileChannels) {
+            ByteBuf frame = channel.readOutbound();
+            assertArrayEquals(mobileExpected, ByteBufUtil.getBytes(frame));
+            if (first == null) {
+                first = frame;
+            }
+            //all channels share same encoded frame
+            assertSame(first.unwrap(), frame.unwrap());
+            frame.release();
+        }
+        assertEquals(0, first.refCnt());
+        for (EmbeddedChannel channel : hardwareChannels) {
+            ByteBuf frame = channel.readOutbound();
+            assertArrayEquals(hardwareExpected, ByteBufUtil.getBytes(frame));
+            frame.release();
+            assertEquals(0, frame.refCnt());
+        }
+        assertSame(message, otherChannel.readOutbound());
+
+        assertEquals(2, stats.fanOut.frames.sum());
+        assertEquals(mobileExpected.length + hardwareExpected.length, stats.fanOut.encodedBytes.sum());
+        assertEquals(5, stats.fanOut.writes.sum());
+        assertEquals(3 * mobileExpected.length + 2 * hardwareExpected.length, stats.fanOut.writtenBytes.sum());
+        //2 messages encoded in usual way plus 5 frames
+        assertEquals(7, stats.specificCounters[HARDWARE].sum());
+    }
+
+    @Test
+    public void batchIsEncodedIntoSingleFrame() {
+        GlobalStats stats = new GlobalStats();
+        StringMessage first = new StringMessage(1, HARDWARE, "1-0\u0000vw\u00001\u0000100");
+        StringMessage second = new StringMessage(1, HARDWARE, "1-0\u0000vw\u00002\u0000200");
+        byte[] firstEncoded = encoded(new EmbeddedChannel(new MobileMessageEncoder(stats)), first);
+        byte[] secondEncoded = encoded(new EmbeddedChannel(new MobileMessageEncoder(stats)), second);
+
+        EmbeddedChannel mobileChannel = new EmbeddedChannel(new MobileMessageEncoder(stats));
+        EmbeddedChannel otherChannel = new EmbeddedChannel();
+        try (FanOut fanOut = new FanOut(new MessageBase[] {first, second})) {
+            fanOut.write(mobileChannel);
+            fanOut.write(otherChannel);
+        }
+
+        ByteBuf frame = mobileChannel.readOutbound();
+        byte[] expected = new byte[firstEncoded.length + secondEncoded.length];
+        System.arraycopy(firstEncoded, 0, expected, 0, firstEncoded.length);
+        System.arraycopy(secondEncoded, 0, expected, firstEncoded.length, secondEncoded.length);
+        assertArrayEquals(expected, ByteBufUtil.getBytes(frame));
+        frame.release();
+        assertNull(mobileChannel.readOutbound());
+
+        //channel without blynk encoder gets messages one by one
+        assertSame(first, otherChannel.readOutbound());
+        assertSame(second, otherChannel.readOutbound());
+        assertNull(otherChannel.readOutbound());
+    }
+
+}
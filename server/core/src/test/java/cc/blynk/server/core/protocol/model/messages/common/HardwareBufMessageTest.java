@@ -0,0 +1,147 @@
+package cc.blynk.server.core.protocol.model.messages.common;
+
+import cc.blynk.server.Limits;
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.protocol.handlers.decoders.MessageDecoder;
+import cc.blynk.server.core.protocol.handlers.encoders.MobileMessageEncoder;
+import cc.blynk.server.core.protocol.model.messages.StringMessage;
+import cc.blynk.server.core.stats.GlobalStats;
+import cc.blynk.utils.NumberUtil;
+import cc.blynk.utils.properties.ServerProperties;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.CharsetUtil;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static cc.blynk.server.core.protocol.enums.Command.HARDWARE;
+import static cc.blynk.server.core.protocol.enums.Command.PING;
+import static cc.blynk.utils.StringUtils.prependDashIdAndDeviceId;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+public class HardwareBufMessageTest {
+
+    private static HardwareBufMessage message(String body) {
+        return new HardwareBufMessage(1, HARDWARE, Unpooled.copiedBuffer(body, CharsetUtil.UTF_8));
+    }
+
+    private static ByteBuf frame(short command, String body) {
+        byte[] bytes = body.getBytes(CharsetUtil.UTF_8);
+        ByteBuf frame = Unpooled.buffer();
+        frame.writeByte(command);
+        frame.writeShort(1);
+        frame.writeShort(bytes.length);
+        frame.writeBytes(bytes);
+        return frame;
+    }
+
+    @Test
+    public void writeCommandIsParsedInPlace() {
+        HardwareBufMessage message = message("vw\u000012\u000042.5\u0000text");
+        assertTrue(message.isWriteOperation());
+        assertTrue(message.parseWriteCommand());
+        assertEquals(PinType.VIRTUAL, message.getPinType());
+        assertEquals(12, message.getPin());
+        assertEquals("42.5\u0000text", message.getValue());
+        assertEquals(NumberUtil.NO_RESULT, message.getValueAsDouble(), 0);
+
+        message = message("dw\u00001\u0000-1");
+        assertTrue(message.parseWriteCommand());
+        assertEquals(PinType.DIGITAL, message.getPinType());
+        assertEquals(1, message.getPin());
+        assertEquals(-1, message.getValueAsDouble(), 0);
+
+        assertFalse(message("ar\u00001").isWriteOperation());
+        assertFalse(message("vw\u00001").parseWriteCommand());
+        assertFalse(message("vw\u00001\u0000").parseWriteCommand());
+
+        for (String wrongPin : new String[] {"vw\u0000\u00001", "vw\u0000256\u00001", "vw\u0000a\u00001"}) {
+            HardwareBufMessage wrong = message(wrongPin);
+            assertTrue(wrong.parseWriteCommand());
+            try {
+                wrong.getPin();
+                fail();
+            } catch (NumberFormatException e) {
+                //expected
+            }
+        }
+    }
+
+    @Test
+    public void doubleIsParsedSameAsFromString() {
+        String[] values = {"0", "1", "-1", "+1", "1.", ".5", "-.5", "3.14159", "123456789.123456789",
+                "1e3", "1.5E-3", "2e+2", "1e-320", "1e", "abc", "1a", "", "-", ".", "12,5", "ä1"};
+        for (String value : values) {
+            ByteBuf buf = Unpooled.copiedBuffer(value, CharsetUtil.UTF_8);
+            assertEquals(value, NumberUtil.parseDouble(value),
+                    HardwareBufMessage.parseDouble(buf, 0, buf.writerIndex()), 0);
+        }
+    }
+
+    @Test
+    public void prefixIsPrependedWithoutCopy() {
+        HardwareBufMessage message = message("vw\u00001\u0000100");
+        ByteBuf finalBody = HardwareBufMessage.prependDashIdAndDeviceId(ByteBufAllocator.DEFAULT,
+                123, -1, message.body);
+        assertEquals(2, message.refCnt());
+        assertEquals(prependDashIdAndDeviceId(123, -1, "vw\u00001\u0000100"), finalBody.toString(CharsetUtil.UTF_8));
+
+        finalBody.release();
+        assertEquals(1, message.refCnt());
+        message.release();
+        assertEquals(0, message.refCnt());
+    }
+
+    @Test
+    public void decoderProducesBufMessageOnlyForHardwareWhenEnabled() {
+        Limits limits = new Limits(new ServerProperties(Collections.emptyMap()));
+        GlobalStats stats = new GlobalStats();
+
+        EmbeddedChannel channel = new EmbeddedChannel(new MessageDecoder(stats, limits, true));
+        channel.writeInbound(frame(HARDWARE, "vw\u00001\u0000100"), frame(PING, ""));
+        HardwareBufMessage hardware = channel.readInbound();
+        assertEquals("vw\u00001\u0000100", hardware.body.toString(CharsetUtil.UTF_8));
+        assertTrue(channel.readInbound() instanceof StringMessage);
+        hardware.release();
+
+        channel = new EmbeddedChannel(new MessageDecoder(stats, limits));
+        channel.writeInbound(frame(HARDWARE, "vw\u00001\u0000100"));
+        assertTrue(channel.readInbound() instanceof StringMessage);
+    }
+
+    @Test
+    public void encodedSameAsStringMessage() {
+        String body = prependDashIdAndDeviceId(1, 2, "vw\u00001\u0000äö");
+        EmbeddedChannel channel = new EmbeddedChannel(new MobileMessageEncoder(new GlobalStats()));
+
+        channel.writeOutbound(new StringMessage(1, HARDWARE, body));
+        ByteBuf expected = channel.readOutbound();
+
+        HardwareBufMessage message = message("vw\u00001\u0000äö");
+        HardwareBufMessage forward = new HardwareBufMessage(1, HARDWARE,
+                HardwareBufMessage.prependDashIdAndDeviceId(ByteBufAllocator.DEFAULT, 1, 2, message.body));
+        channel.writeOutbound(forward);
+        ByteBuf actual = channel.readOutbound();
+
+        assertArrayEquals(ByteBufUtil.getBytes(expected), ByteBufUtil.getBytes(actual));
+        //encoder releases the message, so only original reference is left
+        assertEquals(1, message.refCnt());
+        expected.release();
+        actual.release();
+        message.release();
+    }
+
+}
@@ -16,6 +16,7 @@ import java.time.ZoneOffset;
 
 import static cc.blynk.server.core.reporting.average.AverageAggregatorProcessor.DAY;
 import static cc.blynk.server.core.reporting.average.AverageAggregatorProcessor.HOUR;
+import static cc.blynk.server.core.reporting.average.AverageAggregatorProcessor.MINUTE;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
@@ -142,8 +143,7 @@ public class AverageAggregatorTest {
 
         averageAggregator.close();
 
-        assertTrue(Files.exists(Paths.get(reportingFolder, AverageAggregatorProcessor.HOURLY_TEMP_FILENAME)));
-        assertTrue(Files.exists(Paths.get(reportingFolder, AverageAggregatorProcessor.DAILY_TEMP_FILENAME)));
+        assertTrue(Files.exists(Paths.get(reportingFolder, AverageAggregatorProcessor.SNAPSHOT_FILENAME)));
 
         averageAggregator = new AverageAggregatorProcessor(reportingFolder);
 
@@ -151,14 +151,150 @@ public class AverageAggregatorTest {
         assertEquals(1, averageAggregator.getDaily().size());
         assertEquals(expectedDailyAverage, averageAggregator.getDaily().get(new AggregationKey(new BaseReportingKey(user.email, user.appName, dashId, 0, pinType, pin), getMillis(2015, 8, 1, 0, 0) / DAY)).calcAverage(), 0);
 
-        assertTrue(Files.notExists(Paths.get(reportingFolder, AverageAggregatorProcessor.HOURLY_TEMP_FILENAME)));
-        assertTrue(Files.notExists(Paths.get(reportingFolder, AverageAggregatorProcessor.DAILY_TEMP_FILENAME)));
+        assertTrue(Files.notExists(Paths.get(reportingFolder, AverageAggregatorProcessor.SNAPSHOT_FILENAME)));
 
         ReportingDiskDao reportingDao = new ReportingDiskDao(reportingFolder, true);
 
         reportingDao.delete(user, dashId, 0, PinType.VIRTUAL, pin);
-        assertTrue(Files.notExists(Paths.get(reportingFolder, AverageAggregatorProcessor.HOURLY_TEMP_FILENAME)));
-        assertTrue(Files.notExists(Paths.get(reportingFolder, AverageAggregatorProcessor.DAILY_TEMP_FILENAME)));
+        assertTrue(Files.notExists(Paths.get(reportingFolder, AverageAggregatorProcessor.SNAPSHOT_FILENAME)));
+    }
+
+    @Test
+    public void testSnapshotKeepsAllMinuteRecords() throws IOException {
+        Path dir = Paths.get(reportingFolder, "");
+        if (Files.notExists(dir)) {
+            Files.createDirectories(dir);
+        }
+
+        AverageAggregatorProcessor averageAggregator = new AverageAggregatorProcessor(reportingFolder);
+
+        long ts = getMillis(2015, 8, 1, 0, 0);
+        int count = 150_000;
+        for (int i = 0; i < count; i++) {
+            BaseReportingKey key = new BaseReportingKey("test" + (i / 100) + "@test.com", AppNameUtil.BLYNK,
+                    1, 0, PinType.VIRTUAL, (short) (i % 100));
+            averageAggregator.collect(key, ts, i);
+            averageAggregator.collect(key, ts, i + 2);
+        }
+        averageAggregator.snapshot();
+
+        averageAggregator = new AverageAggregatorProcessor(reportingFolder);
+        assertEquals(count, averageAggregator.getMinute().size());
+        assertEquals(count, averageAggregator.getHourly().size());
+        assertEquals(count, averageAggregator.getDaily().size());
+        AggregationKey key = new AggregationKey("test1499@test.com", AppNameUtil.BLYNK,
+                1, 0, PinType.VIRTUAL, (short) 99, ts / MINUTE);
+        assertEquals(count, averageAggregator.getMinute().get(key).calcAverage(), 0);
+    }
+
+    @Test
+    public void testCorruptedSnapshotBlockIsNotRestored() throws IOException {
+        Path dir = Paths.get(reportingFolder, "");
+        if (Files.notExists(dir)) {
+            Files.createDirectories(dir);
+        }
+
+        AverageAggregatorProcessor averageAggregator = new AverageAggregatorProcessor(reportingFolder);
+        long ts = getMillis(2015, 8, 1, 0, 0);
+        averageAggregator.collect(new BaseReportingKey("test@test.com", AppNameUtil.BLYNK,
+                1, 0, PinType.VIRTUAL, (short) 1), ts, 1);
+        averageAggregator.close();
+
+        //damaging last value of the daily table
+        Path snapshot = Paths.get(reportingFolder, AverageAggregatorProcessor.SNAPSHOT_FILENAME);
+        byte[] data = Files.readAllBytes(snapshot);
+        data[data.length - 13 - 9]++;
+        Files.write(snapshot, data);
+
+        averageAggregator = new AverageAggregatorProcessor(reportingFolder);
+        assertEquals(1, averageAggregator.getMinute().size());
+        assertEquals(1, averageAggregator.getHourly().size());
+        assertEquals(0, averageAggregator.getDaily().size());
+    }
+
+    @Test
+    public void testEmptyAggregatorRemovesOutdatedSnapshot() throws IOException {
+        Path dir = Paths.get(reportingFolder, "");
+        if (Files.notExists(dir)) {
+            Files.createDirectories(dir);
+        }
+        Path snapshot = Paths.get(reportingFolder, AverageAggregatorProcessor.SNAPSHOT_FILENAME);
+
+        AverageAggregatorProcessor averageAggregator = new AverageAggregatorProcessor(reportingFolder);
+        averageAggregator.collect(new BaseReportingKey("test@test.com", AppNameUtil.BLYNK,
+                1, 0, PinType.VIRTUAL, (short) 1), getMillis(2015, 8, 1, 0, 0), 1);
+        averageAggregator.snapshot();
+        assertTrue(Files.exists(snapshot));
+
+        averageAggregator.getMinute().clear();
+        averageAggregator.getHourly().clear();
+        averageAggregator.getDaily().clear();
+        averageAggregator.close();
+        assertTrue(Files.notExists(snapshot));
+    }
+
+    @Test
+    public void testEntriesFlushedAfterSnapshotAreNotRestored() throws IOException {
+        String folder = Files.createTempDirectory("aggregation").toString();
+
+        AverageAggregatorProcessor averageAggregator = new AverageAggregatorProcessor(folder);
+        BaseReportingKey key = new BaseReportingKey("test@test.com", AppNameUtil.BLYNK,
+                1, 0, PinType.VIRTUAL, (short) 1);
+        long flushedTs = getMillis(2015, 8, 1, 0, 0);
+        long notFlushedTs = getMillis(2015, 8, 1, 0, 5);
+        averageAggregator.collect(key, flushedTs, 1);
+        averageAggregator.collect(key, notFlushedTs, 2);
+        averageAggregator.snapshot();
+
+        //flush of the first minute, crash before the next snapshot
+        assertEquals(1, averageAggregator.getMinute().removeOutdated(notFlushedTs / MINUTE).size());
+        averageAggregator.storeFlushWatermarks();
+
+        averageAggregator = new AverageAggregatorProcessor(folder);
+        assertEquals(1, averageAggregator.getMinute().size());
+        assertEquals(2, averageAggregator.getMinute().get(
+                new AggregationKey(key, notFlushedTs / MINUTE)).calcAverage(), 0);
+        assertEquals(1, averageAggregator.getHourly().size());
+        assertEquals(1, averageAggregator.getDaily().size());
+    }
+
+    @Test
+    public void testSnapshotSkipsRemovedSeries() throws IOException {
+        String folder = Files.createTempDirectory("aggregation").toString();
+
+        AverageAggregatorProcessor averageAggregator = new AverageAggregatorProcessor(folder);
+        long ts = getMillis(2015, 8, 1, 0, 0);
+        averageAggregator.collect(new BaseReportingKey("test@test.com", AppNameUtil.BLYNK,
+                1, 0, PinType.VIRTUAL, (short) 1), ts, 1);
+        averageAggregator.collect(new BaseReportingKey("test@test.com", AppNameUtil.BLYNK,
+                2, 0, PinType.VIRTUAL, (short) 1), ts, 2);
+        averageAggregator.removeSeries(key -> key.dashId == 1);
+        averageAggregator.close();
+
+        averageAggregator = new AverageAggregatorProcessor(folder);
+        assertEquals(1, averageAggregator.getMinute().size());
+        assertEquals(2, averageAggregator.getMinute().get(new AggregationKey("test@test.com", AppNameUtil.BLYNK,
+                2, 0, PinType.VIRTUAL, (short) 1, ts / MINUTE)).calcAverage(), 0);
+    }
+
+    @Test
+    public void testEntriesOfRemovedSeriesAreNotMergedIntoReusedId() {
+        AverageAggregatorProcessor averageAggregator = new AverageAggregatorProcessor("");
+        long ts = getMillis(2015, 8, 1, 0, 0);
+        //more rounds than generations of the series slot
+        for (int round = 0; round < 100; round++) {
+            averageAggregator.collect(new BaseReportingKey("test@test.com", AppNameUtil.BLYNK,
+                    round, 0, PinType.VIRTUAL, (short) 1), ts, round);
+            int dashId = round;
+            assertEquals(1, averageAggregator.removeSeries(key -> key.dashId == dashId));
+            assertEquals(0, averageAggregator.getMinute().size());
+        }
+
+        BaseReportingKey key = new BaseReportingKey("test@test.com", AppNameUtil.BLYNK,
+                1000, 0, PinType.VIRTUAL, (short) 1);
+        averageAggregator.collect(key, ts, 5);
+        assertEquals(1, averageAggregator.getMinute().size());
+        assertEquals(5, averageAggregator.getMinute().get(new AggregationKey(key, ts / MINUTE)).calcAverage(), 0);
     }
 
 }
@@ -0,0 +1,67 @@
+package cc.blynk.server.core.reporting.average;
+
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.reporting.raw.BaseReportingKey;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+public class SeriesRegistryTest {
+
+    @Test
+    public void sameFieldsGiveSameIdAndKey() {
+        SeriesRegistry registry = new SeriesRegistry();
+        int id = registry.getOrCreateId("test@test.com", "Blynk", 1, 0, PinType.VIRTUAL, (short) 1);
+        BaseReportingKey key = registry.getKey(id);
+
+        assertEquals(id, registry.getOrCreateId(
+                new BaseReportingKey("test@test.com", "Blynk", 1, 0, PinType.VIRTUAL, (short) 1)));
+        assertSame(key, registry.getKey(id));
+        assertEquals(1, registry.size());
+    }
+
+    @Test
+    public void removedSeriesIsNotResolvedAndSlotIsReused() {
+        SeriesRegistry registry = new SeriesRegistry();
+        int removedId = registry.getOrCreateId("test@test.com", "Blynk", 1, 0, PinType.VIRTUAL, (short) 1);
+        int otherId = registry.getOrCreateId("test@test.com", "Blynk", 2, 0, PinType.VIRTUAL, (short) 1);
+
+        assertEquals(1, registry.remove(key -> key.dashId == 1, removed -> { }));
+        assertNull(registry.getKey(removedId));
+        assertEquals(SeriesRegistry.NO_ID,
+                registry.getId(new BaseReportingKey("test@test.com", "Blynk", 1, 0, PinType.VIRTUAL, (short) 1)));
+        assertEquals(2, registry.getKey(otherId).dashId);
+
+        int newId = registry.getOrCreateId("test@test.com", "Blynk", 3, 0, PinType.VIRTUAL, (short) 1);
+        //same slot, next generation
+        assertNotEquals(removedId, newId);
+        assertNull(registry.getKey(removedId));
+        assertEquals(3, registry.getKey(newId).dashId);
+        assertEquals(2, registry.size());
+    }
+
+    @Test
+    public void registryDoesNotGrowWithRemovedSeries() {
+        SeriesRegistry registry = new SeriesRegistry();
+        int maxSlot = 0;
+        for (int round = 0; round < 100; round++) {
+            for (short pin = 0; pin < 100; pin++) {
+                int id = registry.getOrCreateId("test@test.com", "Blynk", round, 0, PinType.VIRTUAL, pin);
+                maxSlot = Math.max(maxSlot, id & ((1 << 25) - 1));
+            }
+            int dashId = round;
+            assertEquals(100, registry.remove(key -> key.dashId == dashId, removed -> { }));
+        }
+        assertEquals(0, registry.size());
+        assertEquals(100, maxSlot);
+    }
+
+}
@@ -0,0 +1,149 @@
+package cc.blynk.server.core.reporting.raw;
+
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.stats.BufferStats;
+import cc.blynk.utils.AppNameUtil;
+import cc.blynk.utils.NumberUtil;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+public class RawDataBufferTest {
+
+    //buffer consists of 16 shards, so capacity 16 means single record per shard
+    private static final int SINGLE_RECORD_PER_SHARD = 16;
+
+    private Path dataFolder;
+
+    @Before
+    public void createFolder() throws IOException {
+        dataFolder = Files.createTempDirectory("raw_buffer_test");
+    }
+
+    private static BaseReportingKey key(short pin) {
+        return new BaseReportingKey("test@test.com", AppNameUtil.BLYNK, 1, 0, PinType.VIRTUAL, pin);
+    }
+
+    private static List<Long> drainTs(RawDataBuffer buffer, int chunkSize, List<Integer> chunkSizes)
+            throws Exception {
+        List<Long> result = new ArrayList<>();
+        buffer.drain(chunkSize, chunk -> {
+            chunkSizes.add(chunk.size());
+            for (int i = 0; i < chunk.size(); i++) {
+                result.add(chunk.getTs(i));
+            }
+        });
+        return result;
+    }
+
+    @Test
+    public void drainedInChunks() throws Exception {
+        BufferStats stats = new BufferStats();
+        RawDataBuffer buffer = new RawDataBuffer(1000, RawDataOverflowPolicy.DROP_OLDEST, null, stats);
+        for (int i = 0; i < 25; i++) {
+            buffer.add(key((short) 1), i, "text", i == 0 ? NumberUtil.NO_RESULT : i);
+        }
+        assertEquals(25, buffer.size());
+        assertEquals(25, stats.size.sum());
+
+        List<Integer> chunkSizes = new ArrayList<>();
+        List<String> strings = new ArrayList<>();
+        int drained = buffer.drain(10, chunk -> {
+            chunkSizes.add(chunk.size());
+            for (int i = 0; i < chunk.size(); i++) {
+                assertEquals(key((short) 1), chunk.getKey(i));
+                strings.add(chunk.getStringValue(i));
+            }
+        });
+
+        assertEquals(25, drained);
+        assertEquals(List.of(10, 10, 5), chunkSizes);
+        assertEquals("text", strings.get(0));
+        assertNull(strings.get(1));
+        assertEquals(0, buffer.size());
+        assertEquals(0, stats.size.sum());
+    }
+
+    @Test
+    public void dropOldest() throws Exception {
+        BufferStats stats = new BufferStats();
+        RawDataBuffer buffer = new RawDataBuffer(SINGLE_RECORD_PER_SHARD, RawDataOverflowPolicy.DROP_OLDEST,
+                null, stats);
+        buffer.add(key((short) 1), 1, null, 1);
+        buffer.add(key((short) 1), 2, null, 2);
+        buffer.add(key((short) 1), 3, null, 3);
+
+        assertEquals(2, stats.dropped.sum());
+        assertEquals(List.of(3L), drainTs(buffer, 10, new ArrayList<>()));
+    }
+
+    @Test
+    public void dropNewest() throws Exception {
+        BufferStats stats = new BufferStats();
+        RawDataBuffer buffer = new RawDataBuffer(SINGLE_RECORD_PER_SHARD, RawDataOverflowPolicy.DROP_NEWEST,
+                null, stats);
+        buffer.add(key((short) 1), 1, null, 1);
+        buffer.add(key((short) 1), 2, null, 2);
+        buffer.add(key((short) 1), 3, null, 3);
+
+        assertEquals(2, stats.dropped.sum());
+        assertEquals(List.of(1L), drainTs(buffer, 10, new ArrayList<>()));
+    }
+
+    @Test
+    public void spilledRecordsAreDrained() throws Exception {
+        BufferStats stats = new BufferStats();
+        RawDataBuffer buffer = new RawDataBuffer(SINGLE_RECORD_PER_SHARD, RawDataOverflowPolicy.SPILL_TO_DISK,
+                dataFolder.toString(), stats);
+        buffer.add(key((short) 1), 1, "text", NumberUtil.NO_RESULT);
+        buffer.add(key((short) 1), 2, null, 2);
+        buffer.add(key((short) 1), 3, null, 3);
+        //waits for the spill writes
+        buffer.close();
+
+        assertEquals(2, stats.spilled.sum());
+        assertEquals(0, stats.dropped.sum());
+        assertEquals(1, buffer.size());
+
+        List<Integer> chunkSizes = new ArrayList<>();
+        assertEquals(List.of(1L, 2L, 3L), drainTs(buffer, 2, chunkSizes));
+        assertEquals(List.of(2, 1), chunkSizes);
+        assertEquals(List.of(), drainTs(buffer, 2, new ArrayList<>()));
+    }
+
+    @Test
+    public void disabledBufferIgnoresRecords() throws Exception {
+        RawDataBuffer buffer = new RawDataBuffer(0, RawDataOverflowPolicy.DROP_OLDEST, null, new BufferStats());
+        buffer.add(key((short) 1), 1, null, 1);
+        assertEquals(0, buffer.size());
+        assertEquals(List.of(), drainTs(buffer, 10, new ArrayList<>()));
+    }
+
+    @Test
+    public void recordsOfRemovedSeriesAreDropped() throws Exception {
+        BufferStats stats = new BufferStats();
+        RawDataBuffer buffer = new RawDataBuffer(1000, RawDataOverflowPolicy.DROP_OLDEST, null, stats);
+        for (int i = 0; i < 10; i++) {
+            buffer.add(key((short) (i % 2)), i, null, i);
+        }
+
+        assertEquals(1, buffer.removeSeries(key -> key.pin == 0));
+        assertEquals(5, buffer.size());
+        assertEquals(5, stats.size.sum());
+        assertEquals(List.of(1L, 3L, 5L, 7L, 9L), drainTs(buffer, 100, new ArrayList<>()));
+    }
+
+}
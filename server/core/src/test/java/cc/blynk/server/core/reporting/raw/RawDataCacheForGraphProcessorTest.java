@@ -0,0 +1,107 @@
+package cc.blynk.server.core.reporting.raw;
+
+import cc.blynk.server.core.model.enums.PinType;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+public class RawDataCacheForGraphProcessorTest {
+
+    private static void assertEntries(ByteBuffer data, int from, int count) {
+        assertNotNull(data);
+        assertEquals(count * 16, data.remaining());
+        for (int i = from; i < from + count; i++) {
+            assertEquals(i, data.getDouble(), 0.0001);
+            assertEquals(i * 1000L, data.getLong());
+        }
+    }
+
+    @Test
+    public void readReturnsLastEntries() {
+        LiveGraphBuffer buffer = new LiveGraphBuffer(60);
+        assertNull(buffer.read(60, 0));
+
+        for (int i = 0; i < 10; i++) {
+            buffer.add(i, i * 1000L, 0);
+        }
+        assertEquals(10, buffer.size());
+        assertEntries(buffer.read(60, 0), 0, 10);
+        assertEntries(buffer.read(5, 0), 5, 5);
+        assertEntries(buffer.read(5, 2), 3, 5);
+        assertEntries(buffer.read(60, 8), 0, 2);
+        assertNull(buffer.read(60, 10));
+
+        //buffer wraps around, only last 60 entries are kept
+        for (int i = 10; i < 150; i++) {
+            buffer.add(i, i * 1000L, 0);
+        }
+        assertEquals(60, buffer.size());
+        assertEntries(buffer.read(60, 0), 90, 60);
+        assertEntries(buffer.read(100, 0), 90, 60);
+        assertEntries(buffer.read(20, 10), 120, 20);
+        assertEntries(buffer.read(60, 59), 90, 1);
+        assertNull(buffer.read(60, 60));
+    }
+
+    @Test
+    public void readerAlwaysGetsConsistentSnapshot() throws Exception {
+        LiveGraphBuffer buffer = new LiveGraphBuffer(60);
+        AtomicBoolean running = new AtomicBoolean(true);
+        Thread writer = new Thread(() -> {
+            long i = 0;
+            while (running.get()) {
+                buffer.add(i, i * 1000L, 0);
+                i++;
+            }
+        });
+        writer.start();
+
+        try {
+            for (int i = 0; i < 100_000; i++) {
+                ByteBuffer data = buffer.read(60, 0);
+                if (data == null) {
+                    continue;
+                }
+                //values are sequential, so any torn or overwritten entry breaks the order
+                double first = data.getDouble(0);
+                while (data.hasRemaining()) {
+                    double value = data.getDouble();
+                    assertEquals(first++, value, 0);
+                    assertEquals((long) value * 1000L, data.getLong());
+                }
+            }
+        } finally {
+            running.set(false);
+            writer.join();
+        }
+    }
+
+    @Test
+    public void idleSeriesAreRemoved() {
+        RawDataCacheForGraphProcessor processor = new RawDataCacheForGraphProcessor(1);
+        BaseReportingKey idleKey = new BaseReportingKey("test@test.com", "Blynk", 1, 0, PinType.VIRTUAL, (short) 1);
+        BaseReportingKey activeKey = new BaseReportingKey("test@test.com", "Blynk", 1, 0, PinType.VIRTUAL, (short) 2);
+        processor.collect(idleKey, 1, 1000);
+        processor.collect(activeKey, 2, 2000);
+        processor.collect(activeKey, 3, 3000);
+        assertEquals(2, processor.rawStorage.size());
+        assertEquals(2, processor.rawStorage.get(activeKey).size());
+
+        processor.rawStorage.get(activeKey).add(4, 4000, System.currentTimeMillis() + 120_000);
+        processor.removeIdle(System.currentTimeMillis() + 90_000);
+        assertEquals(1, processor.rawStorage.size());
+        assertTrue(processor.rawStorage.containsKey(activeKey));
+    }
+
+}
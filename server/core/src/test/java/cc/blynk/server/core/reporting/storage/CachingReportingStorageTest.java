@@ -0,0 +1,230 @@
+package cc.blynk.server.core.reporting.storage;
+
+import cc.blynk.server.core.stats.CacheStats;
+import cc.blynk.server.internal.IOBudget;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+public class CachingReportingStorageTest {
+
+    private Path reportingFolder;
+    private FileReportingStorage fileStorage;
+    private CacheStats stats;
+
+    @Before
+    public void init() throws IOException {
+        reportingFolder = Files.createTempDirectory("caching_test");
+        fileStorage = new FileReportingStorage(reportingFolder.toString());
+        stats = new CacheStats();
+    }
+
+    @After
+    public void cleanup() throws IOException {
+        try (Stream<Path> walk = Files.walk(reportingFolder)) {
+            walk.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    private static void fill(ReportingStorage storage, String fileName, int from, int count) throws IOException {
+        for (int i = from; i < from + count; i++) {
+            storage.write("user", fileName, i, i * 60_000L);
+        }
+    }
+
+    @Test
+    public void readSameAsStorageAndServedFromCache() throws Exception {
+        CachingReportingStorage storage = new CachingReportingStorage(fileStorage, 1024 * 1024, 100, stats);
+        fill(storage, "history_1-0_v1_minute.bin", 0, 50);
+
+        int[][] requests = {{10, 0}, {10, 0}, {1, 0}, {20, 5}, {50, 0}, {60, 0}, {10, 45}, {10, 60}, {200, 0}};
+        for (int[] request : requests) {
+            ByteBuffer expected = fileStorage.read("user", "history_1-0_v1_minute.bin", request[0], request[1]);
+            ByteBuffer actual = storage.read("user", "history_1-0_v1_minute.bin", request[0], request[1]);
+            assertEquals(expected, actual);
+        }
+        assertNull(storage.read("user", "history_1-0_v2_minute.bin", 10, 0));
+
+        //requests bigger than cached tail are misses, until whole series is cached
+        assertEquals(5, stats.misses.sum());
+        assertEquals(5, stats.hits.sum());
+        assertEquals(2, stats.entries.sum());
+    }
+
+    @Test
+    public void cachedTailIsExtendedOnWrite() throws Exception {
+        CachingReportingStorage storage = new CachingReportingStorage(fileStorage, 1024 * 1024, 100, stats);
+        fill(storage, "history_1-0_v1_minute.bin", 0, 90);
+        storage.read("user", "history_1-0_v1_minute.bin", 30, 0);
+
+        fill(storage, "history_1-0_v1_minute.bin", 90, 20);
+        ByteBuffer batch = ByteBuffer.allocate(16 * 3);
+        for (int i = 110; i < 113; i++) {
+            batch.putDouble(i).putLong(i * 60_000L);
+        }
+        batch.flip();
+        storage.write("user", "history_1-0_v1_minute.bin", batch);
+
+        for (int count : new int[] {30, 53, 100}) {
+            assertEquals(fileStorage.read("user", "history_1-0_v1_minute.bin", count, 0),
+                    storage.read("user", "history_1-0_v1_minute.bin", count, 0));
+        }
+        //only last request is bigger than cached tail
+        assertEquals(2, stats.misses.sum());
+        assertEquals(2, stats.hits.sum());
+        //tail is not longer than limit per series
+        assertEquals(100 * 16 + 128, stats.bytes.sum());
+    }
+
+    @Test
+    public void leastRecentlyUsedSeriesEvicted() throws Exception {
+        //16 segments, every segment fits 1 series of 10 entries
+        long maxBytes = 16 * (10 * 16 + 128);
+        CachingReportingStorage storage = new CachingReportingStorage(fileStorage, maxBytes, 10, stats);
+        for (int pin = 0; pin < 100; pin++) {
+            fill(storage, "history_1-0_v" + pin + "_minute.bin", 0, 10);
+            storage.read("user", "history_1-0_v" + pin + "_minute.bin", 10, 0);
+        }
+
+        assertEquals(100, stats.misses.sum());
+        assertEquals(stats.entries.sum() + stats.evictions.sum(), 100);
+        assertEquals(stats.entries.sum() * (10 * 16 + 128), stats.bytes.sum());
+        assertEquals(true, stats.bytes.sum() <= maxBytes);
+
+        //last series is always in cache
+        storage.read("user", "history_1-0_v99_minute.bin", 10, 0);
+        assertEquals(1, stats.hits.sum());
+    }
+
+    @Test
+    public void deleteAndTruncateInvalidateCache() throws Exception {
+        CachingReportingStorage storage = new CachingReportingStorage(fileStorage, 1024 * 1024, 100, stats);
+        fill(storage, "history_1-0_v1_minute.bin", 0, 50);
+        fill(storage, "history_1-0_v2_hourly.bin", 0, 50);
+        storage.read("user", "history_1-0_v1_minute.bin", 50, 0);
+        storage.read("user", "history_1-0_v2_hourly.bin", 50, 0);
+
+        storage.truncate("_minute.bin", 10);
+        assertEquals(1, stats.entries.sum());
+        assertEquals(fileStorage.read("user", "history_1-0_v1_minute.bin", 50, 0),
+                storage.read("user", "history_1-0_v1_minute.bin", 50, 0));
+
+        assertEquals(1, storage.delete("user", fileName -> fileName.contains("_v2_")));
+        assertNull(storage.read("user", "history_1-0_v2_hourly.bin", 50, 0));
+        assertEquals(stats.entries.sum() * 128 + 10 * 16, stats.bytes.sum());
+    }
+
+    @Test
+    public void readDuringWriteIsNotCached() throws Exception {
+        CountDownLatch written = new CountDownLatch(1);
+        CountDownLatch readFinished = new CountDownLatch(1);
+        //entries are already on disk, but write is not finished yet
+        ReportingStorage slowStorage = new ReportingStorage() {
+            @Override
+            public ByteBuffer read(String userDir, String fileName, int count, int skip) throws IOException {
+                return fileStorage.read(userDir, fileName, count, skip);
+            }
+
+            @Override
+            public void write(String userDir, String fileName, ByteBuffer entries) throws IOException {
+                fileStorage.write(userDir, fileName, entries);
+                written.countDown();
+                try {
+                    readFinished.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+
+            @Override
+            public int delete(String userDir, Function<String, Boolean> fileNameFilter) {
+                return fileStorage.delete(userDir, fileNameFilter);
+            }
+
+            @Override
+            public int truncate(String fileNameSuffix, int maxRecordsCount, IOBudget budget) throws IOException {
+                return fileStorage.truncate(fileNameSuffix, maxRecordsCount, budget);
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        CachingReportingStorage storage = new CachingReportingStorage(slowStorage, 1024 * 1024, 100, stats);
+        fill(fileStorage, "history_1-0_v1_minute.bin", 0, 10);
+
+        Thread writer = new Thread(() -> {
+            try {
+                storage.write("user", "history_1-0_v1_minute.bin", 10, 10 * 60_000L);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        writer.start();
+        assertTrue(written.await(5, TimeUnit.SECONDS));
+        assertEquals(fileStorage.read("user", "history_1-0_v1_minute.bin", 50, 0),
+                storage.read("user", "history_1-0_v1_minute.bin", 50, 0));
+        readFinished.countDown();
+        writer.join();
+
+        assertEquals(0, stats.entries.sum());
+        //written entry is not duplicated
+        for (int i = 0; i < 2; i++) {
+            assertEquals(fileStorage.read("user", "history_1-0_v1_minute.bin", 50, 0),
+                    storage.read("user", "history_1-0_v1_minute.bin", 50, 0));
+        }
+        assertEquals(1, stats.hits.sum());
+    }
+
+    @Test
+    public void concurrentReadsAndWritesKeepCacheSameAsStorage() throws Exception {
+        CachingReportingStorage storage = new CachingReportingStorage(fileStorage, 1024 * 1024, 1000, stats);
+        int writes = 500;
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        Thread writer = new Thread(() -> {
+            try {
+                fill(storage, "history_1-0_v1_minute.bin", 0, writes);
+            } catch (Throwable e) {
+                error.set(e);
+            }
+        });
+        Thread reader = new Thread(() -> {
+            try {
+                while (writer.isAlive()) {
+                    storage.read("user", "history_1-0_v1_minute.bin", 1000, 0);
+                }
+            } catch (Throwable e) {
+                error.set(e);
+            }
+        });
+        writer.start();
+        reader.start();
+        writer.join();
+        reader.join();
+
+        assertNull(error.get());
+        assertEquals(fileStorage.read("user", "history_1-0_v1_minute.bin", 1000, 0),
+                storage.read("user", "history_1-0_v1_minute.bin", 1000, 0));
+    }
+
+}
@@ -0,0 +1,207 @@
+package cc.blynk.server.core.reporting.storage;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+public class CompressedReportingStorageTest {
+
+    private final Path reportingFolder = Paths.get(System.getProperty("java.io.tmpdir"), "compressed_test");
+
+    @Before
+    public void cleanup() throws IOException {
+        if (Files.exists(reportingFolder)) {
+            try (Stream<Path> walk = Files.walk(reportingFolder)) {
+                walk.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    private static void fill(ReportingStorage storage, String userDir, String fileName,
+                             int from, int count) throws IOException {
+        for (int i = from; i < from + count; i++) {
+            storage.write(userDir, fileName, i, i * 60_000L);
+        }
+    }
+
+    private static void assertData(ByteBuffer data, int from, int count) {
+        assertNotNull(data);
+        assertEquals(count * 16, data.remaining());
+        for (int i = from; i < from + count; i++) {
+            assertEquals(i, data.getDouble(), 0.0001);
+            assertEquals(i * 60_000L, data.getLong());
+        }
+    }
+
+    @Test
+    public void codecRestoresIrregularSeries() {
+        Random random = new Random(42);
+        int count = 1000;
+        ByteBuffer entries = ByteBuffer.allocate(count * 16);
+        long ts = System.currentTimeMillis();
+        for (int i = 0; i < count; i++) {
+            double value;
+            switch (i % 5) {
+                case 0 :
+                    value = random.nextDouble() * 1_000_000;
+                    break;
+                case 1 :
+                    value = Double.NaN;
+                    break;
+                case 2 :
+                    value = -i;
+                    break;
+                default :
+                    value = 22.5;
+                    break;
+            }
+            //regular, jittered and huge gaps
+            ts += i % 7 == 0 ? random.nextInt(Integer.MAX_VALUE) * 10L : 60_000 + random.nextInt(3000) - 1500;
+            entries.putDouble(value).putLong(ts);
+        }
+        entries.flip();
+
+        ByteBuffer encoded = ByteBuffer.allocate(GorillaCodec.maxEncodedSize(count));
+        GorillaCodec.encode(entries.duplicate(), count, encoded);
+        encoded.flip();
+
+        ByteBuffer decoded = ByteBuffer.allocate(count * 16);
+        GorillaCodec.decode(encoded, count, decoded, 0, count);
+        decoded.flip();
+        assertEquals(entries, decoded);
+    }
+
+    @Test
+    public void readSameAsFileStorage() throws Exception {
+        int count = CompressedReportingStorage.ENTRIES_PER_BLOCK * 3 + 5;
+        try (CompressedReportingStorage storage = new CompressedReportingStorage(reportingFolder.toString());
+             FileReportingStorage fileStorage = new FileReportingStorage(reportingFolder.toString())) {
+            fill(storage, "user", "history_1-0_v1_minute.bin", 0, count);
+            fill(fileStorage, "user", "history_1-0_v1_minute.bin", 0, count);
+
+            int[][] requests = {{1, 0}, {10, 0}, {100, 0}, {1000, 0}, {10, 5}, {100, 150}, {10, 1000}, {120, 119}};
+            for (int[] request : requests) {
+                ByteBuffer expected = fileStorage.read("user", "history_1-0_v1_minute.bin",
+                        request[0], request[1]);
+                ByteBuffer actual = storage.read("user", "history_1-0_v1_minute.bin", request[0], request[1]);
+                assertEquals(expected, actual);
+            }
+        }
+    }
+
+    @Test
+    public void batchWriteIsSplitToBlocks() throws Exception {
+        int count = CompressedReportingStorage.ENTRIES_PER_BLOCK * 2 + 7;
+        ByteBuffer entries = ByteBuffer.allocate(count * 16);
+        for (int i = 0; i < count; i++) {
+            entries.putDouble(i).putLong(i * 60_000L);
+        }
+        entries.flip();
+
+        try (CompressedReportingStorage storage = new CompressedReportingStorage(reportingFolder.toString())) {
+            storage.write("user", "history_1-0_v1_minute.bin", entries);
+            fill(storage, "user", "history_1-0_v1_minute.bin", count, 3);
+            assertData(storage.read("user", "history_1-0_v1_minute.bin", count + 3, 0), 0, count + 3);
+            assertNull(storage.read("user", "history_1-0_v1_hourly.bin", 10, 0));
+        }
+
+        //regular series takes few bits per entry
+        long size = Files.size(reportingFolder.resolve(CompressedReportingStorage.COMPRESSED_FOLDER)
+                .resolve("user").resolve("history_1-0_v1_minute.bin"));
+        assertTrue(size < (count + 3) * 4);
+    }
+
+    @Test
+    public void deleteAndTruncate() throws Exception {
+        int perBlock = CompressedReportingStorage.ENTRIES_PER_BLOCK;
+        try (CompressedReportingStorage storage = new CompressedReportingStorage(reportingFolder.toString())) {
+            fill(storage, "user", "history_1-0_v1_minute.bin", 0, perBlock * 3);
+            fill(storage, "user", "history_1-0_v2_minute.bin", 0, 10);
+
+            assertEquals(1, storage.truncate("_minute.bin", perBlock));
+            assertData(storage.read("user", "history_1-0_v1_minute.bin", perBlock * 3, 0), perBlock * 2, perBlock);
+            assertData(storage.read("user", "history_1-0_v2_minute.bin", 10, 0), 0, 10);
+
+            assertEquals(1, storage.delete("user", fileName -> fileName.contains("_v1_")));
+            assertNull(storage.read("user", "history_1-0_v1_minute.bin", 10, 0));
+        }
+    }
+
+    @Test
+    public void tornBlockAppendKeepsTail() throws Exception {
+        int perBlock = CompressedReportingStorage.ENTRIES_PER_BLOCK;
+        Path file = reportingFolder.resolve(CompressedReportingStorage.COMPRESSED_FOLDER)
+                .resolve("user").resolve("history_1-0_v1_minute.bin");
+        try (CompressedReportingStorage storage = new CompressedReportingStorage(reportingFolder.toString())) {
+            fill(storage, "user", "history_1-0_v1_minute.bin", 0, perBlock * 2 - 10);
+
+            //crash during the append of the block, tail is not replaced yet
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                channel.write(ByteBuffer.wrap(new byte[] {0, 0, 0, 100, 1, 2, 3}));
+            }
+            assertData(storage.read("user", "history_1-0_v1_minute.bin", perBlock * 3, 0), 0, perBlock * 2 - 10);
+
+            fill(storage, "user", "history_1-0_v1_minute.bin", perBlock * 2 - 10, 15);
+            assertData(storage.read("user", "history_1-0_v1_minute.bin", perBlock * 3, 0), 0, perBlock * 2 + 5);
+        }
+    }
+
+    @Test
+    public void tornTailEntryIsIgnored() throws Exception {
+        int perBlock = CompressedReportingStorage.ENTRIES_PER_BLOCK;
+        Path tail = reportingFolder.resolve(CompressedReportingStorage.COMPRESSED_FOLDER)
+                .resolve("user").resolve("history_1-0_v1_minute.bin.tail");
+        try (CompressedReportingStorage storage = new CompressedReportingStorage(reportingFolder.toString())) {
+            fill(storage, "user", "history_1-0_v1_minute.bin", 0, perBlock + 10);
+
+            try (FileChannel channel = FileChannel.open(tail, StandardOpenOption.WRITE)) {
+                channel.truncate(channel.size() - 3);
+            }
+            assertData(storage.read("user", "history_1-0_v1_minute.bin", perBlock * 2, 0), 0, perBlock + 9);
+
+            fill(storage, "user", "history_1-0_v1_minute.bin", perBlock + 9, 5);
+            assertData(storage.read("user", "history_1-0_v1_minute.bin", perBlock * 2, 0), 0, perBlock + 14);
+        }
+    }
+
+    @Test
+    public void damagedPayloadIsNotDecoded() throws Exception {
+        int perBlock = CompressedReportingStorage.ENTRIES_PER_BLOCK;
+        Path file = reportingFolder.resolve(CompressedReportingStorage.COMPRESSED_FOLDER)
+                .resolve("user").resolve("history_1-0_v1_minute.bin");
+        try (CompressedReportingStorage storage = new CompressedReportingStorage(reportingFolder.toString())) {
+            fill(storage, "user", "history_1-0_v1_minute.bin", 0, perBlock * 2 + 10);
+
+            //footer of the last block is written, but its payload is not
+            byte[] data = Files.readAllBytes(file);
+            data[data.length - 14]++;
+            Files.write(file, data);
+
+            //tail follows the damaged block, so it is not valid as well
+            assertData(storage.read("user", "history_1-0_v1_minute.bin", perBlock * 3, 0), 0, perBlock);
+            fill(storage, "user", "history_1-0_v1_minute.bin", perBlock, 1);
+            assertData(storage.read("user", "history_1-0_v1_minute.bin", perBlock * 3, 0), 0, perBlock + 1);
+        }
+    }
+
+}
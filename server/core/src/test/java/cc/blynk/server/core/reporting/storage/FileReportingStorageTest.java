@@ -0,0 +1,104 @@
+package cc.blynk.server.core.reporting.storage;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+public class FileReportingStorageTest {
+
+    private static final String FILE_NAME = "history_1-0_v1_minute.bin";
+
+    private Path reportingFolder;
+
+    @Before
+    public void init() throws IOException {
+        reportingFolder = Files.createTempDirectory("reporting_test");
+    }
+
+    @After
+    public void cleanup() throws IOException {
+        try (Stream<Path> walk = Files.walk(reportingFolder)) {
+            walk.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    public void pointsAppendedDuringTruncationAreNotLost() throws Exception {
+        int maxRecords = 2;
+        FileReportingStorage storage = new FileReportingStorage(reportingFolder.toString());
+        storage.write("user", FILE_NAME, 0, 0);
+
+        AtomicBoolean done = new AtomicBoolean();
+        Thread truncator = new Thread(() -> {
+            try {
+                while (!done.get()) {
+                    storage.truncate("_minute.bin", maxRecords);
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        truncator.start();
+        try {
+            for (int i = 1; i < 20_000; i++) {
+                storage.write("user", FILE_NAME, i, i);
+                //truncation keeps the tail, so the last written points are always there and in order
+                ByteBuffer data = storage.read("user", FILE_NAME, maxRecords, 0);
+                assertNotNull(data);
+                assertEquals(maxRecords * 16, data.remaining());
+                for (int j = i - maxRecords + 1; j <= i; j++) {
+                    assertEquals(j, data.getDouble(), 0);
+                    assertEquals(j, data.getLong());
+                }
+            }
+        } finally {
+            done.set(true);
+            truncator.join();
+        }
+    }
+
+    @Test
+    public void writeIsNotLostWhenEmptyFolderIsRemoved() throws Exception {
+        FileReportingStorage storage = new FileReportingStorage(reportingFolder.toString());
+        AtomicBoolean done = new AtomicBoolean();
+        Thread truncator = new Thread(() -> {
+            try {
+                while (!done.get()) {
+                    storage.truncate("_minute.bin", 10);
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        truncator.start();
+        try {
+            for (int i = 0; i < 2000; i++) {
+                String userDir = "user" + i;
+                storage.write(userDir, "history_1-0_v1_hourly.bin", i, i);
+                ByteBuffer data = storage.read(userDir, "history_1-0_v1_hourly.bin", 1, 0);
+                assertNotNull(userDir, data);
+                assertEquals(i, data.getDouble(), 0);
+            }
+        } finally {
+            done.set(true);
+            truncator.join();
+        }
+    }
+
+}
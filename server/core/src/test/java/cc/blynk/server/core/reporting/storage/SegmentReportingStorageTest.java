@@ -0,0 +1,147 @@
+package cc.blynk.server.core.reporting.storage;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+public class SegmentReportingStorageTest {
+
+    private final Path reportingFolder = Paths.get(System.getProperty("java.io.tmpdir"), "segment_test");
+
+    @Before
+    public void cleanup() throws IOException {
+        if (Files.exists(reportingFolder)) {
+            try (Stream<Path> walk = Files.walk(reportingFolder)) {
+                walk.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    private static void fill(ReportingStorage storage, String userDir, String fileName,
+                             int from, int count) throws IOException {
+        for (int i = from; i < from + count; i++) {
+            storage.write(userDir, fileName, i, i);
+        }
+    }
+
+    private static void assertData(ByteBuffer data, int from, int count) {
+        assertNotNull(data);
+        assertEquals(count * 16, data.remaining());
+        for (int i = from; i < from + count; i++) {
+            assertEquals(i, data.getDouble(), 0.0001);
+            assertEquals(i, data.getLong());
+        }
+    }
+
+    @Test
+    public void readSameAsFileStorage() throws Exception {
+        int count = SegmentReportingStorage.ENTRIES_PER_BLOCK * 3 + 5;
+        try (SegmentReportingStorage storage = new SegmentReportingStorage(reportingFolder.toString(), 2);
+             FileReportingStorage fileStorage = new FileReportingStorage(reportingFolder.toString())) {
+            fill(storage, "user", "history_1-0_v1_minute.bin", 0, count);
+            fill(fileStorage, "user", "history_1-0_v1_minute.bin", 0, count);
+
+            int[][] requests = {{1, 0}, {10, 0}, {100, 0}, {1000, 0}, {10, 5}, {100, 150}, {10, 1000}, {64, 63}};
+            for (int[] request : requests) {
+                ByteBuffer expected = fileStorage.read("user", "history_1-0_v1_minute.bin",
+                        request[0], request[1]);
+                ByteBuffer actual = storage.read("user", "history_1-0_v1_minute.bin", request[0], request[1]);
+                assertEquals(expected, actual);
+            }
+        }
+    }
+
+    @Test
+    public void dataIsRestoredAfterReopen() throws Exception {
+        int count = SegmentReportingStorage.ENTRIES_PER_BLOCK * 2 + 1;
+        try (SegmentReportingStorage storage = new SegmentReportingStorage(reportingFolder.toString(), 2)) {
+            fill(storage, "user", "history_1-0_v1_minute.bin", 0, count);
+            fill(storage, "user2", "history_1-0_v1_hourly.bin", 0, 10);
+        }
+
+        try (SegmentReportingStorage storage = new SegmentReportingStorage(reportingFolder.toString(), 2)) {
+            assertData(storage.read("user", "history_1-0_v1_minute.bin", count, 0), 0, count);
+            assertData(storage.read("user2", "history_1-0_v1_hourly.bin", 10, 0), 0, 10);
+
+            //appends continue where they stopped
+            fill(storage, "user", "history_1-0_v1_minute.bin", count, 10);
+            assertData(storage.read("user", "history_1-0_v1_minute.bin", count + 10, 0), 0, count + 10);
+        }
+    }
+
+    @Test
+    public void interleavedBlocksAreRestoredInOrder() throws Exception {
+        int blocks = 50;
+        int perBlock = SegmentReportingStorage.ENTRIES_PER_BLOCK;
+        try (SegmentReportingStorage storage = new SegmentReportingStorage(reportingFolder.toString(), 2)) {
+            for (int i = 0; i < blocks; i++) {
+                fill(storage, "user", "history_1-0_v1_minute.bin", i * perBlock, perBlock);
+                fill(storage, "user", "history_1-0_v2_minute.bin", i * perBlock, perBlock);
+            }
+        }
+
+        try (SegmentReportingStorage storage = new SegmentReportingStorage(reportingFolder.toString(), 2)) {
+            int count = blocks * perBlock;
+            assertData(storage.read("user", "history_1-0_v1_minute.bin", count, 0), 0, count);
+            assertData(storage.read("user", "history_1-0_v2_minute.bin", count, 0), 0, count);
+        }
+    }
+
+    @Test
+    public void deletedSeriesAreNotRestoredAndBlocksReused() throws Exception {
+        try (SegmentReportingStorage storage = new SegmentReportingStorage(reportingFolder.toString(), 2)) {
+            fill(storage, "user", "history_1-0_v1_minute.bin", 0, 10);
+            fill(storage, "user", "history_1-0_v2_minute.bin", 0, 10);
+            assertEquals(1, storage.delete("user", fileName -> fileName.contains("_v1_")));
+            assertNull(storage.read("user", "history_1-0_v1_minute.bin", 10, 0));
+
+            fill(storage, "user", "history_1-0_v3_minute.bin", 0, 10);
+        }
+
+        //2 blocks in single segment are enough as first block was reused
+        try (Stream<Path> segments = Files.list(reportingFolder.resolve(SegmentReportingStorage.SEGMENTS_FOLDER))) {
+            assertEquals(1, segments.filter(path -> path.toString().endsWith(".dat")).count());
+        }
+
+        try (SegmentReportingStorage storage = new SegmentReportingStorage(reportingFolder.toString(), 2)) {
+            assertNull(storage.read("user", "history_1-0_v1_minute.bin", 10, 0));
+            assertData(storage.read("user", "history_1-0_v2_minute.bin", 10, 0), 0, 10);
+            assertData(storage.read("user", "history_1-0_v3_minute.bin", 10, 0), 0, 10);
+        }
+    }
+
+    @Test
+    public void truncateDropsOldBlocks() throws Exception {
+        int perBlock = SegmentReportingStorage.ENTRIES_PER_BLOCK;
+        try (SegmentReportingStorage storage = new SegmentReportingStorage(reportingFolder.toString(), 4)) {
+            fill(storage, "user", "history_1-0_v1_minute.bin", 0, perBlock * 3 + 1);
+            fill(storage, "user", "history_1-0_v1_hourly.bin", 0, perBlock * 3 + 1);
+
+            assertEquals(1, storage.truncate("_minute.bin", perBlock));
+
+            assertData(storage.read("user", "history_1-0_v1_minute.bin", 1000, 0), perBlock * 2, perBlock + 1);
+            assertData(storage.read("user", "history_1-0_v1_hourly.bin", 1000, 0), 0, perBlock * 3 + 1);
+        }
+
+        try (SegmentReportingStorage storage = new SegmentReportingStorage(reportingFolder.toString(), 4)) {
+            assertData(storage.read("user", "history_1-0_v1_minute.bin", 1000, 0), perBlock * 2, perBlock + 1);
+        }
+    }
+
+}
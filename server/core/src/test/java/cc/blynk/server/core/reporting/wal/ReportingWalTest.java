@@ -0,0 +1,190 @@
+package cc.blynk.server.core.reporting.wal;
+
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.reporting.raw.BaseReportingKey;
+import cc.blynk.utils.AppNameUtil;
+import cc.blynk.utils.NumberUtil;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+public class ReportingWalTest {
+
+    private final Path walFolder = Paths.get(System.getProperty("java.io.tmpdir"), "wal_test");
+
+    @Before
+    public void cleanup() throws IOException {
+        Files.createDirectories(walFolder);
+        Files.deleteIfExists(walFolder.resolve(ReportingWal.WAL_FILENAME));
+    }
+
+    private static BaseReportingKey key(short pin) {
+        return new BaseReportingKey("test@test.com", AppNameUtil.BLYNK, 1, 0, PinType.VIRTUAL, pin);
+    }
+
+    private static List<Object[]> replay(ReportingWal wal) throws IOException {
+        return replay(wal, 0);
+    }
+
+    private static List<Object[]> replay(ReportingWal wal, long checkpoint) throws IOException {
+        List<Object[]> records = new ArrayList<>();
+        wal.replay((key, ts, stringValue, doubleValue, raw, average) ->
+                records.add(new Object[] {key, ts, stringValue, doubleValue, raw, average}), checkpoint);
+        return records;
+    }
+
+    @Test
+    public void committedRecordsAreReplayed() throws IOException {
+        try (ReportingWal wal = new ReportingWal(walFolder.toString(), 100)) {
+            wal.append(key((short) 1), 1000, "1.5", 1.5, true, true);
+            wal.commit();
+            wal.append(key((short) 2), 2000, "text", NumberUtil.NO_RESULT, true, false);
+            wal.commit();
+        }
+
+        try (ReportingWal wal = new ReportingWal(walFolder.toString(), 100)) {
+            List<Object[]> records = replay(wal);
+            assertEquals(2, records.size());
+
+            Object[] first = records.get(0);
+            assertEquals(key((short) 1), first[0]);
+            assertEquals(1000L, first[1]);
+            assertNull(first[2]);
+            assertEquals(1.5, (double) first[3], 0);
+            assertTrue((boolean) first[4]);
+            assertTrue((boolean) first[5]);
+
+            Object[] second = records.get(1);
+            assertEquals(key((short) 2), second[0]);
+            assertEquals("text", second[2]);
+            assertFalse((boolean) second[5]);
+        }
+    }
+
+    @Test
+    public void truncateRemovesRecordsBeforeCheckpoint() throws IOException {
+        long checkpoint;
+        try (ReportingWal wal = new ReportingWal(walFolder.toString(), 100)) {
+            wal.append(key((short) 1), 1000, "1", 1, false, true);
+            long[] stored = new long[1];
+            checkpoint = wal.checkpoint(position -> {
+                stored[0] = position;
+                return true;
+            });
+            assertEquals(checkpoint, stored[0]);
+
+            wal.append(key((short) 2), 2000, "2", 2, false, true);
+            wal.commit();
+            wal.truncate(checkpoint);
+            wal.append(key((short) 3), 3000, "3", 3, false, true);
+        }
+
+        try (ReportingWal wal = new ReportingWal(walFolder.toString(), 100)) {
+            List<Object[]> records = replay(wal, checkpoint);
+            assertEquals(2, records.size());
+            assertEquals(key((short) 2), records.get(0)[0]);
+            assertEquals(key((short) 3), records.get(1)[0]);
+        }
+    }
+
+    @Test
+    public void recordsBeforeCheckpointAreReplayedOnlyForRawData() throws IOException {
+        long checkpoint;
+        try (ReportingWal wal = new ReportingWal(walFolder.toString(), 100)) {
+            wal.append(key((short) 1), 1000, "1", 1, true, true);
+            wal.append(key((short) 2), 2000, "2", 2, false, true);
+            checkpoint = wal.checkpoint(position -> true);
+            wal.append(key((short) 3), 3000, "3", 3, true, true);
+        }
+
+        try (ReportingWal wal = new ReportingWal(walFolder.toString(), 100)) {
+            List<Object[]> records = replay(wal, checkpoint);
+            assertEquals(2, records.size());
+            assertEquals(key((short) 1), records.get(0)[0]);
+            assertTrue((boolean) records.get(0)[4]);
+            assertFalse((boolean) records.get(0)[5]);
+            assertEquals(key((short) 3), records.get(1)[0]);
+            assertTrue((boolean) records.get(1)[5]);
+        }
+    }
+
+    @Test
+    public void failedCheckpointIsNotReturned() throws IOException {
+        try (ReportingWal wal = new ReportingWal(walFolder.toString(), 100)) {
+            wal.append(key((short) 1), 1000, "1", 1, false, true);
+            assertEquals(ReportingWal.NO_CHECKPOINT, wal.checkpoint(position -> false));
+        }
+    }
+
+    @Test
+    public void brokenTailIsIgnored() throws IOException {
+        try (ReportingWal wal = new ReportingWal(walFolder.toString(), 100)) {
+            wal.append(key((short) 1), 1000, "1", 1, false, true);
+            wal.commit();
+            wal.append(key((short) 2), 2000, "2", 2, false, true);
+        }
+
+        Path walPath = walFolder.resolve(ReportingWal.WAL_FILENAME);
+        try (FileChannel channel = FileChannel.open(walPath, WRITE)) {
+            channel.truncate(channel.size() - 3);
+        }
+
+        try (ReportingWal wal = new ReportingWal(walFolder.toString(), 100)) {
+            List<Object[]> records = replay(wal);
+            assertEquals(1, records.size());
+            assertEquals(key((short) 1), records.get(0)[0]);
+            wal.append(key((short) 3), 3000, "3", 3, false, true);
+        }
+
+        //new records are not hidden behind the broken one
+        try (ReportingWal wal = new ReportingWal(walFolder.toString(), 100)) {
+            List<Object[]> records = replay(wal);
+            assertEquals(2, records.size());
+            assertEquals(key((short) 3), records.get(1)[0]);
+        }
+    }
+
+    @Test
+    public void partiallyWrittenBatchIsOverwrittenByNextCommit() throws IOException {
+        Path walPath = walFolder.resolve(ReportingWal.WAL_FILENAME);
+        try (ReportingWal wal = new ReportingWal(walFolder.toString(), 100)) {
+            wal.append(key((short) 1), 1000, "1", 1, false, true);
+            wal.commit();
+
+            //failed commit left a part of the batch
+            try (FileChannel channel = FileChannel.open(walPath, WRITE, APPEND)) {
+                channel.write(ByteBuffer.wrap(new byte[] {0, 0, 1, 0, 1, 2, 3}));
+            }
+
+            wal.append(key((short) 2), 2000, "2", 2, false, true);
+            wal.commit();
+        }
+
+        try (ReportingWal wal = new ReportingWal(walFolder.toString(), 100)) {
+            List<Object[]> records = replay(wal);
+            assertEquals(2, records.size());
+            assertEquals(key((short) 2), records.get(1)[0]);
+        }
+    }
+
+}
@@ -0,0 +1,47 @@
+package cc.blynk.server.internal;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+public class IOBudgetTest {
+
+    @Test
+    public void unlimitedBudgetNeverPauses() {
+        IOBudget budget = IOBudget.UNLIMITED;
+        assertTrue(budget.isUnlimited());
+        for (int i = 0; i < 100_000; i++) {
+            budget.spend(1, 1024 * 1024);
+        }
+        assertEquals(0, budget.getPausedMillis());
+    }
+
+    @Test
+    public void filesBudgetPausesCaller() {
+        IOBudget budget = new IOBudget(100, 0);
+        long start = System.nanoTime();
+        //first second of work is allowed without pause
+        for (int i = 0; i < 120; i++) {
+            budget.spend(1, 0);
+        }
+        long tookMillis = (System.nanoTime() - start) / 1_000_000;
+        assertTrue(tookMillis >= 150);
+        assertTrue(budget.getPausedMillis() >= 150);
+    }
+
+    @Test
+    public void bytesBudgetPausesCaller() {
+        IOBudget budget = new IOBudget(0, 1000);
+        budget.spend(1, 1000);
+        assertEquals(0, budget.getPausedMillis());
+        budget.spend(1, 200);
+        assertTrue(budget.getPausedMillis() >= 150);
+    }
+
+}
@@ -0,0 +1,169 @@
+package cc.blynk.server.internal;
+
+import cc.blynk.server.Limits;
+import cc.blynk.server.core.model.auth.Session;
+import cc.blynk.server.core.protocol.enums.Response;
+import cc.blynk.server.core.protocol.handlers.decoders.MessageDecoder;
+import cc.blynk.server.core.protocol.model.messages.ResponseMessage;
+import cc.blynk.server.core.stats.GlobalStats;
+import cc.blynk.utils.properties.ServerProperties;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.CharsetUtil;
+import io.netty.util.ReferenceCountUtil;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static cc.blynk.server.core.protocol.enums.Command.HARDWARE;
+import static cc.blynk.server.core.protocol.enums.Command.HARDWARE_BATCH;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+public class QuotaLimitCheckerTest {
+
+    private static Limits limits(String... keyValues) {
+        Map<String, String> props = new HashMap<>();
+        for (int i = 0; i < keyValues.length; i += 2) {
+            props.put(keyValues[i], keyValues[i + 1]);
+        }
+        return new Limits(new ServerProperties(props));
+    }
+
+    private static ByteBuf frames(int count) {
+        ByteBuf frames = Unpooled.buffer();
+        for (int i = 1; i <= count; i++) {
+            frames.writeByte(HARDWARE);
+            frames.writeShort(i);
+            frames.writeShort(3);
+            frames.writeBytes(new byte[] {'v', 'w', 0});
+        }
+        return frames;
+    }
+
+    private static ByteBuf batch(int msgId, int writes) {
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < writes; i++) {
+            if (i > 0) {
+                body.append('\0');
+            }
+            body.append("vw\0").append(i).append("\0").append(i);
+        }
+        ByteBuf frame = Unpooled.buffer();
+        frame.writeByte(HARDWARE_BATCH);
+        frame.writeShort(msgId);
+        frame.writeShort(body.length());
+        frame.writeCharSequence(body, CharsetUtil.US_ASCII);
+        return frame;
+    }
+
+    private static int decoded(EmbeddedChannel channel) {
+        int count = 0;
+        Object msg;
+        while ((msg = channel.readInbound()) != null) {
+            ReferenceCountUtil.release(msg);
+            count++;
+        }
+        return count;
+    }
+
+    @Test
+    public void tokenBucketRefillsExactly() {
+        TokenBucket bucket = new TokenBucket(10, 2, 0);
+        assertTrue(bucket.tryAcquire(0));
+        assertTrue(bucket.tryAcquire(0));
+        assertFalse(bucket.tryAcquire(0));
+        //1 message per 100 ms
+        assertFalse(bucket.tryAcquire(99));
+        assertTrue(bucket.tryAcquire(100));
+        //bucket is never filled above the burst
+        assertTrue(bucket.tryAcquire(100_000));
+        assertTrue(bucket.tryAcquire(100_000));
+        assertFalse(bucket.tryAcquire(100_000));
+
+        assertTrue(bucket.hasTokens(100_200, 2));
+        assertFalse(bucket.hasTokens(100_200, 3));
+        assertEquals(0, bucket.borrow(100_200));
+        assertEquals(0, bucket.borrow(100_200));
+        assertEquals(100, bucket.borrow(100_200));
+        assertEquals(200, bucket.borrow(100_200));
+        assertEquals(200, bucket.borrow(100_300));
+    }
+
+    @Test
+    public void framesOverQuotaAreDroppedAsWhole() {
+        EmbeddedChannel channel = new EmbeddedChannel(new MessageDecoder(new GlobalStats(),
+                limits("user.message.quota.limit", "3")));
+
+        channel.writeInbound(frames(5));
+        assertEquals(3, decoded(channel));
+
+        //user is notified once
+        assertEquals(new ResponseMessage(4, Response.QUOTA_LIMIT), channel.readOutbound());
+        assertNull(channel.readOutbound());
+        assertTrue(channel.config().isAutoRead());
+    }
+
+    @Test
+    public void batchTakesTokenForEveryWrite() {
+        EmbeddedChannel channel = new EmbeddedChannel(new MessageDecoder(new GlobalStats(),
+                limits("user.message.quota.limit", "5")));
+
+        channel.writeInbound(batch(1, 3));
+        assertEquals(1, decoded(channel));
+        //only 2 tokens left, so batch of 3 writes is dropped as whole
+        channel.writeInbound(batch(2, 3));
+        assertEquals(0, decoded(channel));
+        assertEquals(new ResponseMessage(2, Response.QUOTA_LIMIT), channel.readOutbound());
+        channel.writeInbound(batch(3, 2));
+        assertEquals(1, decoded(channel));
+        assertEquals(1, QuotaLimitChecker.messages(HARDWARE, Unpooled.EMPTY_BUFFER, 0, 0));
+    }
+
+    @Test
+    public void framesOverQuotaPauseReadingInThrottleMode() throws Exception {
+        EmbeddedChannel channel = new EmbeddedChannel(new MessageDecoder(new GlobalStats(),
+                limits("user.message.quota.limit", "100", "user.message.quota.burst", "1",
+                        "user.message.quota.throttle", "true")));
+
+        channel.writeInbound(frames(3));
+        assertEquals(3, decoded(channel));
+        assertNull(channel.readOutbound());
+        assertFalse(channel.config().isAutoRead());
+
+        //2 messages of debt are paid within 20 ms, resume is run by the embedded channel only when asked
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!channel.config().isAutoRead() && System.nanoTime() < deadline) {
+            channel.runScheduledPendingTasks();
+            Thread.sleep(1);
+        }
+        assertTrue(channel.config().isAutoRead());
+    }
+
+    @Test
+    public void userQuotaIsSharedBetweenChannels() {
+        Limits limits = limits("user.message.quota.limit", "10", "user.message.quota.user.limit", "4");
+        GlobalStats stats = new GlobalStats();
+        Session session = new Session(null);
+        EmbeddedChannel first = new EmbeddedChannel(new MessageDecoder(stats, limits));
+        EmbeddedChannel second = new EmbeddedChannel(new MessageDecoder(stats, limits));
+        session.addAppChannel(first);
+        session.addAppChannel(second);
+
+        first.writeInbound(frames(3));
+        second.writeInbound(frames(3));
+        assertEquals(3, decoded(first));
+        assertEquals(1, decoded(second));
+    }
+
+}
@@ -0,0 +1,123 @@
+package cc.blynk.server.internal;
+
+import cc.blynk.server.core.protocol.handlers.FlushConsolidator;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.DefaultEventLoop;
+import io.netty.channel.EventLoop;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.FixedLengthFrameDecoder;
+import io.netty.util.ReferenceCountUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+public class SessionLoopUtilTest {
+
+    private static final int MESSAGES = 10;
+
+    private NioEventLoopGroup channelLoops;
+    private EventLoop sessionLoop;
+
+    @Before
+    public void init() {
+        channelLoops = new NioEventLoopGroup(1);
+        sessionLoop = new DefaultEventLoop();
+    }
+
+    @After
+    public void cleanup() {
+        channelLoops.shutdownGracefully(0, 0, TimeUnit.SECONDS);
+        sessionLoop.shutdownGracefully(0, 0, TimeUnit.SECONDS);
+    }
+
+    //replies to every incoming message with separate writeAndFlush
+    private static class Echo extends ChannelInboundHandlerAdapter {
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            ReferenceCountUtil.release(msg);
+            ctx.writeAndFlush(Unpooled.buffer(1).writeByte(1));
+        }
+    }
+
+    @Test
+    public void responsesOfHandedOffReadAreFlushedOnce() throws Exception {
+        AtomicInteger flushes = new AtomicInteger();
+        Channel server = new ServerBootstrap()
+                .group(channelLoops)
+                .channel(NioServerSocketChannel.class)
+                .childHandler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        ch.pipeline()
+                                .addLast(new ChannelOutboundHandlerAdapter() {
+                                    @Override
+                                    public void flush(ChannelHandlerContext ctx) {
+                                        flushes.incrementAndGet();
+                                        ctx.flush();
+                                    }
+                                })
+                                .addLast(new FlushConsolidator(64, 0))
+                                .addLast(new FixedLengthFrameDecoder(1))
+                                //login handler hands the channel off on the first message
+                                .addLast(new ChannelInboundHandlerAdapter() {
+                                    @Override
+                                    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+                                        SessionLoopUtil.replace(ctx, sessionLoop, "Echo", new Echo(), 64, 0);
+                                        ctx.fireChannelRead(msg);
+                                    }
+                                });
+                    }
+                })
+                .bind(new InetSocketAddress("127.0.0.1", 0)).sync().channel();
+
+        CountDownLatch responses = new CountDownLatch(MESSAGES);
+        Channel client = new Bootstrap()
+                .group(channelLoops)
+                .channel(NioSocketChannel.class)
+                .handler(new ChannelInboundHandlerAdapter() {
+                    @Override
+                    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+                        for (int i = ((ByteBuf) msg).readableBytes(); i > 0; i--) {
+                            responses.countDown();
+                        }
+                        ReferenceCountUtil.release(msg);
+                    }
+                })
+                .connect(server.localAddress()).sync().channel();
+        try {
+            //all messages are read by the server within one read batch
+            client.writeAndFlush(Unpooled.buffer(MESSAGES).writerIndex(MESSAGES));
+
+            assertTrue(responses.await(10, TimeUnit.SECONDS));
+            assertEquals(1, flushes.get());
+        } finally {
+            client.close().syncUninterruptibly();
+            server.close().syncUninterruptibly();
+        }
+    }
+
+}
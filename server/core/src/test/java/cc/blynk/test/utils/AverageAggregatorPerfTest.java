@@ -0,0 +1,104 @@
+package cc.blynk.test.utils;
+
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.reporting.average.AggregationKey;
+import cc.blynk.server.core.reporting.average.AggregationValue;
+import cc.blynk.server.core.reporting.average.AverageAggregatorProcessor;
+import cc.blynk.server.core.reporting.raw.BaseReportingKey;
+import cc.blynk.utils.AppNameUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static cc.blynk.server.core.reporting.average.AverageAggregatorProcessor.DAY;
+import static cc.blynk.server.core.reporting.average.AverageAggregatorProcessor.HOUR;
+import static cc.blynk.server.core.reporting.average.AverageAggregatorProcessor.MINUTE;
+
+/**
+ * Compares previous AggregationKey + ConcurrentHashMap aggregation with primitive aggregation tables.
+ * Run with -prof gc to see allocation rate per collect.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 10, time = 1, timeUnit = TimeUnit.SECONDS)
+public class AverageAggregatorPerfTest {
+
+    @Param({"1000", "10000"})
+    public int seriesCount;
+
+    private BaseReportingKey[] keys;
+    private int index;
+    private long ts;
+
+    private AverageAggregatorProcessor averageAggregator;
+
+    private ConcurrentHashMap<AggregationKey, AggregationValue> minute;
+    private ConcurrentHashMap<AggregationKey, AggregationValue> hourly;
+    private ConcurrentHashMap<AggregationKey, AggregationValue> daily;
+
+    @Setup
+    public void setup() {
+        keys = new BaseReportingKey[seriesCount];
+        for (int i = 0; i < seriesCount; i++) {
+            keys[i] = new BaseReportingKey("user" + (i / 10) + "@gmail.com", AppNameUtil.BLYNK,
+                    1, 0, PinType.VIRTUAL, (short) (i % 10));
+        }
+        ts = System.currentTimeMillis();
+        averageAggregator = new AverageAggregatorProcessor("");
+        minute = new ConcurrentHashMap<>();
+        hourly = new ConcurrentHashMap<>();
+        daily = new ConcurrentHashMap<>();
+    }
+
+    private BaseReportingKey nextKey() {
+        if (++index == keys.length) {
+            index = 0;
+        }
+        return keys[index];
+    }
+
+    private static void aggregate(Map<AggregationKey, AggregationValue> map, AggregationKey key, double value) {
+        AggregationValue aggregationValue = map.get(key);
+        if (aggregationValue == null) {
+            aggregationValue = new AggregationValue();
+            AggregationValue prev = map.putIfAbsent(key, aggregationValue);
+            if (prev != null) {
+                aggregationValue = prev;
+            }
+        }
+        aggregationValue.update(value);
+    }
+
+    @Benchmark
+    public void concurrentHashMapCollect() {
+        BaseReportingKey key = nextKey();
+        aggregate(minute, new AggregationKey(key, ts / MINUTE), index);
+        aggregate(hourly, new AggregationKey(key, ts / HOUR), index);
+        aggregate(daily, new AggregationKey(key, ts / DAY), index);
+    }
+
+    @Benchmark
+    public void primitiveTableCollect() {
+        averageAggregator.collect(nextKey(), ts, index);
+    }
+
+}
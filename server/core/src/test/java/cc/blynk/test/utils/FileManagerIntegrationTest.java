@@ -1,8 +1,17 @@
 package cc.blynk.test.utils;
 
 import cc.blynk.server.core.dao.FileManager;
+import cc.blynk.server.core.dao.LazyProfileLoader;
+import cc.blynk.server.core.dao.ProfileIndexPipeline;
+import cc.blynk.server.core.dao.TokenManager;
+import cc.blynk.server.core.dao.TokenValue;
+import cc.blynk.server.core.dao.UserDao;
 import cc.blynk.server.core.dao.UserKey;
+import cc.blynk.server.core.model.DashBoard;
 import cc.blynk.server.core.model.auth.User;
+import cc.blynk.server.core.model.device.Device;
+import cc.blynk.server.core.model.storage.key.DashPinStorageKey;
+import cc.blynk.server.core.model.storage.value.SinglePinStorageValue;
 import cc.blynk.utils.AppNameUtil;
 import org.junit.Before;
 import org.junit.Test;
@@ -11,10 +20,18 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 
+import static cc.blynk.server.core.model.enums.PinType.VIRTUAL;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 /**
  * User: ddumanskiy
@@ -57,6 +74,15 @@ public class FileManagerIntegrationTest {
         fileManager.overrideUserFile(user1);
     }
 
+    @Test
+    public void testOverrideDoesntLeaveTempFile() throws IOException {
+        int written = fileManager.overrideUserFile(user1);
+
+        Path file = fileManager.generateFileName(user1.email, user1.appName);
+        assertEquals(written, Files.size(file));
+        assertFalse(Files.exists(file.resolveSibling(file.getFileName() + ".tmp")));
+    }
+
     @Test
     public void testReadListOfFiles() throws IOException {
         fileManager.overrideUserFile(user1);
@@ -82,4 +108,260 @@ public class FileManagerIntegrationTest {
         assertNotNull(users.get(new UserKey(user1.email, AppNameUtil.BLYNK)));
     }
 
+    @Test
+    public void testValuesJournalAppliedOnTopOfProfile() throws IOException {
+        DashBoard dash = new DashBoard();
+        dash.id = 1;
+        user1.profile.dashBoards = new DashBoard[] {dash};
+        fileManager.overrideUserFile(user1);
+
+        user1.profile.update(dash, 0, (short) 1, VIRTUAL, "1", System.currentTimeMillis());
+        user1.profile.update(dash, 0, (short) 1, VIRTUAL, "2", System.currentTimeMillis());
+        assertTrue(fileManager.appendUserValues(user1) > 0);
+        user1.profile.update(dash, 0, (short) 2, VIRTUAL, "3", System.currentTimeMillis());
+        assertTrue(fileManager.appendUserValues(user1) > 0);
+        assertEquals(0, fileManager.appendUserValues(user1));
+
+        User restored = fileManager.deserializeUsers().get(new UserKey(user1.email, AppNameUtil.BLYNK));
+        assertNotNull(restored);
+        assertEquals("2", value(restored, 1));
+        assertEquals("3", value(restored, 2));
+        assertFalse(restored.profile.valueJournal.hasPending());
+    }
+
+    @Test
+    public void testFullSaveRemovesValuesJournal() throws IOException {
+        DashBoard dash = new DashBoard();
+        dash.id = 1;
+        user1.profile.dashBoards = new DashBoard[] {dash};
+        user1.profile.update(dash, 0, (short) 1, VIRTUAL, "1", System.currentTimeMillis());
+        fileManager.appendUserValues(user1);
+        assertTrue(Files.exists(fileManager.generateValuesFileName(user1.email, user1.appName)));
+
+        user1.profile.update(dash, 0, (short) 1, VIRTUAL, "2", System.currentTimeMillis());
+        fileManager.overrideUserFile(user1);
+        assertFalse(Files.exists(fileManager.generateValuesFileName(user1.email, user1.appName)));
+        assertFalse(user1.profile.valueJournal.hasPending());
+
+        User restored = fileManager.deserializeUsers().get(new UserKey(user1.email, AppNameUtil.BLYNK));
+        assertEquals("2", value(restored, 1));
+    }
+
+    @Test
+    public void testStaleValuesJournalIsNotAppliedOverNewerProfile() throws IOException {
+        DashBoard dash = new DashBoard();
+        dash.id = 1;
+        user1.profile.dashBoards = new DashBoard[] {dash};
+        fileManager.overrideUserFile(user1);
+        user1.profile.update(dash, 0, (short) 1, VIRTUAL, "1", System.currentTimeMillis());
+        fileManager.appendUserValues(user1);
+        Path valuesFile = fileManager.generateValuesFileName(user1.email, user1.appName);
+        byte[] staleJournal = Files.readAllBytes(valuesFile);
+
+        user1.profile.update(dash, 0, (short) 1, VIRTUAL, "2", System.currentTimeMillis());
+        fileManager.overrideUserFile(user1);
+        //server was killed after the profile move, but before the journal removal
+        Files.write(valuesFile, staleJournal);
+
+        User restored = fileManager.deserializeUsers().get(new UserKey(user1.email, AppNameUtil.BLYNK));
+        assertEquals("2", value(restored, 1));
+
+        //next journal replaces the stale one
+        restored.profile.update(dash, 0, (short) 2, VIRTUAL, "3", System.currentTimeMillis());
+        fileManager.appendUserValues(restored);
+        restored = fileManager.deserializeUsers().get(new UserKey(user1.email, AppNameUtil.BLYNK));
+        assertEquals("2", value(restored, 1));
+        assertEquals("3", value(restored, 2));
+    }
+
+    @Test
+    public void testValuesAppendedAfterTornJournalRecordAreNotLost() throws IOException {
+        DashBoard dash = new DashBoard();
+        dash.id = 1;
+        user1.profile.dashBoards = new DashBoard[] {dash};
+        fileManager.overrideUserFile(user1);
+        user1.profile.update(dash, 0, (short) 1, VIRTUAL, "1", System.currentTimeMillis());
+        fileManager.appendUserValues(user1);
+        user1.profile.update(dash, 0, (short) 2, VIRTUAL, "2", System.currentTimeMillis());
+        fileManager.appendUserValues(user1);
+
+        //server was killed in the middle of the last record
+        Path valuesFile = fileManager.generateValuesFileName(user1.email, user1.appName);
+        byte[] journal = Files.readAllBytes(valuesFile);
+        Files.write(valuesFile, Arrays.copyOf(journal, journal.length - 3));
+
+        User restored = fileManager.deserializeUsers().get(new UserKey(user1.email, AppNameUtil.BLYNK));
+        assertEquals("1", value(restored, 1));
+        assertNull(value(restored, 2));
+
+        restored.profile.update(dash, 0, (short) 3, VIRTUAL, "3", System.currentTimeMillis());
+        fileManager.appendUserValues(restored);
+        restored = fileManager.deserializeUsers().get(new UserKey(user1.email, AppNameUtil.BLYNK));
+        assertEquals("1", value(restored, 1));
+        assertEquals("3", value(restored, 3));
+    }
+
+    @Test
+    public void testValuesAreNotLostWhenJournalWriteFailed() throws IOException {
+        DashBoard dash = new DashBoard();
+        dash.id = 1;
+        user1.profile.dashBoards = new DashBoard[] {dash};
+        fileManager.overrideUserFile(user1);
+        Path valuesFile = fileManager.generateValuesFileName(user1.email, user1.appName);
+        //journal can't be written into the folder
+        Files.createDirectory(valuesFile);
+
+        user1.profile.update(dash, 0, (short) 1, VIRTUAL, "1", System.currentTimeMillis());
+        try {
+            fileManager.appendUserValues(user1);
+            fail();
+        } catch (IOException e) {
+            //expected
+        }
+        assertTrue(user1.profile.valueJournal.needsFullSave());
+
+        Files.delete(valuesFile);
+        fileManager.overrideUserFile(user1);
+        assertFalse(user1.profile.valueJournal.needsFullSave());
+        User restored = fileManager.deserializeUsers().get(new UserKey(user1.email, AppNameUtil.BLYNK));
+        assertEquals("1", value(restored, 1));
+    }
+
+    @Test
+    public void testProfilesTakenFromSnapshot() throws IOException {
+        DashBoard dash = new DashBoard();
+        dash.id = 1;
+        user1.profile.dashBoards = new DashBoard[] {dash};
+        user1.profile.update(dash, 0, (short) 1, VIRTUAL, "1", System.currentTimeMillis());
+        fileManager.overrideUserFile(user1);
+        fileManager.overrideUserFile(user2);
+
+        //value within the journal is copied to the snapshot as well
+        user1.profile.update(dash, 0, (short) 1, VIRTUAL, "2", System.currentTimeMillis());
+        fileManager.appendUserValues(user1);
+        assertEquals(2, fileManager.writeProfilesSnapshot(List.of(user1, user2)));
+        Path snapshot = Paths.get(fileManager.getDataDir().toString(), "profiles.snapshot");
+        assertTrue(Files.exists(snapshot));
+
+        Map<UserKey, User> users = fileManager.deserializeUsers();
+        assertEquals(2, users.size());
+        assertEquals("2", value(users.get(new UserKey(user1.email, AppNameUtil.BLYNK)), 1));
+        assertNotNull(users.get(new UserKey(user2.email, AppNameUtil.BLYNK)));
+        //snapshot is used only once
+        assertFalse(Files.exists(snapshot));
+    }
+
+    @Test
+    public void testProfilesReadFromSnapshotOnDemand() throws IOException {
+        DashBoard dash = new DashBoard();
+        dash.id = 1;
+        user1.profile.dashBoards = new DashBoard[] {dash};
+        user1.profile.update(dash, 0, (short) 1, VIRTUAL, "1", System.currentTimeMillis());
+        user2.isSuperAdmin = true;
+        fileManager.overrideUserFile(user1);
+        fileManager.overrideUserFile(user2);
+        fileManager.writeProfilesSnapshot(List.of(user1, user2));
+
+        LazyProfileLoader profileLoader = fileManager.deserializeUsersLazily();
+        assertTrue(profileLoader.users.isEmpty());
+        UserDao userDao = new UserDao(profileLoader.users, "local", "127.0.0.1", profileLoader);
+
+        //without start profiles are not read in the background, only lookups read them
+        User user = userDao.getByName(user1.email, AppNameUtil.BLYNK);
+        assertNotNull(user);
+        assertEquals("1", value(user, 1));
+        assertEquals(1, profileLoader.users.size());
+        assertNull(userDao.getByName("unknown", AppNameUtil.BLYNK));
+
+        assertEquals(user2.email, userDao.getSuperAdmin().email);
+        assertEquals(2, profileLoader.users.size());
+        assertFalse(profileLoader.isLoaded());
+        profileLoader.close();
+    }
+
+    @Test
+    public void testNotReadProfilesAreDeletedAndListed() throws IOException {
+        fileManager.overrideUserFile(user1);
+        fileManager.overrideUserFile(user2);
+        fileManager.writeProfilesSnapshot(List.of(user1, user2));
+
+        LazyProfileLoader profileLoader = fileManager.deserializeUsersLazily();
+        UserDao userDao = new UserDao(profileLoader.users, "local", "127.0.0.1", profileLoader);
+
+        assertNotNull(userDao.delete(new UserKey(user1.email, AppNameUtil.BLYNK)));
+        //removed profile is not read again
+        assertEquals(1, userDao.getAllUsers().size());
+        assertTrue(profileLoader.isLoaded());
+        assertNull(userDao.getByName(user1.email, AppNameUtil.BLYNK));
+        assertNotNull(userDao.getByName(user2.email, AppNameUtil.BLYNK));
+    }
+
+    @Test
+    public void testProfilesReadFromSnapshotInBackground() throws Exception {
+        DashBoard dash = new DashBoard();
+        dash.id = 1;
+        dash.sharedToken = "shared1";
+        Device device = new Device();
+        device.id = 0;
+        device.token = "token1";
+        dash.devices = new Device[] {device};
+        user1.profile.dashBoards = new DashBoard[] {dash};
+        fileManager.overrideUserFile(user1);
+        fileManager.overrideUserFile(user2);
+        fileManager.writeProfilesSnapshot(List.of(user1, user2));
+
+        LazyProfileLoader profileLoader = fileManager.deserializeUsersLazily();
+        TokenManager tokenManager = new TokenManager(null, "127.0.0.1", profileLoader);
+        UserDao userDao = new UserDao(profileLoader.users, "local", "127.0.0.1", profileLoader);
+        profileLoader.start(new ProfileIndexPipeline(1).register("tokens", tokenManager), 1);
+
+        //lookups don't wait for the background reading
+        TokenValue tokenValue = tokenManager.getTokenValueByToken("token1");
+        assertNotNull(tokenValue);
+        assertEquals(user1.email, tokenValue.user.email);
+        assertSame(tokenValue.user, userDao.getByName(user1.email, AppNameUtil.BLYNK));
+        assertSame(tokenValue.user, tokenManager.getUserBySharedToken("shared1").user);
+        assertNotNull(userDao.getByName(user2.email, AppNameUtil.BLYNK));
+
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!profileLoader.isLoaded() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertTrue(profileLoader.isLoaded());
+        assertEquals(2, profileLoader.users.size());
+        assertFalse(Files.exists(Paths.get(fileManager.getDataDir().toString(), "profiles.snapshot")));
+    }
+
+    @Test
+    public void testStaleSnapshotProfileIgnored() throws IOException {
+        DashBoard dash = new DashBoard();
+        dash.id = 1;
+        user1.profile.dashBoards = new DashBoard[] {dash};
+        user1.profile.update(dash, 0, (short) 1, VIRTUAL, "1", System.currentTimeMillis());
+        fileManager.overrideUserFile(user1);
+        fileManager.writeProfilesSnapshot(List.of(user1));
+
+        //profile changed after the snapshot
+        user1.profile.update(dash, 0, (short) 1, VIRTUAL, "22", System.currentTimeMillis());
+        fileManager.appendUserValues(user1);
+
+        User restored = fileManager.deserializeUsers().get(new UserKey(user1.email, AppNameUtil.BLYNK));
+        assertEquals("22", value(restored, 1));
+    }
+
+    @Test
+    public void testCorruptedSnapshotIgnored() throws IOException {
+        fileManager.overrideUserFile(user1);
+        Files.write(Paths.get(fileManager.getDataDir().toString(), "profiles.snapshot"), new byte[] {1, 2, 3});
+
+        Map<UserKey, User> users = fileManager.deserializeUsers();
+        assertNotNull(users.get(new UserKey(user1.email, AppNameUtil.BLYNK)));
+    }
+
+    private static String value(User user, int pin) {
+        SinglePinStorageValue value = (SinglePinStorageValue) user.profile.pinsStorage.get(
+                new DashPinStorageKey(1, 0, VIRTUAL, (short) pin));
+        return value == null ? null : value.value;
+    }
+
 }
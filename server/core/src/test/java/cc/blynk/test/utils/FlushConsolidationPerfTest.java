@@ -0,0 +1,154 @@
+package cc.blynk.test.utils;
+
+import cc.blynk.server.core.protocol.handlers.FlushConsolidator;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.FixedLengthFrameDecoder;
+import io.netty.util.ReferenceCountUtil;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Load test for flush consolidation over loopback socket. Client sends batch of small frames,
+ * server answers every frame with own writeAndFlush, as blynk handlers do.
+ * "socketFlushes" counter shows flushes that reached the socket (every one is write syscall),
+ * "messages" counter shows messages/s. Compare maxFlushes=0 (disabled) with default 64.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 10, time = 1, timeUnit = TimeUnit.SECONDS)
+public class FlushConsolidationPerfTest {
+
+    private static final int FRAME_SIZE = 8;
+
+    @Param({"0", "64"})
+    public int maxFlushes;
+
+    @Param({"32"})
+    public int batchSize;
+
+    private NioEventLoopGroup group;
+    private Channel server;
+    private Channel client;
+    private byte[] batch;
+
+    private final LongAdder flushes = new LongAdder();
+    private final Semaphore responses = new Semaphore(0);
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Counters {
+        public long socketFlushes;
+        public long messages;
+    }
+
+    @Setup
+    public void setup() throws Exception {
+        group = new NioEventLoopGroup(2);
+        server = new ServerBootstrap()
+                .group(group)
+                .channel(NioServerSocketChannel.class)
+                .childHandler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        ch.pipeline()
+                                .addLast(new ChannelOutboundHandlerAdapter() {
+                                    @Override
+                                    public void flush(ChannelHandlerContext ctx) {
+                                        flushes.increment();
+                                        ctx.flush();
+                                    }
+                                })
+                                .addLast(new FlushConsolidator(maxFlushes, 0))
+                                .addLast(new FixedLengthFrameDecoder(FRAME_SIZE))
+                                .addLast(new ChannelInboundHandlerAdapter() {
+                                    @Override
+                                    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+                                        ctx.writeAndFlush(msg);
+                                    }
+                                });
+                    }
+                })
+                .bind(new InetSocketAddress("127.0.0.1", 0)).sync().channel();
+
+        client = new Bootstrap()
+                .group(group)
+                .channel(NioSocketChannel.class)
+                .handler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        ch.pipeline().addLast(new ChannelInboundHandlerAdapter() {
+                            private int received;
+
+                            @Override
+                            public void channelRead(ChannelHandlerContext ctx, Object msg) {
+                                received += ((ByteBuf) msg).readableBytes();
+                                ReferenceCountUtil.release(msg);
+                                int frames = received / FRAME_SIZE;
+                                received -= frames * FRAME_SIZE;
+                                responses.release(frames);
+                            }
+                        });
+                    }
+                })
+                .connect(server.localAddress()).sync().channel();
+
+        batch = new byte[FRAME_SIZE * batchSize];
+    }
+
+    @TearDown
+    public void tearDown() {
+        client.close().syncUninterruptibly();
+        server.close().syncUninterruptibly();
+        group.shutdownGracefully(0, 0, TimeUnit.SECONDS);
+    }
+
+    @Setup(Level.Iteration)
+    public void resetFlushes() {
+        flushes.reset();
+    }
+
+    @Benchmark
+    public void echoBatch(Counters counters) throws Exception {
+        long before = flushes.sum();
+        client.writeAndFlush(client.alloc().buffer(batch.length).writeBytes(batch));
+        responses.acquire(batchSize);
+        counters.socketFlushes += flushes.sum() - before;
+        counters.messages += batchSize;
+    }
+
+}
@@ -0,0 +1,241 @@
+package cc.blynk.test.utils;
+
+import cc.blynk.server.core.model.DashBoard;
+import cc.blynk.server.core.model.DataStream;
+import cc.blynk.server.core.model.Profile;
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.model.storage.key.DashPinStorageKey;
+import cc.blynk.server.core.model.storage.value.SinglePinStorageValue;
+import cc.blynk.server.core.model.widgets.OnePinWidget;
+import cc.blynk.server.core.model.widgets.Widget;
+import cc.blynk.server.core.model.widgets.controls.Button;
+import cc.blynk.server.core.model.widgets.others.eventor.Eventor;
+import cc.blynk.server.core.model.widgets.others.eventor.Rule;
+import cc.blynk.server.core.model.widgets.others.eventor.model.action.BaseAction;
+import cc.blynk.server.core.model.widgets.others.eventor.model.condition.number.GreaterThan;
+import cc.blynk.server.core.model.widgets.others.webhook.WebHook;
+import cc.blynk.server.core.model.widgets.outputs.LCD;
+import cc.blynk.server.core.model.widgets.outputs.ValueDisplay;
+import cc.blynk.server.core.model.widgets.outputs.graph.GraphDataStream;
+import cc.blynk.server.core.model.widgets.outputs.graph.Superchart;
+import cc.blynk.server.core.model.widgets.ui.tiles.DeviceTiles;
+import cc.blynk.server.core.model.widgets.ui.tiles.Tile;
+import cc.blynk.server.core.model.widgets.ui.tiles.TileTemplate;
+import cc.blynk.server.core.processors.EventorProcessor;
+import cc.blynk.utils.NumberUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Dashboard part of the hardware write (HardwareLogic) : history graph check, widgets update,
+ * eventor rules and webhook lookup. Compares pin index of the dashboard with
+ * the previous linear scans of all widgets for every step.
+ * Dashboard has buttons and displays for few devices, LCDs, supercharts, device tiles,
+ * webhooks and eventor with rules, writes go to random pins of the first device.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 10, time = 1, timeUnit = TimeUnit.SECONDS)
+public class HardwareDispatchPerfTest {
+
+    private static final int DEVICES = 5;
+    private static final int PINS = 100;
+
+    @Param({"10", "100", "300"})
+    public int widgets;
+
+    private Profile profile;
+    private DashBoard dash;
+    private EventorProcessor eventorProcessor;
+    private short[] pins;
+    private int counter;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(1);
+        Widget[] dashWidgets = new Widget[widgets];
+        Rule[] rules = new Rule[20];
+        for (int i = 0; i < rules.length; i++) {
+            rules[i] = new Rule(new DataStream((short) random.nextInt(PINS), PinType.VIRTUAL), null,
+                    new GreaterThan(1000), new BaseAction[0], true);
+        }
+        Eventor eventor = new Eventor(rules);
+        eventor.id = 0;
+        dashWidgets[0] = eventor;
+
+        for (int i = 1; i < widgets; i++) {
+            int deviceId = random.nextInt(DEVICES);
+            short pin = (short) random.nextInt(PINS);
+            Widget widget;
+            switch (i % 10) {
+                case 0 :
+                    Superchart superchart = new Superchart();
+                    superchart.dataStreams = new GraphDataStream[] {
+                            new GraphDataStream(null, null, 0, deviceId, new DataStream(pin, PinType.VIRTUAL),
+                                    null, 0, null, null, null, 0, 0, false, null, false, false, false, null,
+                                    0, false, 0)
+                    };
+                    widget = superchart;
+                    break;
+                case 1 :
+                    LCD lcd = new LCD();
+                    lcd.deviceId = deviceId;
+                    lcd.dataStreams = new DataStream[] {
+                            new DataStream(pin, PinType.VIRTUAL),
+                            new DataStream((short) random.nextInt(PINS), PinType.VIRTUAL)
+                    };
+                    widget = lcd;
+                    break;
+                case 2 :
+                    widget = onePin(i % 50 == 2 ? new WebHook() : new Button(), deviceId, pin);
+                    break;
+                case 3 :
+                    if (i % 100 == 3) {
+                        DeviceTiles deviceTiles = new DeviceTiles();
+                        deviceTiles.templates = new TileTemplate[0];
+                        deviceTiles.tiles = new Tile[DEVICES];
+                        for (int device = 0; device < DEVICES; device++) {
+                            deviceTiles.tiles[device] = new Tile(device + DEVICES, 1, null,
+                                    new DataStream((short) random.nextInt(PINS), PinType.VIRTUAL));
+                        }
+                        widget = deviceTiles;
+                        break;
+                    }
+                    widget = onePin(new ValueDisplay(), deviceId, pin);
+                    break;
+                default :
+                    widget = onePin(new ValueDisplay(), deviceId, pin);
+                    break;
+            }
+            widget.id = i;
+            dashWidgets[i] = widget;
+        }
+
+        dash = new DashBoard();
+        dash.widgets = dashWidgets;
+        dash.isActive = true;
+        profile = new Profile();
+        profile.dashBoards = new DashBoard[] {dash};
+        eventorProcessor = new EventorProcessor(null, null, null, null, null);
+
+        pins = new short[1024];
+        for (int i = 0; i < pins.length; i++) {
+            pins[i] = (short) random.nextInt(PINS);
+        }
+    }
+
+    private static OnePinWidget onePin(OnePinWidget widget, int deviceId, short pin) {
+        widget.deviceId = deviceId;
+        widget.pin = pin;
+        widget.pinType = PinType.VIRTUAL;
+        return widget;
+    }
+
+    @Benchmark
+    public Object indexed() {
+        short pin = pins[counter++ & (pins.length - 1)];
+        long now = System.currentTimeMillis();
+        Widget logged = profile.getWidgetWithLoggedPin(dash, 0, pin, PinType.VIRTUAL);
+        profile.update(dash, 0, pin, PinType.VIRTUAL, "42", now);
+        eventorProcessor.process(null, null, dash, 0, pin, PinType.VIRTUAL, "42", now);
+        WebHook webHook = dash.findWebhookByPin(0, pin, PinType.VIRTUAL);
+        return webHook == null ? logged : webHook;
+    }
+
+    @Benchmark
+    public Object linear() {
+        short pin = pins[counter++ & (pins.length - 1)];
+        long now = System.currentTimeMillis();
+        Widget logged = findLoggedLinear(dash, 0, pin, PinType.VIRTUAL);
+        updateLinear(profile, dash, 0, pin, PinType.VIRTUAL, "42", now);
+        eventorLinear(dash, 0, pin, PinType.VIRTUAL, "42");
+        WebHook webHook = findWebhookLinear(dash, 0, pin, PinType.VIRTUAL);
+        return webHook == null ? logged : webHook;
+    }
+
+    //previous implementations, before the pin index of the dashboard
+
+    private static Widget findLoggedLinear(DashBoard dash, int deviceId, short pin, PinType pinType) {
+        for (Widget widget : dash.widgets) {
+            if (widget instanceof Superchart) {
+                for (GraphDataStream graphDataStream : ((Superchart) widget).dataStreams) {
+                    if (graphDataStream != null && graphDataStream.dataStream != null
+                            && graphDataStream.dataStream.isSame(pin, pinType)
+                            && graphDataStream.targetId == deviceId) {
+                        return widget;
+                    }
+                }
+            }
+            if (widget instanceof DeviceTiles) {
+                for (TileTemplate tileTemplate : ((DeviceTiles) widget).templates) {
+                    for (Widget tilesWidget : tileTemplate.widgets) {
+                        if (tilesWidget instanceof Superchart) {
+                            return tilesWidget;
+                        }
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    private static void updateLinear(Profile profile, DashBoard dash, int deviceId, short pin, PinType pinType,
+                                     String value, long now) {
+        boolean hasWidget = false;
+        for (Widget widget : dash.widgets) {
+            if (widget.updateIfSame(deviceId, pin, pinType, value)) {
+                hasWidget = true;
+            }
+        }
+        if (!hasWidget) {
+            profile.pinsStorage.computeIfAbsent(new DashPinStorageKey(dash.id, deviceId, pinType, pin),
+                    key -> new SinglePinStorageValue()).update(value);
+        }
+        dash.updatedAt = now;
+    }
+
+    private static void eventorLinear(DashBoard dash, int deviceId, short pin, PinType pinType, String value) {
+        Eventor eventor = dash.getEventorWidget();
+        if (eventor == null || eventor.rules == null || eventor.deviceId != deviceId || !dash.isActive) {
+            return;
+        }
+        double valueParsed = NumberUtil.parseDouble(value);
+        for (Rule rule : eventor.rules) {
+            if (rule.isReady(pin, pinType)) {
+                rule.isProcessed = rule.matchesCondition(value, valueParsed);
+            }
+        }
+    }
+
+    private static WebHook findWebhookLinear(DashBoard dash, int deviceId, short pin, PinType pinType) {
+        for (Widget widget : dash.widgets) {
+            if (widget instanceof WebHook) {
+                WebHook webHook = (WebHook) widget;
+                if (webHook.isSameWebHook(deviceId, pin, pinType)) {
+                    return webHook;
+                }
+            }
+        }
+        return null;
+    }
+
+}
@@ -0,0 +1,96 @@
+package cc.blynk.test.utils;
+
+import cc.blynk.server.core.reporting.storage.GorillaCodec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static cc.blynk.utils.FileUtils.SIZE_OF_REPORT_ENTRY;
+
+/**
+ * Compares legacy 16 bytes per entry history format with {@link GorillaCodec} encoding.
+ * Both benchmarks produce byte buffer returned for the graph request from the stored bytes.
+ * Bytes per entry of every data set are printed on setup.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 10, time = 1, timeUnit = TimeUnit.SECONDS)
+public class ReportingEncodingPerfTest {
+
+    //1 day of minute graph
+    private static final int COUNT = 1440;
+
+    //constant - switch/button, sensor - slowly changing value, random - worst case
+    @Param({"constant", "sensor", "random"})
+    public String data;
+
+    private byte[] raw;
+    private byte[] encoded;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(1);
+        ByteBuffer entries = ByteBuffer.allocate(COUNT * SIZE_OF_REPORT_ENTRY);
+        long ts = System.currentTimeMillis() / 60_000 * 60_000;
+        double value = 20;
+        for (int i = 0; i < COUNT; i++) {
+            switch (data) {
+                case "constant" :
+                    value = 1;
+                    break;
+                case "sensor" :
+                    value = Math.round((value + random.nextGaussian() * 0.1) * 100) / 100D;
+                    break;
+                default :
+                    value = random.nextDouble();
+                    break;
+            }
+            entries.putDouble(value).putLong(ts + i * 60_000L);
+        }
+        raw = entries.array();
+
+        entries.flip();
+        ByteBuffer out = ByteBuffer.allocate(GorillaCodec.maxEncodedSize(COUNT));
+        int length = GorillaCodec.encode(entries, COUNT, out);
+        encoded = new byte[length];
+        System.arraycopy(out.array(), 0, encoded, 0, length);
+
+        System.out.printf("%n%s : raw %.2f bytes/entry, compressed %.2f bytes/entry%n",
+                data, (double) raw.length / COUNT, (double) encoded.length / COUNT);
+    }
+
+    @Benchmark
+    public ByteBuffer readRaw() {
+        ByteBuffer result = ByteBuffer.allocate(COUNT * SIZE_OF_REPORT_ENTRY);
+        result.put(raw).flip();
+        return result;
+    }
+
+    @Benchmark
+    public ByteBuffer readCompressed() {
+        ByteBuffer result = ByteBuffer.allocate(COUNT * SIZE_OF_REPORT_ENTRY);
+        GorillaCodec.decode(ByteBuffer.wrap(encoded), COUNT, result, 0, COUNT);
+        result.flip();
+        return result;
+    }
+
+}
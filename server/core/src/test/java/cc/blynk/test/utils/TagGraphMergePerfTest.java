@@ -0,0 +1,104 @@
+package cc.blynk.test.utils;
+
+import cc.blynk.server.core.dao.functions.GraphDataMerger;
+import cc.blynk.server.core.dao.functions.GraphFunction;
+import cc.blynk.server.core.model.widgets.outputs.graph.AggregationFunctionType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares previous TreeMap<Long, GraphFunction> merge of the tag graph data
+ * with k-way merge of {@link GraphDataMerger}. Every device has 1 day of minute graph.
+ * Run with -prof gc to see allocation per request.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 10, time = 1, timeUnit = TimeUnit.SECONDS)
+public class TagGraphMergePerfTest {
+
+    private static final int POINTS = 1440;
+
+    @Param({"10", "100", "1000"})
+    public int devices;
+
+    @Param({"AVG", "MED"})
+    public AggregationFunctionType functionType;
+
+    private ByteBuffer[] devicesData;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(1);
+        long ts = System.currentTimeMillis() / 60_000 * 60_000;
+        devicesData = new ByteBuffer[devices];
+        for (int device = 0; device < devices; device++) {
+            ByteBuffer buffer = ByteBuffer.allocate(POINTS * 16);
+            for (int i = 0; i < POINTS; i++) {
+                buffer.putDouble(random.nextDouble() * 100).putLong(ts + i * 60_000L);
+            }
+            buffer.flip();
+            devicesData[device] = buffer;
+        }
+    }
+
+    //data is read from disk for every request, so buffers are not reused
+    private ByteBuffer[] copyData() {
+        ByteBuffer[] copy = new ByteBuffer[devicesData.length];
+        for (int i = 0; i < copy.length; i++) {
+            copy[i] = devicesData[i].duplicate();
+        }
+        return copy;
+    }
+
+    @Benchmark
+    public ByteBuffer treeMap() {
+        TreeMap<Long, GraphFunction> data = new TreeMap<>();
+        for (ByteBuffer buffer : copyData()) {
+            while (buffer.hasRemaining()) {
+                double newVal = buffer.getDouble();
+                Long ts = buffer.getLong();
+                GraphFunction graphFunctionObj = data.get(ts);
+                if (graphFunctionObj == null) {
+                    graphFunctionObj = functionType.produce();
+                    data.put(ts, graphFunctionObj);
+                }
+                graphFunctionObj.apply(newVal);
+            }
+        }
+
+        ByteBuffer result = ByteBuffer.allocate(data.size() * 16);
+        for (Map.Entry<Long, GraphFunction> entry : data.entrySet()) {
+            result.putDouble(entry.getValue().getResult())
+                    .putLong(entry.getKey());
+        }
+        return result;
+    }
+
+    @Benchmark
+    public ByteBuffer kWayMerge() {
+        return GraphDataMerger.merge(functionType, copyData(), devices);
+    }
+
+}
@@ -19,6 +19,7 @@ import cc.blynk.server.core.model.device.Device;
 import cc.blynk.server.core.model.serialization.JsonParser;
 import cc.blynk.server.core.model.widgets.ui.reporting.ReportScheduler;
 import cc.blynk.server.core.stats.GlobalStats;
+import cc.blynk.server.core.stats.model.JobStat;
 import cc.blynk.server.core.stats.model.Stat;
 import io.netty.channel.ChannelHandler;
 
@@ -93,6 +94,13 @@ public class StatsLogic extends CookiesBaseHttpHandler {
                 sortField, sortOrder));
     }
 
+    @GET
+    @Path("/jobs")
+    public Response getJobs(@QueryParam("_sortField") String sortField,
+                            @QueryParam("_sortDir") String sortOrder) {
+        return ok(sort(JobStat.of(globalStats.maintenance), sortField, sortOrder));
+    }
+
     @GET
     @Path("/widgets")
     public Response getWidgets(@QueryParam("_sortField") String sortField,
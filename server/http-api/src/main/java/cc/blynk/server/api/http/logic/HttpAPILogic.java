@@ -469,7 +469,7 @@ public class HttpAPILogic extends TokenBaseHttpHandler {
         session.sendMessageToHardware(dashId, HARDWARE, 111, body, deviceId);
 
         if (dash.isActive) {
-            session.sendToApps(HARDWARE, 111, dashId, deviceId, body);
+            session.sendToApps(HARDWARE, 111, dash, deviceId, body);
         }
 
         return ok();
@@ -530,7 +530,7 @@ public class HttpAPILogic extends TokenBaseHttpHandler {
             session.sendMessageToHardware(dashId, HARDWARE, 111, body, deviceId);
 
             if (dash.isActive) {
-                session.sendToApps(HARDWARE, 111, dashId, deviceId, body);
+                session.sendToApps(HARDWARE, 111, dash, deviceId, body);
             }
         }
 
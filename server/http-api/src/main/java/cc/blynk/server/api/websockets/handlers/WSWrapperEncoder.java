@@ -6,6 +6,7 @@ import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelOutboundHandlerAdapter;
 import io.netty.channel.ChannelPromise;
 import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.util.ReferenceCountUtil;
 
 /**
  * Just wraps ByteBuf into WebSockets frame.
@@ -25,6 +26,9 @@ public class WSWrapperEncoder extends ChannelOutboundHandlerAdapter {
             } else {
                 super.write(ctx, msg, promise);
             }
+        } else {
+            //frames shared between few channels are pooled buffers
+            ReferenceCountUtil.release(msg);
         }
     }
 
@@ -8,10 +8,9 @@ import cc.blynk.server.core.dao.TokenValue;
 import cc.blynk.server.core.dao.UserKey;
 import cc.blynk.server.core.model.auth.Session;
 import cc.blynk.server.core.stats.GlobalStats;
-import cc.blynk.server.internal.ReregisterChannelUtil;
+import cc.blynk.server.internal.SessionLoopUtil;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.handler.codec.http.FullHttpResponse;
 
 /**
  * The Blynk Project.
@@ -43,17 +42,8 @@ public abstract class TokenBaseHttpHandler extends BaseHttpHandler {
         }
 
         Session session = sessionDao.getOrCreateSessionByUser(new UserKey(tokenValue.user), ctx.channel().eventLoop());
-        if (session.isSameEventLoop(ctx)) {
-            completeLogin(ctx.channel(), handler.invoke(params));
-        } else {
-            log.trace("Re registering http channel. {}", ctx.channel());
-            ReregisterChannelUtil.reRegisterChannel(ctx, session, channelFuture -> completeLogin(
-                    channelFuture.channel(), handler.invoke(params)));
-        }
-    }
-
-    private void completeLogin(Channel channel, FullHttpResponse response) {
-        channel.writeAndFlush(response);
-        log.trace("Re registering http channel finished.");
+        Channel channel = ctx.channel();
+        SessionLoopUtil.execute(session.initialEventLoop,
+                () -> channel.writeAndFlush(handler.invoke(params)));
     }
 }
@@ -2,9 +2,11 @@ package cc.blynk.server.launcher;
 
 import cc.blynk.server.Holder;
 import cc.blynk.server.core.reporting.average.AverageAggregatorProcessor;
+import cc.blynk.server.internal.IOBudget;
 import cc.blynk.server.servers.BaseServer;
 import cc.blynk.server.workers.CertificateRenewalWorker;
 import cc.blynk.server.workers.HistoryGraphUnusedPinDataCleanerWorker;
+import cc.blynk.server.workers.MaintenanceScheduler;
 import cc.blynk.server.workers.ProfileSaverWorker;
 import cc.blynk.server.workers.ReportingTruncateWorker;
 import cc.blynk.server.workers.ReportingWorker;
@@ -14,9 +16,10 @@ import cc.blynk.utils.BlynkTPFactory;
 import cc.blynk.utils.structure.LRUCache;
 
 import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
+import static cc.blynk.server.workers.MaintenanceScheduler.Lane.FLUSH;
+import static cc.blynk.server.workers.MaintenanceScheduler.Lane.HOUSEKEEPING;
 import static java.util.concurrent.TimeUnit.DAYS;
 import static java.util.concurrent.TimeUnit.HOURS;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
@@ -34,52 +37,63 @@ final class JobLauncher {
     }
 
     public static void start(Holder holder, BaseServer[] servers) {
-        ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1, BlynkTPFactory.build("DataSaver"));
+        var scheduler = new MaintenanceScheduler(holder.stats.maintenance);
+
+        //limits disk usage of the bulk jobs, so they don't slow down reporting flush
+        var ioBudget = new IOBudget(
+                holder.props.getIntProperty("maintenance.io.files.per.second", 0),
+                holder.props.getLongProperty("maintenance.io.mb.per.second", 0) * 1024 * 1024
+        );
 
         long startDelay;
 
         ReportingWorker reportingWorker = new ReportingWorker(
                 holder.reportingDiskDao,
-                holder.props.getReportingFolder(),
-                holder.reportingDBManager
+                holder.reportingDBManager,
+                holder.stats
         );
 
         //to start at the beggining of an minute
         startDelay = AverageAggregatorProcessor.MINUTE
                 - (System.currentTimeMillis() % AverageAggregatorProcessor.MINUTE);
-        scheduler.scheduleAtFixedRate(reportingWorker, startDelay,
+        scheduler.scheduleAtFixedRate(FLUSH, "reporting", reportingWorker, startDelay,
                 AverageAggregatorProcessor.MINUTE, MILLISECONDS);
 
-        var profileSaverWorker = new ProfileSaverWorker(holder.userDao, holder.fileManager, holder.dbManager);
+        var profileSaverWorker = new ProfileSaverWorker(holder.userDao, holder.fileManager, holder.dbManager,
+                holder.stats.profileSave,
+                holder.props.getIntProperty("profile.save.worker.threads", 1),
+                holder.props.getLongProperty("profile.save.worker.cycle.budget", 0));
 
         //running 1 sec later after reporting
-        scheduler.scheduleAtFixedRate(profileSaverWorker, startDelay + 1000,
+        scheduler.scheduleAtFixedRate(FLUSH, "profileSaver", profileSaverWorker, startDelay + 1000,
                 holder.props.getIntProperty("profile.save.worker.period"), MILLISECONDS);
 
         var statsWorker = new StatsWorker(holder);
-        scheduler.scheduleAtFixedRate(statsWorker, 1000,
+        scheduler.scheduleAtFixedRate(FLUSH, "stats", statsWorker, 1000,
                 holder.props.getIntProperty("stats.print.worker.period"), MILLISECONDS);
 
         if (holder.sslContextHolder.runRenewalWorker()) {
-            scheduler.scheduleAtFixedRate(
+            scheduler.scheduleAtFixedRate(HOUSEKEEPING, "certificateRenewal",
                     new CertificateRenewalWorker(holder.sslContextHolder), 1, 1, TimeUnit.DAYS
             );
         }
-        scheduler.scheduleAtFixedRate(LRUCache.LOGIN_TOKENS_CACHE::clear, 1, 1, HOURS);
-        scheduler.scheduleAtFixedRate(holder.tokenManager::clearTemporaryTokens, 7, 1, DAYS);
+        scheduler.scheduleAtFixedRate(HOUSEKEEPING, "loginTokensCacheClear",
+                LRUCache.LOGIN_TOKENS_CACHE::clear, 1, 1, HOURS);
+        scheduler.scheduleAtFixedRate(HOUSEKEEPING, "temporaryTokensClear",
+                holder.tokenManager::clearTemporaryTokens, 7, 1, DAYS);
 
         //running once every 3 day
         //todo could be removed?
         var reportingDataDiskCleaner =
-                new HistoryGraphUnusedPinDataCleanerWorker(holder.userDao, holder.reportingDiskDao);
+                new HistoryGraphUnusedPinDataCleanerWorker(holder.userDao, holder.reportingDiskDao, ioBudget);
         //once every 7 days
-        scheduler.scheduleAtFixedRate(reportingDataDiskCleaner, 1, 7, DAYS);
+        scheduler.scheduleAtFixedRate(HOUSEKEEPING, "unusedPinDataCleaner", reportingDataDiskCleaner, 1, 7, DAYS);
 
         ReportingTruncateWorker reportingTruncateWorker = new ReportingTruncateWorker(holder.reportingDiskDao,
-                holder.limits.storeMinuteRecordDays);
+                holder.limits.storeMinuteRecordDays, ioBudget);
 
         //once every week
-        scheduler.scheduleAtFixedRate(reportingTruncateWorker, 1, 24 * 7, HOURS);
+        scheduler.scheduleAtFixedRate(HOUSEKEEPING, "reportingTruncate", reportingTruncateWorker, 1, 24 * 7, HOURS);
 
         //millis we need to wait to start scheduler at the beginning of a second.
         startDelay = 1000 - (System.currentTimeMillis() % 1000);
@@ -32,9 +32,11 @@ import cc.blynk.server.application.handlers.main.auth.MobileRegisterHandler;
 import cc.blynk.server.application.handlers.sharing.auth.MobileShareLoginHandler;
 import cc.blynk.server.common.handlers.AlreadyLoggedHandler;
 import cc.blynk.server.common.handlers.UserNotLoggedHandler;
+import cc.blynk.server.core.protocol.handlers.FlushConsolidator;
 import cc.blynk.server.core.protocol.handlers.decoders.MessageDecoder;
 import cc.blynk.server.core.protocol.handlers.decoders.MobileMessageDecoder;
 import cc.blynk.server.core.protocol.handlers.decoders.WSMessageDecoder;
+import cc.blynk.server.core.protocol.handlers.encoders.AppOutboundQueue;
 import cc.blynk.server.core.protocol.handlers.encoders.MessageEncoder;
 import cc.blynk.server.core.protocol.handlers.encoders.MobileMessageEncoder;
 import cc.blynk.server.core.protocol.handlers.encoders.WSMessageEncoder;
@@ -117,6 +119,7 @@ public class MobileAndHttpsServer extends BaseServer {
 
         var alreadyLoggedHandler = new AlreadyLoggedHandler();
         int hardTimeoutSecs = NumberUtil.calcHeartbeatTimeout(holder.limits.hardwareIdleTimeout);
+        boolean bufHardwareMessages = holder.props.getBoolProperty("https.hardware.buf.messages");
 
         var baseWebSocketUnificator = new BaseWebSocketUnificator() {
             @Override
@@ -194,8 +197,12 @@ public class MobileAndHttpsServer extends BaseServer {
                         .addFirst("AReadTimeout", new IdleStateHandler(appIdleTimeout, 0, 0))
                         .addLast("WSWebSocketServerProtocolHandler",
                         new WebSocketServerProtocolHandler(WEBSOCKET_WEB_PATH))
+                        .addLast("WSFlushConsolidator", new FlushConsolidator(
+                                holder.limits.maxConsolidatedFlushes, holder.limits.maxFlushDelayMicros))
                         .addLast("WSMessageDecoder", new WSMessageDecoder(stats, holder.limits))
                         .addLast("WSMessageEncoder", webAppMessageEncoder)
+                        .addLast("AOutboundQueue", new AppOutboundQueue(
+                                stats.appOutboundQueue, holder.limits.appOutboundQueueLimit))
                         .addLast("AGetServer", getServerHandler)
                         .addLast("ALogin", appLoginHandler)
                         .addLast("ANotLogged", userNotLoggedHandler);
@@ -217,7 +224,9 @@ public class MobileAndHttpsServer extends BaseServer {
                         .addLast("WSWebSocketServerProtocolHandler",
                         new WebSocketServerProtocolHandler(websocketPath, true))
                         .addLast("WSWebSocket", webSocketHandler)
-                        .addLast("WSMessageDecoder", new MessageDecoder(stats, holder.limits))
+                        .addLast("WSFlushConsolidator", new FlushConsolidator(
+                                holder.limits.maxConsolidatedFlushes, holder.limits.maxFlushDelayMicros))
+                        .addLast("WSMessageDecoder", new MessageDecoder(stats, holder.limits, bufHardwareMessages))
                         .addLast("WSSocketWrapper", webSocketWrapperEncoder)
                         .addLast("WSMessageEncoder", new MessageEncoder(stats))
                         .addLast("WSLogin", hardwareLoginHandler)
@@ -262,8 +271,12 @@ public class MobileAndHttpsServer extends BaseServer {
                         return pipeline
                                 .addFirst("AChannelState", appChannelStateHandler)
                                 .addFirst("AReadTimeout", new IdleStateHandler(appIdleTimeout, 0, 0))
+                                .addLast("AFlushConsolidator", new FlushConsolidator(
+                                        holder.limits.maxConsolidatedFlushes, holder.limits.maxFlushDelayMicros))
                                 .addLast("AMessageDecoder", new MobileMessageDecoder(holder.stats, holder.limits))
                                 .addLast("AMessageEncoder", new MobileMessageEncoder(holder.stats))
+                                .addLast("AOutboundQueue", new AppOutboundQueue(
+                                        holder.stats.appOutboundQueue, holder.limits.appOutboundQueueLimit))
                                 .addLast("AGetServer", getServerHandler)
                                 .addLast("ARegister", registerHandler)
                                 .addLast("ALogin", appLoginHandler)
@@ -279,7 +292,10 @@ public class MobileAndHttpsServer extends BaseServer {
                                 .addFirst("H_IdleStateHandler",
                                         new IdleStateHandler(hardTimeoutSecs, 0, 0))
                                 .addLast("H_ChannelState", hardwareChannelStateHandler)
-                                .addLast("H_MessageDecoder", new MessageDecoder(holder.stats, holder.limits))
+                                .addLast("H_FlushConsolidator", new FlushConsolidator(
+                                        holder.limits.maxConsolidatedFlushes, holder.limits.maxFlushDelayMicros))
+                                .addLast("H_MessageDecoder",
+                                        new MessageDecoder(holder.stats, holder.limits, bufHardwareMessages))
                                 .addLast("H_MessageEncoder", new MessageEncoder(holder.stats))
                                 .addLast("H_Login", hardwareLoginHandler)
                                 .addLast("H_AlreadyLogged", alreadyLoggedHandler);
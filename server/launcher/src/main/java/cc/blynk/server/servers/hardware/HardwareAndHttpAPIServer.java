@@ -14,6 +14,7 @@ import cc.blynk.server.api.http.logic.ResetPasswordHttpLogic;
 import cc.blynk.server.api.websockets.handlers.WSHandler;
 import cc.blynk.server.api.websockets.handlers.WSWrapperEncoder;
 import cc.blynk.server.common.handlers.AlreadyLoggedHandler;
+import cc.blynk.server.core.protocol.handlers.FlushConsolidator;
 import cc.blynk.server.core.protocol.handlers.decoders.MessageDecoder;
 import cc.blynk.server.core.protocol.handlers.encoders.MessageEncoder;
 import cc.blynk.server.core.stats.GlobalStats;
@@ -58,6 +59,7 @@ public class HardwareAndHttpAPIServer extends BaseServer {
         AlreadyLoggedHandler alreadyLoggedHandler = new AlreadyLoggedHandler();
         int maxWebLength = holder.limits.webRequestMaxSize;
         int hardTimeoutSecs = NumberUtil.calcHeartbeatTimeout(holder.limits.hardwareIdleTimeout);
+        boolean bufHardwareMessages = holder.props.getBoolProperty("http.hardware.buf.messages");
 
         GlobalStats stats = holder.stats;
 
@@ -115,7 +117,9 @@ public class HardwareAndHttpAPIServer extends BaseServer {
                         .addLast("WSWebSocketServerProtocolHandler",
                         new WebSocketServerProtocolHandler(websocketPath, true))
                         .addLast("WSWebSocket", new WSHandler(stats))
-                        .addLast("WSMessageDecoder", new MessageDecoder(stats, holder.limits))
+                        .addLast("WSFlushConsolidator", new FlushConsolidator(
+                                holder.limits.maxConsolidatedFlushes, holder.limits.maxFlushDelayMicros))
+                        .addLast("WSMessageDecoder", new MessageDecoder(stats, holder.limits, bufHardwareMessages))
                         .addLast("WSSocketWrapper", new WSWrapperEncoder())
                         .addLast("WSMessageEncoder", new MessageEncoder(stats))
                         .addLast("WSLogin", hardwareLoginHandler)
@@ -155,7 +159,11 @@ public class HardwareAndHttpAPIServer extends BaseServer {
                                         .addFirst("H_IdleStateHandler",
                                                 new IdleStateHandler(hardTimeoutSecs, 0, 0))
                                         .addLast("H_ChannelState", hardwareChannelStateHandler)
-                                        .addLast("H_MessageDecoder", new MessageDecoder(holder.stats, holder.limits))
+                                        .addLast("H_FlushConsolidator",
+                                                new FlushConsolidator(holder.limits.maxConsolidatedFlushes,
+                                                        holder.limits.maxFlushDelayMicros))
+                                        .addLast("H_MessageDecoder",
+                                                new MessageDecoder(holder.stats, holder.limits, bufHardwareMessages))
                                         .addLast("H_MessageEncoder", new MessageEncoder(holder.stats))
                                         .addLast("H_Login", hardwareLoginHandler)
                                         .addLast("H_AlreadyLogged", alreadyLoggedHandler);
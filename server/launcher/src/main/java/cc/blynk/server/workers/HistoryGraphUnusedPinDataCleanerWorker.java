@@ -20,6 +20,7 @@ import cc.blynk.server.core.model.widgets.ui.reporting.source.ReportSource;
 import cc.blynk.server.core.model.widgets.ui.tiles.DeviceTiles;
 import cc.blynk.server.core.model.widgets.ui.tiles.TileTemplate;
 import cc.blynk.server.internal.EmptyArraysUtil;
+import cc.blynk.server.internal.IOBudget;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
@@ -40,14 +41,20 @@ public class HistoryGraphUnusedPinDataCleanerWorker implements Runnable {
 
     private final UserDao userDao;
     private final ReportingDiskDao reportingDao;
+    private final IOBudget ioBudget;
 
     private long lastStart;
 
     public HistoryGraphUnusedPinDataCleanerWorker(UserDao userDao, ReportingDiskDao reportingDao) {
+        this(userDao, reportingDao, IOBudget.UNLIMITED);
+    }
+
+    public HistoryGraphUnusedPinDataCleanerWorker(UserDao userDao, ReportingDiskDao reportingDao,
+                                                  IOBudget ioBudget) {
         this.userDao = userDao;
         this.reportingDao = reportingDao;
+        this.ioBudget = ioBudget;
         this.lastStart = System.currentTimeMillis();
-
     }
 
     @Override
@@ -73,7 +80,7 @@ public class HistoryGraphUnusedPinDataCleanerWorker implements Runnable {
         for (User user : userDao.getUsers().values()) {
             //we don't want to do a lot of work here,
             //so we check only active profiles that actually write data
-            if (user.isUpdated(lastStart)) {
+            if (user.isUpdated(lastStart) || user.profile.isValuesUpdated(lastStart)) {
                 doNotRemovePaths.clear();
                 try {
                     Profile profile = user.profile;
@@ -93,8 +100,10 @@ public class HistoryGraphUnusedPinDataCleanerWorker implements Runnable {
                         }
                     }
 
-                    removedFilesCounter += reportingDao.delete(user,
-                            reportingFile -> !doNotRemovePaths.contains(reportingFile.getFileName().toString()));
+                    int removed = reportingDao.delete(user,
+                            reportingFileName -> !doNotRemovePaths.contains(reportingFileName));
+                    removedFilesCounter += removed;
+                    ioBudget.spend(removed, 0);
                 } catch (Exception e) {
                     log.error("Error cleaning reporting record for user {}. {}", user.email, e.getMessage());
                 }
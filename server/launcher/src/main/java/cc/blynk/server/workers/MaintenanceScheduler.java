@@ -0,0 +1,121 @@
+package cc.blynk.server.workers;
+
+import cc.blynk.server.core.stats.JobStats;
+import cc.blynk.server.core.stats.MaintenanceStats;
+import cc.blynk.utils.BlynkTPFactory;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs periodic maintenance jobs within separate lanes, so long bulk jobs
+ * (like reporting truncation that may run for hours on big installations)
+ * don't delay latency critical ones (like reporting flush that should fit within 1 minute).
+ * Every job run is measured, see {@link MaintenanceStats}.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+public class MaintenanceScheduler {
+
+    private static final Logger log = LogManager.getLogger(MaintenanceScheduler.class);
+
+    public enum Lane {
+
+        //jobs that store data from memory, delay here means growing memory and possible data loss
+        FLUSH("DataSaver", Thread.NORM_PRIORITY),
+        //jobs that clean old data, they may be delayed without any harm
+        HOUSEKEEPING("Housekeeping", Thread.MIN_PRIORITY);
+
+        private final String threadName;
+        private final int threadPriority;
+
+        Lane(String threadName, int threadPriority) {
+            this.threadName = threadName;
+            this.threadPriority = threadPriority;
+        }
+    }
+
+    private final MaintenanceStats stats;
+    private final ScheduledExecutorService[] executors;
+
+    public MaintenanceScheduler(MaintenanceStats stats) {
+        this.stats = stats;
+        Lane[] lanes = Lane.values();
+        this.executors = new ScheduledExecutorService[lanes.length];
+        for (Lane lane : lanes) {
+            executors[lane.ordinal()] = Executors.newSingleThreadScheduledExecutor(threadFactory(lane));
+        }
+    }
+
+    private static ThreadFactory threadFactory(Lane lane) {
+        ThreadFactory threadFactory = BlynkTPFactory.build(lane.threadName);
+        return runnable -> {
+            Thread thread = threadFactory.newThread(runnable);
+            thread.setPriority(lane.threadPriority);
+            return thread;
+        };
+    }
+
+    public void scheduleAtFixedRate(Lane lane, String name, Runnable job,
+                                    long initialDelay, long period, TimeUnit unit) {
+        JobStats jobStats = stats.register(name, lane.name(), unit.toMillis(period));
+        MeasuredJob measuredJob = new MeasuredJob(name, job, jobStats,
+                System.nanoTime() + unit.toNanos(initialDelay), unit.toNanos(period));
+        executors[lane.ordinal()].scheduleAtFixedRate(measuredJob, initialDelay, period, unit);
+    }
+
+    public void shutdown() {
+        for (ScheduledExecutorService executor : executors) {
+            executor.shutdown();
+        }
+    }
+
+    private static final class MeasuredJob implements Runnable {
+
+        private final String name;
+        private final Runnable job;
+        private final JobStats jobStats;
+        private final long periodNanos;
+
+        //nanoTime when the job should start according to the schedule
+        private long expectedStart;
+
+        MeasuredJob(String name, Runnable job, JobStats jobStats, long expectedStart, long periodNanos) {
+            this.name = name;
+            this.job = job;
+            this.jobStats = jobStats;
+            this.expectedStart = expectedStart;
+            this.periodNanos = periodNanos;
+        }
+
+        @Override
+        public void run() {
+            long start = System.nanoTime();
+            long lagMillis = Math.max(TimeUnit.NANOSECONDS.toMillis(start - expectedStart), 0);
+            expectedStart += periodNanos;
+
+            boolean failed = false;
+            try {
+                job.run();
+            } catch (Throwable t) {
+                //otherwise exception thrown from the job cancels all its next runs
+                failed = true;
+                log.error("Error running maintenance job {}.", name, t);
+            }
+
+            long durationMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            jobStats.mark(lagMillis, durationMillis, failed);
+            if (durationMillis > jobStats.periodMillis) {
+                log.warn("Maintenance job {} took {} ms, that is longer than its period {} ms.",
+                        name, durationMillis, jobStats.periodMillis);
+            }
+        }
+    }
+
+}
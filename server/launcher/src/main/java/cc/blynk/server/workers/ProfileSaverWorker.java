@@ -4,16 +4,29 @@ import cc.blynk.server.core.dao.FileManager;
 import cc.blynk.server.core.dao.UserDao;
 import cc.blynk.server.core.model.auth.User;
 import cc.blynk.server.core.model.serialization.JsonParser;
+import cc.blynk.server.core.stats.ProfileSaveStats;
 import cc.blynk.server.db.DBManager;
+import cc.blynk.utils.BlynkTPFactory;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.io.Closeable;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Background thread that once a minute stores all user DB to disk in case profile was changed since last saving.
+ * Users with only pin values changed are not rewritten, their values are appended to the values journal.
+ * Profiles are written by the pool of writers. Profiles that were not written within the cycle time budget
+ * are written during the next cycle, so one slow cycle doesn't delay other maintenance jobs.
  *
  * The Blynk Project.
  * Created by Dmitriy Dumanskiy.
@@ -27,35 +40,62 @@ public class ProfileSaverWorker implements Runnable, Closeable {
     private final UserDao userDao;
     private final FileManager fileManager;
     private final DBManager dbManager;
+    private final ProfileSaveStats stats;
+    //null means profiles are written by the caller thread
+    private final ExecutorService writers;
+    private final long cycleBudgetMillis;
+
+    //users that didn't fit into the previous cycle, they are always stored fully
+    private final Set<User> deferred = ConcurrentHashMap.newKeySet();
+
     private long lastStart;
     private long backupTs;
 
     public ProfileSaverWorker(UserDao userDao, FileManager fileManager, DBManager dbManager) {
+        this(userDao, fileManager, dbManager, new ProfileSaveStats(), 1, 0);
+    }
+
+    /**
+     * @param writerThreads - number of threads that write profiles in parallel
+     * @param cycleBudgetMillis - max time of the one saving cycle, 0 means no limit
+     */
+    public ProfileSaverWorker(UserDao userDao, FileManager fileManager, DBManager dbManager,
+                              ProfileSaveStats stats, int writerThreads, long cycleBudgetMillis) {
         this.userDao = userDao;
         this.fileManager = fileManager;
         this.dbManager = dbManager;
+        this.stats = stats;
+        this.writers = writerThreads > 1
+                ? Executors.newFixedThreadPool(writerThreads, BlynkTPFactory.build("ProfileWriter"))
+                : null;
+        this.cycleBudgetMillis = cycleBudgetMillis;
         this.lastStart = System.currentTimeMillis();
         this.backupTs = 0;
     }
 
     @Override
     public void run() {
+        save(cycleBudgetMillis);
+    }
+
+    private void save(long budgetMillis) {
         try {
             log.debug("Starting saving user db.");
 
             final long now = System.currentTimeMillis();
 
-            ArrayList<User> users = saveModified();
+            ArrayList<User> users = saveModified(now, budgetMillis);
 
             dbManager.saveUsers(users);
 
+            //failed backup below should not cause saving of all users again
+            lastStart = now;
+
             //backup only for local mode
             if (dbManager.dbIsNotEnabled() && users.size() > 0) {
                 archiveUser(now);
             }
 
-            lastStart = now;
-
             log.debug("Saving user db finished. Modified {} users.", users.size());
         } catch (Throwable t) {
             log.error("Error saving users.", t);
@@ -79,25 +119,97 @@ public class ProfileSaverWorker implements Runnable, Closeable {
         }
     }
 
-    private ArrayList<User> saveModified() {
-        var users = new ArrayList<User>();
+    //profile is fully rewritten only on structure changes, changed pin values are appended to the journal
+    private ArrayList<User> saveModified(long now, long budgetMillis) throws InterruptedException {
+        var fullSaves = new LinkedHashSet<User>(deferred);
+        deferred.clear();
+        var valueAppends = new ArrayList<User>();
 
         for (User user : userDao.getUsers().values()) {
-            if (user.isUpdated(lastStart)) {
-                try {
-                    fileManager.overrideUserFile(user);
-                    users.add(user);
-                } catch (Exception e) {
-                    log.error("Error saving : {}.", user);
-                }
+            if (user.isUpdated(lastStart) || user.profile.valueJournal.needsFullSave()) {
+                fullSaves.add(user);
+            } else if (user.profile.valueJournal.hasPending() && !fullSaves.contains(user)) {
+                valueAppends.add(user);
             }
         }
 
-        return users;
+        long deadline = budgetMillis > 0 ? now + budgetMillis : Long.MAX_VALUE;
+        var saved = new ConcurrentLinkedQueue<User>();
+        var bytes = new LongAdder();
+        var latch = new CountDownLatch(fullSaves.size() + valueAppends.size());
+        for (User user : fullSaves) {
+            write(new SaveTask(user, true, deadline, saved, bytes, latch));
+        }
+        for (User user : valueAppends) {
+            write(new SaveTask(user, false, deadline, saved, bytes, latch));
+        }
+        latch.await();
+
+        long durationMillis = System.currentTimeMillis() - now;
+        stats.mark(fullSaves.size(), valueAppends.size(), deferred.size(), bytes.sum(), durationMillis);
+        if (deferred.size() > 0) {
+            log.warn("Saving profiles took longer than {} ms. {} profiles are moved to the next cycle.",
+                    budgetMillis, deferred.size());
+        }
+        return new ArrayList<>(saved);
+    }
+
+    private void write(SaveTask saveTask) {
+        if (writers == null) {
+            saveTask.run();
+        } else {
+            writers.execute(saveTask);
+        }
+    }
+
+    private final class SaveTask implements Runnable {
+
+        private final User user;
+        private final boolean fullSave;
+        private final long deadline;
+        private final ConcurrentLinkedQueue<User> saved;
+        private final LongAdder bytes;
+        private final CountDownLatch latch;
+
+        SaveTask(User user, boolean fullSave, long deadline,
+                 ConcurrentLinkedQueue<User> saved, LongAdder bytes, CountDownLatch latch) {
+            this.user = user;
+            this.fullSave = fullSave;
+            this.deadline = deadline;
+            this.saved = saved;
+            this.bytes = bytes;
+            this.latch = latch;
+        }
+
+        @Override
+        public void run() {
+            try {
+                //at least one profile is saved within the cycle, so saving always moves forward
+                if (System.currentTimeMillis() > deadline && !saved.isEmpty()) {
+                    deferred.add(user);
+                    return;
+                }
+                if (fullSave) {
+                    bytes.add(fileManager.overrideUserFile(user));
+                } else {
+                    bytes.add(fileManager.appendUserValues(user));
+                }
+                saved.add(user);
+            } catch (Exception e) {
+                stats.markError();
+                log.error("Error saving : {}.", user);
+            } finally {
+                latch.countDown();
+            }
+        }
     }
 
     @Override
     public void close() {
-        run();
+        //everything should be stored on shutdown, so no time limit here
+        save(0);
+        if (writers != null) {
+            writers.shutdown();
+        }
     }
 }
@@ -2,23 +2,19 @@ package cc.blynk.server.workers;
 
 import cc.blynk.server.core.dao.CSVGenerator;
 import cc.blynk.server.core.dao.ReportingDiskDao;
+import cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType;
+import cc.blynk.server.internal.IOBudget;
 import cc.blynk.utils.FileUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.io.IOException;
-import java.io.OutputStream;
-import java.nio.ByteBuffer;
 import java.nio.file.DirectoryStream;
-import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.PathMatcher;
 import java.nio.file.Paths;
 import java.util.concurrent.TimeUnit;
 
-import static cc.blynk.utils.ReportingUtil.REPORTING_RECORD_SIZE;
-import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
 
 /**
  * The Blynk Project.
@@ -29,19 +25,33 @@ public class ReportingTruncateWorker implements Runnable {
 
     private static final Logger log = LogManager.getLogger(ReportingTruncateWorker.class);
 
+    private static final String MINUTE_FILE_SUFFIX = "_" + GraphGranularityType.MINUTE.label + ".bin";
+
     private final ReportingDiskDao reportingDao;
     private final long exportExpirePeriod;
     private final int maxRecordsCount;
+    private final IOBudget ioBudget;
 
     public ReportingTruncateWorker(ReportingDiskDao reportingDao, int storeMinuteRecordDays) {
+        this(reportingDao, storeMinuteRecordDays, IOBudget.UNLIMITED);
+    }
+
+    public ReportingTruncateWorker(ReportingDiskDao reportingDao, int storeMinuteRecordDays, IOBudget ioBudget) {
         //storing minute points only for 10 days
-        this(reportingDao, (int) TimeUnit.DAYS.toMinutes(storeMinuteRecordDays), TimeUnit.DAYS.toMillis(45));
+        this(reportingDao, (int) TimeUnit.DAYS.toMinutes(storeMinuteRecordDays),
+                TimeUnit.DAYS.toMillis(45), ioBudget);
     }
 
     public ReportingTruncateWorker(ReportingDiskDao reportingDao, int maxRecordsCount, long exportExpirePeriod) {
+        this(reportingDao, maxRecordsCount, exportExpirePeriod, IOBudget.UNLIMITED);
+    }
+
+    public ReportingTruncateWorker(ReportingDiskDao reportingDao, int maxRecordsCount, long exportExpirePeriod,
+                                   IOBudget ioBudget) {
         this.reportingDao = reportingDao;
         this.maxRecordsCount = maxRecordsCount;
         this.exportExpirePeriod = exportExpirePeriod;
+        this.ioBudget = ioBudget;
     }
 
     @Override
@@ -75,6 +85,7 @@ public class ReportingTruncateWorker implements Runnable {
                     counter++;
                     Files.delete(csvFile);
                 }
+                ioBudget.spend(1, 0);
             }
         }
         return counter;
@@ -86,50 +97,6 @@ public class ReportingTruncateWorker implements Runnable {
     }
 
     private int truncateOutdatedData() throws Exception {
-        int truncatedFilesCounter = 0;
-
-        Path reportingFolderPath = Paths.get(reportingDao.dataFolder);
-        if (Files.notExists(reportingFolderPath)) {
-            return 0;
-        }
-
-        try (DirectoryStream<Path> reportingFolder = Files.newDirectoryStream(reportingFolderPath, "*")) {
-            for (Path userReportingDirectory : reportingFolder) {
-                if (Files.isDirectory(userReportingDirectory)) {
-                    int filesCounter = 0;
-                    try {
-                        try (DirectoryStream<Path> userReportingFolder = directoryStream(userReportingDirectory)) {
-                            for (Path userReportingFile : userReportingFolder) {
-                                filesCounter++;
-                                long fileSize = Files.size(userReportingFile);
-                                if (fileSize > maxRecordsCount * REPORTING_RECORD_SIZE) {
-                                    ByteBuffer userReportingData = FileUtils.read(userReportingFile, maxRecordsCount);
-                                    try (OutputStream os =
-                                                 Files.newOutputStream(userReportingFile, TRUNCATE_EXISTING)) {
-                                        os.write(userReportingData.array());
-                                    }
-                                    truncatedFilesCounter++;
-                                }
-                            }
-                        }
-                        if (filesCounter == 0) {
-                            Files.delete(userReportingDirectory);
-                        }
-                    } catch (Exception e) {
-                        log.error("Truncation failed for {}. Reason : {}.", userReportingDirectory, e.getMessage());
-                    }
-                }
-            }
-        }
-        return truncatedFilesCounter;
-    }
-
-    private static final PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:*_minute.bin");
-    private static final DirectoryStream.Filter<Path> filter = entry -> matcher.matches(entry.getFileName());
-
-    //utility method to avoid allocation of PathMatcher
-    private DirectoryStream<Path> directoryStream(Path dir) throws IOException {
-        // create a matcher and return a filter that uses it.
-        return dir.getFileSystem().provider().newDirectoryStream(dir, filter);
+        return reportingDao.storage.truncate(MINUTE_FILE_SUFFIX, maxRecordsCount, ioBudget);
     }
 }
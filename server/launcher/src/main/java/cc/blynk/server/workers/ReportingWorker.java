@@ -3,23 +3,31 @@ package cc.blynk.server.workers;
 import cc.blynk.server.core.dao.ReportingDiskDao;
 import cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType;
 import cc.blynk.server.core.reporting.average.AggregationKey;
+import cc.blynk.server.core.reporting.average.AggregationTable;
 import cc.blynk.server.core.reporting.average.AggregationValue;
+import cc.blynk.server.core.reporting.raw.BaseReportingKey;
+import cc.blynk.server.core.stats.GlobalStats;
 import cc.blynk.server.db.ReportingDBManager;
+import cc.blynk.utils.BlynkTPFactory;
 import cc.blynk.utils.FileUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.nio.ByteBuffer;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import static cc.blynk.server.core.dao.ReportingDiskDao.generateFilename;
+import static cc.blynk.utils.FileUtils.SIZE_OF_REPORT_ENTRY;
 
 /**
  * Worker that runs once a minute. During run - stores all aggregated reporting data
@@ -34,31 +42,58 @@ public class ReportingWorker implements Runnable {
     private static final Logger log = LogManager.getLogger(ReportingWorker.class);
 
     private final ReportingDiskDao reportingDao;
-    private final String reportingPath;
     private final ReportingDBManager reportingDBManager;
+    private final GlobalStats globalStats;
 
-    public ReportingWorker(ReportingDiskDao reportingDao,
-                           String reportingPath, ReportingDBManager reportingDBManager) {
+    //minute, hourly and daily data are flushed in parallel.
+    //threads are not needed between runs, so they are released when idle
+    private final ThreadPoolExecutor flushExecutor;
+
+    public ReportingWorker(ReportingDiskDao reportingDao, ReportingDBManager reportingDBManager,
+                           GlobalStats globalStats) {
         this.reportingDao = reportingDao;
-        this.reportingPath = reportingPath;
         this.reportingDBManager = reportingDBManager;
+        this.globalStats = globalStats;
+        int granularities = GraphGranularityType.getValues().length;
+        this.flushExecutor = new ThreadPoolExecutor(granularities, granularities, 10, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), BlynkTPFactory.build("ReportingFlush"));
+        this.flushExecutor.allowCoreThreadTimeOut(true);
     }
 
     @Override
     public void run() {
         try {
-            Map<AggregationKey, AggregationValue> removedKeysMinute =
-                    process(reportingDao.averageAggregator.getMinute(), GraphGranularityType.MINUTE);
-            Map<AggregationKey, AggregationValue> removedKeysHour =
-                    process(reportingDao.averageAggregator.getHourly(), GraphGranularityType.HOURLY);
-            Map<AggregationKey, AggregationValue> removedKeysDay =
-                    process(reportingDao.averageAggregator.getDaily(), GraphGranularityType.DAILY);
-
-            reportingDBManager.insertReporting(removedKeysMinute, GraphGranularityType.MINUTE);
-            reportingDBManager.insertReporting(removedKeysHour, GraphGranularityType.HOURLY);
-            reportingDBManager.insertReporting(removedKeysDay, GraphGranularityType.DAILY);
-
-            reportingDBManager.insertReportingRaw(reportingDao.rawDataProcessor.rawStorage);
+            long start = System.currentTimeMillis();
+
+            Future<FlushResult> minuteFuture = flushExecutor.submit(
+                    () -> process(reportingDao.averageAggregator.getMinute(), GraphGranularityType.MINUTE));
+            Future<FlushResult> hourFuture = flushExecutor.submit(
+                    () -> process(reportingDao.averageAggregator.getHourly(), GraphGranularityType.HOURLY));
+            Future<FlushResult> dayFuture = flushExecutor.submit(
+                    () -> process(reportingDao.averageAggregator.getDaily(), GraphGranularityType.DAILY));
+
+            FlushResult minute = minuteFuture.get();
+            FlushResult hour = hourFuture.get();
+            FlushResult day = dayFuture.get();
+            reportingDao.averageAggregator.storeFlushWatermarks();
+
+            //only not yet flushed entries are left, so it is the right moment to store them
+            long checkpoint = reportingDao.checkpoint();
+            //pins that are not updated anymore don't need live graph data
+            reportingDao.rawDataCacheForGraphProcessor.removeIdle(start);
+
+            globalStats.reportingFlush.mark(
+                    minute.entries + hour.entries + day.entries,
+                    minute.files + hour.files + day.files,
+                    System.currentTimeMillis() - start);
+
+            reportingDBManager.insertReporting(minute.removedKeys, GraphGranularityType.MINUTE);
+            reportingDBManager.insertReporting(hour.removedKeys, GraphGranularityType.HOURLY);
+            reportingDBManager.insertReporting(day.removedKeys, GraphGranularityType.DAILY);
+
+            //wal records are needed till their raw data is stored
+            reportingDBManager.insertReportingRaw(reportingDao.rawDataProcessor.rawStorage,
+                    () -> reportingDao.truncateWal(checkpoint));
 
             reportingDBManager.cleanOldReportingRecords(Instant.now());
         } catch (Exception e) {
@@ -67,54 +102,86 @@ public class ReportingWorker implements Runnable {
     }
 
     /**
-     * Iterates over all reporting entries that were created during last minute.
-     * And stores all entries one by one to disk.
+     * Removes all reporting entries that are outdated for the given granularity.
+     * Groups them by the series file, so every file is opened
+     * and written only once per run with all its entries.
      *
-     * @param map - reporting entires that were created during last minute.
+     * @param table - reporting entires that were aggregated so far.
      * @param type - type of reporting. Could be minute, hourly, daily.
      * @return - returns list of reporting entries that were successfully flushed to disk.
      */
-    private Map<AggregationKey, AggregationValue>  process(Map<AggregationKey, AggregationValue> map,
-                                                           GraphGranularityType type) {
-        if (map.size() == 0) {
-            return Collections.emptyMap();
+    private FlushResult process(AggregationTable table, GraphGranularityType type) {
+        if (table.isEmpty()) {
+            return FlushResult.EMPTY;
         }
 
-        Set<AggregationKey> aggregationKeySet = map.keySet();
-        AggregationKey[] keys = aggregationKeySet.toArray(new AggregationKey[0]);
+        long nowTruncatedToPeriod = System.currentTimeMillis() / type.period;
+        Map<AggregationKey, AggregationValue> outdated = table.removeOutdated(nowTruncatedToPeriod);
+        if (outdated.isEmpty()) {
+            return FlushResult.EMPTY;
+        }
+
+        AggregationKey[] keys = outdated.keySet().toArray(new AggregationKey[0]);
         Arrays.sort(keys, AggregationKey.AGGREGATION_KEY_COMPARATOR);
 
+        //keys are sorted, so entries within every series are ordered by ts
+        var series = new HashMap<BaseReportingKey, List<AggregationKey>>();
+        int maxSeriesSize = 0;
+        for (AggregationKey key : keys) {
+            List<AggregationKey> seriesKeys =
+                    series.computeIfAbsent(key.getBaseReportingKey(), k -> new ArrayList<>());
+            seriesKeys.add(key);
+            maxSeriesSize = Math.max(maxSeriesSize, seriesKeys.size());
+        }
+
         var removedKeys = new HashMap<AggregationKey, AggregationValue>();
+        //single buffer is reused for all files
+        ByteBuffer buffer = ByteBuffer.allocate(maxSeriesSize * SIZE_OF_REPORT_ENTRY);
+        int entries = 0;
+
+        for (Map.Entry<BaseReportingKey, List<AggregationKey>> entry : series.entrySet()) {
+            BaseReportingKey baseKey = entry.getKey();
+            List<AggregationKey> seriesKeys = entry.getValue();
+            try {
+                buffer.clear();
+                for (AggregationKey key : seriesKeys) {
+                    AggregationValue value = outdated.get(key);
+                    buffer.putDouble(value.calcAverage())
+                          .putLong(key.getTs(type));
+                }
+                buffer.flip();
 
-        long nowTruncatedToPeriod = System.currentTimeMillis() / type.period;
-        for (AggregationKey keyToRemove : keys) {
-            //if prev hour
-            if (keyToRemove.isOutdated(nowTruncatedToPeriod)) {
-                AggregationValue value = map.get(keyToRemove);
-
-                try {
-                    Path userReportFolder = Paths.get(reportingPath,
-                            FileUtils.getUserStorageDir(keyToRemove.getEmail(), keyToRemove.getAppName()));
-                    if (Files.notExists(userReportFolder)) {
-                        Files.createDirectories(userReportFolder);
-                    }
-
-                    String fileName = generateFilename(keyToRemove.getDashId(),
-                            keyToRemove.getDeviceId(), keyToRemove.getPinType(), keyToRemove.getPin(), type);
-                    Path filePath = Paths.get(userReportFolder.toString(), fileName);
-
-                    FileUtils.write(filePath, value.calcAverage(), keyToRemove.getTs(type));
-
-                    removedKeys.put(keyToRemove, value);
-                } catch (Exception ioe) {
-                    log.error("Error writing reporting file. Reason : {}", ioe.getMessage());
-                } finally {
-                    map.remove(keyToRemove);
+                String userDir = FileUtils.getUserStorageDir(baseKey.email, baseKey.appName);
+                String fileName = generateFilename(baseKey.dashId, baseKey.deviceId,
+                        baseKey.pinType, baseKey.pin, type);
+
+                reportingDao.storage.write(userDir, fileName, buffer);
+
+                for (AggregationKey key : seriesKeys) {
+                    removedKeys.put(key, outdated.get(key));
                 }
+                entries += seriesKeys.size();
+            } catch (Exception ioe) {
+                log.error("Error writing reporting file. Reason : {}", ioe.getMessage());
             }
         }
 
-        return removedKeys;
+        return new FlushResult(removedKeys, entries, series.size());
+    }
+
+    private static final class FlushResult {
+
+        private static final FlushResult EMPTY = new FlushResult(Collections.emptyMap(), 0, 0);
+
+        private final Map<AggregationKey, AggregationValue> removedKeys;
+        private final int entries;
+        private final int files;
+
+        private FlushResult(Map<AggregationKey, AggregationValue> removedKeys, int entries, int files) {
+            this.removedKeys = removedKeys;
+            this.entries = entries;
+            this.files = files;
+        }
     }
 
 }
@@ -3,8 +3,6 @@ package cc.blynk.server.workers;
 import cc.blynk.server.Holder;
 import cc.blynk.server.servers.BaseServer;
 
-import java.util.concurrent.ScheduledExecutorService;
-
 /**
  * Used to close and store all important info to disk.
  *
@@ -17,10 +15,10 @@ public class ShutdownHookWorker implements Runnable {
     private final BaseServer[] servers;
     private final Holder holder;
     private final ProfileSaverWorker profileSaverWorker;
-    private final ScheduledExecutorService scheduler;
+    private final MaintenanceScheduler scheduler;
 
     public ShutdownHookWorker(BaseServer[] servers, Holder holder,
-                              ScheduledExecutorService scheduler,
+                              MaintenanceScheduler scheduler,
                               ProfileSaverWorker profileSaverWorker) {
         this.servers = servers;
         this.holder = holder;
@@ -53,6 +51,19 @@ public class ShutdownHookWorker implements Runnable {
         System.out.println("Saving user profiles...");
         profileSaverWorker.close();
 
+        if (holder.profileLoader != null && !holder.profileLoader.isLoaded()) {
+            //not read profiles are not within the userDao, so new snapshot would miss them
+            System.out.println("Not all profiles were read from the snapshot. Keeping it.");
+        } else if (holder.props.getBoolProperty("profiles.snapshot.enabled")) {
+            System.out.println("Writing user profiles snapshot...");
+            try {
+                int count = holder.fileManager.writeProfilesSnapshot(holder.userDao.users.values());
+                System.out.println("Snapshot contains " + count + " profiles.");
+            } catch (Exception e) {
+                System.out.println("Error writing profiles snapshot : " + e.getMessage());
+            }
+        }
+
         System.out.println("Done.");
     }
 
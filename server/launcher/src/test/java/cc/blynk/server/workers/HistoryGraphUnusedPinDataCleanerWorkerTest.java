@@ -0,0 +1,49 @@
+package cc.blynk.server.workers;
+
+import cc.blynk.server.core.dao.ReportingDiskDao;
+import cc.blynk.server.core.dao.UserDao;
+import cc.blynk.server.core.dao.UserKey;
+import cc.blynk.server.core.model.auth.User;
+import cc.blynk.server.core.model.enums.PinType;
+import cc.blynk.server.core.reporting.raw.BaseReportingKey;
+import cc.blynk.server.core.reporting.raw.RawDataBuffer;
+import cc.blynk.utils.AppNameUtil;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+public class HistoryGraphUnusedPinDataCleanerWorkerTest {
+
+    @Test
+    public void cleanerKeepsNotStoredRawData() throws Exception {
+        String reportingFolder = Files.createTempDirectory("cleaner_test").toString();
+        ReportingDiskDao reportingDao = new ReportingDiskDao(reportingFolder, true);
+
+        User user = new User("test@test.com", "", AppNameUtil.BLYNK, "local", "127.0.0.1", false, false);
+        ConcurrentMap<UserKey, User> users = new ConcurrentHashMap<>();
+        users.put(new UserKey(user), user);
+        UserDao userDao = new UserDao(users, "local", "127.0.0.1");
+
+        //pin is not shown on any graph
+        reportingDao.rawDataProcessor.collect(new BaseReportingKey(user.email, user.appName,
+                1, 0, PinType.VIRTUAL, (short) 1), System.currentTimeMillis(), "1", 1);
+        RawDataBuffer rawStorage = reportingDao.rawDataProcessor.rawStorage;
+        assertEquals(1, rawStorage.size());
+
+        user.lastModifiedTs = System.currentTimeMillis() + 1000;
+        new HistoryGraphUnusedPinDataCleanerWorker(userDao, reportingDao).run();
+
+        assertEquals(1, rawStorage.size());
+        rawStorage.drain(10, chunk -> assertEquals(1, chunk.getKey(0).dashId));
+    }
+
+}
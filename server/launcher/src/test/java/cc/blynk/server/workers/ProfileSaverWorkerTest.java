@@ -4,8 +4,10 @@ import cc.blynk.server.core.BlockingIOProcessor;
 import cc.blynk.server.core.dao.FileManager;
 import cc.blynk.server.core.dao.UserDao;
 import cc.blynk.server.core.dao.UserKey;
+import cc.blynk.server.core.model.DashBoard;
 import cc.blynk.server.core.model.auth.User;
 import cc.blynk.server.core.stats.GlobalStats;
+import cc.blynk.server.core.stats.ProfileSaveStats;
 import cc.blynk.server.db.DBManager;
 import cc.blynk.utils.AppNameUtil;
 import org.junit.Test;
@@ -19,7 +21,10 @@ import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
+import static cc.blynk.server.core.model.enums.PinType.VIRTUAL;
+import static org.junit.Assert.assertEquals;
 import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
@@ -92,4 +97,62 @@ public class ProfileSaverWorkerTest {
         verifyNoMoreInteractions(fileManager);
     }
 
+    @Test
+    public void testOnlyValuesOfProfileAreSaved() throws Exception {
+        User user1 = new User("1", "", AppNameUtil.BLYNK, "local", "127.0.0.1", false, false);
+        DashBoard dash = new DashBoard();
+        dash.id = 1;
+        user1.profile.dashBoards = new DashBoard[] {dash};
+
+        Map<UserKey, User> userMap = new HashMap<>();
+        userMap.put(new UserKey("1", AppNameUtil.BLYNK), user1);
+
+        Thread.sleep(1);
+
+        ProfileSaverWorker profileSaverWorker = new ProfileSaverWorker(userDao, fileManager, new DBManager(blockingIOProcessor, true));
+        user1.profile.update(dash, 0, (short) 1, VIRTUAL, "1", System.currentTimeMillis());
+
+        when(userDao.getUsers()).thenReturn(userMap);
+        profileSaverWorker.run();
+
+        verify(fileManager).appendUserValues(user1);
+        verify(fileManager, never()).overrideUserFile(any());
+    }
+
+    @Test
+    public void testProfilesNotFitIntoBudgetAreSavedInNextCycle() throws Exception {
+        ProfileSaveStats profileSaveStats = new ProfileSaveStats();
+        ProfileSaverWorker profileSaverWorker = new ProfileSaverWorker(userDao, fileManager,
+                new DBManager(blockingIOProcessor, true), profileSaveStats, 1, 1);
+
+        User user1 = new User("1", "", AppNameUtil.BLYNK, "local", "127.0.0.1", false, false);
+        User user2 = new User("2", "", AppNameUtil.BLYNK, "local", "127.0.0.1", false, false);
+
+        Map<UserKey, User> userMap = new HashMap<>();
+        userMap.put(new UserKey("1", AppNameUtil.BLYNK), user1);
+        userMap.put(new UserKey("2", AppNameUtil.BLYNK), user2);
+
+        Thread.sleep(1);
+
+        when(userDao.getUsers()).thenReturn(userMap);
+        when(fileManager.overrideUserFile(any())).thenAnswer(invocation -> {
+            Thread.sleep(10);
+            return 100;
+        });
+        profileSaverWorker.run();
+
+        verify(fileManager, times(1)).overrideUserFile(any());
+        assertEquals(1, profileSaveStats.getLastFullSaves() - profileSaveStats.getLastDeferred());
+        assertEquals(1, profileSaveStats.getLastDeferred());
+        assertEquals(100, profileSaveStats.getLastBytes());
+
+        //users are not changed anymore, but deferred one should be saved
+        profileSaverWorker.run();
+
+        verify(fileManager, times(2)).overrideUserFile(any());
+        verify(fileManager).overrideUserFile(user1);
+        verify(fileManager).overrideUserFile(user2);
+        assertEquals(0, profileSaveStats.getLastDeferred());
+    }
+
 }
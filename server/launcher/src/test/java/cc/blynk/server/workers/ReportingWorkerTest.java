@@ -6,8 +6,10 @@ import cc.blynk.server.core.model.auth.User;
 import cc.blynk.server.core.model.enums.PinType;
 import cc.blynk.server.core.model.widgets.outputs.graph.GraphGranularityType;
 import cc.blynk.server.core.reporting.average.AggregationKey;
+import cc.blynk.server.core.reporting.average.AggregationTable;
 import cc.blynk.server.core.reporting.average.AggregationValue;
 import cc.blynk.server.core.reporting.average.AverageAggregatorProcessor;
+import cc.blynk.server.core.stats.GlobalStats;
 import cc.blynk.server.db.ReportingDBManager;
 import cc.blynk.utils.AppNameUtil;
 import cc.blynk.utils.properties.ServerProperties;
@@ -28,7 +30,6 @@ import java.nio.file.Paths;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
-import java.util.concurrent.ConcurrentHashMap;
 
 import static cc.blynk.server.core.dao.ReportingDiskDao.generateFilename;
 import static org.junit.Assert.assertEquals;
@@ -90,9 +91,9 @@ public class ReportingWorkerTest {
         user.email = "test";
         user.appName = AppNameUtil.BLYNK;
         ReportingWorker reportingWorker = new ReportingWorker(reportingDaoMock,
-                reportingFolder, new ReportingDBManager(blockingIOProcessor, true));
+                new ReportingDBManager(blockingIOProcessor, true), new GlobalStats());
 
-        ConcurrentHashMap<AggregationKey, AggregationValue> map = new ConcurrentHashMap<>();
+        AggregationTable map = new AggregationTable();
 
         long ts = getTS() / AverageAggregatorProcessor.HOUR;
 
@@ -104,6 +105,8 @@ public class ReportingWorkerTest {
         map.put(aggregationKey, aggregationValue);
 
         when(averageAggregator.getMinute()).thenReturn(map);
+        when(averageAggregator.getHourly()).thenReturn(new AggregationTable());
+        when(averageAggregator.getDaily()).thenReturn(new AggregationTable());
 
         reportingWorker.run();
         assertTrue(map.isEmpty());
@@ -115,9 +118,9 @@ public class ReportingWorkerTest {
         user.email = "test";
         user.appName = AppNameUtil.BLYNK;
         ReportingWorker reportingWorker = new ReportingWorker(reportingDaoMock,
-                reportingFolder, new ReportingDBManager(blockingIOProcessor, true));
+                new ReportingDBManager(blockingIOProcessor, true), new GlobalStats());
 
-        ConcurrentHashMap<AggregationKey, AggregationValue> map = new ConcurrentHashMap<>();
+        AggregationTable map = new AggregationTable();
 
         long ts = getTS() / AverageAggregatorProcessor.HOUR;
 
@@ -135,9 +138,9 @@ public class ReportingWorkerTest {
         map.put(aggregationKey2, aggregationValue2);
         map.put(aggregationKey3, aggregationValue3);
 
-        when(averageAggregator.getMinute()).thenReturn(new ConcurrentHashMap<>());
+        when(averageAggregator.getMinute()).thenReturn(new AggregationTable());
         when(averageAggregator.getHourly()).thenReturn(map);
-        when(averageAggregator.getDaily()).thenReturn(new ConcurrentHashMap<>());
+        when(averageAggregator.getDaily()).thenReturn(new AggregationTable());
 
         reportingWorker.run();
 
@@ -171,9 +174,9 @@ public class ReportingWorkerTest {
     @Test
     public void testStore2() {
         ReportingWorker reportingWorker = new ReportingWorker(reportingDaoMock,
-                reportingFolder, new ReportingDBManager(blockingIOProcessor, true));
+                new ReportingDBManager(blockingIOProcessor, true), new GlobalStats());
 
-        ConcurrentHashMap<AggregationKey, AggregationValue> map = new ConcurrentHashMap<>();
+        AggregationTable map = new AggregationTable();
 
         long ts = getTS() / AverageAggregatorProcessor.HOUR;
 
@@ -191,9 +194,9 @@ public class ReportingWorkerTest {
         map.put(aggregationKey2, aggregationValue2);
         map.put(aggregationKey3, aggregationValue3);
 
-        when(averageAggregator.getMinute()).thenReturn(new ConcurrentHashMap<>());
+        when(averageAggregator.getMinute()).thenReturn(new AggregationTable());
         when(averageAggregator.getHourly()).thenReturn(map);
-        when(averageAggregator.getDaily()).thenReturn(new ConcurrentHashMap<>());
+        when(averageAggregator.getDaily()).thenReturn(new AggregationTable());
 
         reportingWorker.run();
 
@@ -234,9 +237,9 @@ public class ReportingWorkerTest {
     @Test
     public void testDeleteCommand() {
         ReportingWorker reportingWorker = new ReportingWorker(reportingDaoMock,
-                reportingFolder, new ReportingDBManager(blockingIOProcessor, true));
+                new ReportingDBManager(blockingIOProcessor, true), new GlobalStats());
 
-        ConcurrentHashMap<AggregationKey, AggregationValue> map = new ConcurrentHashMap<>();
+        AggregationTable map = new AggregationTable();
 
         long ts = getTS() / AverageAggregatorProcessor.HOUR;
 
@@ -254,9 +257,9 @@ public class ReportingWorkerTest {
         map.put(aggregationKey2, aggregationValue2);
         map.put(aggregationKey3, aggregationValue3);
 
-        when(averageAggregator.getMinute()).thenReturn(new ConcurrentHashMap<>());
+        when(averageAggregator.getMinute()).thenReturn(new AggregationTable());
         when(averageAggregator.getHourly()).thenReturn(map);
-        when(averageAggregator.getDaily()).thenReturn(new ConcurrentHashMap<>());
+        when(averageAggregator.getDaily()).thenReturn(new AggregationTable());
         when(properties.getProperty("data.folder")).thenReturn(System.getProperty("java.io.tmpdir"));
 
         reportingWorker.run();
@@ -11,7 +11,7 @@ import cc.blynk.server.core.model.auth.Session;
 import cc.blynk.server.core.model.auth.User;
 import cc.blynk.server.core.model.serialization.JsonParser;
 import cc.blynk.server.core.protocol.model.messages.appllication.LoginMessage;
-import cc.blynk.server.internal.ReregisterChannelUtil;
+import cc.blynk.server.internal.SessionLoopUtil;
 import cc.blynk.utils.AppNameUtil;
 import cc.blynk.utils.IPUtils;
 import io.netty.channel.Channel;
@@ -179,8 +179,6 @@ public class MobileLoginHandler extends SimpleChannelInboundHandler<LoginMessage
         cleanPipeline(pipeline);
 
         var appStateHolder = new MobileStateHolder(user, version);
-        pipeline.addLast("AAppHandler", new MobileHandler(holder, appStateHolder));
-
         var channel = ctx.channel();
 
         //todo back compatibility code. remove in future.
@@ -189,13 +187,10 @@ public class MobileLoginHandler extends SimpleChannelInboundHandler<LoginMessage
         }
 
         var session = holder.sessionDao.getOrCreateSessionByUser(appStateHolder.userKey, channel.eventLoop());
-        if (session.isSameEventLoop(channel)) {
-            completeLogin(channel, session, user, messageId, version);
-        } else {
-            log.debug("Re registering app channel. {}", ctx.channel());
-            ReregisterChannelUtil.reRegisterChannel(ctx, session, channelFuture ->
-                    completeLogin(channelFuture.channel(), session, user, messageId, version));
-        }
+        log.debug("Handing off app channel to session loop. {}", channel);
+        pipeline.addLast(session.initialEventLoop, "AAppHandler", new MobileHandler(holder, appStateHolder));
+        SessionLoopUtil.execute(session.initialEventLoop,
+                () -> completeLogin(channel, session, user, messageId, version));
     }
 
     private void completeLogin(Channel channel, Session session, User user, int msgId, Version version) {
@@ -60,7 +60,7 @@ public final class MobileUpdateFaceLogic {
         int count = 0;
         log.info("Updating face {} for user {}-{}. App Ids : {}", parentDashId,
                 user.email, user.appName, JsonParser.valueToJsonAsString(appIds));
-        for (User existingUser : holder.userDao.users.values()) {
+        for (User existingUser : holder.userDao.getAllUsers()) {
             for (DashBoard existingDash : existingUser.profile.dashBoards) {
                 if (existingDash.parentId == parentDashId && (existingUser == user
                         || appIds.contains(existingUser.appName))) {
@@ -12,7 +12,7 @@ import cc.blynk.server.core.model.DashBoard;
 import cc.blynk.server.core.model.auth.Session;
 import cc.blynk.server.core.model.auth.User;
 import cc.blynk.server.core.protocol.model.messages.appllication.sharing.ShareLoginMessage;
-import cc.blynk.server.internal.ReregisterChannelUtil;
+import cc.blynk.server.internal.SessionLoopUtil;
 import cc.blynk.utils.StringUtils;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandler;
@@ -88,18 +88,16 @@ public class MobileShareLoginHandler extends SimpleChannelInboundHandler<ShareLo
 
         cleanPipeline(ctx.pipeline());
         MobileShareStateHolder mobileShareStateHolder = new MobileShareStateHolder(user, version, token, dashId);
-        ctx.pipeline().addLast("AAppSHareHandler", new MobileShareHandler(holder, mobileShareStateHolder));
 
+        Channel channel = ctx.channel();
         Session session = holder.sessionDao.getOrCreateSessionByUser(
-                mobileShareStateHolder.userKey, ctx.channel().eventLoop());
+                mobileShareStateHolder.userKey, channel.eventLoop());
 
-        if (session.isSameEventLoop(ctx)) {
-            completeLogin(ctx.channel(), session, user.email, messageId);
-        } else {
-            log.debug("Re registering app channel. {}", ctx.channel());
-            ReregisterChannelUtil.reRegisterChannel(ctx, session, channelFuture ->
-                    completeLogin(channelFuture.channel(), session, user.email, messageId));
-        }
+        log.debug("Handing off app channel to session loop. {}", channel);
+        ctx.pipeline().addLast(session.initialEventLoop,
+                "AAppSHareHandler", new MobileShareHandler(holder, mobileShareStateHolder));
+        SessionLoopUtil.execute(session.initialEventLoop,
+                () -> completeLogin(channel, session, user.email, messageId));
     }
 
     private void completeLogin(Channel channel, Session session, String userName, int msgId) {
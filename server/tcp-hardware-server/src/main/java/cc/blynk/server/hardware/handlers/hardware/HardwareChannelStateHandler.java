@@ -7,11 +7,13 @@ import cc.blynk.server.core.model.auth.Session;
 import cc.blynk.server.core.model.device.Device;
 import cc.blynk.server.core.model.device.Status;
 import cc.blynk.server.core.model.widgets.notifications.Notification;
+import cc.blynk.server.internal.SessionLoopUtil;
 import cc.blynk.server.notifications.push.GCMWrapper;
 import cc.blynk.utils.properties.Placeholders;
 import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.EventLoop;
 import io.netty.handler.timeout.IdleStateEvent;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -52,7 +54,10 @@ public class HardwareChannelStateHandler extends ChannelInboundHandlerAdapter {
                 var device = state.device;
                 log.trace("Hardware channel disconnect for {}, dashId {}, deviceId {}, token {}.",
                         state.userKey, state.dash.id, device.id, device.token);
-                sentOfflineMessage(ctx, session, state.dash, device);
+                //status and offline messages are handled by the loop that processes the user
+                var sessionLoop = session.initialEventLoop;
+                SessionLoopUtil.execute(sessionLoop,
+                        () -> sentOfflineMessage(sessionLoop, session, state.dash, device));
             }
         }
     }
@@ -68,7 +73,7 @@ public class HardwareChannelStateHandler extends ChannelInboundHandlerAdapter {
         }
     }
 
-    private void sentOfflineMessage(ChannelHandlerContext ctx, Session session, DashBoard dashBoard, Device device) {
+    private void sentOfflineMessage(EventLoop sessionLoop, Session session, DashBoard dashBoard, Device device) {
         //this is special case.
         //in case hardware quickly reconnects we do not mark it as disconnected
         //as it is already online after quick disconnect.
@@ -86,13 +91,13 @@ public class HardwareChannelStateHandler extends ChannelInboundHandlerAdapter {
         Notification notification = dashBoard.getNotificationWidget();
 
         if (notification != null && notification.notifyWhenOffline) {
-            sendPushNotification(ctx, session, notification, dashBoard, device);
+            sendPushNotification(sessionLoop, session, notification, dashBoard, device);
         } else if (!dashBoard.isNotificationsOff) {
             session.sendOfflineMessageToApps(dashBoard.id, device.id);
         }
     }
 
-    private void sendPushNotification(ChannelHandlerContext ctx, Session session,
+    private void sendPushNotification(EventLoop sessionLoop, Session session,
                                       Notification notification, DashBoard dash, Device device) {
         var deviceName = ((device == null || device.name == null) ? "device" : device.name);
         var message = pushNotificationBody.replace(Placeholders.DEVICE_NAME, deviceName);
@@ -107,8 +112,8 @@ public class HardwareChannelStateHandler extends ChannelInboundHandlerAdapter {
         } else {
             //delayed notification
             //https://github.com/blynkkk/blynk-server/issues/493
-            ctx.executor().schedule(new DelayedPush(session, device, notification, message, dash),
-                                    notification.notifyWhenOfflineIgnorePeriod, TimeUnit.MILLISECONDS);
+            sessionLoop.schedule(new DelayedPush(session, device, notification, message, dash),
+                                 notification.notifyWhenOfflineIgnorePeriod, TimeUnit.MILLISECONDS);
         }
     }
 
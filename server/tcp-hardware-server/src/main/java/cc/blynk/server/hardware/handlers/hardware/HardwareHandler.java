@@ -3,7 +3,9 @@ package cc.blynk.server.hardware.handlers.hardware;
 import cc.blynk.server.Holder;
 import cc.blynk.server.common.BaseSimpleChannelInboundHandler;
 import cc.blynk.server.common.handlers.logic.PingLogic;
+import cc.blynk.server.core.protocol.model.messages.MessageBase;
 import cc.blynk.server.core.protocol.model.messages.StringMessage;
+import cc.blynk.server.core.protocol.model.messages.common.HardwareBufMessage;
 import cc.blynk.server.core.session.HardwareStateHolder;
 import cc.blynk.server.core.session.StateHolderBase;
 import cc.blynk.server.hardware.handlers.hardware.logic.BlynkInternalLogic;
@@ -22,6 +24,7 @@ import static cc.blynk.server.core.protocol.enums.Command.BLYNK_INTERNAL;
 import static cc.blynk.server.core.protocol.enums.Command.BRIDGE;
 import static cc.blynk.server.core.protocol.enums.Command.EMAIL;
 import static cc.blynk.server.core.protocol.enums.Command.HARDWARE;
+import static cc.blynk.server.core.protocol.enums.Command.HARDWARE_BATCH;
 import static cc.blynk.server.core.protocol.enums.Command.HARDWARE_LOGIN;
 import static cc.blynk.server.core.protocol.enums.Command.HARDWARE_SYNC;
 import static cc.blynk.server.core.protocol.enums.Command.LOGIN;
@@ -39,7 +42,7 @@ import static cc.blynk.server.internal.CommonByteBufUtil.illegalCommand;
  * Created by Dmitriy Dumanskiy.
  * Created on 29.07.15.
  */
-public class HardwareHandler extends BaseSimpleChannelInboundHandler<StringMessage> {
+public class HardwareHandler extends BaseSimpleChannelInboundHandler<MessageBase> {
 
     private final HardwareStateHolder state;
     private final Holder holder;
@@ -53,7 +56,7 @@ public class HardwareHandler extends BaseSimpleChannelInboundHandler<StringMessa
     private SmsLogic sms;
 
     public HardwareHandler(Holder holder, HardwareStateHolder stateHolder) {
-        super(StringMessage.class);
+        super(MessageBase.class);
         this.state = stateHolder;
         this.holder = holder;
 
@@ -63,11 +66,22 @@ public class HardwareHandler extends BaseSimpleChannelInboundHandler<StringMessa
     }
 
     @Override
-    public void messageReceived(ChannelHandlerContext ctx, StringMessage msg) {
+    public void messageReceived(ChannelHandlerContext ctx, MessageBase msg) {
+        if (msg instanceof StringMessage) {
+            messageReceived(ctx, (StringMessage) msg);
+        } else if (msg instanceof HardwareBufMessage) {
+            hardware.messageReceived(ctx, state, (HardwareBufMessage) msg);
+        }
+    }
+
+    private void messageReceived(ChannelHandlerContext ctx, StringMessage msg) {
         switch (msg.command) {
             case HARDWARE:
                 hardware.messageReceived(ctx, state, msg);
                 break;
+            case HARDWARE_BATCH:
+                hardware.batchReceived(ctx, state, msg);
+                break;
             case PING:
                 PingLogic.messageReceived(ctx, msg.id);
                 break;
@@ -12,14 +12,14 @@ import cc.blynk.server.core.protocol.model.messages.appllication.LoginMessage;
 import cc.blynk.server.core.session.HardwareStateHolder;
 import cc.blynk.server.db.DBManager;
 import cc.blynk.server.hardware.handlers.hardware.HardwareHandler;
-import cc.blynk.server.internal.ReregisterChannelUtil;
+import cc.blynk.server.internal.SessionLoopUtil;
 import cc.blynk.utils.IPUtils;
 import cc.blynk.utils.StringUtils;
 import cc.blynk.utils.structure.LRUCache;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.channel.ChannelPipeline;
+import io.netty.channel.EventLoop;
 import io.netty.channel.SimpleChannelInboundHandler;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -71,7 +71,7 @@ public class HardwareLoginHandler extends SimpleChannelInboundHandler<LoginMessa
                                       DashBoard dash, Device device, int msgId) {
         log.debug("completeLogin. {}", channel);
 
-        session.addHardChannel(channel);
+        session.addHardChannel(channel, dash.id, device.id);
         channel.write(ok(msgId));
 
         String body = dash.buildPMMessage(device.id);
@@ -122,26 +122,22 @@ public class HardwareLoginHandler extends SimpleChannelInboundHandler<LoginMessa
             user.lastModifiedTs = System.currentTimeMillis();
         }
 
-        createSessionAndReregister(ctx, user, dash, device, message.id);
+        createSessionAndHandOff(ctx, user, dash, device, message.id);
     }
 
-    private void createSessionAndReregister(ChannelHandlerContext ctx,
-                                            User user, DashBoard dash, Device device, int msgId) {
+    private void createSessionAndHandOff(ChannelHandlerContext ctx,
+                                        User user, DashBoard dash, Device device, int msgId) {
         HardwareStateHolder hardwareStateHolder = new HardwareStateHolder(user, dash, device);
 
-        ChannelPipeline pipeline = ctx.pipeline();
-        pipeline.replace(this, "HHArdwareHandler", new HardwareHandler(holder, hardwareStateHolder));
-
+        Channel channel = ctx.channel();
         Session session = holder.sessionDao.getOrCreateSessionByUser(
-                hardwareStateHolder.userKey, ctx.channel().eventLoop());
+                hardwareStateHolder.userKey, channel.eventLoop());
+        EventLoop sessionLoop = session.initialEventLoop;
 
-        if (session.isSameEventLoop(ctx)) {
-            completeLogin(ctx.channel(), session, user, dash, device, msgId);
-        } else {
-            log.debug("Re registering hard channel. {}", ctx.channel());
-            ReregisterChannelUtil.reRegisterChannel(ctx, session, channelFuture ->
-                    completeLogin(channelFuture.channel(), session, user, dash, device, msgId));
-        }
+        log.debug("Handing off hard channel to session loop. {}", channel);
+        SessionLoopUtil.replace(ctx, sessionLoop, "HHArdwareHandler", new HardwareHandler(holder, hardwareStateHolder),
+                holder.limits.maxConsolidatedFlushes, holder.limits.maxFlushDelayMicros);
+        SessionLoopUtil.execute(sessionLoop, () -> completeLogin(channel, session, user, dash, device, msgId));
     }
 
     private void checkTokenOnOtherServer(ChannelHandlerContext ctx, String token, int msgId) {
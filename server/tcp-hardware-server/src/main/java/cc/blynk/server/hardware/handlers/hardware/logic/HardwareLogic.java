@@ -12,12 +12,15 @@ import cc.blynk.server.core.model.enums.PinType;
 import cc.blynk.server.core.processors.BaseProcessorHandler;
 import cc.blynk.server.core.processors.WebhookProcessor;
 import cc.blynk.server.core.protocol.model.messages.StringMessage;
+import cc.blynk.server.core.protocol.model.messages.common.HardwareBufMessage;
 import cc.blynk.server.core.session.HardwareStateHolder;
 import cc.blynk.utils.NumberUtil;
 import io.netty.channel.ChannelHandlerContext;
 
 import static cc.blynk.server.core.protocol.enums.Command.HARDWARE;
 import static cc.blynk.server.internal.CommonByteBufUtil.illegalCommand;
+import static cc.blynk.utils.StringUtils.BODY_SEPARATOR;
+import static cc.blynk.utils.StringUtils.BODY_SEPARATOR_STRING;
 import static cc.blynk.utils.StringUtils.split3;
 
 /**
@@ -88,7 +91,107 @@ public class HardwareLogic extends BaseProcessorHandler {
             processEventorAndWebhook(user, dash, deviceId, session, pin, pinType, value, now);
 
             if (dash.isActive) {
-                session.sendToApps(HARDWARE, message.id, dash.id, deviceId, body);
+                session.sendToApps(HARDWARE, message.id, dash, deviceId, body);
+            } else {
+                log.trace("No active dashboard.");
+            }
+        }
+    }
+
+    /**
+     * Few pin writes within one message - "vw\01\0value1\0vw\02\0value2". Every write is stored,
+     * reported and processed by eventor and webhooks as regular hardware write, while time, session lookup
+     * and the fan-out to the apps are done once for the whole batch.
+     * Batch is validated before any write is applied, so wrong batch is rejected as whole.
+     */
+    public void batchReceived(ChannelHandlerContext ctx, HardwareStateHolder state, StringMessage message) {
+        User user = state.user;
+        DashBoard dash = state.dash;
+        Device device = state.device;
+        String[] parts = message.body.split(BODY_SEPARATOR_STRING);
+
+        //every write is "vw", pin and value, array values are not supported within batch
+        if (parts.length < 3 || parts.length % 3 != 0) {
+            log.debug("Batch command is wrong {} for {} and deviceId {}.", message.body, user.email, device.id);
+            ctx.writeAndFlush(illegalCommand(message.id), ctx.voidPromise());
+            return;
+        }
+
+        int writes = parts.length / 3;
+        PinType[] pinTypes = new PinType[writes];
+        short[] pins = new short[writes];
+        for (int i = 0; i < writes; i++) {
+            String operation = parts[i * 3];
+            if (operation.length() != 2 || operation.charAt(1) != 'w' || parts[i * 3 + 2].length() == 0) {
+                log.debug("Batch command is wrong {} for {} and deviceId {}.", message.body, user.email, device.id);
+                ctx.writeAndFlush(illegalCommand(message.id), ctx.voidPromise());
+                return;
+            }
+            pinTypes[i] = PinType.getPinType(operation.charAt(0));
+            pins[i] = NumberUtil.parsePin(parts[i * 3 + 1]);
+        }
+
+        long now = System.currentTimeMillis();
+        int deviceId = device.id;
+        Session session = sessionDao.get(state.userKey);
+        String[] bodies = dash.isActive ? new String[writes] : null;
+
+        for (int i = 0; i < writes; i++) {
+            String value = parts[i * 3 + 2];
+            reportingDao.process(user, dash, deviceId, pins[i], pinTypes[i], value, now);
+            user.profile.update(dash, deviceId, pins[i], pinTypes[i], value, now);
+            processEventorAndWebhook(user, dash, deviceId, session, pins[i], pinTypes[i], value, now);
+            if (bodies != null) {
+                bodies[i] = parts[i * 3] + BODY_SEPARATOR + parts[i * 3 + 1] + BODY_SEPARATOR + value;
+            }
+        }
+        device.dataReceivedAt = now;
+
+        if (bodies != null) {
+            session.sendToApps(HARDWARE, message.id, dash.id, deviceId, bodies);
+        } else {
+            log.trace("No active dashboard.");
+        }
+    }
+
+    /**
+     * Same as String version, but pin and value are parsed straight from the message bytes
+     * and body is forwarded to the apps without decoding.
+     */
+    public void messageReceived(ChannelHandlerContext ctx, HardwareStateHolder state, HardwareBufMessage message) {
+        User user = state.user;
+        DashBoard dash = state.dash;
+        Device device = state.device;
+
+        //minimum command - "ar 1"
+        if (message.length() < 4) {
+            log.debug("HardwareLogic command body too short.");
+            ctx.writeAndFlush(illegalCommand(message.id), ctx.voidPromise());
+            return;
+        }
+
+        if (message.isWriteOperation()) {
+            if (!message.parseWriteCommand()) {
+                log.debug("Write command is wrong {} for {} and deviceId {}.", message, user.email, device.id);
+                ctx.writeAndFlush(illegalCommand(message.id), ctx.voidPromise());
+                return;
+            }
+
+            PinType pinType = message.getPinType();
+            short pin = message.getPin();
+            String value = message.getValue();
+            long now = System.currentTimeMillis();
+            int deviceId = device.id;
+
+            reportingDao.process(user, dash, deviceId, pin, pinType, value, now, message.getValueAsDouble());
+            user.profile.update(dash, deviceId, pin, pinType, value, now);
+            device.dataReceivedAt = now;
+
+            Session session = sessionDao.get(state.userKey);
+            processEventorAndWebhook(user, dash, deviceId, session, pin, pinType, value, now);
+
+            if (dash.isActive) {
+                session.sendToApps(ctx.alloc(), HARDWARE, message.id, dash, deviceId, message.body);
             } else {
                 log.trace("No active dashboard.");
             }
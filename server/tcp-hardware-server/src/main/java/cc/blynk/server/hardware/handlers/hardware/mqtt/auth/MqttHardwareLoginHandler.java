@@ -9,11 +9,11 @@ import cc.blynk.server.core.model.device.Device;
 import cc.blynk.server.core.protocol.handlers.DefaultExceptionHandler;
 import cc.blynk.server.core.session.HardwareStateHolder;
 import cc.blynk.server.hardware.handlers.hardware.MqttHardwareHandler;
-import cc.blynk.server.internal.ReregisterChannelUtil;
+import cc.blynk.server.internal.SessionLoopUtil;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.channel.ChannelPipeline;
+import io.netty.channel.EventLoop;
 import io.netty.channel.SimpleChannelInboundHandler;
 import io.netty.handler.codec.mqtt.MqttConnAckMessage;
 import io.netty.handler.codec.mqtt.MqttConnAckVariableHeader;
@@ -56,7 +56,7 @@ public class MqttHardwareLoginHandler extends SimpleChannelInboundHandler<MqttCo
                                       DashBoard dash, Device device, int msgId) {
         log.debug("completeLogin. {}", channel);
 
-        session.addHardChannel(channel);
+        session.addHardChannel(channel, dash.id, device.id);
         channel.writeAndFlush(ACCEPTED);
 
         String responseBody = String.valueOf(dash.id) + DEVICE_SEPARATOR + device.id;
@@ -89,20 +89,18 @@ public class MqttHardwareLoginHandler extends SimpleChannelInboundHandler<MqttCo
         Device device = tokenValue.device;
         DashBoard dash = tokenValue.dash;
 
-        ChannelPipeline pipeline = ctx.pipeline();
         HardwareStateHolder hardwareStateHolder = new HardwareStateHolder(user, tokenValue.dash, device);
-        pipeline.replace(this, "HHArdwareMqttHandler", new MqttHardwareHandler(holder, hardwareStateHolder));
 
+        Channel channel = ctx.channel();
         Session session = holder.sessionDao.getOrCreateSessionByUser(
-                hardwareStateHolder.userKey, ctx.channel().eventLoop());
-
-        if (session.isSameEventLoop(ctx)) {
-            completeLogin(ctx.channel(), session, user, dash, device, -1);
-        } else {
-            log.debug("Re registering hard channel. {}", ctx.channel());
-            ReregisterChannelUtil.reRegisterChannel(ctx, session, channelFuture ->
-                    completeLogin(channelFuture.channel(), session, user, dash, device, -1));
-        }
+                hardwareStateHolder.userKey, channel.eventLoop());
+        EventLoop sessionLoop = session.initialEventLoop;
+
+        log.debug("Handing off hard channel to session loop. {}", channel);
+        SessionLoopUtil.replace(ctx, sessionLoop, "HHArdwareMqttHandler",
+                new MqttHardwareHandler(holder, hardwareStateHolder),
+                holder.limits.maxConsolidatedFlushes, holder.limits.maxFlushDelayMicros);
+        SessionLoopUtil.execute(sessionLoop, () -> completeLogin(channel, session, user, dash, device, -1));
     }
 
     @Override
@@ -87,7 +87,7 @@ public class MqttHardwareLogic {
         }
 
         if (dash.isActive) {
-            session.sendToApps(HARDWARE, msg.variableHeader().packetId(), dashId, deviceId, body);
+            session.sendToApps(HARDWARE, msg.variableHeader().packetId(), dash, deviceId, body);
         } else {
             log.debug("No active dashboard.");
         }
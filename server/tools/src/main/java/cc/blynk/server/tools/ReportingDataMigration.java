@@ -0,0 +1,110 @@
+package cc.blynk.server.tools;
+
+import cc.blynk.server.core.reporting.storage.CompressedReportingStorage;
+import cc.blynk.server.core.reporting.storage.ReportingStorage;
+import cc.blynk.server.core.reporting.storage.ReportingStorageType;
+import cc.blynk.server.core.reporting.storage.SegmentReportingStorage;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Moves history graph data from the legacy "dataFolder/userDir/history_*.bin" files
+ * to the segment (reporting.storage.type=segment) or compressed (reporting.storage.type=compressed) storage.
+ * Should be run while server is stopped. Series that already exist in target storage are skipped,
+ * so it is safe to run migration again after failure.
+ *
+ * Usage : java -cp tools.jar cc.blynk.server.tools.ReportingDataMigration /path/to/data [segment|compressed] [--delete]
+ * Segment storage is used by default.
+ *
+ * The Blynk Project.
+ * Created by Dmitriy Dumanskiy.
+ * Created on 17.10.26.
+ */
+public final class ReportingDataMigration {
+
+    private static final String HISTORY_FILE_PREFIX = "history_";
+    private static final String HISTORY_FILE_EXTENSION = ".bin";
+
+    private ReportingDataMigration() {
+    }
+
+    public static void main(String[] args) {
+        String reportingFolder = args[0];
+        boolean deleteMigrated = false;
+        ReportingStorageType target = ReportingStorageType.SEGMENT;
+        for (int i = 1; i < args.length; i++) {
+            if ("--delete".equals(args[i])) {
+                deleteMigrated = true;
+            } else {
+                target = ReportingStorageType.fromString(args[i]);
+            }
+        }
+        Path reportingPath = Paths.get(reportingFolder);
+        if (Files.exists(reportingPath)) {
+            System.out.println("Starting migration of " + reportingPath.toString() + " to " + target + " storage.");
+            start(reportingPath, target, deleteMigrated);
+        } else {
+            System.out.println(reportingPath.toString() + " not exists.");
+        }
+    }
+
+    private static void start(Path reportingPath, ReportingStorageType target, boolean deleteMigrated) {
+        File[] allReporting = reportingPath.toFile().listFiles();
+        if (allReporting == null || allReporting.length == 0) {
+            System.out.println("No files.");
+            return;
+        }
+
+        int filesCount = 0;
+        int migratedCount = 0;
+        int skippedCount = 0;
+        long start = System.currentTimeMillis();
+
+        try (ReportingStorage storage = target.create(reportingPath.toString())) {
+            for (File userDirectory : allReporting) {
+                if (!userDirectory.isDirectory()
+                        || userDirectory.getName().equals(SegmentReportingStorage.SEGMENTS_FOLDER)
+                        || userDirectory.getName().equals(CompressedReportingStorage.COMPRESSED_FOLDER)) {
+                    continue;
+                }
+                File[] userFiles = userDirectory.listFiles();
+                if (userFiles == null) {
+                    continue;
+                }
+                String userDir = userDirectory.getName();
+                for (File file : userFiles) {
+                    String fileName = file.getName();
+                    if (!fileName.startsWith(HISTORY_FILE_PREFIX) || !fileName.endsWith(HISTORY_FILE_EXTENSION)) {
+                        continue;
+                    }
+                    filesCount++;
+                    if (filesCount % 1000 == 0) {
+                        System.out.println("Visited " + filesCount + " files.");
+                    }
+                    try {
+                        if (storage.read(userDir, fileName, 1, 0) != null) {
+                            skippedCount++;
+                            continue;
+                        }
+                        storage.write(userDir, fileName, ByteBuffer.wrap(Files.readAllBytes(file.toPath())));
+                        migratedCount++;
+                        if (deleteMigrated) {
+                            Files.delete(file.toPath());
+                        }
+                    } catch (Exception e) {
+                        System.out.println("Error migrating file " + file.getAbsolutePath()
+                                + ". Reason : " + e.getMessage());
+                    }
+                }
+            }
+        }
+
+        System.out.println("Visited : " + filesCount + ". Migrated : " + migratedCount
+                + ". Skipped : " + skippedCount + ". Time : " + (System.currentTimeMillis() - start) + " ms.");
+    }
+
+}
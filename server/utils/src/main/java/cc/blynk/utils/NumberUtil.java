@@ -51,9 +51,16 @@ public final class NumberUtil {
     }
 
     public static double parseDouble(final String s) {
+        return parseDouble(s, 0, s.length());
+    }
+
+    /**
+     * Parses chars from off (inclusive) to end (exclusive), so any char source
+     * (for example bytes of the network buffer) could be parsed without copying.
+     */
+    public static double parseDouble(final CharSequence s, int off, final int end) {
 
-        int off = 0;
-        int len = s.length();
+        int len = end - off;
 
         if (len == 0) {
             return NO_RESULT;